@@ -0,0 +1,131 @@
+package com.github.teocci.libstream.benchmarks;
+
+import com.github.teocci.libstream.coder.FrameInfo;
+import com.github.teocci.libstream.protocols.rtsp.rtp.packets.AacPacket;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The AAC packetizer alone: the frames sent one per packet, aggregated up to a latency
+ * bound, or fragmented when larger than a packet.
+ * <p>
+ * The score is the number of AAC frames per second. The counters give the RTP packets and
+ * the bytes of RTP and AU headers sent at the same rate, so per frame:
+ * <pre>
+ *   packets per frame = packets / score
+ *   header overhead   = headerBytes / (headerBytes + frameSize * score)
+ * </pre>
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-28
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class AacPacketBenchmark
+{
+    // 1024 samples at 44.1 kHz
+    private static final long FRAME_US = 23_220;
+
+    @State(Scope.Thread)
+    public static class AacState
+    {
+        // About 64 kbps and 128 kbps, and a frame larger than a packet
+        @Param({"186", "370", "2000"})
+        public int frameSize;
+
+        // 0 sends one frame per packet
+        @Param({"0", "100", "200"})
+        public long maxLatency;
+
+        CountingRtpSocket socket;
+        AacPacket packet;
+        ByteBuffer frame;
+        final FrameInfo info = new FrameInfo();
+        long pts;
+
+        @Setup(Level.Trial)
+        public void setUp()
+        {
+            socket = new CountingRtpSocket();
+            packet = new AacPacket(socket);
+            packet.setSampleRate(44100);
+            packet.setMaxLatency(maxLatency);
+
+            byte[] data = new byte[frameSize];
+            new Random(42).nextBytes(data);
+            frame = ByteBuffer.wrap(data);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws InterruptedException
+        {
+            socket.stop();
+        }
+    }
+
+    /**
+     * The packets and header bytes sent during the iteration, reported per second.
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters
+    {
+        public long packets;
+        public long headerBytes;
+
+        @Setup(Level.Iteration)
+        public void reset()
+        {
+            packets = 0;
+            headerBytes = 0;
+        }
+    }
+
+    @Benchmark
+    public void send(AacState state, Counters counters)
+    {
+        CountingRtpSocket socket = state.socket;
+        long packets = socket.committedPackets;
+        long bytes = socket.committedBytes;
+
+        state.frame.clear();
+        state.pts += FRAME_US;
+        state.packet.createAndSendPacket(state.frame, state.info.set(0, state.frameSize, state.pts, 0));
+
+        // An aggregated frame is counted with the packet that carries it
+        counters.packets += socket.committedPackets - packets;
+        counters.headerBytes += socket.committedBytes - bytes - state.frameSize;
+    }
+
+    /**
+     * Counts the packets as they are committed, on the thread of the packetizer.
+     */
+    static class CountingRtpSocket extends DrainRtpSocket
+    {
+        long committedPackets;
+        long committedBytes;
+
+        @Override
+        protected void commitLength(int length)
+        {
+            super.commitLength(length);
+            committedPackets++;
+            committedBytes += length;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.github.teocci.libstream.benchmarks;
+
+import com.github.teocci.libstream.protocols.rtsp.rtp.sockets.BaseRtpSocket;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A RTP socket whose sender thread takes the packets out of the FIFO without sending
+ * them: the benchmarks measure the packetizers and the FIFO, not the network.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-26
+ */
+public class DrainRtpSocket extends BaseRtpSocket
+{
+    private final int[] lengths;
+
+    // Written by the sender thread only
+    private long sentBytes, sentPackets;
+
+    public DrainRtpSocket()
+    {
+        this(DEFAULT_BUFFER_COUNT);
+    }
+
+    public DrainRtpSocket(int bufferCount)
+    {
+        super(bufferCount);
+        lengths = new int[this.bufferCount];
+    }
+
+    @Override
+    public void run()
+    {
+        try {
+            int count;
+            while ((count = awaitPackets(1, TimeUnit.SECONDS)) > 0) {
+                for (; count > 0; count--) {
+                    send();
+                    nextPacket();
+                }
+            }
+        } catch (InterruptedException ignore) {
+        }
+
+        resetFifo();
+        thread = null;
+    }
+
+    /**
+     * Stops the sender thread, the next packet committed starts a new one.
+     */
+    public void stop() throws InterruptedException
+    {
+        Thread thread = this.thread;
+        if (thread != null) {
+            thread.interrupt();
+            thread.join();
+        }
+    }
+
+    @Override
+    public void setSSRC(int ssrc)
+    {
+        this.ssrc = ssrc;
+        updateSSRC(ssrc);
+    }
+
+    @Override
+    protected void send()
+    {
+        sentBytes += lengths[bufferOut];
+        sentPackets++;
+    }
+
+    @Override
+    protected void commitLength(int length)
+    {
+        lengths[bufferIn] = length;
+    }
+
+    public long getSentBytes()
+    {
+        return sentBytes;
+    }
+
+    public long getSentPackets()
+    {
+        return sentPackets;
+    }
+}
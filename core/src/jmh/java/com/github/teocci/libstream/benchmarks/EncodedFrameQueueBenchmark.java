@@ -0,0 +1,75 @@
+package com.github.teocci.libstream.benchmarks;
+
+import com.github.teocci.libstream.coder.EncodedFrameQueue;
+import com.github.teocci.libstream.coder.FrameInfo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost the output queue of the video encoder adds to the codec thread: the copy of
+ * an access unit out of a codec buffer, a direct one like MediaCodec hands out, and its
+ * hand over to the dispatch thread. The benchmark thread waits for a free slot before each
+ * frame, so no frame is dropped and the throughput is the one of the whole hand over.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-27
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EncodedFrameQueueBenchmark
+{
+    @Param({"1000", "8000", "80000"})
+    public int frameSize;
+
+    private EncodedFrameQueue queue;
+    private ByteBuffer codecBuffer;
+    private final FrameInfo info = new FrameInfo();
+    private long pts;
+
+    // Written by the dispatch thread only
+    private long consumed;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        codecBuffer = ByteBuffer.allocateDirect(frameSize);
+        for (int i = 0; i < frameSize; i++) {
+            codecBuffer.put(i, (byte) i);
+        }
+
+        queue = new EncodedFrameQueue("EncodedFrameQueueBenchmark", EncodedFrameQueue.DEFAULT_CAPACITY,
+                (data, frame) -> consumed += frame.size);
+        queue.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        queue.stop();
+    }
+
+    @Benchmark
+    public boolean offer()
+    {
+        while (queue.getDepth() >= queue.getCapacity()) {
+            Thread.yield();
+        }
+
+        info.set(0, frameSize, pts += 33333, FrameInfo.FLAG_KEY_FRAME);
+        return queue.offer(codecBuffer, info);
+    }
+}
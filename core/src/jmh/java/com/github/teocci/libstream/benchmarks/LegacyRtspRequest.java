@@ -0,0 +1,96 @@
+package com.github.teocci.libstream.benchmarks;
+
+import com.github.teocci.libstream.enums.RtspMethod;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.SocketException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.github.teocci.libstream.utils.Config.SERVER_NAME;
+
+/**
+ * The request parsing and response building of the thread-per-connection server, before
+ * {@link com.github.teocci.libstream.threads.RtspRequestParser}: the lines are read from a
+ * BufferedReader, matched with regular expressions and stored in a HashMap, the response
+ * is a concatenated String.
+ * <p>
+ * A copy of the former Request.parseRequest and Response.send, as the baseline of the
+ * benchmarks. Only the logging of every line is left out, it would be the cost measured.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-28
+ */
+class LegacyRtspRequest
+{
+    // Parse method & uri
+    private static final Pattern regexMethod = Pattern.compile("(\\w+) (\\S+) RTSP", Pattern.CASE_INSENSITIVE);
+    // Parse a request header
+    private static final Pattern regexHeader = Pattern.compile("(\\S+):(.+)", Pattern.CASE_INSENSITIVE);
+
+    RtspMethod method;
+    String uri;
+    HashMap<String, String> headers = new HashMap<String, String>();
+
+    /**
+     * Parse the method, uri & headers of a RTSP request
+     */
+    static LegacyRtspRequest parseRequest(BufferedReader input) throws IOException
+    {
+        LegacyRtspRequest request = new LegacyRtspRequest();
+        String line;
+        Matcher matcher;
+
+        // Parsing request method & uri
+        if ((line = input.readLine()) == null) throw new SocketException("Client disconnected");
+
+        matcher = regexMethod.matcher(line);
+        if (matcher.find()) {
+            request.method = RtspMethod.valueOf(matcher.group(1));
+            request.uri = matcher.group(2);
+
+            // Parsing headers of the request
+            while ((line = input.readLine()) != null && line.length() > 3) {
+                matcher = regexHeader.matcher(line);
+                if (matcher.find()) {
+                    request.headers.put(matcher.group(1).toLowerCase(Locale.US), matcher.group(2));
+                }
+            }
+            if (line == null) throw new SocketException("Client disconnected");
+        }
+
+        return request;
+    }
+
+    int getCSeq()
+    {
+        try {
+            return Integer.parseInt(headers.get("cseq").replace(" ", ""));
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Sends the response to this request, the former Response.send.
+     */
+    void respond(OutputStream output, String status, String attributes, String content) throws IOException
+    {
+        int seqId = getCSeq();
+
+        String response = "RTSP/1.0 " + status + "\r\n" +
+                "Server: " + SERVER_NAME + "\r\n" +
+                (seqId >= 0 ? ("Cseq: " + seqId + "\r\n") : "") +
+                "Content-Length: " + content.length() + "\r\n" +
+                attributes +
+                "\r\n" +
+                content;
+
+        output.write(response.getBytes());
+    }
+}
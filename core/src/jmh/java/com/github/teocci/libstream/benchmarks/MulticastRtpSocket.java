@@ -1,8 +1,8 @@
-package com.github.teocci.libstream.protocols.rtsp.rtp.sockets;
+package com.github.teocci.libstream.benchmarks;
 
-import com.github.teocci.libstream.protocols.rtsp.rtcp.SenderReportUdp;
-import com.github.teocci.libstream.utils.LogHelper;
 import com.github.teocci.libstream.interfaces.ConnectCheckerRtsp;
+import com.github.teocci.libstream.protocols.rtsp.rtcp.SenderReportUdp;
+import com.github.teocci.libstream.protocols.rtsp.rtp.sockets.BaseRtpSocket;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
@@ -12,29 +12,29 @@ import java.net.UnknownHostException;
 import java.util.concurrent.TimeUnit;
 
 /**
+ * The UDP transport of the RTP sockets before {@link java.nio.channels.DatagramChannel}:
+ * a {@link MulticastSocket} sending one {@link DatagramPacket} per buffer of the FIFO,
+ * each with the destination address. It is the baseline of the UDP benchmarks.
+ * <p>
+ * A copy of the former RtpSocketUdp on the current FIFO of {@link BaseRtpSocket}, the
+ * sender thread still sends the packets one by one. The log line of each packet is left
+ * out, it would be the cost measured.
+ * <p>
  * Created by teocci.
  *
- * @author teocci@yandex.com on 2017-Jan-14
+ * @author teocci@yandex.com on 2019-Jun-28
  */
-public class RtpSocketUdp extends BaseRtpSocket implements Runnable
+public class MulticastRtpSocket extends BaseRtpSocket implements Runnable
 {
-    private static String TAG = LogHelper.makeLogTag(RtpSocketTcp.class);
-
     private SenderReportUdp senderReportUdp;
     private MulticastSocket socket;
     private DatagramPacket[] packets;
 
-    private ConnectCheckerRtsp connectCheckerRtsp;
-
     private int port = -1;
 
-    /**
-     * This RTP socket implements a buffering mechanism relying on a FIFO of buffers and a Thread.
-     */
-    public RtpSocketUdp(ConnectCheckerRtsp connectCheckerRtsp)
+    public MulticastRtpSocket(ConnectCheckerRtsp connectCheckerRtsp)
     {
         super();
-        this.connectCheckerRtsp = connectCheckerRtsp;
         senderReportUdp = new SenderReportUdp(connectCheckerRtsp);
         senderReportUdp.reset();
         packets = new DatagramPacket[bufferCount];
@@ -51,26 +51,35 @@ public class RtpSocketUdp extends BaseRtpSocket implements Runnable
     }
 
     /**
-     * The Thread sends the packets in the FIFO one by one at a constant rate.
+     * The Thread sends the packets in the FIFO one by one.
      */
     @Override
     public void run()
     {
         try {
-            while (bufferCommitted.tryAcquire(4, TimeUnit.SECONDS)) {
+            while (awaitPackets(4, TimeUnit.SECONDS) > 0) {
                 send();
-                if (++bufferOut >= bufferCount) bufferOut = 0;
-                bufferRequested.release();
+                nextPacket();
             }
-        } catch (IOException | InterruptedException e) {
-            LogHelper.e(TAG, "UDP send error: ", e);
-            connectCheckerRtsp.onConnectionFailedRtsp("Error send packet, " + e.getMessage());
+        } catch (IOException | InterruptedException ignore) {
         }
-        thread = null;
         resetFifo();
+        thread = null;
         senderReportUdp.reset();
     }
 
+    /**
+     * Stops the sender thread, the next packet committed starts a new one.
+     */
+    public void stop() throws InterruptedException
+    {
+        Thread thread = this.thread;
+        if (thread != null) {
+            thread.interrupt();
+            thread.join();
+        }
+    }
+
     @Override
     public void setSSRC(int ssrc)
     {
@@ -83,16 +92,8 @@ public class RtpSocketUdp extends BaseRtpSocket implements Runnable
     protected void send() throws IOException
     {
         if (packets[bufferOut] == null) return;
-        try {
-            senderReportUdp.update(packets[bufferOut].getLength(), timestamps[bufferOut], port);
-            socket.send(packets[bufferOut]);
-            LogHelper.i(TAG, "send packet, "
-                    + packets[bufferOut].getLength() + " Size, "
-                    + packets[bufferOut].getPort() + " Port"
-            );
-        } catch (NullPointerException e) {
-            e.printStackTrace();
-        }
+        senderReportUdp.update(packets[bufferOut].getLength(), timestamps[bufferOut]);
+        socket.send(packets[bufferOut]);
     }
 
     @Override
@@ -110,14 +111,6 @@ public class RtpSocketUdp extends BaseRtpSocket implements Runnable
         senderReportUdp.close();
     }
 
-    /**
-     * Sets the Time To Live of the UDP packets.
-     */
-    public void setTimeToLive(int ttl) throws IOException
-    {
-        socket.setTimeToLive(ttl);
-    }
-
     /**
      * Sets the destination address and to which the packets will be sent.
      */
@@ -142,12 +135,4 @@ public class RtpSocketUdp extends BaseRtpSocket implements Runnable
     {
         return port;
     }
-
-    public int[] getLocalPorts()
-    {
-        return new int[]{
-                socket.getLocalPort(),
-                senderReportUdp.getLocalPort()
-        };
-    }
-}
\ No newline at end of file
+}
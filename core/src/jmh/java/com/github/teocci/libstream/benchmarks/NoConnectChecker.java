@@ -0,0 +1,29 @@
+package com.github.teocci.libstream.benchmarks;
+
+import com.github.teocci.libstream.interfaces.ConnectCheckerRtsp;
+
+/**
+ * Ignores the connection events of the sockets: the interrupt of their sender thread at
+ * the end of a trial is reported as a connection failure.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-28
+ */
+class NoConnectChecker implements ConnectCheckerRtsp
+{
+    @Override
+    public void onConnectionSuccessRtsp() {}
+
+    @Override
+    public void onConnectionFailedRtsp(String reason) {}
+
+    @Override
+    public void onDisconnectRtsp() {}
+
+    @Override
+    public void onAuthErrorRtsp() {}
+
+    @Override
+    public void onAuthSuccessRtsp() {}
+}
@@ -0,0 +1,144 @@
+package com.github.teocci.libstream.benchmarks;
+
+import com.github.teocci.libstream.coder.FrameInfo;
+import com.github.teocci.libstream.protocols.rtsp.rtp.packets.AacPacket;
+import com.github.teocci.libstream.protocols.rtsp.rtp.packets.H264Packet;
+import com.github.teocci.libstream.protocols.rtsp.rtp.packets.HevcPacket;
+import com.github.teocci.libstream.protocols.rtsp.rtp.packets.VideoPacket;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Packetization of the encoded frames: the NAL units of H.264 and H.265 fragmented into
+ * FU packets, and the AAC frames sent one per packet or aggregated.
+ * <p>
+ * The packets go through the FIFO of a {@link DrainRtpSocket}, so the score includes the
+ * hand-off to the sender thread.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-26
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PacketizerBenchmark
+{
+    // 30 fps
+    private static final long VIDEO_FRAME_US = 33_333;
+    // 1024 samples at 44.1 kHz
+    private static final long AUDIO_FRAME_US = 23_220;
+
+    @State(Scope.Thread)
+    public static class VideoState
+    {
+        @Param({"h264", "hevc"})
+        public String codec;
+
+        // A P-frame at 2 Mbps is around 8 KB, a key frame ten times more
+        @Param({"1000", "8000", "80000"})
+        public int frameSize;
+
+        DrainRtpSocket socket;
+        VideoPacket packet;
+        ByteBuffer frame;
+        final FrameInfo info = new FrameInfo();
+        long pts;
+
+        @Setup(Level.Trial)
+        public void setUp()
+        {
+            socket = new DrainRtpSocket();
+            boolean hevc = codec.equals("hevc");
+            packet = hevc ? new HevcPacket(socket) : new H264Packet(socket);
+            packet.setParameterSets(new byte[20], new byte[4], hevc ? new byte[24] : null);
+
+            byte[] data = new byte[frameSize];
+            new Random(42).nextBytes(data);
+            // Start code, then a non-IDR slice: nal_ref_idc 2 type 1 for H.264,
+            // TRAIL_R for H.265
+            data[0] = data[1] = data[2] = 0;
+            data[3] = 1;
+            if (hevc) {
+                // 00000010 = 0x02, type 1
+                data[4] = 0x02;
+                data[5] = 0x01;
+            } else {
+                // 01000001 = 0x41
+                data[4] = 0x41;
+            }
+            frame = ByteBuffer.wrap(data);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws InterruptedException
+        {
+            socket.stop();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class AudioState
+    {
+        // Around 128 kbps
+        @Param({"370"})
+        public int frameSize;
+
+        // 0 sends one frame per packet
+        @Param({"0", "60"})
+        public long maxLatency;
+
+        DrainRtpSocket socket;
+        AacPacket packet;
+        ByteBuffer frame;
+        final FrameInfo info = new FrameInfo();
+        long pts;
+
+        @Setup(Level.Trial)
+        public void setUp()
+        {
+            socket = new DrainRtpSocket();
+            packet = new AacPacket(socket);
+            packet.setSampleRate(44100);
+            packet.setMaxLatency(maxLatency);
+
+            byte[] data = new byte[frameSize];
+            new Random(42).nextBytes(data);
+            frame = ByteBuffer.wrap(data);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws InterruptedException
+        {
+            socket.stop();
+        }
+    }
+
+    @Benchmark
+    public void video(VideoState state)
+    {
+        state.frame.clear();
+        state.pts += VIDEO_FRAME_US;
+        state.packet.createAndSendPacket(state.frame, state.info.set(0, state.frameSize, state.pts, 0));
+    }
+
+    @Benchmark
+    public void audio(AudioState state)
+    {
+        state.frame.clear();
+        state.pts += AUDIO_FRAME_US;
+        state.packet.createAndSendPacket(state.frame, state.info.set(0, state.frameSize, state.pts, 0));
+    }
+}
@@ -0,0 +1,108 @@
+package com.github.teocci.libstream.benchmarks;
+
+import com.github.teocci.libstream.enums.FifoPolicy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The FIFO of the RTP sockets alone: the benchmark thread is the packetizer, requesting,
+ * stamping and committing packets, and the sender thread of a {@link DrainRtpSocket}
+ * takes them out. The {@link SemaphoreRtpSocket} is the former two Semaphore FIFO, which
+ * never blocks the packetizer.
+ * <p>
+ * The time a packet waits in the FIFO is measured by {@link RtpFifoLatencyBenchmark}.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-26
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class RtpFifoBenchmark
+{
+    private static final int PACKET_LENGTH = 1200;
+
+    @State(Scope.Thread)
+    public static class RingState
+    {
+        @Param({"64", "256"})
+        public int bufferCount;
+
+        @Param({"BLOCK", "DROP_OLDEST"})
+        public FifoPolicy policy;
+
+        DrainRtpSocket socket;
+        long timestamp;
+
+        @Setup(Level.Trial)
+        public void setUp()
+        {
+            socket = new DrainRtpSocket(bufferCount);
+            socket.setClockFrequency(90000);
+            socket.setSSRC(0x12345678);
+            socket.setFifoPolicy(policy);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws InterruptedException
+        {
+            socket.stop();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class SemaphoreState
+    {
+        @Param({"64", "256"})
+        public int bufferCount;
+
+        SemaphoreRtpSocket socket;
+        long timestamp;
+
+        @Setup(Level.Trial)
+        public void setUp()
+        {
+            socket = new SemaphoreRtpSocket(bufferCount);
+            socket.setClockFrequency(90000);
+            socket.setSSRC(0x12345678);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws InterruptedException
+        {
+            socket.stop();
+        }
+    }
+
+    @Benchmark
+    public byte[] commit(RingState state) throws IOException, InterruptedException
+    {
+        DrainRtpSocket socket = state.socket;
+        byte[] buffer = socket.requestBuffer();
+        socket.updateTimestamp(state.timestamp += 1000);
+        socket.commitBuffer(PACKET_LENGTH);
+        return buffer;
+    }
+
+    @Benchmark
+    public byte[] commitSemaphore(SemaphoreState state) throws InterruptedException
+    {
+        SemaphoreRtpSocket socket = state.socket;
+        byte[] buffer = socket.requestBuffer();
+        socket.updateTimestamp(state.timestamp += 1000);
+        socket.commitBuffer(PACKET_LENGTH);
+        return buffer;
+    }
+}
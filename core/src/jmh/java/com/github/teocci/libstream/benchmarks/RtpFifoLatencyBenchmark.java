@@ -0,0 +1,102 @@
+package com.github.teocci.libstream.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time a packet spends in the FIFO of the RTP sockets: each invocation commits one
+ * packet to an idle sender thread and spins until the sender has taken it out, so the
+ * sample is the enqueue to dequeue latency, the wake up of the parked sender included.
+ * <p>
+ * The SampleTime mode reports its distribution, the p0.50, p0.99 and p0.999 lines are
+ * the median and tail latencies of the SPSC ring of {@link DrainRtpSocket} and of the
+ * former two Semaphore FIFO, {@link SemaphoreRtpSocket}.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-28
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RtpFifoLatencyBenchmark
+{
+    private static final int PACKET_LENGTH = 1200;
+
+    @State(Scope.Thread)
+    public static class RingState
+    {
+        DrainRtpSocket socket;
+        long timestamp;
+
+        @Setup(Level.Trial)
+        public void setUp()
+        {
+            socket = new DrainRtpSocket();
+            socket.setClockFrequency(90000);
+            socket.setSSRC(0x12345678);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws InterruptedException
+        {
+            socket.stop();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class SemaphoreState
+    {
+        SemaphoreRtpSocket socket;
+        long timestamp;
+
+        @Setup(Level.Trial)
+        public void setUp()
+        {
+            socket = new SemaphoreRtpSocket(DrainRtpSocket.DEFAULT_BUFFER_COUNT);
+            socket.setClockFrequency(90000);
+            socket.setSSRC(0x12345678);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws InterruptedException
+        {
+            socket.stop();
+        }
+    }
+
+    @Benchmark
+    public int ring(RingState state) throws IOException, InterruptedException
+    {
+        DrainRtpSocket socket = state.socket;
+        socket.requestBuffer();
+        socket.updateTimestamp(state.timestamp += 1000);
+        socket.commitBuffer(PACKET_LENGTH);
+
+        int spins = 0;
+        while (socket.getPendingPackets() > 0) spins++;
+        return spins;
+    }
+
+    @Benchmark
+    public int semaphore(SemaphoreState state) throws InterruptedException
+    {
+        SemaphoreRtpSocket socket = state.socket;
+        socket.requestBuffer();
+        socket.updateTimestamp(state.timestamp += 1000);
+        socket.commitBuffer(PACKET_LENGTH);
+
+        int spins = 0;
+        while (socket.getPendingPackets() > 0) spins++;
+        return spins;
+    }
+}
@@ -0,0 +1,183 @@
+package com.github.teocci.libstream.benchmarks;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.teocci.libstream.utils.rtsp.RtpConstants.MTU;
+import static com.github.teocci.libstream.utils.rtsp.RtpConstants.PAYLOAD_TYPE;
+
+/**
+ * The FIFO of the RTP sockets before the SPSC ring of
+ * {@link com.github.teocci.libstream.protocols.rtsp.rtp.sockets.BaseRtpSocket}: a circular
+ * array of buffers guarded by two Semaphores, one permit per free and per committed
+ * buffer, and a sender thread draining the committed permits like the former
+ * RtpSocketUdp did. It is the baseline of the FIFO benchmarks.
+ * <p>
+ * Like {@link DrainRtpSocket}, the sender thread only takes the packets out. As in the
+ * original, {@link #requestBuffer()} gives its permit back right away: a full FIFO does
+ * not block the packetizer, the packets not sent yet are overwritten.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-28
+ */
+public class SemaphoreRtpSocket implements Runnable
+{
+    private final byte[][] buffers;
+    private final long[] timestamps;
+    private final int[] lengths;
+
+    private Semaphore bufferRequested, bufferCommitted;
+    private volatile Thread thread;
+
+    private long clock = 0;
+    private int seq = 0;
+    private final int bufferCount;
+    private int bufferIn, bufferOut;
+
+    // Written by the packetizer only
+    private long committedPackets;
+
+    // Written by the sender thread only
+    private volatile long sentPackets;
+    private long sentBytes;
+
+    public SemaphoreRtpSocket(int bufferCount)
+    {
+        this.bufferCount = bufferCount;
+        buffers = new byte[bufferCount][];
+        timestamps = new long[bufferCount];
+        lengths = new int[bufferCount];
+        resetFifo();
+
+        for (int i = 0; i < bufferCount; i++) {
+            buffers[i] = new byte[MTU];
+            buffers[i][0] = (byte) Integer.parseInt("10000000", 2);
+            buffers[i][1] = (byte) PAYLOAD_TYPE;
+        }
+    }
+
+    private void resetFifo()
+    {
+        bufferIn = 0;
+        bufferOut = 0;
+        bufferRequested = new Semaphore(bufferCount);
+        bufferCommitted = new Semaphore(0);
+    }
+
+    public void setClockFrequency(long clock)
+    {
+        this.clock = clock;
+    }
+
+    public void setSSRC(int ssrc)
+    {
+        for (int i = 0; i < bufferCount; i++) {
+            setLong(buffers[i], ssrc, 8, 12);
+        }
+    }
+
+    /**
+     * Returns an available buffer from the FIFO, it can then be modified.
+     */
+    public byte[] requestBuffer() throws InterruptedException
+    {
+        // Clears interrupted status!
+        if (Thread.interrupted()) throw new InterruptedException();
+
+        bufferRequested.acquire();
+        try {
+            buffers[bufferIn][1] &= 0x7F;
+            return buffers[bufferIn];
+        } finally {
+            bufferRequested.release();
+        }
+    }
+
+    /**
+     * Overwrites the timestamp in the packet.
+     *
+     * @param timestamp The new timestamp in ns.
+     **/
+    public void updateTimestamp(long timestamp)
+    {
+        long ts = timestamp * clock / 1_000_000_000L;
+        timestamps[bufferIn] = ts;
+
+        // Byte 4,5,6,7 -> Timestamp
+        setLong(buffers[bufferIn], ts, 4, 8);
+    }
+
+    public void commitBuffer(int length)
+    {
+        // Byte 2,3 -> Sequence Number
+        setLong(buffers[bufferIn], ++seq, 2, 4);
+        lengths[bufferIn] = length;
+        committedPackets++;
+
+        if (++bufferIn >= bufferCount) bufferIn = 0;
+        bufferCommitted.release();
+        if (thread == null) {
+            thread = new Thread(this);
+            thread.start();
+        }
+    }
+
+    @Override
+    public void run()
+    {
+        try {
+            while (bufferCommitted.tryAcquire(1, TimeUnit.SECONDS)) {
+                int count = 1 + bufferCommitted.drainPermits();
+                for (; count > 0; count--) {
+                    sentBytes += lengths[bufferOut];
+                    sentPackets++;
+                    if (++bufferOut >= bufferCount) bufferOut = 0;
+                    bufferRequested.release();
+                }
+            }
+        } catch (InterruptedException ignore) {
+        }
+
+        thread = null;
+    }
+
+    /**
+     * Stops the sender thread.
+     */
+    public void stop() throws InterruptedException
+    {
+        Thread thread = this.thread;
+        if (thread != null) {
+            thread.interrupt();
+            thread.join();
+        }
+    }
+
+    /**
+     * Returns the number of packets committed and not taken out yet, only the packetizer
+     * may call it.
+     */
+    public int getPendingPackets()
+    {
+        return (int) (committedPackets - sentPackets);
+    }
+
+    public long getSentBytes()
+    {
+        return sentBytes;
+    }
+
+    public long getSentPackets()
+    {
+        return sentPackets;
+    }
+
+    private static void setLong(byte[] buffer, long n, int begin, int end)
+    {
+        for (end--; end >= begin; end--) {
+            buffer[end] = (byte) (n % 256);
+            n >>= 8;
+        }
+    }
+}
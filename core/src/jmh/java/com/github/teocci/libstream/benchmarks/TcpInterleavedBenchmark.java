@@ -0,0 +1,207 @@
+package com.github.teocci.libstream.benchmarks;
+
+import com.github.teocci.libstream.protocols.rtsp.rtp.sockets.RtpSocketTcp;
+import com.github.teocci.libstream.protocols.rtsp.rtp.sockets.TcpBatchWriter;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RTP packets interleaved in a RTSP connection over the loopback: the benchmark thread is
+ * the packetizer, committing packets to a {@link RtpSocketTcp}, whose sender thread
+ * writes them to a TCP socket with or without batching. A reader thread drains the other
+ * end, like the player. The FIFO blocks when full, so the score is the number of packets
+ * the sender gets through the socket per second.
+ * <p>
+ * The counters give the writes to the socket, i.e. the syscalls, and the bytes written at
+ * the same rate, so:
+ * <pre>
+ *   bytes per syscall   = bytes / writes
+ *   packets per syscall = score / writes
+ * </pre>
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-28
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TcpInterleavedBenchmark
+{
+    // An AAC packet at 128 kbps, and a full video packet
+    @Param({"380", "1200"})
+    public int packetLength;
+
+    @Param({"false", "true"})
+    public boolean batching;
+
+    // How long, in ms, a batch may wait for the next packets
+    @Param({"0", "2"})
+    public long maxLatency;
+
+    private ServerSocket server;
+    private Socket client;
+    private Socket player;
+    private Thread reader;
+
+    private InterleavedSocket socket;
+    private CountingOutputStream stream;
+    private long timestamp;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException
+    {
+        server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        client = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+        client.setTcpNoDelay(true);
+        player = server.accept();
+
+        reader = new Thread(this::read, "TcpInterleavedBenchmark-player");
+        reader.start();
+
+        socket = new InterleavedSocket();
+        socket.setClockFrequency(90000);
+        socket.setSSRC(0x12345678);
+        socket.setBatching(batching);
+        socket.setMaxLatency(maxLatency);
+        stream = new CountingOutputStream(client.getOutputStream());
+        socket.setBatchWriter(new TcpBatchWriter(stream), (byte) 0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, InterruptedException
+    {
+        socket.stop();
+        client.close();
+        reader.join();
+        player.close();
+        server.close();
+    }
+
+    /**
+     * The writes and bytes written during the iteration, reported per second.
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Writes
+    {
+        public long writes;
+        public long bytes;
+
+        private boolean reset;
+        private long firstWrites, firstBytes;
+
+        @Setup(Level.Iteration)
+        public void reset()
+        {
+            writes = 0;
+            bytes = 0;
+            reset = true;
+        }
+
+        /**
+         * Takes the counts of the stream, from where they were at the start of the iteration.
+         */
+        private void update(CountingOutputStream stream)
+        {
+            long streamWrites = stream.writes;
+            long streamBytes = stream.bytes;
+            if (reset) {
+                firstWrites = streamWrites;
+                firstBytes = streamBytes;
+                reset = false;
+            }
+
+            writes = streamWrites - firstWrites;
+            bytes = streamBytes - firstBytes;
+        }
+    }
+
+    @Benchmark
+    public byte[] send(Writes writes) throws IOException, InterruptedException
+    {
+        byte[] buffer = socket.requestBuffer();
+        socket.updateTimestamp(timestamp += 1000);
+        socket.commitBuffer(packetLength);
+
+        writes.update(stream);
+        return buffer;
+    }
+
+    /**
+     * Reads the connection until it is closed.
+     */
+    private void read()
+    {
+        byte[] buffer = new byte[64 * 1024];
+        try {
+            InputStream input = player.getInputStream();
+            while (input.read(buffer) >= 0) {
+                // Drained
+            }
+        } catch (IOException ignore) {
+        }
+    }
+
+    /**
+     * Counts the writes to the socket.
+     */
+    private static class CountingOutputStream extends FilterOutputStream
+    {
+        // Written under the lock of the stream, by the sender thread or the sender reports
+        private volatile long writes;
+        private volatile long bytes;
+
+        private CountingOutputStream(OutputStream out)
+        {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            out.write(b, off, len);
+            writes++;
+            bytes += len;
+        }
+    }
+
+    /**
+     * A RTP socket whose sender thread can be stopped at the end of the trial.
+     */
+    private static class InterleavedSocket extends RtpSocketTcp
+    {
+        private InterleavedSocket()
+        {
+            super(new NoConnectChecker());
+        }
+
+        private void stop() throws InterruptedException
+        {
+            Thread thread = this.thread;
+            if (thread != null) {
+                thread.interrupt();
+                thread.join();
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.github.teocci.libstream.benchmarks;
+
+import com.github.teocci.libstream.coder.FrameInfo;
+import com.github.teocci.libstream.interfaces.TsOutput;
+import com.github.teocci.libstream.muxers.ts.TsMuxer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Muxing of the encoded frames into MPEG-TS: the PES packets cut into TS packets of 188
+ * bytes, written in datagrams of 7 packets.
+ * <p>
+ * The datagrams go to an output that only counts them, so the score is the cost of the
+ * muxer alone. Divide the frames per second by the packets of a frame, about its size
+ * divided by 184, for the packets per second.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-28
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TsMuxerBenchmark
+{
+    // 30 fps
+    private static final long VIDEO_FRAME_US = 33_333;
+    // 1024 samples at 44.1 kHz
+    private static final long AUDIO_FRAME_US = 23_220;
+
+    /**
+     * Only counts the bytes of the datagrams.
+     */
+    static class CountingOutput implements TsOutput
+    {
+        long bytes;
+
+        @Override
+        public void send(ByteBuffer datagram) throws IOException
+        {
+            bytes += datagram.remaining();
+            datagram.position(datagram.limit());
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class VideoState
+    {
+        @Param({"h264", "hevc"})
+        public String codec;
+
+        // A P-frame at 2 Mbps is around 8 KB, a key frame ten times more
+        @Param({"1000", "8000", "80000"})
+        public int frameSize;
+
+        final CountingOutput output = new CountingOutput();
+        TsMuxer muxer;
+        ByteBuffer frame;
+        final FrameInfo info = new FrameInfo();
+        long pts;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException
+        {
+            boolean hevc = codec.equals("hevc");
+            muxer = new TsMuxer(output);
+            muxer.setParameterSets(new byte[20], new byte[4], hevc ? new byte[24] : null);
+
+            byte[] data = new byte[frameSize];
+            new Random(42).nextBytes(data);
+            // Start code, then a non-IDR slice
+            data[0] = data[1] = data[2] = 0;
+            data[3] = 1;
+            data[4] = (byte) (hevc ? 0x02 : 0x41);
+            frame = ByteBuffer.allocateDirect(frameSize);
+            frame.put(data).clear();
+
+            // The stream starts at a key frame
+            muxer.writeVideo(frame, info.set(0, frameSize, pts, FrameInfo.FLAG_KEY_FRAME));
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class AudioState
+    {
+        // Around 128 kbps
+        @Param({"370"})
+        public int frameSize;
+
+        final CountingOutput output = new CountingOutput();
+        TsMuxer muxer;
+        ByteBuffer frame;
+        final FrameInfo info = new FrameInfo();
+        long pts;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException
+        {
+            muxer = new TsMuxer(output);
+            muxer.setParameterSets(new byte[20], new byte[4], null);
+            muxer.setAudioFormat(44100, 2);
+
+            byte[] data = new byte[frameSize];
+            new Random(42).nextBytes(data);
+            frame = ByteBuffer.allocateDirect(frameSize);
+            frame.put(data).clear();
+
+            // The audio is dropped until the video starts
+            ByteBuffer keyFrame = ByteBuffer.wrap(new byte[]{0, 0, 0, 1, 0x65, 0});
+            muxer.writeVideo(keyFrame, info.set(0, keyFrame.capacity(), pts, FrameInfo.FLAG_KEY_FRAME));
+        }
+    }
+
+    @Benchmark
+    public void video(VideoState state) throws IOException
+    {
+        state.pts += VIDEO_FRAME_US;
+        state.muxer.writeVideo(state.frame, state.info.set(0, state.frameSize, state.pts, 0));
+    }
+
+    @Benchmark
+    public void audio(AudioState state) throws IOException
+    {
+        state.pts += AUDIO_FRAME_US;
+        state.muxer.writeAudio(state.frame, state.info.set(0, state.frameSize, state.pts, 0));
+    }
+}
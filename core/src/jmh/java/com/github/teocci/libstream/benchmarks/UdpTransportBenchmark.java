@@ -0,0 +1,224 @@
+package com.github.teocci.libstream.benchmarks;
+
+import com.github.teocci.libstream.protocols.rtsp.rtp.sockets.RtpSocketUdp;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RTP packets sent over UDP on the loopback: the benchmark thread is the packetizer,
+ * committing packets to a {@link RtpSocketUdp} and its connected DatagramChannel, or to
+ * the former {@link MulticastRtpSocket}. A receiver thread drains the destination port,
+ * like the player. The FIFO blocks when full, so the score is the number of packets the
+ * sender thread gets through the socket per second.
+ * <p>
+ * UDP drops what the receiver can not take, the counter gives the packets received at
+ * the same rate.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-28
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class UdpTransportBenchmark
+{
+    private static final String LOOPBACK = InetAddress.getLoopbackAddress().getHostAddress();
+
+    /**
+     * The destination of the packets, drained by its own thread.
+     */
+    @State(Scope.Thread)
+    public static class Player
+    {
+        DatagramChannel channel;
+        Thread reader;
+        volatile long received;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException
+        {
+            channel = DatagramChannel.open();
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, 4 * 1024 * 1024);
+            channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+            reader = new Thread(this::read, "UdpTransportBenchmark-player");
+            reader.start();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException, InterruptedException
+        {
+            channel.close();
+            reader.join();
+        }
+
+        int getPort()
+        {
+            return channel.socket().getLocalPort();
+        }
+
+        /**
+         * Receives the datagrams until the channel is closed.
+         */
+        private void read()
+        {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(2048);
+            try {
+                while (true) {
+                    buffer.clear();
+                    channel.receive(buffer);
+                    received++;
+                }
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ChannelState
+    {
+        // An AAC packet at 128 kbps, and a full video packet
+        @Param({"380", "1200"})
+        public int packetLength;
+
+        StoppableRtpSocketUdp socket;
+        long timestamp;
+
+        @Setup(Level.Trial)
+        public void setUp(Player player)
+        {
+            socket = new StoppableRtpSocketUdp();
+            socket.setClockFrequency(90000);
+            socket.setSSRC(0x12345678);
+            socket.setDestination(LOOPBACK, player.getPort(), player.getPort() + 1);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws InterruptedException
+        {
+            socket.stop();
+            socket.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class MulticastSocketState
+    {
+        @Param({"380", "1200"})
+        public int packetLength;
+
+        MulticastRtpSocket socket;
+        long timestamp;
+
+        @Setup(Level.Trial)
+        public void setUp(Player player)
+        {
+            socket = new MulticastRtpSocket(new NoConnectChecker());
+            socket.setClockFrequency(90000);
+            socket.setSSRC(0x12345678);
+            socket.setDestination(LOOPBACK, player.getPort(), player.getPort() + 1);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws InterruptedException
+        {
+            socket.stop();
+            socket.close();
+        }
+    }
+
+    /**
+     * The packets received during the iteration, reported per second.
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Received
+    {
+        public long received;
+
+        private boolean reset;
+        private long first;
+
+        @Setup(Level.Iteration)
+        public void reset()
+        {
+            received = 0;
+            reset = true;
+        }
+
+        private void update(Player player)
+        {
+            long count = player.received;
+            if (reset) {
+                first = count;
+                reset = false;
+            }
+
+            received = count - first;
+        }
+    }
+
+    @Benchmark
+    public byte[] channel(ChannelState state, Player player, Received received)
+            throws IOException, InterruptedException
+    {
+        RtpSocketUdp socket = state.socket;
+        byte[] buffer = socket.requestBuffer();
+        socket.updateTimestamp(state.timestamp += 1000);
+        socket.commitBuffer(state.packetLength);
+
+        received.update(player);
+        return buffer;
+    }
+
+    @Benchmark
+    public byte[] multicastSocket(MulticastSocketState state, Player player, Received received)
+            throws IOException, InterruptedException
+    {
+        MulticastRtpSocket socket = state.socket;
+        byte[] buffer = socket.requestBuffer();
+        socket.updateTimestamp(state.timestamp += 1000);
+        socket.commitBuffer(state.packetLength);
+
+        received.update(player);
+        return buffer;
+    }
+
+    /**
+     * A RTP socket whose sender thread can be stopped at the end of the trial.
+     */
+    private static class StoppableRtpSocketUdp extends RtpSocketUdp
+    {
+        private StoppableRtpSocketUdp()
+        {
+            super(new NoConnectChecker());
+        }
+
+        private void stop() throws InterruptedException
+        {
+            Thread thread = this.thread;
+            if (thread != null) {
+                thread.interrupt();
+                thread.join();
+            }
+        }
+    }
+}
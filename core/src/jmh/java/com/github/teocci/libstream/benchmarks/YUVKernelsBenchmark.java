@@ -0,0 +1,118 @@
+package com.github.teocci.libstream.benchmarks;
+
+import com.github.teocci.libstream.utils.yuv.NV21Utils;
+import com.github.teocci.libstream.utils.yuv.YUVKernels;
+import com.github.teocci.libstream.utils.yuv.YV12Utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The conversions and rotations of the camera frames before the encoder, in frames/s.
+ * <p>
+ * The rotations are compared with the legacy ones of {@link NV21Utils} and
+ * {@link YV12Utils}, which walk the source column by column.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-26
+ */
+@SuppressWarnings("deprecation")
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class YUVKernelsBenchmark
+{
+    @Param({"640x480", "1280x720", "1920x1080", "3840x2160"})
+    public String resolution;
+
+    private int width, height;
+    private byte[] src;
+    private byte[] dst;
+    private ByteBuffer direct;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        String[] size = resolution.split("x");
+        width = Integer.parseInt(size[0]);
+        height = Integer.parseInt(size[1]);
+
+        int frameSize = YUVKernels.frameSize(width, height);
+        src = new byte[frameSize];
+        new Random(42).nextBytes(src);
+        dst = new byte[frameSize];
+        // As the input buffers of MediaCodec
+        direct = ByteBuffer.allocateDirect(frameSize);
+
+        // The shared output buffers of the legacy rotations
+        NV21Utils.preAllocateBuffers(frameSize);
+        YV12Utils.preAllocateBuffers(frameSize);
+    }
+
+    @Benchmark
+    public byte[] nv21ToI420()
+    {
+        YUVKernels.nv21ToI420(src, width, dst, width, width, height);
+        return dst;
+    }
+
+    @Benchmark
+    public byte[] yv12ToNV12()
+    {
+        YUVKernels.yv12ToNV12(src, width, dst, width, width, height);
+        return dst;
+    }
+
+    @Benchmark
+    public ByteBuffer nv21ToI420Direct()
+    {
+        direct.clear();
+        YUVKernels.nv21ToI420(src, width, direct, width, width, height);
+        return direct;
+    }
+
+    @Benchmark
+    public byte[] rotateNV21()
+    {
+        YUVKernels.rotateNV21(src, width, dst, height, width, height, 90);
+        return dst;
+    }
+
+    @Benchmark
+    public byte[] rotateNV21Legacy()
+    {
+        return NV21Utils.rotate90(src, width, height);
+    }
+
+    @Benchmark
+    public byte[] rotateYV12()
+    {
+        YUVKernels.rotateYV12(src, width, dst, height, width, height, 90);
+        return dst;
+    }
+
+    @Benchmark
+    public byte[] rotateYV12Legacy()
+    {
+        return YV12Utils.rotate90(src, width, height);
+    }
+
+    @Benchmark
+    public byte[] rotateNV21ToI420()
+    {
+        YUVKernels.rotateNV21ToI420(src, width, dst, height, width, height, 90);
+        return dst;
+    }
+}
@@ -0,0 +1,365 @@
+package com.github.teocci.libstream.coder;
+
+import com.github.teocci.libstream.interfaces.EncodedFrameListener;
+import com.github.teocci.libstream.protocols.rtsp.rtp.sockets.PaddedSequence;
+import com.github.teocci.libstream.utils.LogHelper;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands the encoded frames of a codec over to the thread that feeds the sinks, e.g. the
+ * packetizers and the recorder, so the codec gets its output buffers back at once
+ * whatever the network does.
+ * <p>
+ * Each frame is copied once into a direct buffer of a slot of the queue. The slots keep
+ * their buffers, which only grow to the size of the largest frame, so nothing is
+ * allocated once the stream has shown its key frames. Like the FIFO of the RTP sockets,
+ * the ring is lock-free from one producer, the thread draining the codec, to one
+ * consumer, the dispatch thread: a slot is only reused once its frame was dispatched.
+ * <p>
+ * A full queue drops the new frame, then all the frames up to the next key frame, as the
+ * next ones could not be decoded without it. {@link #offer(ByteBuffer, FrameInfo)}
+ * returns false so the caller can ask the codec for a key frame.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-27
+ */
+public class EncodedFrameQueue
+{
+    private static String TAG = LogHelper.makeLogTag(EncodedFrameQueue.class);
+
+    /**
+     * Number of frames waiting for the sinks by default.
+     */
+    public static final int DEFAULT_CAPACITY = 8;
+
+    /**
+     * Initial size of the buffer of a slot, in bytes.
+     */
+    public static final int DEFAULT_FRAME_SIZE = 64 * 1024;
+
+    private final String name;
+    private final Slot[] slots;
+    private final int capacity;
+    private final int mask;
+
+    // Next frame to dispatch, only moved by the consumer
+    private final PaddedSequence head = new PaddedSequence();
+    // Next frame to offer, only moved by the producer
+    private final PaddedSequence tail = new PaddedSequence();
+
+    // Set while the consumer is parked, waiting for a frame
+    private volatile boolean waiting = false;
+    private volatile Thread consumer;
+
+    private final EncodedFrameListener listener;
+    private Thread thread;
+    // A sink may clear the interrupt of the dispatch thread
+    private volatile boolean running = false;
+
+    // Set by the producer from a dropped frame to the next key frame
+    private boolean skipping = false;
+
+    // Each counter has a single writer, the producer or the consumer.
+    // The times are moving averages over about 16 frames, in ns
+    private volatile long copyTime;
+    private volatile long waitTime;
+    private volatile long dispatchTime;
+    private volatile long queued;
+    private volatile long dispatched;
+    private volatile long dropped;
+    private volatile long copiedBytes;
+    private volatile long allocatedBytes;
+    private volatile int maxDepth;
+
+    /**
+     * @param name     The name of the dispatch thread
+     * @param capacity The number of frames waiting for the sinks
+     * @param listener The sinks of the frames
+     */
+    public EncodedFrameQueue(String name, int capacity, EncodedFrameListener listener)
+    {
+        this(name, capacity, DEFAULT_FRAME_SIZE, listener);
+    }
+
+    /**
+     * @param name      The name of the dispatch thread
+     * @param capacity  The number of frames waiting for the sinks
+     * @param frameSize The initial size of the buffer of each slot, in bytes
+     * @param listener  The sinks of the frames
+     */
+    public EncodedFrameQueue(String name, int capacity, int frameSize, EncodedFrameListener listener)
+    {
+        this.name = name;
+        this.capacity = capacity;
+        this.listener = listener;
+
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new Slot[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot(frameSize);
+        }
+
+        allocatedBytes = (long) size * frameSize;
+    }
+
+    /**
+     * Starts the dispatch thread.
+     */
+    public synchronized void start()
+    {
+        if (thread != null) return;
+
+        running = true;
+        thread = new Thread(this::dispatch, name);
+        thread.start();
+    }
+
+    /**
+     * Stops the dispatch thread, and waits for it to end. The frames still queued are
+     * discarded by the dispatch thread itself, the head is only ever moved by the consumer.
+     * The frames offered from then on are dispatched once started again.
+     */
+    public synchronized void stop()
+    {
+        if (thread == null) return;
+
+        running = false;
+        thread.interrupt();
+
+        // Until it ends, a start could otherwise run a second consumer
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+
+        thread = null;
+    }
+
+    /**
+     * Copies a frame into the queue. Only the producer may call it, the buffer can be
+     * released to the codec once it returns.
+     *
+     * @param buffer The buffer holding the frame, its position and limit are kept
+     * @param info   The descriptor of the frame in the buffer
+     * @return false if the frame was dropped, the next key frame is then needed
+     */
+    public boolean offer(ByteBuffer buffer, FrameInfo info)
+    {
+        boolean key = info.isKeyFrame() || info.isCodecConfig();
+        if (skipping && !key) {
+            dropped++;
+            return false;
+        }
+
+        long position = tail.get();
+        int depth = (int) (position - head.get());
+        if (depth >= capacity) {
+            dropped++;
+            skipping = true;
+            return false;
+        }
+        skipping = false;
+
+        long start = System.nanoTime();
+        Slot slot = slots[(int) (position & mask)];
+        slot.copy(buffer, info);
+        slot.queuedAt = System.nanoTime();
+
+        if (queued++ == 0) {
+            copyTime = slot.queuedAt - start;
+        } else {
+            copyTime += (slot.queuedAt - start - copyTime) >> 4;
+        }
+        copiedBytes += info.size;
+        if (depth + 1 > maxDepth) maxDepth = depth + 1;
+
+        // Publishes the frame, then looks whether the consumer is parked
+        tail.set(position + 1);
+
+        if (waiting) {
+            Thread thread = consumer;
+            if (thread != null) LockSupport.unpark(thread);
+        }
+
+        return true;
+    }
+
+    private void dispatch()
+    {
+        consumer = Thread.currentThread();
+
+        while (running && !Thread.interrupted()) {
+            long position = head.get();
+            if (tail.get() == position) {
+                // Announces the wait, then checks again, so an offer can not be missed
+                waiting = true;
+                if (tail.get() == position) LockSupport.park(this);
+                waiting = false;
+                continue;
+            }
+
+            Slot slot = slots[(int) (position & mask)];
+            long start = System.nanoTime();
+            try {
+                listener.onEncodedFrame(slot.data, slot.info);
+            } catch (RuntimeException e) {
+                LogHelper.e(TAG, "Sink error: ", e);
+            }
+            long end = System.nanoTime();
+
+            if (dispatched++ == 0) {
+                waitTime = start - slot.queuedAt;
+                dispatchTime = end - start;
+            } else {
+                waitTime += (start - slot.queuedAt - waitTime) >> 4;
+                dispatchTime += (end - start - dispatchTime) >> 4;
+            }
+
+            // The slot can be reused by the producer once the head moved
+            head.lazySet(position + 1);
+        }
+
+        // Discards the frames queued so far
+        head.set(tail.get());
+
+        LogHelper.i(TAG, name + " stopped");
+    }
+
+    /**
+     * Returns the number of frames waiting for the sinks.
+     */
+    public int getDepth()
+    {
+        return (int) (tail.get() - head.get());
+    }
+
+    /**
+     * Returns the highest number of frames that waited for the sinks.
+     */
+    public int getMaxDepth()
+    {
+        return maxDepth;
+    }
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * Returns the average time spent copying a frame, in us.
+     */
+    public long getCopyTime()
+    {
+        return copyTime / 1000;
+    }
+
+    /**
+     * Returns the average time a frame waits for the dispatch thread, in us.
+     */
+    public long getWaitTime()
+    {
+        return waitTime / 1000;
+    }
+
+    /**
+     * Returns the average time the sinks spend on a frame, in us.
+     */
+    public long getDispatchTime()
+    {
+        return dispatchTime / 1000;
+    }
+
+    public long getQueuedFrames()
+    {
+        return queued;
+    }
+
+    public long getDispatchedFrames()
+    {
+        return dispatched;
+    }
+
+    /**
+     * Returns the number of frames dropped, because the queue was full or they came
+     * before the next key frame.
+     */
+    public long getDroppedFrames()
+    {
+        return dropped;
+    }
+
+    public long getCopiedBytes()
+    {
+        return copiedBytes;
+    }
+
+    /**
+     * Returns the memory held by the buffers of the slots, in bytes.
+     */
+    public long getAllocatedBytes()
+    {
+        return allocatedBytes;
+    }
+
+    @Override
+    public String toString()
+    {
+        return name + "[queue=" + getDepth() + "/" + capacity +
+                ", max=" + maxDepth +
+                ", copy=" + copyTime / 1000 +
+                "us, wait=" + waitTime / 1000 +
+                "us, dispatch=" + dispatchTime / 1000 +
+                "us, dropped=" + dropped +
+                ", memory=" + allocatedBytes / 1024 + "KB]";
+    }
+
+    /**
+     * A frame of the queue, written by the producer and read by the consumer.
+     */
+    private class Slot
+    {
+        private ByteBuffer data;
+        private final FrameInfo info = new FrameInfo();
+        private long queuedAt;
+
+        private Slot(int frameSize)
+        {
+            data = ByteBuffer.allocateDirect(frameSize);
+        }
+
+        private void copy(ByteBuffer buffer, FrameInfo source)
+        {
+            int size = source.size;
+            if (data.capacity() < size) {
+                // Grows to the next power of two, the next key frames are a bit larger
+                int capacity = Integer.highestOneBit(size - 1) << 1;
+                allocatedBytes += capacity - data.capacity();
+                data = ByteBuffer.allocateDirect(capacity);
+            }
+
+            int position = buffer.position();
+            int limit = buffer.limit();
+            buffer.limit(source.offset + size);
+            buffer.position(source.offset);
+
+            data.clear();
+            data.put(buffer);
+            data.flip();
+
+            buffer.limit(limit);
+            buffer.position(position);
+
+            info.set(0, size, source.presentationTimeUs, source.flags);
+        }
+    }
+}
@@ -0,0 +1,466 @@
+package com.github.teocci.libstream.coder;
+
+import com.github.teocci.libstream.interfaces.TrackFrameListener;
+import com.github.teocci.libstream.utils.LogHelper;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps the last seconds of the encoded frames, so a record can start before the event
+ * that triggered it.
+ * <p>
+ * The frames of all the tracks are copied one after the other into a single direct
+ * buffer, allocated once, and wrap around at its end. A frame never straddles the end:
+ * <pre>
+ *  |  F7  F8  F9  |.. free ..|  F3  F4  F5  F6  |.. gap ..|
+ *  0              ^ next     ^ oldest frame                capacity
+ * </pre>
+ * The descriptors of the frames and the index of the video key frames are fixed arrays
+ * too, so the memory does not grow with the bitrate: a spike only shortens the time held.
+ * The oldest frames are evicted when a new one needs their room, and whole GOPs are
+ * evicted once the GOP after them still covers the duration of the ring.
+ * <p>
+ * {@link #startDrain(TrackFrameListener)} hands the frames to a listener from the oldest
+ * key frame, the start of the oldest complete GOP, then the live ones as they are written,
+ * on a thread of the ring. The producers never wait for it: the frames it has not read yet
+ * can not be evicted, so when it falls too far behind the new frames are dropped, the
+ * video ones up to the next key frame.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-28
+ */
+public class EncodedFrameRing
+{
+    private static String TAG = LogHelper.makeLogTag(EncodedFrameRing.class);
+
+    public static final int TRACK_VIDEO = 0;
+    public static final int TRACK_AUDIO = 1;
+
+    /**
+     * Memory of the frames by default, 10 s at 6 Mbps.
+     */
+    public static final int DEFAULT_CAPACITY = 8 * 1024 * 1024;
+
+    /**
+     * Number of frames held at most by default, more than 40 s of video at 30 fps and
+     * AAC at 48 kHz.
+     */
+    public static final int DEFAULT_MAX_FRAMES = 4096;
+
+    /**
+     * Time held by default, in ms.
+     */
+    public static final long DEFAULT_DURATION = 10_000;
+
+    private final String name;
+
+    private final ByteBuffer data;
+    // The view of the drain thread on the frames
+    private final ByteBuffer view;
+    private final int capacity;
+
+    // Descriptors of the frames, by sequence number
+    private final int[] offsets;
+    private final int[] sizes;
+    private final long[] times;
+    private final int[] flags;
+    private final int[] tracks;
+    private final int mask;
+
+    // Sequence numbers of the video key frames
+    private final long[] keyFrames;
+
+    // All the state below is guarded by the ring
+    private long head = 0, tail = 0;
+    private long keyHead = 0, keyTail = 0;
+    private int nextOffset = 0;
+    private long newestUs = Long.MIN_VALUE;
+    private boolean hasVideo = false;
+    private boolean skipping = false;
+
+    private long durationUs;
+
+    // Next frame of the drain thread, frames from it can not be evicted
+    private long readSeq = -1;
+    // The drain stops at this frame, or at once when aborted
+    private long stopSeq = Long.MAX_VALUE;
+    private boolean aborted = false;
+    private boolean waiting = false;
+    private Thread thread;
+
+    private final FrameInfo readInfo = new FrameInfo();
+
+    // Counters, written under the lock
+    private volatile long written;
+    private volatile long drained;
+    private volatile long dropped;
+    private volatile long evicted;
+    private volatile long bufferedBytes;
+
+    public EncodedFrameRing(String name, int capacity, long duration)
+    {
+        this(name, capacity, DEFAULT_MAX_FRAMES, duration);
+    }
+
+    /**
+     * @param name      The name of the drain thread
+     * @param capacity  The memory of the frames, in bytes
+     * @param maxFrames The number of frames held at most, rounded to a power of two
+     * @param duration  The time held, in ms
+     */
+    public EncodedFrameRing(String name, int capacity, int maxFrames, long duration)
+    {
+        this.name = name;
+        this.capacity = capacity;
+        this.durationUs = duration * 1000;
+
+        this.data = ByteBuffer.allocateDirect(capacity);
+        this.view = data.duplicate();
+
+        int size = Integer.highestOneBit(Math.max(2, maxFrames - 1)) << 1;
+        this.mask = size - 1;
+        this.offsets = new int[size];
+        this.sizes = new int[size];
+        this.times = new long[size];
+        this.flags = new int[size];
+        this.tracks = new int[size];
+        this.keyFrames = new long[size];
+    }
+
+    /**
+     * Copies a frame into the ring. The buffer can be reused once it returns, its position
+     * and limit are kept.
+     *
+     * @param track The track of the frame, {@link #TRACK_VIDEO} or {@link #TRACK_AUDIO}
+     * @return false if the frame was dropped
+     */
+    public synchronized boolean write(int track, ByteBuffer buffer, FrameInfo info)
+    {
+        if (info.isCodecConfig() || info.size <= 0) return true;
+
+        boolean video = track == TRACK_VIDEO;
+        boolean key = video && info.isKeyFrame();
+        if (video) {
+            hasVideo = true;
+            if (skipping && !key) {
+                dropped++;
+                return false;
+            }
+        }
+
+        int size = info.size;
+        int offset = reserve(size);
+        if (offset < 0) {
+            dropped++;
+            // The next video frames would not decode without the one dropped
+            if (video) skipping = true;
+            return false;
+        }
+        if (video) skipping = false;
+
+        int position = buffer.position();
+        int limit = buffer.limit();
+        buffer.limit(info.offset + size);
+        buffer.position(info.offset);
+        data.limit(offset + size);
+        data.position(offset);
+        data.put(buffer);
+        buffer.limit(limit);
+        buffer.position(position);
+
+        int index = (int) (tail & mask);
+        offsets[index] = offset;
+        sizes[index] = size;
+        times[index] = info.presentationTimeUs;
+        flags[index] = info.flags;
+        tracks[index] = track;
+        if (key) keyFrames[(int) (keyTail++ & mask)] = tail;
+        tail++;
+
+        nextOffset = offset + size;
+        newestUs = Math.max(newestUs, info.presentationTimeUs);
+        bufferedBytes += size;
+        written++;
+
+        trim();
+        if (waiting) notifyAll();
+
+        return true;
+    }
+
+    /**
+     * Returns where a frame of the given size can be copied, evicting the oldest frames if
+     * needed, or -1 if it can not be held.
+     */
+    private int reserve(int size)
+    {
+        if (size > capacity) return -1;
+
+        while (true) {
+            if (tail - head == offsets.length) {
+                if (!evict()) return -1;
+                continue;
+            }
+            if (head == tail) {
+                nextOffset = 0;
+                return 0;
+            }
+
+            int oldest = offsets[(int) (head & mask)];
+            if (nextOffset > oldest) {
+                // Free at the end, then before the oldest frame
+                if (capacity - nextOffset >= size) return nextOffset;
+                if (size < oldest) return 0;
+            } else if (oldest - nextOffset > size) {
+                return nextOffset;
+            }
+
+            if (!evict()) return -1;
+        }
+    }
+
+    /**
+     * Evicts the oldest frame, unless the drain thread has not read it yet.
+     */
+    private boolean evict()
+    {
+        if (head == tail || head == readSeq) return false;
+
+        if (keyHead < keyTail && keyFrames[(int) (keyHead & mask)] == head) keyHead++;
+        bufferedBytes -= sizes[(int) (head & mask)];
+        head++;
+        evicted++;
+
+        return true;
+    }
+
+    /**
+     * Evicts the frames older than the duration of the ring. With video, the GOP the
+     * oldest frames belong to is only evicted once the next GOP covers the duration.
+     */
+    private void trim()
+    {
+        long limitUs = newestUs - durationUs;
+        if (hasVideo) {
+            while (keyTail - keyHead >= 2) {
+                long next = keyFrames[(int) (keyHead + 1 & mask)];
+                if (times[(int) (next & mask)] > limitUs) break;
+                while (head < next) {
+                    if (!evict()) return;
+                }
+            }
+        } else {
+            while (head < tail && times[(int) (head & mask)] < limitUs) {
+                if (!evict()) return;
+            }
+        }
+    }
+
+    /**
+     * Starts handing the frames to the listener, on a new thread, from the oldest key
+     * frame held, or from the next one. The audio frames before it are skipped.
+     *
+     * @return false if the ring is already drained
+     */
+    public synchronized boolean startDrain(TrackFrameListener listener)
+    {
+        if (thread != null) return false;
+
+        if (!hasVideo) {
+            readSeq = head;
+        } else if (keyHead < keyTail) {
+            readSeq = keyFrames[(int) (keyHead & mask)];
+        } else {
+            // No key frame held yet, the drain waits for the next one
+            readSeq = tail;
+        }
+        stopSeq = Long.MAX_VALUE;
+        aborted = false;
+
+        long first = readSeq;
+        thread = new Thread(() -> drain(listener, first), name);
+        thread.start();
+
+        return true;
+    }
+
+    /**
+     * Hands the frames written so far to the listener, then stops the drain thread. Called
+     * from the listener itself, it stops the drain at once, without waiting.
+     */
+    public void stopDrain()
+    {
+        Thread thread;
+        synchronized (this) {
+            thread = this.thread;
+            if (thread == null) return;
+
+            if (thread == Thread.currentThread()) {
+                aborted = true;
+                return;
+            }
+            stopSeq = Math.min(stopSeq, tail);
+            notifyAll();
+        }
+
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drain(TrackFrameListener listener, long first)
+    {
+        LogHelper.i(TAG, name + " draining from frame " + first);
+
+        // Waits for a key frame when there is video
+        boolean started = false;
+        while (true) {
+            int track;
+            synchronized (this) {
+                while (readSeq == tail && readSeq < stopSeq && !aborted) {
+                    waiting = true;
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        aborted = true;
+                    }
+                    waiting = false;
+                }
+                if (readSeq >= stopSeq || aborted) break;
+                if (!started) started = !hasVideo || tracks[(int) (readSeq & mask)] == TRACK_VIDEO
+                        && (flags[(int) (readSeq & mask)] & FrameInfo.FLAG_KEY_FRAME) != 0;
+
+                int index = (int) (readSeq & mask);
+                track = tracks[index];
+                int offset = offsets[index];
+                int size = sizes[index];
+                readInfo.set(offset, size, times[index], flags[index]);
+                view.limit(offset + size);
+                view.position(offset);
+            }
+
+            if (started) {
+                try {
+                    listener.onTrackFrame(track, view, readInfo);
+                } catch (RuntimeException e) {
+                    LogHelper.e(TAG, "Sink error: ", e);
+                }
+            }
+
+            synchronized (this) {
+                // The frame can be evicted once the sequence moved past it
+                readSeq++;
+                drained++;
+            }
+        }
+
+        synchronized (this) {
+            readSeq = -1;
+            thread = null;
+        }
+
+        LogHelper.i(TAG, name + " drained");
+    }
+
+    /**
+     * Evicts all the frames not read by the drain thread.
+     */
+    public synchronized void clear()
+    {
+        while (evict()) {
+            // Up to the drain thread
+        }
+        if (head == tail) {
+            keyHead = keyTail;
+            newestUs = Long.MIN_VALUE;
+            hasVideo = false;
+        }
+    }
+
+    /**
+     * Sets the time held, in ms. A longer one only applies to the next frames.
+     */
+    public synchronized void setDuration(long duration)
+    {
+        this.durationUs = duration * 1000;
+        trim();
+    }
+
+    public synchronized long getDuration()
+    {
+        return durationUs / 1000;
+    }
+
+    /**
+     * Returns the time between the oldest and the newest frames held, in ms.
+     */
+    public synchronized long getBufferedDuration()
+    {
+        if (head == tail) return 0;
+        return (newestUs - times[(int) (head & mask)]) / 1000;
+    }
+
+    /**
+     * Returns the bytes of the frames held.
+     */
+    public long getBufferedBytes()
+    {
+        return bufferedBytes;
+    }
+
+    public synchronized int getFrameCount()
+    {
+        return (int) (tail - head);
+    }
+
+    /**
+     * Returns the memory of the frames, in bytes.
+     */
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    public synchronized boolean isDraining()
+    {
+        return thread != null;
+    }
+
+    public long getWrittenFrames()
+    {
+        return written;
+    }
+
+    public long getDrainedFrames()
+    {
+        return drained;
+    }
+
+    /**
+     * Returns the number of frames dropped, because they were larger than the ring or the
+     * drain thread had not read the frames in their room.
+     */
+    public long getDroppedFrames()
+    {
+        return dropped;
+    }
+
+    public long getEvictedFrames()
+    {
+        return evicted;
+    }
+
+    @Override
+    public String toString()
+    {
+        return name + "[frames=" + getFrameCount() +
+                ", duration=" + getBufferedDuration() +
+                "ms, memory=" + bufferedBytes / 1024 + "/" + capacity / 1024 +
+                "KB, dropped=" + dropped +
+                ", evicted=" + evicted +
+                ", draining=" + isDraining() + "]";
+    }
+}
@@ -0,0 +1,71 @@
+package com.github.teocci.libstream.coder;
+
+/**
+ * Describes an encoded frame held in a ByteBuffer, the platform-neutral counterpart of
+ * MediaCodec.BufferInfo: the packetizers and the muxers of the core only see this one.
+ * <p>
+ * The flags have the values of the MediaCodec ones, so they are copied as they are.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-26
+ */
+public class FrameInfo
+{
+    /**
+     * The frame is a key frame, MediaCodec.BUFFER_FLAG_KEY_FRAME.
+     */
+    public static final int FLAG_KEY_FRAME = 1;
+
+    /**
+     * The frame holds the codec configuration, MediaCodec.BUFFER_FLAG_CODEC_CONFIG.
+     */
+    public static final int FLAG_CODEC_CONFIG = 2;
+
+    /**
+     * The frame is the last one of the stream, MediaCodec.BUFFER_FLAG_END_OF_STREAM.
+     */
+    public static final int FLAG_END_OF_STREAM = 4;
+
+    /**
+     * The start of the frame in the buffer.
+     */
+    public int offset;
+
+    /**
+     * The amount of data in the buffer, in bytes.
+     */
+    public int size;
+
+    /**
+     * The presentation time of the frame, in us.
+     */
+    public long presentationTimeUs;
+
+    /**
+     * The FLAG_* of the frame.
+     */
+    public int flags;
+
+    /**
+     * Updates the descriptor, so the same instance describes every frame of a stream.
+     */
+    public FrameInfo set(int offset, int size, long presentationTimeUs, int flags)
+    {
+        this.offset = offset;
+        this.size = size;
+        this.presentationTimeUs = presentationTimeUs;
+        this.flags = flags;
+        return this;
+    }
+
+    public boolean isKeyFrame()
+    {
+        return (flags & FLAG_KEY_FRAME) != 0;
+    }
+
+    public boolean isCodecConfig()
+    {
+        return (flags & FLAG_CODEC_CONFIG) != 0;
+    }
+}
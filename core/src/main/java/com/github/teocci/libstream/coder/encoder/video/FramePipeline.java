@@ -0,0 +1,264 @@
+package com.github.teocci.libstream.coder.encoder.video;
+
+import com.github.teocci.libstream.input.video.FrameBuffer;
+import com.github.teocci.libstream.input.video.FrameRing;
+import com.github.teocci.libstream.interfaces.video.FrameStage;
+import com.github.teocci.libstream.utils.LogHelper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A chain of {@link FrameStage}s, each on its own thread, e.g. rotate, convert and feed
+ * the codec.
+ * <p>
+ * The frames go from a stage to the next one through a bounded lock-free {@link FrameRing},
+ * in order. When the ring of a stage is full the frame is dropped and counted, so a slow
+ * stage never makes the camera wait nor the latency grow. For each stage the pipeline
+ * exports the depth of its ring, the average time it spends on a frame, and the average
+ * time from the capture of a frame to the end of the stage.
+ * <p>
+ * Each ring is only ever taken from by the thread of its stage, which also releases the
+ * frames left in it when it ends.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-25
+ */
+public class FramePipeline
+{
+    private static String TAG = LogHelper.makeLogTag(FramePipeline.class);
+
+    /**
+     * Number of frames waiting in front of a stage by default.
+     */
+    public static final int DEFAULT_CAPACITY = 2;
+
+    private final String name;
+    private final int capacity;
+    private final List<Worker> workers = new ArrayList<>();
+
+    private boolean started = false;
+
+    /**
+     * @param name     The name of the pipeline, prefix of the names of its threads
+     * @param capacity The number of frames waiting in front of each stage
+     */
+    public FramePipeline(String name, int capacity)
+    {
+        this.name = name;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Appends a stage to the pipeline, before {@link #start()}.
+     */
+    public FramePipeline addStage(String stageName, FrameStage stage)
+    {
+        if (started) throw new IllegalStateException("Pipeline already started");
+
+        Worker worker = new Worker(stageName, stage, new FrameRing(capacity));
+        if (!workers.isEmpty()) workers.get(workers.size() - 1).next = worker;
+        workers.add(worker);
+
+        return this;
+    }
+
+    public void start()
+    {
+        if (started) return;
+        started = true;
+
+        for (Worker worker : workers) {
+            worker.thread = new Thread(worker, name + "-" + worker.name);
+            worker.thread.start();
+        }
+    }
+
+    /**
+     * Stops the threads of the stages, and waits for them to end. Each stage releases the
+     * frames left in its ring on its way out.
+     * <p>
+     * The stages are stopped in order, so a stage ends after the one that feeds its ring:
+     * nothing can be queued in front of it anymore once it cleared its ring.
+     */
+    public void stop()
+    {
+        boolean interrupted = false;
+        for (Worker worker : workers) {
+            Thread thread = worker.thread;
+            if (thread == null) continue;
+
+            thread.interrupt();
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            worker.thread = null;
+        }
+
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Queues a frame in front of the first stage, with the reference of the caller.
+     * Only one thread at a time may call it.
+     *
+     * @return false if the first stage is late or has ended, the caller keeps its
+     * reference then
+     */
+    public boolean offer(FrameBuffer frame)
+    {
+        Worker first = workers.get(0);
+
+        // The first stage clears its ring under the same lock when it ends
+        synchronized (first) {
+            if (first.ended) return false;
+            if (first.ring.offer(frame)) return true;
+        }
+
+        first.dropped++;
+        return false;
+    }
+
+    public int getStageCount()
+    {
+        return workers.size();
+    }
+
+    public String getStageName(int stage)
+    {
+        return workers.get(stage).name;
+    }
+
+    /**
+     * Returns the number of frames waiting in front of the stage.
+     */
+    public int getQueueDepth(int stage)
+    {
+        return workers.get(stage).ring.size();
+    }
+
+    public int getQueueCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * Returns the average time the stage spends on a frame, in us.
+     */
+    public long getProcessTime(int stage)
+    {
+        return workers.get(stage).processTime / 1000;
+    }
+
+    /**
+     * Returns the average time from the capture of a frame to the end of the stage, in us.
+     */
+    public long getLatency(int stage)
+    {
+        return workers.get(stage).latency / 1000;
+    }
+
+    public long getProcessedFrames(int stage)
+    {
+        return workers.get(stage).processed;
+    }
+
+    /**
+     * Returns the number of frames dropped because the ring of the stage was full.
+     */
+    public long getDroppedFrames(int stage)
+    {
+        return workers.get(stage).dropped;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder(name);
+        for (Worker worker : workers) {
+            builder.append(' ').append(worker.name)
+                    .append("[queue=").append(worker.ring.size())
+                    .append(", process=").append(worker.processTime / 1000)
+                    .append("us, latency=").append(worker.latency / 1000)
+                    .append("us, dropped=").append(worker.dropped)
+                    .append(']');
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * The thread of a stage. Each counter has a single writer: the worker itself, or for
+     * dropped the producer of its ring.
+     */
+    private static class Worker implements Runnable
+    {
+        private final String name;
+        private final FrameStage stage;
+        private final FrameRing ring;
+        private Worker next;
+        private Thread thread;
+
+        // Guarded by the worker, set once the ring has been cleared for good
+        private boolean ended = false;
+
+        // Moving averages over about 16 frames, in ns
+        private volatile long processTime;
+        private volatile long latency;
+        private volatile long processed;
+        private volatile long dropped;
+
+        private Worker(String name, FrameStage stage, FrameRing ring)
+        {
+            this.name = name;
+            this.stage = stage;
+            this.ring = ring;
+        }
+
+        @Override
+        public void run()
+        {
+            try {
+                while (!Thread.interrupted()) {
+                    FrameBuffer frame = ring.take();
+                    // The frame may be back in its pool after the stage
+                    long timestamp = frame.timestamp;
+
+                    long start = System.nanoTime();
+                    FrameBuffer result = stage.process(frame);
+                    long end = System.nanoTime();
+
+                    if (processed++ == 0) {
+                        processTime = end - start;
+                        latency = end - timestamp;
+                    } else {
+                        processTime += (end - start - processTime) >> 4;
+                        latency += (end - timestamp - latency) >> 4;
+                    }
+
+                    if (result == null) continue;
+                    if (next == null) {
+                        // The frame ends with the last stage anyway
+                        result.release();
+                    } else if (!next.ring.offer(result)) {
+                        next.dropped++;
+                        result.release();
+                    }
+                }
+            } catch (InterruptedException e) {
+                LogHelper.i(TAG, "Stage " + name + " stopped");
+            } finally {
+                // The only consumer of the ring, its producer has already ended or is refused
+                synchronized (this) {
+                    ended = true;
+                    ring.clear();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.github.teocci.libstream.enums;
+
+/**
+ * What a RTP socket does when the packetizer finds its FIFO full.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-17
+ */
+public enum FifoPolicy
+{
+    /**
+     * The packetizer waits until the sender has sent a packet.
+     */
+    BLOCK,
+
+    /**
+     * The sender skips the oldest half of the FIFO, the packetizer only waits for the
+     * packet being sent.
+     */
+    DROP_OLDEST,
+
+    /**
+     * The packets of a non reference frame are discarded until the next frame, the
+     * packets of a reference frame wait like with {@link #BLOCK}.
+     */
+    DROP_NON_REFERENCE
+}
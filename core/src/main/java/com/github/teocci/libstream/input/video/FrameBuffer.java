@@ -0,0 +1,87 @@
+package com.github.teocci.libstream.input.video;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A reference counted YUV frame of a {@link FrameBufferPool}.
+ * <p>
+ * The frame is handed over with a reference; a stage that keeps it beyond the call calls
+ * {@link #retain()}, and every reference ends with a {@link #release()}. The last release
+ * gives the frame back to its pool, its data must not be read anymore after that.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-18
+ */
+public class FrameBuffer
+{
+    public final byte[] data;
+
+    /**
+     * Number of bytes of data used by the frame.
+     */
+    public int length;
+
+    /**
+     * Capture time of the frame, in ns of {@link System#nanoTime()}.
+     */
+    public long timestamp;
+
+    private final FrameBufferPool pool;
+    private final AtomicInteger refCount = new AtomicInteger();
+
+    FrameBuffer(FrameBufferPool pool, int size)
+    {
+        this.pool = pool;
+        this.data = new byte[size];
+        this.length = size;
+    }
+
+    /**
+     * Called by the pool when the frame is acquired.
+     */
+    void acquired()
+    {
+        refCount.set(1);
+    }
+
+    /**
+     * Adds a reference to the frame.
+     *
+     * @throws IllegalStateException if the frame was already back in its pool
+     */
+    public FrameBuffer retain()
+    {
+        int count;
+        do {
+            count = refCount.get();
+            if (count <= 0) throw new IllegalStateException("Frame already recycled");
+        } while (!refCount.compareAndSet(count, count + 1));
+
+        return this;
+    }
+
+    /**
+     * Removes a reference, the last one gives the frame back to its pool.
+     */
+    public void release()
+    {
+        int count = refCount.decrementAndGet();
+        if (count == 0) {
+            pool.recycle(this);
+        } else if (count < 0) {
+            refCount.incrementAndGet();
+            throw new IllegalStateException("Frame released too many times");
+        }
+    }
+
+    public int getRefCount()
+    {
+        return refCount.get();
+    }
+
+    public FrameBufferPool getPool()
+    {
+        return pool;
+    }
+}
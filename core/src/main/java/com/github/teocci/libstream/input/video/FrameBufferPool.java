@@ -0,0 +1,131 @@
+package com.github.teocci.libstream.input.video;
+
+import com.github.teocci.libstream.interfaces.video.FrameRecycleListener;
+
+/**
+ * A fixed set of preallocated {@link FrameBuffer}s cycling between the camera, the
+ * conversions and the encoder.
+ * <p>
+ * Nothing is allocated once the pool is created: {@link #acquire()} returns null when all
+ * the frames are in use, the frame is then dropped by the caller. The recycle listener
+ * lets the owner of the frames, e.g. the camera, take a frame back as soon as it is free.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-18
+ */
+public class FrameBufferPool
+{
+    private final FrameBuffer[] frames;
+    private final FrameBuffer[] free;
+    private final int frameSize;
+    private int freeCount;
+
+    private volatile FrameRecycleListener listener;
+
+    private long acquireCount, missCount;
+
+    /**
+     * @param count     Number of frames of the pool
+     * @param frameSize Size of each frame in bytes
+     */
+    public FrameBufferPool(int count, int frameSize)
+    {
+        this.frameSize = frameSize;
+        this.frames = new FrameBuffer[count];
+        this.free = new FrameBuffer[count];
+
+        for (int i = 0; i < count; i++) {
+            frames[i] = new FrameBuffer(this, frameSize);
+            free[i] = frames[i];
+        }
+        freeCount = count;
+    }
+
+    /**
+     * Returns a free frame holding one reference, or null if all the frames are in use.
+     */
+    public FrameBuffer acquire()
+    {
+        FrameBuffer frame;
+        synchronized (free) {
+            acquireCount++;
+            if (freeCount == 0) {
+                missCount++;
+                return null;
+            }
+
+            frame = free[--freeCount];
+            free[freeCount] = null;
+        }
+
+        frame.acquired();
+        frame.length = frameSize;
+
+        return frame;
+    }
+
+    /**
+     * Called by the frame on its last release.
+     */
+    void recycle(FrameBuffer frame)
+    {
+        synchronized (free) {
+            free[freeCount++] = frame;
+        }
+
+        FrameRecycleListener listener = this.listener;
+        if (listener != null) listener.onFrameRecycled(frame);
+    }
+
+    /**
+     * Returns the frame of the pool wrapping the given array, or null.
+     */
+    public FrameBuffer find(byte[] data)
+    {
+        for (FrameBuffer frame : frames) {
+            if (frame.data == data) return frame;
+        }
+
+        return null;
+    }
+
+    public void setRecycleListener(FrameRecycleListener listener)
+    {
+        this.listener = listener;
+    }
+
+    public int getFrameSize()
+    {
+        return frameSize;
+    }
+
+    public int getCount()
+    {
+        return frames.length;
+    }
+
+    public int getAvailable()
+    {
+        synchronized (free) {
+            return freeCount;
+        }
+    }
+
+    /**
+     * Returns how many times a frame was requested while none was free.
+     */
+    public long getMissCount()
+    {
+        synchronized (free) {
+            return missCount;
+        }
+    }
+
+    public long getAcquireCount()
+    {
+        synchronized (free) {
+            return acquireCount;
+        }
+    }
+}
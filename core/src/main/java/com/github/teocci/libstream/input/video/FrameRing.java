@@ -0,0 +1,126 @@
+package com.github.teocci.libstream.input.video;
+
+import com.github.teocci.libstream.protocols.rtsp.rtp.sockets.PaddedSequence;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded lock-free FIFO of {@link FrameBuffer}s from one producer thread to one consumer
+ * thread.
+ * <p>
+ * Like the FIFO of the RTP sockets, the producer only moves the tail and the consumer
+ * only moves the head, each on its own cache line. The consumer is only unparked when it
+ * was waiting for a frame. The ring owns the reference of the frames it holds:
+ * {@link #take()} hands it over and {@link #clear()} releases it.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-25
+ */
+public class FrameRing
+{
+    private final FrameBuffer[] frames;
+    private final int capacity;
+    private final int mask;
+
+    // Next frame to take, only moved by the consumer
+    private final PaddedSequence head = new PaddedSequence();
+    // Next frame to offer, only moved by the producer
+    private final PaddedSequence tail = new PaddedSequence();
+
+    // Set while the consumer is parked, waiting for a frame
+    private volatile boolean waiting = false;
+    private volatile Thread consumer;
+
+    /**
+     * @param capacity The number of frames of the ring
+     */
+    public FrameRing(int capacity)
+    {
+        this.capacity = capacity;
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.frames = new FrameBuffer[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Queues the frame, with the reference of the caller. Only the producer may call it.
+     *
+     * @return false if the ring is full, the caller keeps its reference then
+     */
+    public boolean offer(FrameBuffer frame)
+    {
+        long position = tail.get();
+        if (position - head.get() >= capacity) return false;
+
+        frames[(int) (position & mask)] = frame;
+        // Publishes the frame, then looks whether the consumer is parked
+        tail.set(position + 1);
+
+        if (waiting) {
+            Thread thread = consumer;
+            if (thread != null) LockSupport.unpark(thread);
+        }
+
+        return true;
+    }
+
+    /**
+     * Waits for the next frame, the caller has to release it. Only the consumer may call it.
+     */
+    public FrameBuffer take() throws InterruptedException
+    {
+        consumer = Thread.currentThread();
+
+        FrameBuffer frame;
+        while ((frame = poll()) == null) {
+            // Announces the wait, then checks again, so an offer can not be missed
+            waiting = true;
+            if (tail.get() == head.get()) LockSupport.park(this);
+            waiting = false;
+
+            if (Thread.interrupted()) throw new InterruptedException();
+        }
+
+        return frame;
+    }
+
+    /**
+     * Returns the oldest frame without waiting, or null. The caller has to release it.
+     * Only the consumer may call it.
+     */
+    public FrameBuffer poll()
+    {
+        long position = head.get();
+        if (tail.get() == position) return null;
+
+        int index = (int) (position & mask);
+        FrameBuffer frame = frames[index];
+        frames[index] = null;
+        // The slot can be reused by the producer once the head moved
+        head.lazySet(position + 1);
+
+        return frame;
+    }
+
+    /**
+     * Releases all the queued frames, once the consumer has stopped.
+     */
+    public void clear()
+    {
+        FrameBuffer frame;
+        while ((frame = poll()) != null) {
+            frame.release();
+        }
+    }
+
+    public int size()
+    {
+        return (int) (tail.get() - head.get());
+    }
+
+    public int capacity()
+    {
+        return capacity;
+    }
+}
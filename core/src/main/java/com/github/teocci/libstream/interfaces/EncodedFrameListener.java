@@ -0,0 +1,25 @@
+package com.github.teocci.libstream.interfaces;
+
+import com.github.teocci.libstream.coder.FrameInfo;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the encoded frames dispatched by an
+ * {@link com.github.teocci.libstream.coder.EncodedFrameQueue}, on its thread.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-27
+ */
+public interface EncodedFrameListener
+{
+    /**
+     * The buffer and the descriptor belong to the queue: they are only valid until the
+     * method returns, a sink keeping the frame has to copy it.
+     *
+     * @param data The frame, from its position to its limit
+     * @param info The descriptor of the frame, its offset is the position of data
+     */
+    void onEncodedFrame(ByteBuffer data, FrameInfo info);
+}
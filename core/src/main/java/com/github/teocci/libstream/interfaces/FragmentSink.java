@@ -0,0 +1,52 @@
+package com.github.teocci.libstream.interfaces;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Where a {@link com.github.teocci.libstream.muxers.mp4.Fmp4Muxer} puts what it builds:
+ * a file, or the segments of a live stream.
+ * <p>
+ * The methods are called from the thread writing the samples, with the lock of the muxer
+ * held, in the order of the file.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-28
+ */
+public interface FragmentSink
+{
+    /**
+     * Returns a buffer of at least the given capacity for the samples of a track, a
+     * recycled one if possible.
+     */
+    ByteBuffer obtain(int capacity);
+
+    /**
+     * Takes the ftyp and moov boxes, once before the fragments.
+     */
+    void writeHeader(ByteBuffer header) throws IOException;
+
+    /**
+     * Takes a fragment, the buffers of the samples belong to the sink from now on.
+     *
+     * @param boxes       The moof and the header of its mdat
+     * @param data        The samples of each track, in the order of the mdat
+     * @param time        The start of the fragment from the start of the stream, in us
+     * @param duration    The duration of the fragment, in us
+     * @param independent True if the fragment starts with a key frame
+     */
+    void writeFragment(ByteBuffer boxes, ByteBuffer[] data, long time, long duration,
+                       boolean independent) throws IOException;
+
+    /**
+     * Overwrites bytes of the header once the fragments are written, e.g. the duration
+     * of the movie. A sink which has already sent the header may ignore it.
+     */
+    void writeAt(ByteBuffer buffer, long position) throws IOException;
+
+    /**
+     * Takes what is left, then releases the sink.
+     */
+    void close() throws IOException;
+}
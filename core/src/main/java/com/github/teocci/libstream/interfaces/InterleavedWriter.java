@@ -0,0 +1,25 @@
+package com.github.teocci.libstream.interfaces;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A non-blocking RTSP connection on which RTP and RTCP packets are interleaved.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-10
+ */
+public interface InterleavedWriter
+{
+    /**
+     * Writes the buffers with a single gathering write.
+     * What the socket could not take is queued and flushed by the event loop.
+     */
+    void write(ByteBuffer[] buffers) throws IOException;
+
+    /**
+     * Returns true while queued bytes are waiting for the socket to be writable.
+     */
+    boolean isBlocked();
+}
@@ -0,0 +1,25 @@
+package com.github.teocci.libstream.interfaces;
+
+/**
+ * The backend of {@link com.github.teocci.libstream.utils.LogHelper}: logcat on Android,
+ * the console on a plain JVM.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-26
+ */
+public interface LogWriter
+{
+    /**
+     * Returns whether the messages of the given level are written, LogHelper.VERBOSE to
+     * LogHelper.ERROR.
+     */
+    boolean isLoggable(String tag, int level);
+
+    void println(int level, String tag, String message);
+
+    /**
+     * Called once per tag, when the class using it is loaded.
+     */
+    void onTag(String tag);
+}
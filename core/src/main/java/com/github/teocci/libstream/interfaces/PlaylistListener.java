@@ -0,0 +1,16 @@
+package com.github.teocci.libstream.interfaces;
+
+/**
+ * Notified by a {@link com.github.teocci.libstream.protocols.hls.HlsSegmenter} each time
+ * its playlist changes: a part, a segment or the end of the stream is added.
+ * <p>
+ * Called from the thread writing the samples, it must return quickly.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-28
+ */
+public interface PlaylistListener
+{
+    void onPlaylistUpdate();
+}
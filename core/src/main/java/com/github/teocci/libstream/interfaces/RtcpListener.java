@@ -0,0 +1,45 @@
+package com.github.teocci.libstream.interfaces;
+
+import com.github.teocci.libstream.protocols.rtsp.rtcp.ReceiverReport;
+
+/**
+ * Receives the feedback of the RTCP packets sent back by the other end of a stream.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-22
+ */
+public interface RtcpListener
+{
+    /**
+     * Called for each report block of a Receiver or Sender Report.
+     *
+     * @param trackId The id of the track, 0 for audio and 1 for video
+     */
+    void onReceiverReport(int trackId, ReceiverReport report);
+
+    /**
+     * Called for each entry of a generic NACK, RFC 4585 6.2.1.
+     *
+     * @param sourceSsrc The SSRC of the stream the packets were lost from
+     * @param pid        The sequence number of a lost packet
+     * @param blp        The bitmask of the following lost packets: bit i set if the packet
+     *                   pid + i + 1 is lost too
+     */
+    void onNack(int trackId, int sourceSsrc, int pid, int blp);
+
+    /**
+     * Called for a Receiver Estimated Maximum Bitrate message.
+     *
+     * @param bitrate The bitrate estimated by the receiver, in bps
+     */
+    void onEstimatedBitrate(int trackId, long bitrate);
+
+    /**
+     * Called for a transport-wide congestion control feedback message.
+     *
+     * @param received The number of packets the receiver got
+     * @param lost     The number of packets it reports as lost
+     */
+    void onTransportFeedback(int trackId, int received, int lost);
+}
@@ -0,0 +1,41 @@
+package com.github.teocci.libstream.interfaces;
+
+import com.github.teocci.libstream.protocols.rtsp.rtp.sockets.TcpBatchWriter;
+
+/**
+ * What a packetizer needs to know about the RTSP session it sends to: the transport
+ * negotiated by the SETUP requests and the destination of the packets.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-26
+ */
+public interface RtpTransport
+{
+    /**
+     * Returns whether the packets are interleaved in the RTSP connection.
+     */
+    boolean isTCP();
+
+    ConnectCheckerRtsp getConnectCheckerRtsp();
+
+    /**
+     * Returns the address of the receiver of the UDP packets.
+     */
+    String getDestination();
+
+    /**
+     * Returns the RTP and RTCP ports of the receiver of the video track.
+     */
+    int[] getVideoPorts();
+
+    /**
+     * Returns the RTP and RTCP ports of the receiver of the audio track.
+     */
+    int[] getAudioPorts();
+
+    /**
+     * Returns the writer of the interleaved packets, when the transport is TCP.
+     */
+    TcpBatchWriter getBatchWriter();
+}
@@ -0,0 +1,22 @@
+package com.github.teocci.libstream.interfaces;
+
+/**
+ * Events of a {@link com.github.teocci.libstream.protocols.rtsp.rtsp.RtspServerCore}.
+ * Be careful: those callbacks are called from the event loop of the server !
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-10
+ */
+public interface RtspServerListener
+{
+    /**
+     * Called when an error occurs.
+     */
+    void onError(Exception e, int error);
+
+    /**
+     * Called when streaming starts/stops.
+     */
+    void onMessage(int message);
+}
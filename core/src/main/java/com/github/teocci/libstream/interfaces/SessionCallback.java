@@ -1,12 +1,11 @@
 package com.github.teocci.libstream.interfaces;
 
-import com.github.teocci.libstream.input.video.VideoStream;
 import com.github.teocci.libstream.protocols.rtsp.rtsp.Session;
 
 
 /**
  * The callback interface you need to implement to get some feedback
- * Those will be called from the UI thread.
+ * Those will be called by the callback executor of the session, the UI thread on Android.
  * <p>
  * Created by teocci.
  *
@@ -27,7 +26,7 @@ public interface SessionCallback
     void onSessionError(int reason, int streamType, Exception e);
 
     /**
-     * Called when the previw of the {@link VideoStream}
+     * Called when the previw of the video stream
      * has correctly been started.
      * If an error occurs while starting the preview,
      * {@link SessionCallback#onSessionError(int, int, Exception)} will be
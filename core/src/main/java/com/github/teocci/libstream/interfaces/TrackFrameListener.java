@@ -0,0 +1,26 @@
+package com.github.teocci.libstream.interfaces;
+
+import com.github.teocci.libstream.coder.FrameInfo;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the encoded frames of several tracks drained from an
+ * {@link com.github.teocci.libstream.coder.EncodedFrameRing}, on its thread.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-28
+ */
+public interface TrackFrameListener
+{
+    /**
+     * The buffer and the descriptor belong to the ring: they are only valid until the
+     * method returns, a sink keeping the frame has to copy it.
+     *
+     * @param track The track of the frame, e.g. {@link com.github.teocci.libstream.coder.EncodedFrameRing#TRACK_VIDEO}
+     * @param data  The frame, from its position to its limit
+     * @param info  The descriptor of the frame, its offset is the position of data
+     */
+    void onTrackFrame(int track, ByteBuffer data, FrameInfo info);
+}
@@ -0,0 +1,22 @@
+package com.github.teocci.libstream.interfaces;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Where a {@link com.github.teocci.libstream.muxers.ts.TsMuxer} sends its datagrams.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-28
+ */
+public interface TsOutput
+{
+    /**
+     * Sends a datagram of whole TS packets, up to 7 of them.
+     *
+     * @param datagram The packets, from its position to its limit. It belongs to the muxer,
+     *                 and is overwritten once the method returns.
+     */
+    void send(ByteBuffer datagram) throws IOException;
+}
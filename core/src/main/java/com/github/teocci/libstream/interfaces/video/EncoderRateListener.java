@@ -0,0 +1,23 @@
+package com.github.teocci.libstream.interfaces.video;
+
+/**
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-22
+ */
+public interface EncoderRateListener
+{
+    /**
+     * Called when the video bitrate has to change while streaming.
+     *
+     * @param bitrate The new bitrate, in bps
+     */
+    void onBitrateChanged(int bitrate);
+
+    /**
+     * Called when the video frame rate has to change while streaming.
+     *
+     * @param fps The new frame rate
+     */
+    void onFpsChanged(int fps);
+}
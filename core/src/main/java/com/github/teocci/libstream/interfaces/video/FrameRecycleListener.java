@@ -0,0 +1,17 @@
+package com.github.teocci.libstream.interfaces.video;
+
+import com.github.teocci.libstream.input.video.FrameBuffer;
+
+/**
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-18
+ */
+public interface FrameRecycleListener
+{
+    /**
+     * Called when the last reference of a frame has been released, the frame is then
+     * back in its pool.
+     */
+    void onFrameRecycled(FrameBuffer frame);
+}
@@ -0,0 +1,24 @@
+package com.github.teocci.libstream.interfaces.video;
+
+import com.github.teocci.libstream.input.video.FrameBuffer;
+
+/**
+ * A step of a {@link com.github.teocci.libstream.coder.encoder.video.FramePipeline}, run
+ * by the thread of the stage.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-25
+ */
+public interface FrameStage
+{
+    /**
+     * Processes a frame, with its reference.
+     *
+     * @param frame The frame to process
+     * @return the frame for the next stage, with its reference, e.g. the same frame or a new
+     * one, the stage then releases the one it received. Null if the frame ends here: the
+     * stage then released it.
+     */
+    FrameBuffer process(FrameBuffer frame) throws InterruptedException;
+}
@@ -0,0 +1,480 @@
+package com.github.teocci.libstream.muxers.mp4;
+
+import com.github.teocci.libstream.coder.FrameInfo;
+import com.github.teocci.libstream.interfaces.FragmentSink;
+import com.github.teocci.libstream.utils.LogHelper;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes the encoded H.264 or H.265 video and the AAC audio in a fragmented MP4 file, the
+ * CMAF flavour of ISO 14496-12.
+ * <p>
+ * The file starts with a moov describing the tracks but holding no sample, then each
+ * fragment is a moof listing its samples followed by the mdat holding them:
+ * <pre>
+ *  ftyp | moov (mvex) | moof | mdat | moof | mdat | ...
+ * </pre>
+ * So the file is playable from its first fragment on, while it is being written, and a
+ * crash only loses the fragment being built. The fragments start at a video key frame
+ * once they last the fragment duration, or at any frame when they last four times that.
+ * The video is written from its first key frame, the audio before it is dropped.
+ * <p>
+ * The access units are converted from Annex B to length prefixed NAL units, the parameter
+ * sets staying in the sample entries. The samples are expected in presentation order,
+ * which is the decode order of the streams without B frames of the Android encoders.
+ * The fragments go to the file from a {@link FragmentWriter} thread, or to any other
+ * {@link FragmentSink}.
+ * <p>
+ * With a part duration, the fragments are the parts of a live stream instead: each key
+ * frame starts a part, and a part is cut before it lasts longer than the part duration.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-27
+ */
+public class Fmp4Muxer
+{
+    private static String TAG = LogHelper.makeLogTag(Fmp4Muxer.class);
+
+    /**
+     * Duration of a fragment by default, in ms.
+     */
+    public static final long DEFAULT_FRAGMENT_DURATION = 1000;
+
+    private static final int MOVIE_TIMESCALE = 1000;
+    private static final long VIDEO_TIMESCALE = 90000;
+    private static final int DEFAULT_FPS = 30;
+    private static final int AAC_SAMPLES_PER_FRAME = 1024;
+
+    // A fragment without key frame is cut at this many fragment durations
+    private static final int MAX_FRAGMENT_RATIO = 4;
+
+    private final FragmentSink sink;
+    // The sink when it is a file, null otherwise
+    private final FragmentWriter writer;
+    private final List<Fmp4Track> tracks = new ArrayList<>();
+    // The track whose frames cut the fragments, the video if there is one
+    private Fmp4Track driver;
+
+    private final Mp4BoxWriter boxes = new Mp4BoxWriter(4096);
+
+    private long fragmentDuration = DEFAULT_FRAGMENT_DURATION * 1000;
+    private long partDuration = 0;
+
+    private boolean started = false;
+    private boolean stopped = false;
+    // Presentation time of the first sample, in us
+    private long startUs = -1;
+    private long fragmentStartUs;
+    // Presentation time of the last sample of the driver, in us
+    private long lastDriverUs;
+    private int sequence = 0;
+    // Offset in the file of the duration of the mehd box
+    private long durationOffset;
+
+    public Fmp4Muxer(String path) throws IOException
+    {
+        this(new FileOutputStream(path).getChannel());
+    }
+
+    /**
+     * @param channel The file, written from its current position and closed by {@link #stop()}
+     */
+    public Fmp4Muxer(FileChannel channel)
+    {
+        this(new FragmentWriter(channel, "Fmp4Muxer-writer"));
+    }
+
+    /**
+     * @param sink Where the header and the fragments go, closed by {@link #stop()}
+     */
+    public Fmp4Muxer(FragmentSink sink)
+    {
+        this.sink = sink;
+        this.writer = sink instanceof FragmentWriter ? (FragmentWriter) sink : null;
+    }
+
+    /**
+     * Adds a video track, before {@link #start()}.
+     *
+     * @param sps The sequence parameter set, with or without its start code
+     * @param pps The picture parameter set
+     * @param vps The video parameter set of H.265, null for H.264
+     * @return the index of the track
+     */
+    public synchronized int addVideoTrack(int width, int height, byte[] sps, byte[] pps, byte[] vps)
+    {
+        if (started) throw new IllegalStateException("Muxer already started");
+        if (driver != null && driver.video) throw new IllegalStateException("Only one video track");
+
+        Fmp4Track track = new Fmp4Track(tracks.size() + 1, width, height,
+                NalUnits.stripStartCode(sps), NalUnits.stripStartCode(pps), NalUnits.stripStartCode(vps),
+                VIDEO_TIMESCALE, DEFAULT_FPS);
+        track.reset(sink.obtain(256 * 1024));
+        tracks.add(track);
+        driver = track;
+
+        return tracks.size() - 1;
+    }
+
+    /**
+     * Adds an AAC track, before {@link #start()}.
+     *
+     * @param audioSpecificConfig The configuration of the decoder, null for AAC LC
+     * @return the index of the track
+     */
+    public synchronized int addAudioTrack(int sampleRate, int channelCount, byte[] audioSpecificConfig)
+    {
+        if (started) throw new IllegalStateException("Muxer already started");
+        if (audioSpecificConfig == null) {
+            audioSpecificConfig = Mp4SampleEntries.createAudioSpecificConfig(sampleRate, channelCount);
+        }
+
+        Fmp4Track track = new Fmp4Track(tracks.size() + 1, sampleRate, channelCount,
+                audioSpecificConfig, AAC_SAMPLES_PER_FRAME);
+        track.reset(sink.obtain(16 * 1024));
+        tracks.add(track);
+        if (driver == null) driver = track;
+
+        return tracks.size() - 1;
+    }
+
+    /**
+     * Writes the header of the file, once all the tracks are added.
+     */
+    public synchronized void start() throws IOException
+    {
+        if (started) return;
+        if (tracks.isEmpty()) throw new IllegalStateException("No track");
+        started = true;
+
+        boxes.clear();
+        boxes.begin("ftyp").fourCC("iso6").u32(0);
+        boxes.fourCC("iso6").fourCC("cmfc").fourCC("isom").fourCC("mp41");
+        boxes.end();
+
+        boxes.begin("moov");
+        boxes.begin("mvhd", 0, 0);
+        boxes.u32(0).u32(0).u32(MOVIE_TIMESCALE).u32(0);
+        boxes.u32(0x00010000).u16(0x0100).zeros(10);
+        boxes.matrix().zeros(24);
+        boxes.u32(tracks.size() + 1);
+        boxes.end();
+
+        for (Fmp4Track track : tracks) {
+            writeTrack(track);
+        }
+
+        boxes.begin("mvex");
+        // The duration is only known at the end, it is filled in by stop()
+        boxes.begin("mehd", 1, 0);
+        durationOffset = boxes.position();
+        boxes.u64(0);
+        boxes.end();
+        for (Fmp4Track track : tracks) {
+            boxes.begin("trex", 0, 0);
+            boxes.u32(track.id).u32(1).u32(0).u32(0).u32(0);
+            boxes.end();
+        }
+        boxes.end();
+        boxes.end();
+
+        sink.writeHeader(boxes.toBuffer());
+    }
+
+    /**
+     * Adds an encoded frame to its track. The buffer can be reused once it returns.
+     *
+     * @param trackIndex The index returned when the track was added
+     * @param buffer     The buffer holding the frame, its position and limit are kept
+     * @param info       The descriptor of the frame in the buffer
+     * @throws IOException if a fragment could not be written
+     */
+    public synchronized void writeSampleData(int trackIndex, ByteBuffer buffer, FrameInfo info) throws IOException
+    {
+        if (!started || stopped) throw new IllegalStateException("Muxer not started");
+        if (info.isCodecConfig() || info.size <= 0) return;
+
+        Fmp4Track track = tracks.get(trackIndex);
+        boolean sync = !track.video || info.isKeyFrame();
+        if (startUs < 0) {
+            if (track != driver || !sync) return;
+            startUs = info.presentationTimeUs;
+            fragmentStartUs = startUs;
+            lastDriverUs = startUs;
+        }
+
+        long pts = info.presentationTimeUs - startUs;
+        if (pts < 0) return;
+        long time = pts * track.timescale / 1_000_000;
+
+        if (track == driver) {
+            if (track.count > 0 && isCut(track, info.presentationTimeUs, sync)) {
+                flush(time);
+                fragmentStartUs = info.presentationTimeUs;
+            }
+            lastDriverUs = info.presentationTimeUs;
+        }
+
+        append(track, buffer, info, time, sync);
+    }
+
+    /**
+     * Writes the last fragment and the duration of the file, then closes it.
+     */
+    public synchronized void stop() throws IOException
+    {
+        if (stopped) return;
+        stopped = true;
+
+        try {
+            if (started) {
+                flush(-1);
+
+                long duration = 0;
+                for (Fmp4Track track : tracks) {
+                    duration = Math.max(duration, track.endTime * MOVIE_TIMESCALE / track.timescale);
+                }
+                ByteBuffer patch = ByteBuffer.allocate(8);
+                patch.putLong(0, duration);
+                sink.writeAt(patch, durationOffset);
+            }
+        } finally {
+            sink.close();
+        }
+    }
+
+    /**
+     * Sets the duration of the fragments, before a key frame, 1 s by default. Short
+     * fragments lose less on a crash, long ones cost less boxes.
+     *
+     * @param duration The duration in ms
+     */
+    public synchronized void setFragmentDuration(long duration)
+    {
+        this.fragmentDuration = duration * 1000;
+    }
+
+    /**
+     * Cuts the fragments as the parts of a live stream, before they last longer than the
+     * given duration and at each key frame. 0, the default, cuts them by fragment duration.
+     *
+     * @param duration The duration in ms
+     */
+    public synchronized void setPartDuration(long duration)
+    {
+        this.partDuration = duration * 1000;
+    }
+
+    /**
+     * Syncs the file to the storage after each fragment, true by default.
+     */
+    public void setSync(boolean sync)
+    {
+        if (writer != null) writer.setSync(sync);
+    }
+
+    /**
+     * Returns the number of fragments written or being written.
+     */
+    public synchronized int getFragmentCount()
+    {
+        return sequence;
+    }
+
+    /**
+     * Returns the writer of the file, with the bytes written and the time it takes, null
+     * if the muxer does not write a file.
+     */
+    public FragmentWriter getWriter()
+    {
+        return writer;
+    }
+
+    /**
+     * Returns true if the sample at the given time of the driver starts a new fragment.
+     */
+    private boolean isCut(Fmp4Track track, long timeUs, boolean sync)
+    {
+        long elapsed = timeUs - fragmentStartUs;
+        if (partDuration > 0) {
+            // The part would last longer than its target with the next sample
+            return track.video && sync || elapsed + (timeUs - lastDriverUs) > partDuration;
+        }
+
+        return sync && elapsed >= fragmentDuration || elapsed >= fragmentDuration * MAX_FRAGMENT_RATIO;
+    }
+
+    private void writeTrack(Fmp4Track track)
+    {
+        boxes.begin("trak");
+
+        // Enabled and in the movie
+        boxes.begin("tkhd", 0, 0x000003);
+        boxes.u32(0).u32(0).u32(track.id).u32(0).u32(0);
+        boxes.zeros(8).u16(0).u16(0);
+        boxes.u16(track.video ? 0 : 0x0100).u16(0);
+        boxes.matrix();
+        boxes.u32(track.width << 16).u32(track.height << 16);
+        boxes.end();
+
+        boxes.begin("mdia");
+        boxes.begin("mdhd", 0, 0);
+        boxes.u32(0).u32(0).u32((int) track.timescale).u32(0);
+        // "und" in 3 x 5 bits
+        boxes.u16(0x55C4).u16(0);
+        boxes.end();
+
+        boxes.begin("hdlr", 0, 0);
+        boxes.u32(0).fourCC(track.video ? "vide" : "soun").zeros(12);
+        boxes.bytes((track.video ? "VideoHandler" : "SoundHandler").getBytes()).u8(0);
+        boxes.end();
+
+        boxes.begin("minf");
+        if (track.video) {
+            boxes.begin("vmhd", 0, 1).u16(0).zeros(6).end();
+        } else {
+            boxes.begin("smhd", 0, 0).u16(0).u16(0).end();
+        }
+        boxes.begin("dinf");
+        boxes.begin("dref", 0, 0).u32(1);
+        // The samples are in this file
+        boxes.begin("url ", 0, 1).end();
+        boxes.end();
+        boxes.end();
+
+        // The samples are in the fragments, the sample table is empty
+        boxes.begin("stbl");
+        boxes.begin("stsd", 0, 0).u32(1);
+        track.writeSampleEntry(boxes);
+        boxes.end();
+        boxes.begin("stts", 0, 0).u32(0).end();
+        boxes.begin("stsc", 0, 0).u32(0).end();
+        boxes.begin("stsz", 0, 0).u32(0).u32(0).end();
+        boxes.begin("stco", 0, 0).u32(0).end();
+        boxes.end();
+
+        boxes.end();
+        boxes.end();
+        boxes.end();
+    }
+
+    private void append(Fmp4Track track, ByteBuffer buffer, FrameInfo info, long time, boolean sync)
+    {
+        int position = buffer.position();
+        int limit = buffer.limit();
+        buffer.limit(info.offset + info.size);
+        buffer.position(info.offset);
+
+        // A start code of 3 bytes becomes a length of 4, and a unit has at least 1 byte
+        ensureCapacity(track, track.video ? info.size + info.size / 4 + 4 : info.size);
+
+        int size;
+        if (track.video) {
+            size = NalUnits.toLengthPrefixed(buffer, track.data, track.hevc);
+        } else {
+            size = info.size;
+            track.data.put(buffer);
+        }
+
+        buffer.limit(limit);
+        buffer.position(position);
+
+        // Only parameter sets, they are in the sample entry
+        if (size == 0) return;
+        track.add(size, time, sync);
+    }
+
+    private void ensureCapacity(Fmp4Track track, int size)
+    {
+        if (track.data.remaining() >= size) return;
+
+        ByteBuffer larger = sink.obtain(Math.max(track.data.capacity() * 2, track.data.position() + size));
+        track.data.flip();
+        larger.put(track.data);
+        track.data = larger;
+    }
+
+    /**
+     * Writes the samples of all the tracks as a fragment.
+     *
+     * @param time The decode time of the next sample of the driver, -1 at the end
+     */
+    private void flush(long time) throws IOException
+    {
+        driver.close(time);
+
+        int trafCount = 0;
+        for (Fmp4Track track : tracks) {
+            if (track.count > 0) trafCount++;
+        }
+        if (trafCount == 0) return;
+
+        // The driver times the fragment, or the first track with samples at the end
+        Fmp4Track timing = driver;
+        for (int i = 0; timing.count == 0; i++) {
+            timing = tracks.get(i);
+        }
+        long fragmentTime = timing.baseTime * 1_000_000 / timing.timescale;
+        long fragmentEnd = timing.endTime * 1_000_000 / timing.timescale;
+        boolean independent = timing.flags[0] == Fmp4Track.FLAGS_SYNC;
+
+        boxes.clear();
+        boxes.begin("moof");
+        boxes.begin("mfhd", 0, 0).u32(++sequence).end();
+
+        int[] dataOffsets = new int[tracks.size()];
+        for (int i = 0; i < tracks.size(); i++) {
+            Fmp4Track track = tracks.get(i);
+            if (track.count == 0) continue;
+
+            boxes.begin("traf");
+            // The data offsets are from the start of the moof
+            boxes.begin("tfhd", 0, 0x020000).u32(track.id).end();
+            boxes.begin("tfdt", 1, 0).u64(track.baseTime).end();
+
+            // data-offset, sample-duration, sample-size and sample-flags present
+            boxes.begin("trun", 0, 0x000701).u32(track.count);
+            dataOffsets[i] = boxes.position();
+            boxes.u32(0);
+            for (int j = 0; j < track.count; j++) {
+                boxes.u32(track.durations[j]).u32(track.sizes[j]).u32(track.flags[j]);
+            }
+            boxes.end();
+
+            boxes.end();
+        }
+        boxes.end();
+
+        int moofSize = boxes.position();
+        int mdatSize = 8;
+        for (Fmp4Track track : tracks) {
+            if (track.count > 0) mdatSize += track.dataSize();
+        }
+        boxes.u32(mdatSize).fourCC("mdat");
+
+        ByteBuffer[] data = new ByteBuffer[trafCount];
+        int dataOffset = moofSize + 8;
+        int n = 0;
+        for (int i = 0; i < tracks.size(); i++) {
+            Fmp4Track track = tracks.get(i);
+            if (track.count == 0) continue;
+
+            boxes.set32(dataOffsets[i], dataOffset);
+            dataOffset += track.dataSize();
+
+            ByteBuffer samples = track.data;
+            samples.flip();
+            data[n++] = samples;
+            track.reset(sink.obtain(samples.capacity()));
+        }
+
+        sink.writeFragment(boxes.toBuffer(), data, fragmentTime, fragmentEnd - fragmentTime, independent);
+    }
+}
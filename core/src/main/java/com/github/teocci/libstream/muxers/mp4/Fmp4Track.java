@@ -0,0 +1,161 @@
+package com.github.teocci.libstream.muxers.mp4;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A track of a {@link Fmp4Muxer}: its sample entry, and the samples of the fragment being
+ * built, their data in a single buffer.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-27
+ */
+class Fmp4Track
+{
+    // The sample does not depend on others
+    static final int FLAGS_SYNC = 0x02000000;
+    // The sample depends on others, and is not a sync sample
+    static final int FLAGS_NON_SYNC = 0x01010000;
+
+    private static final int INITIAL_SAMPLES = 64;
+
+    final int id;
+    final boolean video;
+    final boolean hevc;
+    final long timescale;
+
+    // Sample entry
+    final int width, height;
+    final int sampleRate, channelCount;
+    final byte[] sps, pps, vps, audioSpecificConfig;
+
+    // Duration of a sample which has no next one, in the timescale
+    final int defaultDuration;
+
+    // Samples of the fragment being built
+    ByteBuffer data;
+    int count = 0;
+    int[] sizes = new int[INITIAL_SAMPLES];
+    int[] durations = new int[INITIAL_SAMPLES];
+    int[] flags = new int[INITIAL_SAMPLES];
+    // Decode time of the first sample of the fragment, in the timescale
+    long baseTime;
+
+    // Decode time of the last sample written, -1 before the first one
+    long lastTime = -1;
+    // Decode time of the end of the track, the last sample included
+    long endTime = 0;
+
+    /**
+     * A video track, H.265 if it has a vps.
+     */
+    Fmp4Track(int id, int width, int height, byte[] sps, byte[] pps, byte[] vps, long timescale, int fps)
+    {
+        this.id = id;
+        this.video = true;
+        this.hevc = vps != null;
+        this.timescale = timescale;
+        this.width = width;
+        this.height = height;
+        this.sps = sps;
+        this.pps = pps;
+        this.vps = vps;
+        this.sampleRate = 0;
+        this.channelCount = 0;
+        this.audioSpecificConfig = null;
+        this.defaultDuration = (int) (timescale / fps);
+    }
+
+    /**
+     * An AAC track, its timescale is its sample rate.
+     */
+    Fmp4Track(int id, int sampleRate, int channelCount, byte[] audioSpecificConfig, int samplesPerFrame)
+    {
+        this.id = id;
+        this.video = false;
+        this.hevc = false;
+        this.timescale = sampleRate;
+        this.width = 0;
+        this.height = 0;
+        this.sps = null;
+        this.pps = null;
+        this.vps = null;
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        this.audioSpecificConfig = audioSpecificConfig;
+        this.defaultDuration = samplesPerFrame;
+    }
+
+    void writeSampleEntry(Mp4BoxWriter box)
+    {
+        if (!video) {
+            Mp4SampleEntries.writeMp4a(box, sampleRate, channelCount, audioSpecificConfig);
+        } else if (hevc) {
+            Mp4SampleEntries.writeHvc1(box, width, height, vps, sps, pps);
+        } else {
+            Mp4SampleEntries.writeAvc1(box, width, height, sps, pps);
+        }
+    }
+
+    /**
+     * Adds a sample to the fragment, its data is already in the buffer.
+     *
+     * @param time The decode time of the sample, in the timescale
+     */
+    void add(int size, long time, boolean sync)
+    {
+        if (count == sizes.length) {
+            int length = count * 2;
+            sizes = Arrays.copyOf(sizes, length);
+            durations = Arrays.copyOf(durations, length);
+            flags = Arrays.copyOf(flags, length);
+        }
+
+        // The samples keep their decode order, a sample never lasts 0
+        if (lastTime >= 0 && time <= lastTime) time = lastTime + 1;
+        if (count == 0) {
+            baseTime = time;
+        } else {
+            durations[count - 1] = (int) (time - lastTime);
+        }
+
+        sizes[count] = size;
+        durations[count] = defaultDuration;
+        flags[count] = video && !sync ? FLAGS_NON_SYNC : FLAGS_SYNC;
+        count++;
+
+        lastTime = time;
+        endTime = time + defaultDuration;
+    }
+
+    /**
+     * Ends the last sample of the fragment where the next fragment starts, if known.
+     *
+     * @param time The decode time of the next sample, or -1 to keep the default duration
+     */
+    void close(long time)
+    {
+        if (count == 0 || time <= lastTime) return;
+
+        durations[count - 1] = (int) (time - lastTime);
+        endTime = time;
+    }
+
+    /**
+     * Returns the size of the data of the fragment.
+     */
+    int dataSize()
+    {
+        return data.position();
+    }
+
+    /**
+     * Starts the next fragment, with a new buffer.
+     */
+    void reset(ByteBuffer data)
+    {
+        this.data = data;
+        count = 0;
+    }
+}
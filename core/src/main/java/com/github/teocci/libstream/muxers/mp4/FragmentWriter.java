@@ -0,0 +1,247 @@
+package com.github.teocci.libstream.muxers.mp4;
+
+import com.github.teocci.libstream.interfaces.FragmentSink;
+import com.github.teocci.libstream.utils.LogHelper;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes the fragments of a {@link Fmp4Muxer} to its file from a thread of its own, so
+ * the storage never holds the encoder.
+ * <p>
+ * The boxes and the samples of a fragment go out in a single gathering write, then the
+ * file is synced by default: once a fragment is written it survives a crash of the app,
+ * or of the device. The buffers of the samples are handed back to the muxer once written.
+ * The queue of the fragments is bounded, a muxer faster than the storage for too long
+ * waits for it.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-27
+ */
+public class FragmentWriter implements FragmentSink
+{
+    private static String TAG = LogHelper.makeLogTag(FragmentWriter.class);
+
+    /**
+     * Number of fragments waiting to be written.
+     */
+    public static final int QUEUE_SIZE = 8;
+
+    private static final Write END = new Write(null, null, -1);
+
+    private final FileChannel channel;
+    private final BlockingQueue<Write> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    // Buffers of the samples already written, for the next fragments
+    private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(QUEUE_SIZE * 2);
+    private final Thread thread;
+
+    private volatile boolean sync = true;
+    private volatile IOException error;
+
+    private volatile long writtenBytes;
+    // Moving average over about 16 writes, in ns
+    private volatile long writeTime;
+    private volatile long writes;
+
+    public FragmentWriter(FileChannel channel, String name)
+    {
+        this.channel = channel;
+        this.thread = new Thread(this::run, name);
+        thread.start();
+    }
+
+    /**
+     * Queues boxes and sample data to append to the file.
+     *
+     * @param boxes The boxes, e.g. a moof and the header of its mdat
+     * @param data  The samples, the buffers are recycled once written, null if none
+     * @throws IOException if a previous write failed
+     */
+    public void write(ByteBuffer boxes, ByteBuffer[] data) throws IOException
+    {
+        enqueue(new Write(boxes, data, -1));
+    }
+
+    @Override
+    public void writeHeader(ByteBuffer header) throws IOException
+    {
+        write(header, null);
+    }
+
+    @Override
+    public void writeFragment(ByteBuffer boxes, ByteBuffer[] data, long time, long duration,
+                              boolean independent) throws IOException
+    {
+        write(boxes, data);
+    }
+
+    /**
+     * Queues a write at a position of the file, after the writes already queued, e.g. to
+     * fill in a field known at the end.
+     */
+    @Override
+    public void writeAt(ByteBuffer boxes, long position) throws IOException
+    {
+        enqueue(new Write(boxes, null, position));
+    }
+
+    /**
+     * Returns a buffer of at least the given capacity, a recycled one if possible.
+     */
+    @Override
+    public ByteBuffer obtain(int capacity)
+    {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null || buffer.capacity() < capacity) {
+            buffer = ByteBuffer.allocateDirect(Math.max(capacity, buffer != null ? buffer.capacity() * 2 : 0));
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Writes what is queued, then closes the file.
+     *
+     * @throws IOException if a write failed
+     */
+    @Override
+    public void close() throws IOException
+    {
+        try {
+            queue.put(END);
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            thread.interrupt();
+        } finally {
+            channel.close();
+        }
+
+        IOException error = this.error;
+        if (error != null) throw error;
+    }
+
+    /**
+     * Syncs the file to the storage after each fragment, true by default.
+     */
+    public void setSync(boolean sync)
+    {
+        this.sync = sync;
+    }
+
+    public long getWrittenBytes()
+    {
+        return writtenBytes;
+    }
+
+    /**
+     * Returns the average time taken by a write, with its sync, in us.
+     */
+    public long getWriteTime()
+    {
+        return writeTime / 1000;
+    }
+
+    /**
+     * Returns the number of writes waiting.
+     */
+    public int getPendingWrites()
+    {
+        return queue.size();
+    }
+
+    private void enqueue(Write write) throws IOException
+    {
+        IOException error = this.error;
+        if (error != null) throw error;
+
+        try {
+            queue.put(write);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Fragment not written");
+        }
+    }
+
+    private void run()
+    {
+        try {
+            for (Write write; (write = queue.take()) != END; ) {
+                if (error != null) continue;
+
+                long start = System.nanoTime();
+                try {
+                    if (write.position >= 0) {
+                        while (write.boxes.hasRemaining()) {
+                            channel.write(write.boxes, write.position + write.boxes.position());
+                        }
+                    } else {
+                        writeAll(write);
+                        if (sync) channel.force(false);
+                    }
+                } catch (IOException e) {
+                    LogHelper.e(TAG, "Fragment write error", e);
+                    error = e;
+                    continue;
+                }
+                long time = System.nanoTime() - start;
+
+                if (writes++ == 0) {
+                    writeTime = time;
+                } else {
+                    writeTime += (time - writeTime) >> 4;
+                }
+
+                if (write.data != null) {
+                    for (ByteBuffer buffer : write.data) {
+                        free.offer(buffer);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            LogHelper.i(TAG, "Writer interrupted");
+        }
+    }
+
+    private void writeAll(Write write) throws IOException
+    {
+        ByteBuffer[] buffers;
+        if (write.data == null) {
+            buffers = new ByteBuffer[]{write.boxes};
+        } else {
+            buffers = new ByteBuffer[write.data.length + 1];
+            buffers[0] = write.boxes;
+            System.arraycopy(write.data, 0, buffers, 1, write.data.length);
+        }
+
+        long remaining = 0;
+        for (ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+        while (remaining > 0) {
+            long written = channel.write(buffers);
+            remaining -= written;
+            writtenBytes += written;
+        }
+    }
+
+    private static class Write
+    {
+        private final ByteBuffer boxes;
+        private final ByteBuffer[] data;
+        private final long position;
+
+        private Write(ByteBuffer boxes, ByteBuffer[] data, long position)
+        {
+            this.boxes = boxes;
+            this.data = data;
+            this.position = position;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.github.teocci.libstream.muxers.mp4;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Builds ISO BMFF boxes into a growable buffer.
+ * <p>
+ * A box is opened by {@link #begin(String)}, its size is written back when
+ * {@link #end()} closes it, so nested boxes are written in a single pass:
+ * <pre>
+ *  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ *  |                             size                              |
+ *  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ *  |                             type                              |
+ *  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ *  |    version    |                     flags                     | full box
+ *  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * </pre>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-27
+ */
+public class Mp4BoxWriter
+{
+    private static final int MAX_DEPTH = 16;
+
+    private ByteBuffer buffer;
+
+    // Offsets of the boxes still open
+    private final int[] starts = new int[MAX_DEPTH];
+    private int depth = 0;
+
+    public Mp4BoxWriter(int capacity)
+    {
+        buffer = ByteBuffer.allocate(capacity);
+    }
+
+    /**
+     * Opens a box, its size is written by {@link #end()}.
+     */
+    public Mp4BoxWriter begin(String type)
+    {
+        starts[depth++] = buffer.position();
+        u32(0);
+        fourCC(type);
+        return this;
+    }
+
+    /**
+     * Opens a full box, with its version and flags.
+     */
+    public Mp4BoxWriter begin(String type, int version, int flags)
+    {
+        begin(type);
+        u32(version << 24 | flags & 0xFFFFFF);
+        return this;
+    }
+
+    /**
+     * Closes the last box opened.
+     */
+    public Mp4BoxWriter end()
+    {
+        int start = starts[--depth];
+        buffer.putInt(start, buffer.position() - start);
+        return this;
+    }
+
+    public Mp4BoxWriter u8(int value)
+    {
+        ensure(1);
+        buffer.put((byte) value);
+        return this;
+    }
+
+    public Mp4BoxWriter u16(int value)
+    {
+        ensure(2);
+        buffer.putShort((short) value);
+        return this;
+    }
+
+    public Mp4BoxWriter u24(int value)
+    {
+        ensure(3);
+        buffer.put((byte) (value >> 16));
+        buffer.putShort((short) value);
+        return this;
+    }
+
+    public Mp4BoxWriter u32(int value)
+    {
+        ensure(4);
+        buffer.putInt(value);
+        return this;
+    }
+
+    public Mp4BoxWriter u64(long value)
+    {
+        ensure(8);
+        buffer.putLong(value);
+        return this;
+    }
+
+    public Mp4BoxWriter zeros(int count)
+    {
+        ensure(count);
+        for (int i = 0; i < count; i++) {
+            buffer.put((byte) 0);
+        }
+        return this;
+    }
+
+    public Mp4BoxWriter bytes(byte[] data)
+    {
+        ensure(data.length);
+        buffer.put(data);
+        return this;
+    }
+
+    public Mp4BoxWriter fourCC(String type)
+    {
+        ensure(4);
+        for (int i = 0; i < 4; i++) {
+            buffer.put((byte) type.charAt(i));
+        }
+        return this;
+    }
+
+    /**
+     * Writes the unity matrix of the movie and track headers.
+     */
+    public Mp4BoxWriter matrix()
+    {
+        u32(0x00010000).u32(0).u32(0);
+        u32(0).u32(0x00010000).u32(0);
+        u32(0).u32(0).u32(0x40000000);
+        return this;
+    }
+
+    /**
+     * Overwrites a 32 bits field written before, e.g. a data offset known later.
+     */
+    public void set32(int offset, int value)
+    {
+        buffer.putInt(offset, value);
+    }
+
+    public int position()
+    {
+        return buffer.position();
+    }
+
+    /**
+     * Forgets what was written, keeping the buffer.
+     */
+    public void clear()
+    {
+        buffer.clear();
+        depth = 0;
+    }
+
+    /**
+     * Returns a copy of the boxes written, the writer can then be cleared and reused while
+     * the copy is being written out.
+     */
+    public ByteBuffer toBuffer()
+    {
+        ByteBuffer boxes = buffer.duplicate();
+        boxes.flip();
+        ByteBuffer copy = ByteBuffer.allocate(boxes.remaining());
+        copy.put(boxes);
+        copy.flip();
+        return copy;
+    }
+
+    private void ensure(int count)
+    {
+        if (buffer.remaining() >= count) return;
+
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + count));
+        buffer.flip();
+        larger.put(buffer);
+        buffer = larger;
+    }
+}
@@ -0,0 +1,179 @@
+package com.github.teocci.libstream.muxers.mp4;
+
+/**
+ * The sample entries of the tracks, in their stsd box: how to decode the samples.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-27
+ */
+final class Mp4SampleEntries
+{
+    private static final int[] SAMPLING_RATES = {
+            96000, 88200, 64000, 48000, 44100, 32000, 24000, 22050, 16000, 12000, 11025, 8000, 7350
+    };
+
+    // AAC Low Complexity, the profile of the Android encoders
+    private static final int AAC_LC = 2;
+
+    private Mp4SampleEntries() {}
+
+    /**
+     * Writes the avc1 sample entry of a H.264 track, ISO 14496-15 5.4.
+     */
+    static void writeAvc1(Mp4BoxWriter box, int width, int height, byte[] sps, byte[] pps)
+    {
+        box.begin("avc1");
+        writeVisualSampleEntry(box, width, height);
+
+        //  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+        //  |    version    |    profile    | compatibility |     level     |
+        //  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+        //  |111111 | len-1 |111| sps count |        sps length             |
+        //  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+        box.begin("avcC");
+        box.u8(1).u8(sps[1]).u8(sps[2]).u8(sps[3]);
+        // 11111111 = 0xFF, lengths in 4 bytes
+        // 11100001 = 0xE1, one SPS
+        box.u8(0xFF).u8(0xE1);
+        box.u16(sps.length).bytes(sps);
+        box.u8(1);
+        box.u16(pps.length).bytes(pps);
+
+        int profile = sps[1] & 0xFF;
+        if (profile == 100 || profile == 110 || profile == 122 || profile == 144) {
+            // 4:2:0 in 8 bits, what the Android encoders output
+            box.u8(0xFC | 1).u8(0xF8).u8(0xF8).u8(0);
+        }
+        box.end();
+
+        box.end();
+    }
+
+    /**
+     * Writes the hvc1 sample entry of a H.265 track, ISO 14496-15 8.4.
+     */
+    static void writeHvc1(Mp4BoxWriter box, int width, int height, byte[] vps, byte[] sps, byte[] pps)
+    {
+        box.begin("hvc1");
+        writeVisualSampleEntry(box, width, height);
+
+        // The profile_tier_level of the SPS follows its 2 bytes header and 1 byte of ids
+        byte[] rbsp = removeEmulationPrevention(sps, Math.min(sps.length, 2 + 1 + 12));
+        // 00001110 = 0x0E
+        int maxSubLayers = ((rbsp[2] & 0x0E) >> 1) + 1;
+        // 00000001 = 0x01
+        int temporalIdNested = rbsp[2] & 0x01;
+
+        box.begin("hvcC");
+        box.u8(1);
+        // profile space, tier, profile, compatibility flags, constraint flags and level
+        for (int i = 3; i < 3 + 12; i++) {
+            box.u8(i < rbsp.length ? rbsp[i] : 0);
+        }
+        // No min_spatial_segmentation, unknown parallelism
+        box.u16(0xF000).u8(0xFC);
+        // 4:2:0 in 8 bits
+        box.u8(0xFC | 1).u8(0xF8).u8(0xF8);
+        // Unknown frame rate
+        box.u16(0);
+        // 00000011 = 0x03, lengths in 4 bytes
+        box.u8(maxSubLayers << 3 | temporalIdNested << 2 | 0x03);
+
+        box.u8(3);
+        writeNalArray(box, NalUnits.HEVC_VPS, vps);
+        writeNalArray(box, NalUnits.HEVC_SPS, sps);
+        writeNalArray(box, NalUnits.HEVC_PPS, pps);
+        box.end();
+
+        box.end();
+    }
+
+    /**
+     * Writes the mp4a sample entry of an AAC track, ISO 14496-14 5.6.
+     */
+    static void writeMp4a(Mp4BoxWriter box, int sampleRate, int channelCount, byte[] audioSpecificConfig)
+    {
+        box.begin("mp4a");
+        box.zeros(6).u16(1);
+        box.zeros(8);
+        box.u16(channelCount).u16(16);
+        box.u16(0).u16(0);
+        box.u32(sampleRate << 16);
+
+        // The descriptors of ISO 14496-1, each one behind its tag and its length
+        int asc = audioSpecificConfig.length;
+        box.begin("esds", 0, 0);
+        box.u8(0x03).u8(3 + 2 + 13 + 2 + asc + 3);
+        box.u16(0).u8(0);
+        // DecoderConfigDescriptor: AAC, audio stream
+        box.u8(0x04).u8(13 + 2 + asc);
+        box.u8(0x40).u8(0x05 << 2 | 1).u24(0);
+        box.u32(0).u32(0);
+        // DecoderSpecificInfo
+        box.u8(0x05).u8(asc).bytes(audioSpecificConfig);
+        // SLConfigDescriptor, predefined
+        box.u8(0x06).u8(1).u8(0x02);
+        box.end();
+
+        box.end();
+    }
+
+    /**
+     * Returns the AudioSpecificConfig of an AAC LC stream, ISO 14496-3 1.6.2.1.
+     */
+    static byte[] createAudioSpecificConfig(int sampleRate, int channelCount)
+    {
+        int index = 4;
+        for (int i = 0; i < SAMPLING_RATES.length; i++) {
+            if (SAMPLING_RATES[i] == sampleRate) index = i;
+        }
+
+        //  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+        //  | object  | freq  | chan  |000|
+        //  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+        int config = AAC_LC << 11 | index << 7 | channelCount << 3;
+        return new byte[]{(byte) (config >> 8), (byte) config};
+    }
+
+    private static void writeVisualSampleEntry(Mp4BoxWriter box, int width, int height)
+    {
+        box.zeros(6).u16(1);
+        box.zeros(16);
+        box.u16(width).u16(height);
+        // 72 dpi
+        box.u32(0x00480000).u32(0x00480000);
+        box.u32(0);
+        box.u16(1);
+        box.zeros(32);
+        box.u16(0x0018).u16(0xFFFF);
+    }
+
+    private static void writeNalArray(Mp4BoxWriter box, int type, byte[] unit)
+    {
+        // 10000000 = 0x80, array_completeness
+        box.u8(0x80 | type);
+        box.u16(1);
+        box.u16(unit.length).bytes(unit);
+    }
+
+    /**
+     * Returns the first bytes of the payload of a NAL unit, without the 03 of the
+     * 00 00 03 sequences.
+     */
+    private static byte[] removeEmulationPrevention(byte[] unit, int count)
+    {
+        byte[] rbsp = new byte[count];
+        int zeros = 0;
+        int n = 0;
+        for (int i = 0; i < unit.length && n < count; i++) {
+            if (zeros >= 2 && unit[i] == 3) {
+                zeros = 0;
+                continue;
+            }
+            zeros = unit[i] == 0 ? zeros + 1 : 0;
+            rbsp[n++] = unit[i];
+        }
+        return rbsp;
+    }
+}
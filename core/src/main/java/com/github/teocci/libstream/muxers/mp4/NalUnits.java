@@ -0,0 +1,166 @@
+package com.github.teocci.libstream.muxers.mp4;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The NAL units of the Annex B byte streams of the codecs, each one behind a start code:
+ * <pre>
+ *  00 00 00 01 | NAL unit | 00 00 01 | NAL unit | ...
+ * </pre>
+ * MP4 stores them behind their length instead, in 4 bytes, and keeps the parameter sets
+ * in the sample entry of the track.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-27
+ */
+public final class NalUnits
+{
+    // NAL unit types of H.264, in the 5 low bits of the header
+    public static final int AVC_SPS = 7;
+    public static final int AVC_PPS = 8;
+    public static final int AVC_AUD = 9;
+
+    // NAL unit types of H.265, in the bits 1 to 6 of the first byte of the header
+    public static final int HEVC_VPS = 32;
+    public static final int HEVC_SPS = 33;
+    public static final int HEVC_PPS = 34;
+    public static final int HEVC_AUD = 35;
+
+    private NalUnits() {}
+
+    /**
+     * Returns the NAL units of a byte stream, without their start codes. A buffer without
+     * start code is a single NAL unit.
+     */
+    public static List<byte[]> split(byte[] stream)
+    {
+        List<byte[]> units = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.wrap(stream);
+
+        int start = nextUnit(buffer, 0, stream.length);
+        if (start < 0) start = 0;
+        while (start < stream.length) {
+            int next = nextUnit(buffer, start, stream.length);
+            int end = next < 0 ? stream.length : startCodeOffset(buffer, next);
+            byte[] unit = new byte[end - start];
+            System.arraycopy(stream, start, unit, 0, unit.length);
+            units.add(unit);
+            if (next < 0) break;
+            start = next;
+        }
+
+        return units;
+    }
+
+    /**
+     * Returns the NAL unit without its start code, or the same array if it has none.
+     */
+    public static byte[] stripStartCode(byte[] unit)
+    {
+        if (unit == null) return null;
+
+        int start = nextUnit(ByteBuffer.wrap(unit), 0, Math.min(unit.length, 4));
+        if (start <= 0) return unit;
+
+        byte[] stripped = new byte[unit.length - start];
+        System.arraycopy(unit, start, stripped, 0, stripped.length);
+        return stripped;
+    }
+
+    public static int typeOf(byte header, boolean hevc)
+    {
+        // 00011111 = 0x1F
+        // 01111110 = 0x7E
+        return hevc ? (header & 0x7E) >> 1 : header & 0x1F;
+    }
+
+    /**
+     * Whether the NAL unit is kept out of the samples: the parameter sets go in the sample
+     * entry, the access unit delimiters are not needed.
+     */
+    public static boolean isOutOfBand(int type, boolean hevc)
+    {
+        if (hevc) return type >= HEVC_VPS && type <= HEVC_AUD;
+        return type >= AVC_SPS && type <= AVC_AUD;
+    }
+
+    /**
+     * Copies an access unit, from the position to the limit of the buffer, behind the
+     * lengths of its NAL units. The position and the limit of the buffer are kept.
+     *
+     * @param buffer The access unit in Annex B
+     * @param out    The destination, with enough room for the access unit and 4 bytes
+     *               more per NAL unit
+     * @param hevc   Whether the access unit is H.265
+     * @return the number of bytes written
+     */
+    public static int toLengthPrefixed(ByteBuffer buffer, ByteBuffer out, boolean hevc)
+    {
+        int position = buffer.position();
+        int limit = buffer.limit();
+        int written = 0;
+
+        int start = nextUnit(buffer, position, limit);
+        if (start < 0) start = position;
+        while (start < limit) {
+            int next = nextUnit(buffer, start, limit);
+            int end = next < 0 ? limit : startCodeOffset(buffer, next);
+
+            if (end > start && !isOutOfBand(typeOf(buffer.get(start), hevc), hevc)) {
+                out.putInt(end - start);
+                buffer.limit(end);
+                buffer.position(start);
+                out.put(buffer);
+                buffer.limit(limit);
+                written += 4 + end - start;
+            }
+
+            if (next < 0) break;
+            start = next;
+        }
+
+        buffer.position(position);
+        return written;
+    }
+
+    /**
+     * Returns the number of NAL units of an access unit, to size its length prefixed copy.
+     */
+    public static int count(ByteBuffer buffer)
+    {
+        int count = 0;
+        int limit = buffer.limit();
+        for (int offset = buffer.position(); (offset = nextUnit(buffer, offset, limit)) >= 0; ) {
+            count++;
+        }
+        return Math.max(count, 1);
+    }
+
+    /**
+     * Returns the offset of the NAL unit following the next start code from offset, or -1.
+     */
+    private static int nextUnit(ByteBuffer buffer, int offset, int limit)
+    {
+        for (int i = offset; i + 2 < limit; i++) {
+            if ((buffer.get(i + 2) & 0xFF) > 1) {
+                // Neither 00 nor 01, no start code can end before i + 3
+                i += 2;
+            } else if (buffer.get(i) == 0 && buffer.get(i + 1) == 0 && buffer.get(i + 2) == 1) {
+                return i + 3;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the offset of the start code of the NAL unit at offset, 3 or 4 bytes before.
+     */
+    private static int startCodeOffset(ByteBuffer buffer, int unit)
+    {
+        int offset = unit - 3;
+        return offset > 0 && buffer.get(offset - 1) == 0 ? offset - 1 : offset;
+    }
+}
@@ -0,0 +1,616 @@
+package com.github.teocci.libstream.muxers.ts;
+
+import com.github.teocci.libstream.coder.FrameInfo;
+import com.github.teocci.libstream.interfaces.TsOutput;
+import com.github.teocci.libstream.muxers.mp4.NalUnits;
+import com.github.teocci.libstream.utils.LogHelper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Muxes the encoded frames into a MPEG-TS stream of a single program, for the receivers
+ * that only take TS over UDP.
+ * <p>
+ * Each frame becomes a PES packet, cut into TS packets of 188 bytes that are written
+ * straight into the datagram, 7 of them per datagram:
+ * <pre>
+ *  | 47 | PUSI PID | AFC CC | adaptation field | PES header | AUD SPS PPS | frame ... |
+ *  | 47 |     PID  | AFC CC | frame ...                                              |
+ *  | 47 |     PID  | AFC CC | stuffing ............................... | ... frame  |
+ * </pre>
+ * The PAT and the PMT are sent before each key frame, and at least every 100 ms. The PCR
+ * is carried by the video PID, in the adaptation field of the first packet of its frames.
+ * <p>
+ * The video frames are Annex B already, the AUD and the parameter sets are added in front
+ * of them. The AAC frames get an ADTS header. The tables, the headers and the datagram
+ * are all preallocated, so nothing is allocated per frame or per packet.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-28
+ */
+public class TsMuxer
+{
+    private static String TAG = LogHelper.makeLogTag(TsMuxer.class);
+
+    public static final int PACKET_SIZE = 188;
+    public static final int PACKETS_PER_DATAGRAM = 7;
+
+    private static final int PAYLOAD_SIZE = PACKET_SIZE - 4;
+
+    private static final int PAT_PID = 0x0000;
+    private static final int PMT_PID = 0x1000;
+    private static final int VIDEO_PID = 0x0100;
+    private static final int AUDIO_PID = 0x0101;
+
+    private static final int STREAM_TYPE_AAC = 0x0F;
+    private static final int STREAM_TYPE_H264 = 0x1B;
+    private static final int STREAM_TYPE_HEVC = 0x24;
+
+    private static final int STREAM_ID_VIDEO = 0xE0;
+    private static final int STREAM_ID_AUDIO = 0xC0;
+
+    private static final int PES_HEADER_SIZE = 14;
+    private static final int ADTS_HEADER_SIZE = 7;
+
+    private static final long PSI_INTERVAL = 100_000;
+    private static final long PCR_INTERVAL = 40_000;
+
+    private static final byte[] AVC_AUD = {0, 0, 0, 1, 0x09, (byte) 0xF0};
+    private static final byte[] HEVC_AUD = {0, 0, 0, 1, 0x46, 0x01, 0x50};
+    private static final byte[] START_CODE = {0, 0, 0, 1};
+
+    // Sampling frequencies of the ADTS header, by index
+    private static final int[] SAMPLING_RATES = {
+            96000, 88200, 64000, 48000, 44100, 32000, 24000, 22050, 16000, 12000, 11025, 8000, 7350
+    };
+    private static final int AAC_LC = 2;
+
+    private final TsOutput output;
+
+    private final ByteBuffer datagram = ByteBuffer.allocateDirect(PACKET_SIZE * PACKETS_PER_DATAGRAM);
+
+    private final byte[] pat = new byte[PACKET_SIZE];
+    private final byte[] pmt = new byte[PACKET_SIZE];
+    private int version = 0;
+
+    // The PES header, the AUD and the parameter sets, and the ADTS header in front of the frames
+    private final byte[] pesHeader = new byte[PES_HEADER_SIZE];
+    private byte[] videoPrefix = new byte[0];
+    private int audLength = 0;
+    private final byte[] adtsHeader = new byte[ADTS_HEADER_SIZE];
+
+    private byte[] sps, pps, vps;
+    private boolean hevc = false;
+
+    private int channelCount = 0;
+    private int frequencyIndex = -1;
+
+    // Continuity counters of the PIDs
+    private int patCounter, pmtCounter, videoCounter, audioCounter;
+
+    // The sources of the payload of the current PES packet, read in turn
+    private byte[] prefix;
+    private int headerOffset, prefixOffset, prefixEnd;
+    private ByteBuffer frame;
+
+    private boolean started = false;
+    // Whether the PMT of the stream has the audio PID
+    private boolean audio = false;
+    private long startUs;
+    private long lastPsiUs, lastPcrUs;
+
+    // Time given to the receivers to fill their buffers, between the PCR and the PTS
+    private long delayUs = 400_000;
+
+    private long packetCount = 0;
+    private long datagramCount = 0;
+    private long byteCount = 0;
+
+    public TsMuxer(TsOutput output)
+    {
+        this.output = output;
+    }
+
+    /**
+     * Sets the parameter sets of the video, with or without their start codes. There is a
+     * vps for H.265 only. They are sent again in front of each key frame. A change of codec
+     * restarts the stream at the next key frame, with a new PMT.
+     */
+    public synchronized void setParameterSets(byte[] sps, byte[] pps, byte[] vps)
+    {
+        if (started && hevc != (vps != null)) started = false;
+
+        this.sps = sps;
+        this.pps = pps;
+        this.vps = vps;
+        this.hevc = vps != null;
+
+        // AUD + VPS + SPS + PPS, each one behind a start code
+        byte[] aud = hevc ? HEVC_AUD : AVC_AUD;
+        int length = aud.length;
+        for (byte[] set : new byte[][]{vps, sps, pps}) {
+            if (set == null) continue;
+            for (byte[] unit : NalUnits.split(set)) length += START_CODE.length + unit.length;
+        }
+
+        byte[] videoPrefix = new byte[length];
+        System.arraycopy(aud, 0, videoPrefix, 0, aud.length);
+        int offset = aud.length;
+        for (byte[] set : new byte[][]{vps, sps, pps}) {
+            if (set == null) continue;
+            for (byte[] unit : NalUnits.split(set)) {
+                System.arraycopy(START_CODE, 0, videoPrefix, offset, START_CODE.length);
+                System.arraycopy(unit, 0, videoPrefix, offset + START_CODE.length, unit.length);
+                offset += START_CODE.length + unit.length;
+            }
+        }
+
+        this.videoPrefix = videoPrefix;
+        this.audLength = aud.length;
+    }
+
+    /**
+     * Sets the format of the AAC-LC audio, before the stream starts.
+     */
+    public synchronized void setAudioFormat(int sampleRate, int channelCount)
+    {
+        this.channelCount = channelCount;
+        this.frequencyIndex = -1;
+        for (int i = 0; i < SAMPLING_RATES.length; i++) {
+            if (SAMPLING_RATES[i] == sampleRate) frequencyIndex = i;
+        }
+        if (frequencyIndex < 0) LogHelper.w(TAG, "No ADTS index for " + sampleRate + " Hz");
+    }
+
+    /**
+     * Sets the delay between the PCR and the PTS of the frames, 400 ms by default. The
+     * receivers buffer that much before they decode.
+     *
+     * @param delay The delay in ms
+     */
+    public synchronized void setDelay(long delay)
+    {
+        this.delayUs = delay * 1000;
+    }
+
+    /**
+     * Adds an encoded video frame, in Annex B. The stream starts at the first key frame.
+     * The position and the limit of the buffer are kept.
+     */
+    public synchronized void writeVideo(ByteBuffer buffer, FrameInfo info) throws IOException
+    {
+        if (info.isCodecConfig() || info.size <= 0) return;
+        if (!started) {
+            if (!info.isKeyFrame() || sps == null || pps == null) return;
+            start(info.presentationTimeUs);
+        }
+
+        long timeUs = info.presentationTimeUs;
+        if (timeUs < startUs) return;
+
+        boolean keyFrame = info.isKeyFrame();
+        if (keyFrame || timeUs - lastPsiUs >= PSI_INTERVAL) writePsi(timeUs);
+
+        // The encoder may have started the access unit with its AUD or its parameter sets
+        int type = firstUnitType(buffer, info.offset, info.size);
+        boolean hasAud = type == (hevc ? NalUnits.HEVC_AUD : NalUnits.AVC_AUD);
+        boolean hasSets = type == (hevc ? NalUnits.HEVC_VPS : NalUnits.AVC_SPS);
+        int prefixLength = hasAud ? 0 : keyFrame && !hasSets ? videoPrefix.length : audLength;
+
+        boolean pcr = timeUs - lastPcrUs >= PCR_INTERVAL || keyFrame;
+        if (pcr) lastPcrUs = timeUs;
+
+        // The length of a video PES may be left to 0
+        setPesHeader(STREAM_ID_VIDEO, 0, toPts(timeUs));
+        writePes(VIDEO_PID, videoPrefix, prefixLength, buffer, info, pcr ? timeUs : -1, keyFrame);
+    }
+
+    /**
+     * Adds an encoded AAC frame, without ADTS header. It is dropped until the video starts.
+     * The position and the limit of the buffer are kept.
+     */
+    public synchronized void writeAudio(ByteBuffer buffer, FrameInfo info) throws IOException
+    {
+        if (!started || !audio || info.isCodecConfig() || info.size <= 0) return;
+
+        long timeUs = info.presentationTimeUs;
+        if (timeUs < startUs) return;
+
+        if (timeUs - lastPsiUs >= PSI_INTERVAL) writePsi(timeUs);
+
+        setAdtsHeader(ADTS_HEADER_SIZE + info.size);
+        int pesLength = PES_HEADER_SIZE - 6 + ADTS_HEADER_SIZE + info.size;
+        setPesHeader(STREAM_ID_AUDIO, pesLength > 0xFFFF ? 0 : pesLength, toPts(timeUs));
+        writePes(AUDIO_PID, adtsHeader, ADTS_HEADER_SIZE, buffer, info, -1, true);
+    }
+
+    /**
+     * Sends the packets left in the datagram, and waits for the next key frame.
+     */
+    public synchronized void stop() throws IOException
+    {
+        flush();
+        started = false;
+    }
+
+    /**
+     * Sends the packets written so far, in a datagram shorter than 7 packets.
+     */
+    public synchronized void flush() throws IOException
+    {
+        if (datagram.position() == 0) return;
+
+        datagram.flip();
+        int length = datagram.remaining();
+        try {
+            output.send(datagram);
+        } finally {
+            datagram.clear();
+        }
+        datagramCount++;
+        byteCount += length;
+    }
+
+    private void start(long timeUs)
+    {
+        audio = frequencyIndex >= 0;
+        buildTables();
+
+        patCounter = pmtCounter = videoCounter = audioCounter = 0;
+        datagram.clear();
+
+        startUs = timeUs;
+        lastPsiUs = lastPcrUs = Long.MIN_VALUE / 2;
+        started = true;
+
+        LogHelper.i(TAG, "TS stream started, " + (hevc ? "H.265" : "H.264")
+                + (audio ? " and AAC" : ""));
+    }
+
+
+    // PSI
+
+    private void buildTables()
+    {
+        // A new version for each stream, the tracks may have changed
+        version = (version + 1) & 0x1F;
+
+        // Program 1 is in the PMT PID
+        fillSection(pat, PAT_PID, 0x00, 0x0001, new byte[]{
+                0x00, 0x01, (byte) (0xE0 | PMT_PID >> 8), (byte) PMT_PID
+        });
+
+        byte[] streams = new byte[4 + (audio ? 10 : 5)];
+        // PCR PID, then no program info
+        streams[0] = (byte) (0xE0 | VIDEO_PID >> 8);
+        streams[1] = (byte) VIDEO_PID;
+        streams[2] = (byte) 0xF0;
+        streams[3] = 0x00;
+        putStream(streams, 4, hevc ? STREAM_TYPE_HEVC : STREAM_TYPE_H264, VIDEO_PID);
+        if (audio) putStream(streams, 9, STREAM_TYPE_AAC, AUDIO_PID);
+        fillSection(pmt, PMT_PID, 0x02, 0x0001, streams);
+    }
+
+    private static void putStream(byte[] data, int offset, int type, int pid)
+    {
+        data[offset] = (byte) type;
+        data[offset + 1] = (byte) (0xE0 | pid >> 8);
+        data[offset + 2] = (byte) pid;
+        // No ES info
+        data[offset + 3] = (byte) 0xF0;
+        data[offset + 4] = 0x00;
+    }
+
+    /**
+     * Writes a PSI section in a whole TS packet, its continuity counter left to 0.
+     */
+    private void fillSection(byte[] packet, int pid, int tableId, int tableIdExtension, byte[] data)
+    {
+        packet[0] = 0x47;
+        // Payload unit start
+        packet[1] = (byte) (0x40 | pid >> 8);
+        packet[2] = (byte) pid;
+        // Payload only
+        packet[3] = 0x10;
+        // Pointer field
+        packet[4] = 0x00;
+
+        // Header after the length, the data and the CRC
+        int sectionLength = 5 + data.length + 4;
+        int offset = 5;
+        packet[offset++] = (byte) tableId;
+        // Section syntax, reserved bits
+        packet[offset++] = (byte) (0xB0 | sectionLength >> 8);
+        packet[offset++] = (byte) sectionLength;
+        packet[offset++] = (byte) (tableIdExtension >> 8);
+        packet[offset++] = (byte) tableIdExtension;
+        // Reserved bits, version, current
+        packet[offset++] = (byte) (0xC1 | version << 1);
+        // Section number, last section number
+        packet[offset++] = 0x00;
+        packet[offset++] = 0x00;
+        System.arraycopy(data, 0, packet, offset, data.length);
+        offset += data.length;
+
+        int crc = crc32(packet, 5, offset);
+        packet[offset++] = (byte) (crc >> 24);
+        packet[offset++] = (byte) (crc >> 16);
+        packet[offset++] = (byte) (crc >> 8);
+        packet[offset++] = (byte) crc;
+
+        for (; offset < PACKET_SIZE; offset++) packet[offset] = (byte) 0xFF;
+    }
+
+    private void writePsi(long timeUs) throws IOException
+    {
+        pat[3] = (byte) (0x10 | patCounter);
+        patCounter = (patCounter + 1) & 0x0F;
+        putPacket(pat);
+
+        pmt[3] = (byte) (0x10 | pmtCounter);
+        pmtCounter = (pmtCounter + 1) & 0x0F;
+        putPacket(pmt);
+
+        lastPsiUs = timeUs;
+    }
+
+    private void putPacket(byte[] packet) throws IOException
+    {
+        datagram.put(packet);
+        onPacket();
+    }
+
+
+    // PES
+
+    /**
+     * Writes the PES header with a PTS only: the encoders of the library do not reorder
+     * the frames, so the DTS would be the same.
+     */
+    private void setPesHeader(int streamId, int length, long pts)
+    {
+        byte[] h = pesHeader;
+        h[0] = 0x00;
+        h[1] = 0x00;
+        h[2] = 0x01;
+        h[3] = (byte) streamId;
+        h[4] = (byte) (length >> 8);
+        h[5] = (byte) length;
+        // 10, data alignment
+        h[6] = (byte) 0x84;
+        // PTS only
+        h[7] = (byte) 0x80;
+        h[8] = 5;
+        // 0010 PTS[32..30] 1 PTS[29..15] 1 PTS[14..0] 1
+        h[9] = (byte) (0x20 | (pts >> 29 & 0x0E) | 0x01);
+        h[10] = (byte) (pts >> 22);
+        h[11] = (byte) ((pts >> 14 & 0xFE) | 0x01);
+        h[12] = (byte) (pts >> 7);
+        h[13] = (byte) ((pts << 1 & 0xFE) | 0x01);
+    }
+
+    private void setAdtsHeader(int frameLength)
+    {
+        byte[] h = adtsHeader;
+        // Sync word, MPEG-4, layer 0, no CRC
+        h[0] = (byte) 0xFF;
+        h[1] = (byte) 0xF1;
+        // Profile AAC-LC (2 - 1), sampling frequency index, channel configuration
+        h[2] = (byte) ((AAC_LC - 1) << 6 | frequencyIndex << 2 | (channelCount >> 2 & 0x01));
+        h[3] = (byte) ((channelCount & 0x03) << 6 | frameLength >> 11 & 0x03);
+        h[4] = (byte) (frameLength >> 3);
+        // Buffer fullness 0x7FF for VBR, a single raw data block
+        h[5] = (byte) ((frameLength & 0x07) << 5 | 0x1F);
+        h[6] = (byte) 0xFC;
+    }
+
+    /**
+     * Cuts a PES packet into TS packets: its header, a prefix, then the frame.
+     *
+     * @param pcrUs        The time of the PCR of the first packet, or -1 for none
+     * @param randomAccess Whether the decoding can start at this frame
+     */
+    private void writePes(int pid, byte[] prefix, int prefixLength, ByteBuffer buffer, FrameInfo info,
+                          long pcrUs, boolean randomAccess)
+            throws IOException
+    {
+        int position = buffer.position();
+        int limit = buffer.limit();
+        buffer.limit(info.offset + info.size);
+        buffer.position(info.offset);
+
+        this.headerOffset = 0;
+        this.prefix = prefix;
+        this.prefixOffset = 0;
+        this.prefixEnd = prefixLength;
+        this.frame = buffer;
+
+        try {
+            int remaining = PES_HEADER_SIZE + prefixLength + info.size;
+            boolean first = true;
+            while (remaining > 0) {
+                remaining -= writePacket(pid, remaining, first, first ? pcrUs : -1, first && randomAccess);
+                first = false;
+            }
+        } finally {
+            this.frame = null;
+            buffer.limit(limit);
+            buffer.position(position);
+        }
+    }
+
+    /**
+     * Writes the next TS packet of the PES packet, and returns the number of its bytes it took.
+     */
+    private int writePacket(int pid, int remaining, boolean unitStart, long pcrUs, boolean randomAccess)
+            throws IOException
+    {
+        // Adaptation field length, flags and PCR
+        int fieldLength = pcrUs >= 0 || randomAccess ? (pcrUs >= 0 ? 8 : 2) : 0;
+        int payload = Math.min(remaining, PAYLOAD_SIZE - fieldLength);
+        // The last packet is stuffed in its adaptation field
+        int stuffing = PAYLOAD_SIZE - fieldLength - payload;
+        int counter = nextCounter(pid);
+
+        ByteBuffer d = datagram;
+        d.put((byte) 0x47);
+        d.put((byte) ((unitStart ? 0x40 : 0x00) | pid >> 8));
+        d.put((byte) pid);
+        boolean adaptation = fieldLength + stuffing > 0;
+        d.put((byte) ((adaptation ? 0x30 : 0x10) | counter));
+
+        if (adaptation) {
+            int length = fieldLength + stuffing - 1;
+            d.put((byte) length);
+            if (length > 0) {
+                int flags = (randomAccess ? 0x40 : 0x00) | (pcrUs >= 0 ? 0x10 : 0x00);
+                d.put((byte) flags);
+                if (pcrUs >= 0) putPcr(d, (pcrUs - startUs) * 27);
+                // Flags byte and PCR already written
+                int fill = length - (fieldLength > 0 ? fieldLength - 1 : 1);
+                for (int i = 0; i < fill; i++) d.put((byte) 0xFF);
+            }
+        }
+
+        copyPayload(d, payload);
+        onPacket();
+
+        return payload;
+    }
+
+    /**
+     * Copies the next bytes of the PES packet from its sources, in the datagram.
+     */
+    private void copyPayload(ByteBuffer d, int length)
+    {
+        if (headerOffset < PES_HEADER_SIZE) {
+            int count = Math.min(length, PES_HEADER_SIZE - headerOffset);
+            d.put(pesHeader, headerOffset, count);
+            headerOffset += count;
+            length -= count;
+        }
+
+        if (length > 0 && prefixOffset < prefixEnd) {
+            int count = Math.min(length, prefixEnd - prefixOffset);
+            d.put(prefix, prefixOffset, count);
+            prefixOffset += count;
+            length -= count;
+        }
+
+        if (length > 0) {
+            // Moves the limit of the frame instead of slicing it
+            ByteBuffer frame = this.frame;
+            int limit = frame.limit();
+            frame.limit(frame.position() + length);
+            d.put(frame);
+            frame.limit(limit);
+        }
+    }
+
+    /**
+     * Writes the PCR, 33 bits at 90 kHz and 9 bits at 27 MHz, in 6 bytes.
+     */
+    private static void putPcr(ByteBuffer d, long pcr)
+    {
+        long base = pcr / 300 & 0x1FFFFFFFFL;
+        int extension = (int) (pcr % 300);
+        d.put((byte) (base >> 25));
+        d.put((byte) (base >> 17));
+        d.put((byte) (base >> 9));
+        d.put((byte) (base >> 1));
+        // Low bit of the base, 6 reserved bits, high bit of the extension
+        d.put((byte) ((base & 0x01) << 7 | 0x7E | extension >> 8));
+        d.put((byte) extension);
+    }
+
+    private int nextCounter(int pid)
+    {
+        int counter;
+        if (pid == VIDEO_PID) {
+            counter = videoCounter;
+            videoCounter = (counter + 1) & 0x0F;
+        } else {
+            counter = audioCounter;
+            audioCounter = (counter + 1) & 0x0F;
+        }
+        return counter;
+    }
+
+    /**
+     * Sends the datagram once it holds 7 packets.
+     */
+    private void onPacket() throws IOException
+    {
+        packetCount++;
+        if (datagram.hasRemaining()) return;
+
+        flush();
+    }
+
+    /**
+     * Returns the PTS at 90 kHz, on 33 bits.
+     */
+    private long toPts(long timeUs)
+    {
+        return (timeUs - startUs + delayUs) * 9 / 100 & 0x1FFFFFFFFL;
+    }
+
+    /**
+     * Returns the type of the first NAL unit of an access unit, behind its start code, or -1.
+     */
+    private int firstUnitType(ByteBuffer buffer, int offset, int size)
+    {
+        if (size < 5 || buffer.get(offset) != 0 || buffer.get(offset + 1) != 0) return -1;
+        if (buffer.get(offset + 2) == 1) return NalUnits.typeOf(buffer.get(offset + 3), hevc);
+        if (buffer.get(offset + 2) == 0 && buffer.get(offset + 3) == 1) {
+            return NalUnits.typeOf(buffer.get(offset + 4), hevc);
+        }
+        return -1;
+    }
+
+    /**
+     * MPEG-2 CRC-32 of the PSI sections: polynomial 0x04C11DB7, no reflection.
+     */
+    private static int crc32(byte[] data, int from, int to)
+    {
+        int crc = 0xFFFFFFFF;
+        for (int i = from; i < to; i++) {
+            crc ^= (data[i] & 0xFF) << 24;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = crc < 0 ? crc << 1 ^ 0x04C11DB7 : crc << 1;
+            }
+        }
+        return crc;
+    }
+
+    public synchronized boolean isStarted()
+    {
+        return started;
+    }
+
+    public boolean isHevc()
+    {
+        return hevc;
+    }
+
+    /**
+     * Returns the number of TS packets written, the PSI included.
+     */
+    public synchronized long getPacketCount()
+    {
+        return packetCount;
+    }
+
+    public synchronized long getDatagramCount()
+    {
+        return datagramCount;
+    }
+
+    public synchronized long getByteCount()
+    {
+        return byteCount;
+    }
+}
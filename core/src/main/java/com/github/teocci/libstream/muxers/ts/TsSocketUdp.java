@@ -0,0 +1,131 @@
+package com.github.teocci.libstream.muxers.ts;
+
+import com.github.teocci.libstream.interfaces.TsOutput;
+import com.github.teocci.libstream.utils.LogHelper;
+import com.github.teocci.libstream.utils.rtsp.MulticastSender;
+import com.github.teocci.libstream.utils.rtsp.MulticastUtil;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+import static com.github.teocci.libstream.utils.rtsp.RtpConstants.IPTOS_LOWDELAY;
+
+/**
+ * Sends the datagrams of a {@link TsMuxer} over UDP, to a unicast or multicast address.
+ * <p>
+ * The channel is connected to its destination, so the address is not checked again on
+ * each send, and the datagrams are sent from the thread of the muxer. Below Android N a
+ * multicast destination is sent to by a {@link MulticastSender}, the channel can not set
+ * the TTL.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-28
+ */
+public class TsSocketUdp implements TsOutput
+{
+    private static String TAG = LogHelper.makeLogTag(TsSocketUdp.class);
+
+    private final DatagramChannel channel;
+
+    private InetSocketAddress destination;
+    private int timeToLive = 1;
+
+    // Sends to a multicast destination where the channel can not set the TTL, or null
+    private MulticastSender multicastSender;
+
+    public TsSocketUdp() throws IOException
+    {
+        channel = DatagramChannel.open();
+        channel.socket().bind(null);
+        try {
+            channel.socket().setTrafficClass(IPTOS_LOWDELAY);
+        } catch (IOException e) {
+            LogHelper.w(TAG, "Traffic class not set: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Sets the address the datagrams are sent to.
+     */
+    public synchronized void setDestination(String host, int port) throws IOException
+    {
+        InetSocketAddress destination = new InetSocketAddress(InetAddress.getByName(host), port);
+
+        this.destination = destination;
+        updateChannel();
+    }
+
+    /**
+     * Sets the Time To Live of the datagrams sent to a multicast address, 1 by default.
+     * It applies at once to a multicast destination, see {@link MulticastUtil}.
+     */
+    public synchronized void setTimeToLive(int ttl) throws IOException
+    {
+        this.timeToLive = ttl;
+        if (destination != null) updateChannel();
+    }
+
+    /**
+     * Connects the channel to the destination, unless the fallback sender sends to it.
+     */
+    private void updateChannel() throws IOException
+    {
+        if (channel.isConnected()) channel.disconnect();
+
+        if (destination.getAddress().isMulticastAddress()) {
+            multicastSender = MulticastUtil.setTimeToLive(channel, timeToLive, multicastSender);
+        } else if (multicastSender != null) {
+            multicastSender.close();
+            multicastSender = null;
+        }
+
+        if (multicastSender == null) channel.connect(destination);
+    }
+
+    @Override
+    public synchronized void send(ByteBuffer datagram) throws IOException
+    {
+        if (destination == null) return;
+
+        try {
+            if (multicastSender != null) {
+                multicastSender.send(datagram, destination);
+            } else {
+                channel.write(datagram);
+            }
+        } catch (PortUnreachableException e) {
+            // The receiver is not listening (yet), UDP does not care
+        }
+    }
+
+    public synchronized InetSocketAddress getDestination()
+    {
+        return destination;
+    }
+
+    public int getLocalPort()
+    {
+        return channel.socket().getLocalPort();
+    }
+
+    /**
+     * Closes the underlying socket.
+     */
+    public synchronized void close()
+    {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (multicastSender != null) {
+            multicastSender.close();
+            multicastSender = null;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.github.teocci.libstream.protocols.hls;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A partial segment of a LL-HLS stream: a CMAF chunk, a moof and its mdat, as built by
+ * the muxer.
+ * <p>
+ * The part keeps the buffers of the muxer, it is sent from them without any copy. It is
+ * reference counted: the window of the segmenter holds one reference, each response
+ * sending it another one, and the buffers of the samples go back to the segmenter once
+ * the part has left the window and all its responses are sent.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-28
+ */
+public class HlsPart
+{
+    /**
+     * Number of the part in the stream, in its URI.
+     */
+    public final long sequence;
+
+    /**
+     * Media sequence number of its segment, and index in it.
+     */
+    public final long segment;
+    public final int index;
+
+    /**
+     * Start and duration, in us.
+     */
+    public final long time;
+    public final long duration;
+
+    /**
+     * True if the part starts with a key frame.
+     */
+    public final boolean independent;
+
+    // The boxes, then the samples of each track
+    private final ByteBuffer[] buffers;
+    private final int size;
+
+    private final HlsSegmenter segmenter;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    // The EXT-X-PART line of the playlist
+    final String line;
+
+    HlsPart(HlsSegmenter segmenter, long sequence, long segment, int index, long time, long duration,
+            boolean independent, ByteBuffer[] buffers)
+    {
+        this.segmenter = segmenter;
+        this.sequence = sequence;
+        this.segment = segment;
+        this.index = index;
+        this.time = time;
+        this.duration = duration;
+        this.independent = independent;
+        this.buffers = buffers;
+
+        int size = 0;
+        for (ByteBuffer buffer : buffers) {
+            size += buffer.remaining();
+        }
+        this.size = size;
+
+        this.line = String.format(Locale.US, "#EXT-X-PART:DURATION=%.5f,URI=\"%s\"%s\n",
+                duration / 1e6, getUri(sequence), independent ? ",INDEPENDENT=YES" : "");
+    }
+
+    static String getUri(long sequence)
+    {
+        return "part" + sequence + ".m4s";
+    }
+
+    /**
+     * Takes a reference on the part, for a response.
+     *
+     * @return false if the part is already released
+     */
+    boolean retain()
+    {
+        for (int count; (count = references.get()) > 0; ) {
+            if (references.compareAndSet(count, count + 1)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Gives back a reference, the buffers are recycled with the last one.
+     */
+    public void release()
+    {
+        if (references.decrementAndGet() != 0) return;
+
+        // The boxes were copied out of the muxer, only the samples are pooled
+        for (int i = 1; i < buffers.length; i++) {
+            segmenter.recycle(buffers[i]);
+        }
+    }
+
+    /**
+     * Puts views of the buffers of the part in the array, they can be consumed without
+     * affecting the part or the other views.
+     *
+     * @return the index after the last view
+     */
+    public int duplicate(ByteBuffer[] views, int offset)
+    {
+        for (ByteBuffer buffer : buffers) {
+            views[offset++] = buffer.duplicate();
+        }
+        return offset;
+    }
+
+    public int getBufferCount()
+    {
+        return buffers.length;
+    }
+
+    /**
+     * Returns the size of the part, in bytes.
+     */
+    public int getSize()
+    {
+        return size;
+    }
+}
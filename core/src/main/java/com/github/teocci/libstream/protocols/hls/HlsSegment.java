@@ -0,0 +1,81 @@
+package com.github.teocci.libstream.protocols.hls;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A segment of a LL-HLS stream, the parts from a key frame to the next segment.
+ * <p>
+ * Its lines in the playlist are built once, when it is complete.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-28
+ */
+class HlsSegment
+{
+    // Media sequence number
+    final long sequence;
+    // Start and duration, in us
+    final long time;
+    long duration = 0;
+
+    final List<HlsPart> parts = new ArrayList<>();
+
+    boolean complete = false;
+    // The EXT-X-PART lines, then the EXTINF line and the URI
+    String partLines;
+    String lines;
+
+    HlsSegment(long sequence, long time)
+    {
+        this.sequence = sequence;
+        this.time = time;
+    }
+
+    static String getUri(long sequence)
+    {
+        return "seg" + sequence + ".m4s";
+    }
+
+    void add(HlsPart part)
+    {
+        parts.add(part);
+        duration += part.duration;
+    }
+
+    void complete()
+    {
+        complete = true;
+
+        StringBuilder builder = new StringBuilder(parts.size() * 64);
+        for (HlsPart part : parts) {
+            builder.append(part.line);
+        }
+        partLines = builder.toString();
+        lines = String.format(Locale.US, "#EXTINF:%.5f,\n%s\n", duration / 1e6, getUri(sequence));
+    }
+
+    /**
+     * Returns the number of buffers of all its parts.
+     */
+    int getBufferCount()
+    {
+        int count = 0;
+        for (HlsPart part : parts) {
+            count += part.getBufferCount();
+        }
+        return count;
+    }
+
+    /**
+     * Gives back the reference of the window on the parts.
+     */
+    void release()
+    {
+        for (HlsPart part : parts) {
+            part.release();
+        }
+    }
+}
@@ -0,0 +1,584 @@
+package com.github.teocci.libstream.protocols.hls;
+
+import com.github.teocci.libstream.coder.FrameInfo;
+import com.github.teocci.libstream.interfaces.FragmentSink;
+import com.github.teocci.libstream.interfaces.PlaylistListener;
+import com.github.teocci.libstream.muxers.mp4.Fmp4Muxer;
+import com.github.teocci.libstream.utils.LogHelper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Turns the encoded frames into a LL-HLS stream of CMAF segments, kept in memory.
+ * <p>
+ * The frames go through a {@link Fmp4Muxer} cutting them into parts, a moof and its mdat
+ * each, and every key frame starting a part. A segment is the parts from a key frame once
+ * the previous segment lasts the segment duration:
+ * <pre>
+ *  init.mp4 = ftyp | moov
+ *  seg12.m4s = part60.m4s | part61.m4s | part62.m4s | part63.m4s
+ *              moof mdat    moof mdat    moof mdat    moof mdat
+ *              ^ key frame
+ * </pre>
+ * The target duration is set once per stream, from the segment duration and the key frame
+ * interval, and no segment ever lasts longer: a segment whose next key frame is too late is
+ * cut at a part without one.
+ * <p>
+ * The parts are numbered across the segments, so the part announced by the preload hint
+ * keeps its URI whatever segment it ends up in. The parts are never copied: a segment is
+ * sent from the buffers of its parts, and the buffers return to the muxer once their
+ * segment has left the sliding window and is no longer being sent.
+ * <p>
+ * The playlist is rendered once per change, whatever the number of viewers, from the
+ * lines each segment and part built when they were added.
+ * <p>
+ * The stream starts at the first video key frame once the parameter sets are known, the
+ * audio is muxed if its format is known by then.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-28
+ */
+public class HlsSegmenter implements FragmentSink
+{
+    private static String TAG = LogHelper.makeLogTag(HlsSegmenter.class);
+
+    /**
+     * Durations by default, in ms.
+     */
+    public static final long DEFAULT_SEGMENT_DURATION = 2000;
+    public static final long DEFAULT_PART_DURATION = 500;
+
+    /**
+     * Number of complete segments kept by default.
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 6;
+
+    // The parts of the segments of the last target durations are in the playlist
+    private static final int PART_LIST_TARGETS = 3;
+
+    // Buffers of the samples waiting for the next parts
+    private static final int POOL_SIZE = 64;
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private long segmentDuration = DEFAULT_SEGMENT_DURATION * 1000;
+    private long partDuration = DEFAULT_PART_DURATION * 1000;
+    private long keyFrameInterval = 0;
+    private int windowSize = DEFAULT_WINDOW_SIZE;
+
+    private int width, height;
+    private byte[] sps, pps, vps;
+    private int sampleRate, channelCount;
+
+    private volatile Fmp4Muxer muxer;
+    private volatile int videoTrack = -1;
+    private volatile int audioTrack = -1;
+
+    private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    // The window: the complete segments, then the one being built
+    private ByteBuffer header;
+    private final ArrayDeque<HlsSegment> segments = new ArrayDeque<>();
+    private HlsSegment current;
+    private long nextSegment = 0;
+    private long nextPart = 0;
+    private boolean ended = false;
+    // The EXT-X-TARGETDURATION of the stream, in s
+    private long targetDuration;
+    private long windowBytes = 0;
+
+    // The playlist rendered for the current version of the window
+    private long version = 0;
+    private long playlistVersion = -1;
+    private ByteBuffer playlist;
+
+    private volatile PlaylistListener listener;
+
+    /**
+     * Sets the size of the video, before the stream starts.
+     */
+    public synchronized void setVideoSize(int width, int height)
+    {
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Sets the parameter sets of the video, before the stream starts.
+     *
+     * @param sps The sequence parameter set, with or without its start code
+     * @param pps The picture parameter set
+     * @param vps The video parameter set of H.265, null for H.264
+     */
+    public synchronized void setParameterSets(byte[] sps, byte[] pps, byte[] vps)
+    {
+        this.sps = sps;
+        this.pps = pps;
+        this.vps = vps;
+    }
+
+    /**
+     * Sets the format of the AAC audio, before the stream starts.
+     */
+    public synchronized void setAudioFormat(int sampleRate, int channelCount)
+    {
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+    }
+
+    /**
+     * Sets the duration of the segments, rounded up to the key frames. It should be a
+     * multiple of the key frame interval of the encoder, 2 s by default.
+     *
+     * @param duration The duration in ms
+     */
+    public synchronized void setSegmentDuration(long duration)
+    {
+        this.segmentDuration = duration * 1000;
+    }
+
+    /**
+     * Sets the interval between the key frames of the encoder, for the next stream, unknown
+     * (0) by default. The target duration of the playlist is then the segment duration
+     * rounded up to the key frames.
+     *
+     * @param interval The interval in ms
+     */
+    public synchronized void setKeyFrameInterval(long interval)
+    {
+        this.keyFrameInterval = interval * 1000;
+    }
+
+    /**
+     * Sets the longest duration of the parts, for the next stream, 500 ms by default.
+     * The viewers play about three parts behind the live edge.
+     *
+     * @param duration The duration in ms
+     */
+    public synchronized void setPartDuration(long duration)
+    {
+        this.partDuration = duration * 1000;
+    }
+
+    /**
+     * Sets the number of complete segments kept, 6 by default.
+     */
+    public synchronized void setWindowSize(int windowSize)
+    {
+        this.windowSize = windowSize;
+    }
+
+    public void setListener(PlaylistListener listener)
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * Adds an encoded video frame, the buffer can be reused once it returns.
+     */
+    public void writeVideo(ByteBuffer buffer, FrameInfo info)
+    {
+        Fmp4Muxer muxer = this.muxer;
+        if (muxer == null) {
+            if (!info.isKeyFrame() || (muxer = startMuxer()) == null) return;
+        }
+
+        write(muxer, videoTrack, buffer, info);
+    }
+
+    /**
+     * Adds an encoded audio frame, the buffer can be reused once it returns.
+     */
+    public void writeAudio(ByteBuffer buffer, FrameInfo info)
+    {
+        Fmp4Muxer muxer = this.muxer;
+        int audioTrack = this.audioTrack;
+        if (muxer == null || audioTrack < 0) return;
+
+        write(muxer, audioTrack, buffer, info);
+    }
+
+    /**
+     * Ends the stream: its last part is added, then the end of the playlist. The segments
+     * stay available until the next stream starts.
+     */
+    public void stop()
+    {
+        Fmp4Muxer muxer;
+        synchronized (this) {
+            muxer = this.muxer;
+            this.muxer = null;
+        }
+        if (muxer == null) return;
+
+        try {
+            muxer.stop();
+        } catch (IOException e) {
+            LogHelper.e(TAG, "Stream not ended: " + e.getMessage());
+        }
+    }
+
+    private void write(Fmp4Muxer muxer, int track, ByteBuffer buffer, FrameInfo info)
+    {
+        try {
+            muxer.writeSampleData(track, buffer, info);
+        } catch (IOException | IllegalStateException e) {
+            // The stream has just been stopped
+            LogHelper.w(TAG, "Frame dropped: " + e.getMessage());
+        }
+    }
+
+    private synchronized Fmp4Muxer startMuxer()
+    {
+        if (muxer != null) return muxer;
+        if (sps == null || pps == null) return null;
+
+        clear();
+        targetDuration = computeTargetDuration(segmentDuration, partDuration, keyFrameInterval);
+
+        Fmp4Muxer muxer = new Fmp4Muxer(this);
+        muxer.setPartDuration(partDuration / 1000);
+        try {
+            videoTrack = muxer.addVideoTrack(width, height, sps, pps, vps);
+            audioTrack = sampleRate > 0 ? muxer.addAudioTrack(sampleRate, channelCount, null) : -1;
+            muxer.start();
+        } catch (IOException | RuntimeException e) {
+            LogHelper.e(TAG, "Stream not started: " + e.getMessage());
+            return null;
+        }
+
+        this.muxer = muxer;
+        return muxer;
+    }
+
+
+    // Sink of the muxer
+
+    @Override
+    public ByteBuffer obtain(int capacity)
+    {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null || buffer.capacity() < capacity) {
+            buffer = ByteBuffer.allocateDirect(Math.max(capacity, buffer != null ? buffer.capacity() * 2 : 0));
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Takes back the buffer of a released part.
+     */
+    void recycle(ByteBuffer buffer)
+    {
+        free.offer(buffer);
+    }
+
+    @Override
+    public void writeHeader(ByteBuffer header)
+    {
+        synchronized (this) {
+            this.header = header;
+            version++;
+        }
+        notifyListener();
+    }
+
+    @Override
+    public void writeFragment(ByteBuffer boxes, ByteBuffer[] data, long time, long duration, boolean independent)
+    {
+        synchronized (this) {
+            // A segment starts at a key frame, once the previous one lasts its duration or was
+            // cut without one, or at any part rather than last longer than the target duration
+            // once rounded
+            boolean full = current != null && current.duration + duration >= targetDuration * 1_000_000 + 500_000;
+            boolean due = current != null && (current.duration >= segmentDuration - partDuration / 2
+                    || !current.parts.get(0).independent);
+            if (current == null || full || independent && due) {
+                if (full && !independent) {
+                    LogHelper.w(TAG, "Segment " + current.sequence + " cut without a key frame");
+                }
+                completeSegment();
+                current = new HlsSegment(nextSegment++, time);
+            }
+
+            ByteBuffer[] buffers = new ByteBuffer[data.length + 1];
+            buffers[0] = boxes;
+            System.arraycopy(data, 0, buffers, 1, data.length);
+
+            HlsPart part = new HlsPart(this, nextPart++, current.sequence, current.parts.size(),
+                    time, duration, independent, buffers);
+            current.add(part);
+            windowBytes += part.getSize();
+            version++;
+        }
+        notifyListener();
+    }
+
+    /**
+     * The live segmenter has already sent the header, the duration of the stream stays
+     * unknown.
+     */
+    @Override
+    public void writeAt(ByteBuffer buffer, long position) {}
+
+    @Override
+    public void close()
+    {
+        synchronized (this) {
+            completeSegment();
+            ended = true;
+            version++;
+        }
+        notifyListener();
+    }
+
+    private void completeSegment()
+    {
+        if (current == null) return;
+
+        current.complete();
+        segments.add(current);
+        current = null;
+
+        while (segments.size() > windowSize) {
+            HlsSegment segment = segments.poll();
+            for (HlsPart part : segment.parts) {
+                windowBytes -= part.getSize();
+            }
+            segment.release();
+        }
+    }
+
+    /**
+     * Releases the segments of the previous stream.
+     */
+    private void clear()
+    {
+        for (HlsSegment segment : segments) {
+            segment.release();
+        }
+        segments.clear();
+        if (current != null) current.release();
+        current = null;
+
+        header = null;
+        ended = false;
+        windowBytes = 0;
+        version++;
+    }
+
+    private void notifyListener()
+    {
+        PlaylistListener listener = this.listener;
+        if (listener != null) listener.onPlaylistUpdate();
+    }
+
+
+    // Resources served
+
+    /**
+     * Returns the init segment, null before the stream starts.
+     */
+    public synchronized ByteBuffer getInit()
+    {
+        return header != null ? header.duplicate() : null;
+    }
+
+    /**
+     * Returns the media playlist, null before the stream starts.
+     */
+    public synchronized ByteBuffer getPlaylist()
+    {
+        if (header == null) return null;
+
+        if (playlistVersion != version) {
+            playlist = ByteBuffer.wrap(renderPlaylist().getBytes(ASCII));
+            playlistVersion = version;
+        }
+
+        return playlist.duplicate();
+    }
+
+    /**
+     * Returns true if the playlist holds the given segment, or the given part of it.
+     *
+     * @param msn  The media sequence number of the segment
+     * @param part The index of the part in the segment, -1 for the whole segment
+     */
+    public synchronized boolean hasPlaylist(long msn, int part)
+    {
+        if (header == null) return false;
+        if (ended) return true;
+
+        if (part < 0) {
+            HlsSegment last = segments.peekLast();
+            return last != null && last.sequence >= msn;
+        }
+
+        if (current != null) {
+            if (current.sequence > msn) return true;
+            if (current.sequence == msn) return current.parts.size() > part;
+        }
+        HlsSegment last = segments.peekLast();
+        return last != null && last.sequence >= msn;
+    }
+
+    /**
+     * Returns true if the given segment is too far ahead to wait for it.
+     */
+    public synchronized boolean isTooFarAhead(long msn)
+    {
+        return msn > nextSegment + 1;
+    }
+
+    /**
+     * Returns true if the given part is the next one, the one of the preload hint.
+     */
+    public synchronized boolean isNextPart(long sequence)
+    {
+        return header != null && !ended && sequence == nextPart;
+    }
+
+    /**
+     * Returns the part with a reference on it, null if it is not in the window.
+     */
+    public synchronized HlsPart acquirePart(long sequence)
+    {
+        HlsPart part = findPart(current, sequence);
+        for (HlsSegment segment : segments) {
+            if (part != null) break;
+            part = findPart(segment, sequence);
+        }
+
+        return part != null && part.retain() ? part : null;
+    }
+
+    /**
+     * Returns the parts of a complete segment with a reference on each, null if the
+     * segment is not in the window.
+     */
+    public synchronized HlsPart[] acquireSegment(long msn)
+    {
+        for (HlsSegment segment : segments) {
+            if (segment.sequence != msn) continue;
+
+            HlsPart[] parts = segment.parts.toArray(new HlsPart[segment.parts.size()]);
+            for (int i = 0; i < parts.length; i++) {
+                if (!parts[i].retain()) {
+                    while (--i >= 0) parts[i].release();
+                    return null;
+                }
+            }
+            return parts;
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the target duration of the playlist, in ms.
+     */
+    public synchronized long getTargetDuration()
+    {
+        // The one of the next stream, before it starts
+        if (targetDuration == 0) return computeTargetDuration(segmentDuration, partDuration, keyFrameInterval) * 1000;
+
+        return targetDuration * 1000;
+    }
+
+    public synchronized int getSegmentCount()
+    {
+        return segments.size();
+    }
+
+    public synchronized long getPartCount()
+    {
+        return nextPart;
+    }
+
+    /**
+     * Returns the memory held by the parts of the window, in bytes.
+     */
+    public synchronized long getWindowBytes()
+    {
+        return windowBytes;
+    }
+
+    public boolean isStarted()
+    {
+        return muxer != null;
+    }
+
+    /**
+     * Returns the target duration in s: the duration of the segments cut at the key frames,
+     * rounded up.
+     *
+     * @param segment  The segment duration, in us
+     * @param part     The part duration, in us
+     * @param keyFrame The key frame interval, in us, 0 if unknown
+     */
+    static long computeTargetDuration(long segment, long part, long keyFrame)
+    {
+        if (keyFrame > 0) {
+            // The first key frame once the segment lasts its duration, less half a part
+            long frames = Math.max(1, (segment - part / 2 + keyFrame - 1) / keyFrame);
+            segment = frames * keyFrame;
+        }
+
+        return Math.max(1, (segment + 999_999) / 1_000_000);
+    }
+
+    private String renderPlaylist()
+    {
+        StringBuilder builder = new StringBuilder(1024 + segments.size() * 256);
+        builder.append("#EXTM3U\n");
+        builder.append("#EXT-X-VERSION:9\n");
+        builder.append("#EXT-X-TARGETDURATION:").append(targetDuration).append('\n');
+        builder.append(String.format(Locale.US, "#EXT-X-SERVER-CONTROL:CAN-BLOCK-RELOAD=YES,PART-HOLD-BACK=%.3f\n",
+                3 * partDuration / 1e6));
+        builder.append(String.format(Locale.US, "#EXT-X-PART-INF:PART-TARGET=%.5f\n", partDuration / 1e6));
+
+        HlsSegment first = segments.peekFirst();
+        long sequence = first != null ? first.sequence : current != null ? current.sequence : nextSegment;
+        builder.append("#EXT-X-MEDIA-SEQUENCE:").append(sequence).append('\n');
+        builder.append("#EXT-X-MAP:URI=\"init.mp4\"\n");
+
+        HlsSegment last = current != null ? current : segments.peekLast();
+        long edge = last != null ? last.time + last.duration : 0;
+        long partsFrom = edge - PART_LIST_TARGETS * targetDuration * 1_000_000;
+        for (HlsSegment segment : segments) {
+            if (segment.time + segment.duration > partsFrom) builder.append(segment.partLines);
+            builder.append(segment.lines);
+        }
+        if (current != null) {
+            for (HlsPart part : current.parts) {
+                builder.append(part.line);
+            }
+        }
+
+        if (ended) {
+            builder.append("#EXT-X-ENDLIST\n");
+        } else {
+            builder.append("#EXT-X-PRELOAD-HINT:TYPE=PART,URI=\"").append(HlsPart.getUri(nextPart)).append("\"\n");
+        }
+
+        return builder.toString();
+    }
+
+    private static HlsPart findPart(HlsSegment segment, long sequence)
+    {
+        if (segment == null || segment.parts.isEmpty()) return null;
+
+        long first = segment.parts.get(0).sequence;
+        if (sequence < first || sequence >= first + segment.parts.size()) return null;
+
+        return segment.parts.get((int) (sequence - first));
+    }
+}
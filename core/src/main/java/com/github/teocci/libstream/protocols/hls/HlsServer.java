@@ -0,0 +1,108 @@
+package com.github.teocci.libstream.protocols.hls;
+
+import com.github.teocci.libstream.threads.HlsEventLoop;
+import com.github.teocci.libstream.utils.LogHelper;
+
+import java.io.IOException;
+
+/**
+ * A LL-HLS server: the stream of a {@link HlsSegmenter} served over HTTP/1.1.
+ * <p>
+ * All the viewers are handled by a single {@link HlsEventLoop}, and they all get the same
+ * playlist and the same parts, so the encoder works once whatever their number and the
+ * server keeps no state per viewer besides its connection. The stream is at:
+ * <pre>
+ *  http://host:port/index.m3u8
+ * </pre>
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-28
+ */
+public class HlsServer
+{
+    private static String TAG = LogHelper.makeLogTag(HlsServer.class);
+
+    /**
+     * Port used by default.
+     */
+    public static final int DEFAULT_HLS_PORT = 8080;
+
+    private final HlsSegmenter segmenter;
+
+    private HlsEventLoop eventLoop;
+
+    private int port = DEFAULT_HLS_PORT;
+
+    public HlsServer()
+    {
+        this(new HlsSegmenter());
+    }
+
+    public HlsServer(HlsSegmenter segmenter)
+    {
+        this.segmenter = segmenter;
+    }
+
+    /**
+     * Binds the HTTP port and starts the event loop, if it is not already running.
+     *
+     * @throws IOException if the port could not be bound
+     */
+    public synchronized void start() throws IOException
+    {
+        if (eventLoop != null) return;
+
+        try {
+            eventLoop = new HlsEventLoop(segmenter, port);
+        } catch (IOException e) {
+            LogHelper.e(TAG, "Port already in use !");
+            throw e;
+        }
+        segmenter.setListener(eventLoop);
+        eventLoop.start();
+    }
+
+    /**
+     * Closes all the connections and stops the event loop, the segmenter goes on.
+     */
+    public synchronized void stop()
+    {
+        if (eventLoop == null) return;
+
+        segmenter.setListener(null);
+        eventLoop.kill();
+        eventLoop = null;
+    }
+
+    public void setPort(int port)
+    {
+        this.port = port;
+    }
+
+    /**
+     * Returns the port set, or the one bound if the server listens on any free port (0).
+     */
+    public synchronized int getPort()
+    {
+        return eventLoop != null ? eventLoop.getPort() : port;
+    }
+
+    public HlsSegmenter getSegmenter()
+    {
+        return segmenter;
+    }
+
+    /**
+     * Returns the number of viewers connected.
+     */
+    public synchronized int getConnectionCount()
+    {
+        return eventLoop != null ? eventLoop.getConnectionCount() : 0;
+    }
+
+    public synchronized boolean isRunning()
+    {
+        return eventLoop != null;
+    }
+}
@@ -0,0 +1,216 @@
+package com.github.teocci.libstream.protocols.rtsp.rtcp;
+
+import com.github.teocci.libstream.interfaces.RtcpListener;
+import com.github.teocci.libstream.interfaces.video.EncoderRateListener;
+import com.github.teocci.libstream.utils.LogHelper;
+
+/**
+ * Adapts the video bitrate of the encoder to the RTCP feedback of the receiver.
+ * <p>
+ * It is a loss based controller, like the one of Google Congestion Control:
+ * <p>
+ * - above 10% of packets lost, the bitrate is cut by half the loss ratio,
+ * - under 2% the bitrate grows by 8%, at most once per increase interval,
+ * - in between, or while the jitter of the video grows, the bitrate is held.
+ * <p>
+ * A REMB estimate of the receiver caps the bitrate, and a TWCC feedback counts as a
+ * report of its own loss ratio. With a frame rate range, the frame rate follows the
+ * bitrate once it goes under half the maximum bitrate.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-22
+ */
+public class AdaptiveBitrateController implements RtcpListener
+{
+    private static String TAG = LogHelper.makeLogTag(AdaptiveBitrateController.class);
+
+    // The id of the video track
+    private static final int STREAM_VIDEO = 1;
+
+    private static final float HIGH_LOSS = 0.10f;
+    private static final float LOW_LOSS = 0.02f;
+    private static final float INCREASE_FACTOR = 1.08f;
+
+    // The bitrate only goes up this long after the last change
+    private static final long INCREASE_INTERVAL_MS = 2000;
+
+    // A jitter over this factor of its smoothed value holds the bitrate
+    private static final float JITTER_GROWTH = 2f;
+
+    private final EncoderRateListener listener;
+
+    private final int minBitrate;
+    private final int maxBitrate;
+    private int minFps = 0;
+    private int maxFps = 0;
+
+    // SSRC of the video stream, the report blocks about other sources are ignored
+    private int ssrc;
+    private boolean hasSsrc = false;
+
+    private int bitrate;
+    private int fps;
+    private long estimatedBitrate = Long.MAX_VALUE;
+
+    private long lastChange = 0;
+
+    private float lossRatio;
+    private int cumulativeLost;
+    private long jitter;
+    private float smoothedJitter = -1;
+
+    /**
+     * @param listener   The encoder to adapt
+     * @param minBitrate The lowest bitrate, in bps
+     * @param maxBitrate The highest bitrate, in bps, usually the one the encoder was prepared with
+     */
+    public AdaptiveBitrateController(EncoderRateListener listener, int minBitrate, int maxBitrate)
+    {
+        if (minBitrate <= 0 || maxBitrate < minBitrate) {
+            throw new IllegalArgumentException("Invalid bitrate range: " + minBitrate + "-" + maxBitrate);
+        }
+
+        this.listener = listener;
+        this.minBitrate = minBitrate;
+        this.maxBitrate = maxBitrate;
+        this.bitrate = maxBitrate;
+    }
+
+    /**
+     * Lets the controller lower the frame rate with the bitrate, 0 to keep it.
+     *
+     * @param minFps The lowest frame rate
+     * @param maxFps The frame rate the encoder was prepared with
+     */
+    public synchronized void setFpsRange(int minFps, int maxFps)
+    {
+        this.minFps = minFps;
+        this.maxFps = maxFps;
+        this.fps = maxFps;
+    }
+
+    /**
+     * Sets the SSRC of the video stream sent, only the report blocks about it count.
+     * Until it is set, all the report blocks of the video track count.
+     */
+    public synchronized void setSsrc(int ssrc)
+    {
+        this.ssrc = ssrc;
+        this.hasSsrc = true;
+    }
+
+    @Override
+    public void onReceiverReport(int trackId, ReceiverReport report)
+    {
+        onReceiverReport(trackId, report, System.currentTimeMillis());
+    }
+
+    @Override
+    public void onNack(int trackId, int sourceSsrc, int pid, int blp)
+    {
+        // The losses are counted by the next Receiver Report
+    }
+
+    @Override
+    public void onEstimatedBitrate(int trackId, long bitrate)
+    {
+        onEstimatedBitrate(bitrate, System.currentTimeMillis());
+    }
+
+    @Override
+    public void onTransportFeedback(int trackId, int received, int lost)
+    {
+        if (received + lost == 0) return;
+        onLoss((float) lost / (received + lost), false, System.currentTimeMillis());
+    }
+
+    synchronized void onReceiverReport(int trackId, ReceiverReport report, long now)
+    {
+        // The audio packets are too small and too few to tell much
+        if (trackId != STREAM_VIDEO) return;
+        // A Receiver Report may hold blocks about other senders of the session
+        if (hasSsrc && report.sourceSsrc != ssrc) return;
+
+        cumulativeLost = report.cumulativeLost;
+        jitter = report.jitter;
+
+        boolean jitterGrowing = smoothedJitter >= 0 && jitter > JITTER_GROWTH * smoothedJitter;
+        smoothedJitter = smoothedJitter < 0 ? jitter : 0.875f * smoothedJitter + 0.125f * jitter;
+
+        onLoss(report.getLossRatio(), jitterGrowing, now);
+    }
+
+    synchronized void onEstimatedBitrate(long bitrate, long now)
+    {
+        estimatedBitrate = bitrate;
+        if (this.bitrate > bitrate) update(this.bitrate, now);
+    }
+
+    synchronized void onLoss(float lossRatio, boolean jitterGrowing, long now)
+    {
+        this.lossRatio = lossRatio;
+
+        int target = bitrate;
+        if (lossRatio > HIGH_LOSS) {
+            target = (int) (bitrate * (1 - 0.5f * lossRatio));
+        } else if (lossRatio < LOW_LOSS && !jitterGrowing && now - lastChange >= INCREASE_INTERVAL_MS) {
+            target = (int) (bitrate * INCREASE_FACTOR);
+        }
+
+        update(target, now);
+    }
+
+    private void update(int target, long now)
+    {
+        target = (int) Math.min(target, estimatedBitrate);
+        target = Math.max(minBitrate, Math.min(maxBitrate, target));
+        if (target == bitrate) return;
+
+        LogHelper.i(TAG, "Bitrate " + bitrate + " -> " + target + ", loss " + lossRatio);
+        bitrate = target;
+        lastChange = now;
+        listener.onBitrateChanged(target);
+
+        if (maxFps > 0) {
+            // Full frame rate down to half the maximum bitrate, then proportional
+            int targetFps = (int) Math.min(maxFps, (long) maxFps * 2 * bitrate / maxBitrate);
+            targetFps = Math.max(minFps, targetFps);
+            if (targetFps != fps) {
+                fps = targetFps;
+                listener.onFpsChanged(targetFps);
+            }
+        }
+    }
+
+    public synchronized int getBitrate()
+    {
+        return bitrate;
+    }
+
+    public synchronized int getFps()
+    {
+        return fps;
+    }
+
+    /**
+     * Returns the last loss ratio reported, from 0 to 1.
+     */
+    public synchronized float getLossRatio()
+    {
+        return lossRatio;
+    }
+
+    public synchronized int getCumulativeLost()
+    {
+        return cumulativeLost;
+    }
+
+    /**
+     * Returns the last jitter of the video reported, in 90 kHz units.
+     */
+    public synchronized long getJitter()
+    {
+        return jitter;
+    }
+}
@@ -0,0 +1,269 @@
+package com.github.teocci.libstream.protocols.rtsp.rtcp;
+
+import com.github.teocci.libstream.utils.LogHelper;
+import com.github.teocci.libstream.utils.rtsp.RtpClock;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * The RTCP Sender Report of one RTP stream, sent by a {@link RtcpScheduler}.
+ * <p>
+ * The sender thread of the stream only counts the packets with {@link #update(int, long)},
+ * a few plain writes and one volatile write. The scheduler thread builds the SR+SDES
+ * compound packet from those counters at the RFC 3550 intervals, and sends it with
+ * {@link #send(byte[], int)}: the buffer of the packet belongs to the scheduler thread.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2017-Jan-14
+ */
+public abstract class BaseSenderReport
+{
+    private final static String TAG = LogHelper.makeLogTag(BaseSenderReport.class);
+
+    protected static final int MTU = 1500;
+    protected static final int PACKET_LENGTH = 28;
+
+    // Seconds from 1900 (NTP epoch) to 1970 (Unix epoch)
+    private static final long NTP_OFFSET = 2208988800L;
+
+    protected byte[] buffer = new byte[MTU];
+
+    protected volatile int ssrc;
+
+    // Written by the sender thread only, published by the volatile write of sent
+    private int packetCount = 0, octetCount = 0;
+    private int rtpTimestamp;
+    private volatile int sent = 0;
+
+    // Maps the send time of the report to the RTP time of the stream
+    private volatile RtpClock rtpClock;
+    private volatile long rtpOffset;
+
+    // Read by the scheduler thread only
+    private int reportedCount = -1;
+    private int lastOctetCount;
+    private long lastReportTime;
+
+    private RtcpScheduler scheduler;
+    ScheduledFuture<?> future;
+    float avgRtcpSize;
+    boolean initial = true;
+
+    public BaseSenderReport()
+    {
+        //   0               1               2               3
+        //   0 1 2 3 4 5 6 7 0 1 2 3 4 5 6 7 0 1 2 3 4 5 6 7 0 1 2 3 4 5 6 7
+        //  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+        //  |V=2|P|    RC   |   PT=SR=200   |             length            | header
+        //  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+
+        // RTCP-version field (V) must be 2
+        // Padding (P) and reception report count (RC) fields are set to zero
+        buffer[0] = (byte) Integer.parseInt("10000000", 2);
+
+        // Payload Type
+        buffer[1] = (byte) 200;
+
+        // Byte 2,3          ->  Length
+        setLong(PACKET_LENGTH / 4 - 1, 2, 4);
+
+        // Byte 4,5,6,7      ->  SSRC
+        // Byte 8,9,10,11    ->  NTP timestamp hb
+        // Byte 12,13,14,15  ->  NTP timestamp lb
+        // Byte 16,17,18,19  ->  RTP timestamp
+        // Byte 20,21,22,23  ->  Packet count
+        // Byte 24,25,26,27  ->  Octet count
+    }
+
+    /**
+     * Schedules the reports of this stream, until {@link #close()}.
+     */
+    public void register(RtcpScheduler scheduler)
+    {
+        // Not close(), the subclasses release their sockets there
+        unregister();
+        this.scheduler = scheduler;
+        scheduler.register(this);
+    }
+
+    /**
+     * Stops the reports of this stream.
+     */
+    public void close()
+    {
+        unregister();
+    }
+
+    private void unregister()
+    {
+        RtcpScheduler scheduler = this.scheduler;
+        if (scheduler != null) {
+            scheduler.unregister(this);
+            this.scheduler = null;
+        }
+    }
+
+    /**
+     * Sets the clock of the stream: the RTP timestamp of the reports is then the one of
+     * their send time, instead of the one of the last packet sent.
+     *
+     * @param rtpClock The clock of the RTP timestamps of the stream
+     * @param offset   The offset added to the timestamps of the clock
+     */
+    public void setRtpClock(RtpClock rtpClock, long offset)
+    {
+        this.rtpOffset = offset;
+        this.rtpClock = rtpClock;
+    }
+
+    public void setSSRC(int ssrc)
+    {
+        this.ssrc = ssrc;
+        resetCounters();
+    }
+
+    /**
+     * Updates the number of packets sent, and the total amount of data sent.
+     * Only the sender thread of the stream may call it.
+     *
+     * @param length The length of the packet
+     * @param rtpts  The RTP timestamp of the packet
+     */
+    public void update(int length, long rtpts)
+    {
+        octetCount += length;
+        rtpTimestamp = (int) rtpts;
+        sent = ++packetCount;
+    }
+
+    /**
+     * Resets the reports (total number of bytes sent, number of packets sent, etc.)
+     */
+    public void reset()
+    {
+        resetCounters();
+    }
+
+    private void resetCounters()
+    {
+        packetCount = 0;
+        octetCount = 0;
+        sent = 0;
+    }
+
+    /**
+     * Builds and sends the compound report, on the scheduler thread.
+     * Nothing is sent while the stream has not sent any new packet.
+     *
+     * @param cname The canonical name of the source
+     * @return the length of the packet sent, or 0
+     */
+    int sendReport(byte[] cname) throws IOException
+    {
+        int count = sent;
+        if (count == 0 || count == reportedCount) return 0;
+        reportedCount = count;
+
+        // Read after the volatile read of sent, at least as recent as the count
+        int octets = octetCount;
+        RtpClock clock = rtpClock;
+        long rtpts = clock != null && clock.getRate() > 0 ?
+                (clock.toRtp(System.nanoTime()) + rtpOffset) & 0xFFFFFFFFL :
+                rtpTimestamp & 0xFFFFFFFFL;
+
+        setLong(ssrc, 4, 8);
+        setData(System.currentTimeMillis(), rtpts);
+        setLong(count, 20, 24);
+        setLong(octets, 24, 28);
+
+        int length = setDescription(cname, PACKET_LENGTH);
+        send(buffer, length);
+        return length;
+    }
+
+    /**
+     * Returns the mean bandwidth of the stream since the previous call, in bytes/s, or 0.
+     * Only the scheduler thread may call it.
+     */
+    int getBandwidth(long now)
+    {
+        int octets = octetCount;
+        long elapsed = now - lastReportTime;
+        int bandwidth = lastReportTime == 0 || elapsed <= 0 ?
+                0 : (int) ((octets - lastOctetCount) * 1000L / elapsed);
+
+        lastOctetCount = octets;
+        lastReportTime = now;
+        return Math.max(bandwidth, 0);
+    }
+
+    /**
+     * Appends the SDES packet with the CNAME of the source, RFC 3550 6.5.
+     *
+     * @return the length of the compound packet
+     */
+    private int setDescription(byte[] cname, int offset)
+    {
+        //   0               1               2               3
+        //   0 1 2 3 4 5 6 7 0 1 2 3 4 5 6 7 0 1 2 3 4 5 6 7 0 1 2 3 4 5 6 7
+        //  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+        //  |V=2|P|    SC   |  PT=SDES=202  |             length            | header
+        //  +=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+
+        //  |                          SSRC/CSRC_1                          | chunk
+        //  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+   1
+        //  |    CNAME=1    |     length    | user and domain name        ...
+        //  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+        // Header, SSRC, CNAME item and at least one null octet ending the item list,
+        // padded to 32 bits
+        int size = (4 + 4 + 2 + cname.length + 1 + 3) & ~3;
+
+        // 10000001 = 0x81
+        buffer[offset] = (byte) 0x81;
+        buffer[offset + 1] = (byte) 202;
+        setLong(size / 4 - 1, offset + 2, offset + 4);
+        setLong(ssrc, offset + 4, offset + 8);
+        buffer[offset + 8] = 1;
+        buffer[offset + 9] = (byte) cname.length;
+        System.arraycopy(cname, 0, buffer, offset + 10, cname.length);
+        for (int i = offset + 10 + cname.length; i < offset + size; i++) {
+            buffer[i] = 0;
+        }
+
+        return offset + size;
+    }
+
+    /**
+     * Sends the compound RTCP packet, on the scheduler thread.
+     *
+     * @param buffer The packet
+     * @param length The length of the packet
+     */
+    protected abstract void send(byte[] buffer, int length) throws IOException;
+
+    protected void setLong(long n, int begin, int end)
+    {
+        for (end--; end >= begin; end--) {
+            buffer[end] = (byte) (n % 256);
+            n >>= 8;
+        }
+    }
+
+    /**
+     * @param time  The wallclock time of the report, in ms since 1970
+     * @param rtpts The RTP timestamp.
+     */
+    protected void setData(long time, long rtpts)
+    {
+        // Byte 8,9,10,11    ->  NTP timestamp hb
+        // Byte 12,13,14,15  ->  NTP timestamp lb
+        long hb = time / 1000 + NTP_OFFSET;
+        long lb = (time % 1000) * 4294967296L / 1000;
+        setLong(hb, 8, 12);
+        setLong(lb, 12, 16);
+
+        // Byte 16,17,18,19  ->  RTP timestamp
+        setLong(rtpts, 16, 20);
+    }
+}
@@ -0,0 +1,82 @@
+package com.github.teocci.libstream.protocols.rtsp.rtcp;
+
+/**
+ * A report block of a RTCP Receiver Report, RFC 3550 6.4.2.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-22
+ */
+public class ReceiverReport
+{
+    /**
+     * SSRC of the receiver that sent the report.
+     */
+    public final int reporterSsrc;
+
+    /**
+     * SSRC of the stream the report is about.
+     */
+    public final int sourceSsrc;
+
+    /**
+     * Fraction of the packets lost since the previous report, in 1/256.
+     */
+    public final int fractionLost;
+
+    /**
+     * Number of packets lost since the beginning of the reception.
+     */
+    public final int cumulativeLost;
+
+    /**
+     * Extended highest sequence number received.
+     */
+    public final long highestSeq;
+
+    /**
+     * Interarrival jitter, in timestamp units.
+     */
+    public final long jitter;
+
+    /**
+     * Middle 32 bits of the NTP timestamp of the last Sender Report received.
+     */
+    public final long lastSenderReport;
+
+    /**
+     * Delay since the last Sender Report, in 1/65536 seconds.
+     */
+    public final long delaySinceLastSenderReport;
+
+    public ReceiverReport(int reporterSsrc, int sourceSsrc, int fractionLost, int cumulativeLost,
+                          long highestSeq, long jitter, long lastSenderReport, long delaySinceLastSenderReport)
+    {
+        this.reporterSsrc = reporterSsrc;
+        this.sourceSsrc = sourceSsrc;
+        this.fractionLost = fractionLost;
+        this.cumulativeLost = cumulativeLost;
+        this.highestSeq = highestSeq;
+        this.jitter = jitter;
+        this.lastSenderReport = lastSenderReport;
+        this.delaySinceLastSenderReport = delaySinceLastSenderReport;
+    }
+
+    /**
+     * Returns the fraction of the packets lost since the previous report, from 0 to 1.
+     */
+    public float getLossRatio()
+    {
+        return fractionLost / 256f;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ReceiverReport{ssrc=" + (sourceSsrc & 0xFFFFFFFFL) +
+                ", fractionLost=" + fractionLost +
+                ", cumulativeLost=" + cumulativeLost +
+                ", highestSeq=" + highestSeq +
+                ", jitter=" + jitter + "}";
+    }
+}
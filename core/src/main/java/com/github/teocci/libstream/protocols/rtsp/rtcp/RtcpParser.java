@@ -0,0 +1,236 @@
+package com.github.teocci.libstream.protocols.rtsp.rtcp;
+
+import com.github.teocci.libstream.interfaces.RtcpListener;
+
+/**
+ * Parses the compound RTCP packets sent back by the receivers of a stream.
+ * <p>
+ * The report blocks of the Sender (SR) and Receiver (RR) Reports of RFC 3550, the generic
+ * NACKs of RFC 4585, the Receiver Estimated Maximum Bitrate (REMB) of
+ * draft-alvestrand-rmcat-remb and the transport-wide congestion control feedback (TWCC) of
+ * draft-holmer-rmcat-transport-wide-cc are handed to a {@link RtcpListener}. The other
+ * packets are skipped.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-22
+ */
+public class RtcpParser
+{
+    public static final int PT_SR = 200;
+    public static final int PT_RR = 201;
+    public static final int PT_RTPFB = 205;
+    public static final int PT_PSFB = 206;
+
+    // Feedback message types
+    private static final int FMT_NACK = 1;
+    private static final int FMT_TWCC = 15;
+    private static final int FMT_AFB = 15;
+
+    private static final int REPORT_BLOCK_LENGTH = 24;
+    private static final int SENDER_INFO_LENGTH = 20;
+
+    /**
+     * Parses a compound RTCP packet.
+     *
+     * @param data     The buffer holding the packet
+     * @param offset   The offset of the packet in data
+     * @param length   The length of the packet
+     * @param trackId  The id of the track the packet was received for
+     * @param listener The listener of the feedback
+     * @return the number of RTCP packets parsed, a malformed packet stops the parsing
+     */
+    public static int parse(byte[] data, int offset, int length, int trackId, RtcpListener listener)
+    {
+        int end = offset + length;
+        int count = 0;
+
+        while (end - offset >= 4) {
+            //   0               1               2               3
+            //   0 1 2 3 4 5 6 7 0 1 2 3 4 5 6 7 0 1 2 3 4 5 6 7 0 1 2 3 4 5 6 7
+            //  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+            //  |V=2|P|  RC/FMT |      PT       |             length            |
+            //  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+            // 11000000 = 0xC0
+            if ((data[offset] & 0xC0) != 0x80) break;
+
+            // 00011111 = 0x1F
+            int rc = data[offset] & 0x1F;
+            int pt = data[offset + 1] & 0xFF;
+            int size = ((int) readInt(data, offset + 2, 2) + 1) * 4;
+            if (size > end - offset) break;
+
+            if (listener != null) {
+                switch (pt) {
+                    case PT_SR:
+                        parseReports(data, offset + 8 + SENDER_INFO_LENGTH, rc, offset + size,
+                                (int) readInt(data, offset + 4, 4), trackId, listener);
+                        break;
+                    case PT_RR:
+                        parseReports(data, offset + 8, rc, offset + size,
+                                (int) readInt(data, offset + 4, 4), trackId, listener);
+                        break;
+                    case PT_RTPFB:
+                        if (rc == FMT_NACK) parseNack(data, offset, size, trackId, listener);
+                        else if (rc == FMT_TWCC) parseTransportFeedback(data, offset, size, trackId, listener);
+                        break;
+                    case PT_PSFB:
+                        if (rc == FMT_AFB) parseEstimatedBitrate(data, offset, size, trackId, listener);
+                        break;
+                }
+            }
+
+            offset += size;
+            count++;
+        }
+
+        return count;
+    }
+
+    private static void parseReports(byte[] data, int offset, int count, int end, int reporterSsrc,
+                                     int trackId, RtcpListener listener)
+    {
+        //  +=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+
+        //  |                 SSRC_1 (SSRC of first source)                 | report
+        //  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+ block
+        //  | fraction lost |       cumulative number of packets lost       |   1
+        //  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+        //  |           extended highest sequence number received           |
+        //  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+        //  |                      interarrival jitter                      |
+        //  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+        //  |                         last SR (LSR)                         |
+        //  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+        //  |                   delay since last SR (DLSR)                  |
+        //  +=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+=+
+        for (int i = 0; i < count && offset + REPORT_BLOCK_LENGTH <= end; i++) {
+            // The cumulative number of packets lost is a signed 24 bits integer
+            int lost = (int) readInt(data, offset + 5, 3);
+            if ((lost & 0x800000) != 0) lost |= 0xFF000000;
+
+            listener.onReceiverReport(trackId, new ReceiverReport(
+                    reporterSsrc,
+                    (int) readInt(data, offset, 4),
+                    data[offset + 4] & 0xFF,
+                    lost,
+                    readInt(data, offset + 8, 4),
+                    readInt(data, offset + 12, 4),
+                    readInt(data, offset + 16, 4),
+                    readInt(data, offset + 20, 4)
+            ));
+            offset += REPORT_BLOCK_LENGTH;
+        }
+    }
+
+    private static void parseNack(byte[] data, int offset, int size, int trackId, RtcpListener listener)
+    {
+        //  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+        //  |V=2|P|  FMT=1  |    PT=205     |           length              |
+        //  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+        //  |                     SSRC of packet sender                     |
+        //  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+        //  |                      SSRC of media source                     |
+        //  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+        //  |            PID                |             BLP               | FCI
+        //  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+        //  .                                                               .
+        if (size < 16) return;
+
+        int sourceSsrc = (int) readInt(data, offset + 8, 4);
+        for (int pos = offset + 12; pos + 4 <= offset + size; pos += 4) {
+            listener.onNack(trackId, sourceSsrc, (int) readInt(data, pos, 2), (int) readInt(data, pos + 2, 2));
+        }
+    }
+
+    private static void parseEstimatedBitrate(byte[] data, int offset, int size, int trackId,
+                                              RtcpListener listener)
+    {
+        //  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+        //  |V=2|P| FMT=15  |   PT=206      |             length            |
+        //  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+        //  |                  SSRC of packet sender                        |
+        //  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+        //  |                  SSRC of media source                         |
+        //  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+        //  |  Unique identifier 'R' 'E' 'M' 'B'                            |
+        //  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+        //  |  Num SSRC     | BR Exp    |  BR Mantissa                      |
+        //  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+        if (size < 20) return;
+        if (data[offset + 12] != 'R' || data[offset + 13] != 'E' ||
+                data[offset + 14] != 'M' || data[offset + 15] != 'B') {
+            return;
+        }
+
+        // 11111100 = 0xFC
+        int exponent = (data[offset + 17] & 0xFC) >> 2;
+        // 18 bits
+        long mantissa = readInt(data, offset + 17, 3) & 0x3FFFF;
+
+        listener.onEstimatedBitrate(trackId, exponent > 40 ? Long.MAX_VALUE : mantissa << exponent);
+    }
+
+    private static void parseTransportFeedback(byte[] data, int offset, int size, int trackId,
+                                               RtcpListener listener)
+    {
+        //  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+        //  |V=2|P|  FMT=15 |    PT=205     |           length              |
+        //  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+        //  |                     SSRC of packet sender                     |
+        //  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+        //  |                      SSRC of media source                     |
+        //  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+        //  |      base sequence number     |      packet status count      |
+        //  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+        //  |                 reference time                | fb pkt. count |
+        //  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+        //  |          packet chunk         |         packet chunk          |
+        //  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+        //  .                                                               .
+        if (size < 20) return;
+
+        int statusCount = (int) readInt(data, offset + 14, 2);
+        int end = offset + size;
+        int received = 0, lost = 0;
+
+        for (int pos = offset + 20; pos + 2 <= end && received + lost < statusCount; pos += 2) {
+            int chunk = (int) readInt(data, pos, 2);
+            int remaining = statusCount - received - lost;
+
+            if ((chunk & 0x8000) == 0) {
+                // Run length chunk: 0, a 2 bits symbol and a 13 bits run length
+                int symbol = (chunk >> 13) & 0x03;
+                int run = Math.min(chunk & 0x1FFF, remaining);
+                if (symbol == 0) {
+                    lost += run;
+                } else {
+                    received += run;
+                }
+            } else if ((chunk & 0x4000) == 0) {
+                // Status vector chunk of 14 one bit symbols
+                for (int i = 13; i >= 0 && remaining > 0; i--, remaining--) {
+                    if ((chunk >> i & 0x01) == 0) lost++;
+                    else received++;
+                }
+            } else {
+                // Status vector chunk of 7 two bits symbols
+                for (int i = 12; i >= 0 && remaining > 0; i -= 2, remaining--) {
+                    if ((chunk >> i & 0x03) == 0) lost++;
+                    else received++;
+                }
+            }
+        }
+
+        listener.onTransportFeedback(trackId, received, lost);
+    }
+
+    private static long readInt(byte[] data, int offset, int length)
+    {
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            value = value << 8 | (data[offset + i] & 0xFF);
+        }
+
+        return value;
+    }
+}
@@ -0,0 +1,81 @@
+package com.github.teocci.libstream.protocols.rtsp.rtcp;
+
+import com.github.teocci.libstream.interfaces.RtcpListener;
+import com.github.teocci.libstream.utils.LogHelper;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the RTCP packets interleaved by the server in the RTSP connection, RFC 2326 10.12.
+ * <p>
+ * Each packet is framed by a '$', the channel and the length of the packet:
+ * <p>
+ * +---------------+---------------+-------------------------------+
+ * |      '$'      |    channel    |            length             |
+ * +---------------+---------------+-------------------------------+
+ * <p>
+ * The odd channels carry the RTCP of the track channel / 2. The RTP packets and the RTSP
+ * messages the server may send are skipped.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-22
+ */
+public class RtcpReceiverTcp implements Runnable
+{
+    private static String TAG = LogHelper.makeLogTag(RtcpReceiverTcp.class);
+
+    private final DataInputStream input;
+    private final RtcpListener listener;
+
+    private byte[] data = new byte[2048];
+    private Thread thread;
+
+    public RtcpReceiverTcp(InputStream inputStream, RtcpListener listener)
+    {
+        this.input = new DataInputStream(new BufferedInputStream(inputStream));
+        this.listener = listener;
+    }
+
+    public void start()
+    {
+        if (thread == null) {
+            thread = new Thread(this, "RtcpReceiverTcp");
+            thread.start();
+        }
+    }
+
+    public void stop()
+    {
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    @Override
+    public void run()
+    {
+        try {
+            while (!Thread.interrupted()) {
+                // Skips up to the next interleaved frame
+                if (input.readUnsignedByte() != '$') continue;
+
+                int channel = input.readUnsignedByte();
+                int length = input.readUnsignedShort();
+                if (length > data.length) data = new byte[length];
+                input.readFully(data, 0, length);
+
+                if ((channel & 1) == 1) {
+                    RtcpParser.parse(data, 0, length, channel / 2, listener);
+                }
+            }
+        } catch (IOException e) {
+            // The connection was closed
+            LogHelper.i(TAG, "RTCP receiver stopped, " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.github.teocci.libstream.protocols.rtsp.rtcp;
+
+import com.github.teocci.libstream.utils.LogHelper;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends the RTCP Sender Reports of all the streams of a server, or of the clients, from a
+ * single thread.
+ * <p>
+ * Each {@link BaseSenderReport} is an RTP session of its own, one sender and one receiver,
+ * and gets its own timer. The interval follows RFC 3550 6.3 and A.7: the RTCP bandwidth is
+ * 5% of the bandwidth of the stream, the interval is never under the minimum interval, half
+ * of it for the first report, and it is randomized over [0.5, 1.5] times its value so that
+ * the reports of the streams do not synchronize.
+ * <p>
+ * The thread of the scheduler stops when no report is registered.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-23
+ */
+public class RtcpScheduler
+{
+    private static String TAG = LogHelper.makeLogTag(RtcpScheduler.class);
+
+    /**
+     * Minimum interval between two reports by default, RFC 3550 6.2.
+     */
+    public static final long DEFAULT_MIN_INTERVAL = 5000;
+
+    // Fraction of the session bandwidth used by RTCP
+    private static final float RTCP_BANDWIDTH_FRACTION = 0.05f;
+    // The randomization makes the interval longer on average, e - 3/2
+    private static final float COMPENSATION = 2.71828f - 1.5f;
+    // The sender of the stream and its receiver
+    private static final int MEMBERS = 2;
+    // IP and UDP headers of each packet
+    private static final int HEADER_OVERHEAD = 28;
+
+    private static volatile RtcpScheduler instance;
+
+    private final ScheduledThreadPoolExecutor executor;
+    private final Random random = new Random();
+    private final AtomicInteger count = new AtomicInteger();
+
+    private final byte[] cname;
+    private volatile long minInterval = DEFAULT_MIN_INTERVAL;
+
+    /**
+     * Returns the scheduler shared by the RTSP clients.
+     */
+    public static RtcpScheduler getInstance()
+    {
+        RtcpScheduler result = instance;
+        if (result == null) {
+            synchronized (RtcpScheduler.class) {
+                result = instance;
+                if (result == null) instance = result = new RtcpScheduler();
+            }
+        }
+
+        return result;
+    }
+
+    public RtcpScheduler()
+    {
+        this("libstream-" + Integer.toHexString(new Random().nextInt()));
+    }
+
+    /**
+     * @param cname The canonical name sent in the SDES packets, e.g. user@host
+     */
+    public RtcpScheduler(String cname)
+    {
+        byte[] bytes = cname.getBytes(Charset.forName("UTF-8"));
+        this.cname = bytes.length > 255 ? Arrays.copyOf(bytes, 255) : bytes;
+
+        executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "RtcpScheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setKeepAliveTime(10, TimeUnit.SECONDS);
+        executor.allowCoreThreadTimeOut(true);
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Sets the minimum interval between two reports of a stream, 5 s by default.
+     * RFC 3550 allows a smaller one, e.g. 360 / the bandwidth of the stream in kbps.
+     */
+    public void setMinInterval(long minInterval, TimeUnit unit)
+    {
+        this.minInterval = unit.toMillis(minInterval);
+    }
+
+    void register(BaseSenderReport report)
+    {
+        synchronized (report) {
+            report.initial = true;
+            report.avgRtcpSize = BaseSenderReport.PACKET_LENGTH + 12 + cname.length + HEADER_OVERHEAD;
+            report.getBandwidth(System.currentTimeMillis());
+            schedule(report, 0);
+        }
+        count.incrementAndGet();
+    }
+
+    void unregister(BaseSenderReport report)
+    {
+        synchronized (report) {
+            if (report.future == null) return;
+            report.future.cancel(false);
+            report.future = null;
+        }
+        count.decrementAndGet();
+    }
+
+    /**
+     * Returns the number of streams reported.
+     */
+    public int getCount()
+    {
+        return count.get();
+    }
+
+    private void schedule(BaseSenderReport report, int bandwidth)
+    {
+        long delay = interval(bandwidth, report.avgRtcpSize, report.initial);
+        report.initial = false;
+        report.future = executor.schedule(() -> run(report), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void run(BaseSenderReport report)
+    {
+        synchronized (report) {
+            if (report.future == null) return;
+
+            try {
+                int length = report.sendReport(cname);
+                if (length > 0) {
+                    // RFC 3550 6.3.3, the average compound packet size
+                    report.avgRtcpSize += (length + HEADER_OVERHEAD - report.avgRtcpSize) / 16f;
+                }
+            } catch (IOException e) {
+                LogHelper.e(TAG, "send report error", e);
+            } catch (RuntimeException e) {
+                // The timer of the other streams must keep running
+                LogHelper.e(TAG, "report error", e);
+            }
+
+            schedule(report, report.getBandwidth(System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Returns the randomized interval until the next report, RFC 3550 A.7.
+     *
+     * @param bandwidth   The bandwidth of the stream, in bytes/s, or 0 if unknown
+     * @param avgRtcpSize The average size of the compound packets, in bytes
+     * @param initial     Whether it is the first report
+     */
+    long interval(int bandwidth, float avgRtcpSize, boolean initial)
+    {
+        long min = initial ? minInterval / 2 : minInterval;
+
+        float rtcpBandwidth = bandwidth * RTCP_BANDWIDTH_FRACTION;
+        float t = rtcpBandwidth > 0 ? avgRtcpSize * MEMBERS * 1000 / rtcpBandwidth : 0;
+        if (t < min) t = min;
+
+        float randomized;
+        synchronized (random) {
+            randomized = t * (random.nextFloat() + 0.5f);
+        }
+
+        return (long) (randomized / COMPENSATION);
+    }
+}
@@ -0,0 +1,38 @@
+package com.github.teocci.libstream.protocols.rtsp.rtcp;
+
+import com.github.teocci.libstream.protocols.rtsp.rtp.sockets.BaseRtpSubscriber;
+import com.github.teocci.libstream.utils.LogHelper;
+
+import java.io.IOException;
+
+/**
+ * Sender Report of one track of a client fed by a shared packet ring.
+ * Each client has its own SSRC, counters and timestamp offset, so each one gets its own report.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-03
+ */
+public class SenderReportSubscriber extends BaseSenderReport
+{
+    private static String TAG = LogHelper.makeLogTag(SenderReportSubscriber.class);
+
+    private final BaseRtpSubscriber subscriber;
+    private final int trackId;
+
+    public SenderReportSubscriber(BaseRtpSubscriber subscriber, int trackId)
+    {
+        super();
+        this.subscriber = subscriber;
+        this.trackId = trackId;
+    }
+
+    /**
+     * Sends the RTCP packet through the subscriber, whose transport is thread safe.
+     */
+    @Override
+    protected void send(byte[] buffer, int length) throws IOException
+    {
+        subscriber.sendRtcp(trackId, buffer, length);
+    }
+}
@@ -0,0 +1,60 @@
+package com.github.teocci.libstream.protocols.rtsp.rtcp;
+
+import com.github.teocci.libstream.utils.LogHelper;
+import com.github.teocci.libstream.interfaces.ConnectCheckerRtsp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2017-Jan-14
+ */
+public class SenderReportTcp extends BaseSenderReport
+{
+    private static String TAG = LogHelper.makeLogTag(SenderReportTcp.class);
+    
+    private final byte[] tcpHeader;
+    private volatile OutputStream outputStream = null;
+
+    private ConnectCheckerRtsp connectCheckerRtsp;
+
+    public SenderReportTcp(ConnectCheckerRtsp connectCheckerRtsp)
+    {
+        super();
+        this.connectCheckerRtsp = connectCheckerRtsp;
+        tcpHeader = new byte[]{'$', 0, 0, PACKET_LENGTH};
+
+        register(RtcpScheduler.getInstance());
+    }
+
+    /**
+     * Sends the RTCP packet interleaved in the RTSP connection.
+     */
+    @Override
+    protected void send(byte[] buffer, int length)
+    {
+        OutputStream outputStream = this.outputStream;
+        if (outputStream == null) return;
+
+        synchronized (outputStream) {
+            try {
+                tcpHeader[2] = (byte) (length >> 8);
+                tcpHeader[3] = (byte) (length & 0xFF);
+                outputStream.write(tcpHeader);
+                outputStream.write(buffer, 0, length);
+                outputStream.flush();
+            } catch (IOException e) {
+                LogHelper.e(TAG, "send TCP report error", e);
+                connectCheckerRtsp.onConnectionFailedRtsp("Error send report, " + e.getMessage());
+            }
+        }
+    }
+
+    public void setOutputStream(OutputStream os, byte channelIdentifier)
+    {
+        tcpHeader[1] = channelIdentifier;
+        outputStream = os;
+    }
+}
@@ -0,0 +1,134 @@
+package com.github.teocci.libstream.protocols.rtsp.rtcp;
+
+import com.github.teocci.libstream.interfaces.RtcpListener;
+import com.github.teocci.libstream.utils.LogHelper;
+import com.github.teocci.libstream.interfaces.ConnectCheckerRtsp;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+import java.net.SocketException;
+
+import static com.github.teocci.libstream.utils.rtsp.RtpConstants.MTU;
+
+/**
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2017-Jan-14
+ */
+public class SenderReportUdp extends BaseSenderReport
+{
+    private static String TAG = LogHelper.makeLogTag(SenderReportUdp.class);
+
+    private MulticastSocket socket;
+    private DatagramPacket datagramPacket;
+
+    private volatile int port = -1;
+
+    private volatile RtcpListener rtcpListener;
+    private int trackId;
+    private Thread receiveThread;
+
+    private ConnectCheckerRtsp connectCheckerRtsp;
+
+    public SenderReportUdp(ConnectCheckerRtsp connectCheckerRtsp)
+    {
+        super();
+        this.connectCheckerRtsp = connectCheckerRtsp;
+
+        try {
+            // Any free port, the one the RTSP client advertises in its SETUP as client RTCP port
+            socket = new MulticastSocket();
+        } catch (IOException e) {
+            // Very unlikely to happen. Means that all UDP ports are already being used
+            throw new RuntimeException(e.getMessage());
+        }
+        datagramPacket = new DatagramPacket(buffer, 1);
+
+        register(RtcpScheduler.getInstance());
+    }
+
+    @Override
+    public void close()
+    {
+        super.close();
+        socket.close();
+        receiveThread = null;
+    }
+
+    /**
+     * Receives the RTCP packets of the receiver on the RTCP port, the Receiver Reports
+     * it sends back to the source of the Sender Reports.
+     *
+     * @param listener The listener of the feedback, null to ignore it
+     * @param trackId  The id of the track of this socket
+     */
+    public void setRtcpListener(RtcpListener listener, int trackId)
+    {
+        this.rtcpListener = listener;
+        this.trackId = trackId;
+
+        if (listener != null && receiveThread == null) {
+            receiveThread = new Thread(this::receive, "RtcpReceiverUdp");
+            receiveThread.start();
+        }
+    }
+
+    private void receive()
+    {
+        byte[] data = new byte[MTU];
+        DatagramPacket packet = new DatagramPacket(data, data.length);
+        try {
+            while (!socket.isClosed()) {
+                packet.setLength(data.length);
+                socket.receive(packet);
+
+                RtcpListener listener = rtcpListener;
+                if (listener != null) {
+                    RtcpParser.parse(data, 0, packet.getLength(), trackId, listener);
+                }
+            }
+        } catch (SocketException e) {
+            // The socket was closed
+        } catch (IOException e) {
+            LogHelper.e(TAG, "receive UDP report error", e);
+        }
+    }
+
+    public void setDestination(InetAddress dest, int dport)
+    {
+        synchronized (datagramPacket) {
+            datagramPacket.setPort(dport);
+            datagramPacket.setAddress(dest);
+        }
+        port = dport;
+    }
+
+    /**
+     * Sends the RTCP packet to the RTCP port of the destination.
+     */
+    @Override
+    protected void send(byte[] buffer, int length)
+    {
+        if (port < 0) return;
+
+        try {
+            synchronized (datagramPacket) {
+                datagramPacket.setLength(length);
+                socket.send(datagramPacket);
+            }
+        } catch (IOException e) {
+            LogHelper.e(TAG, "send UDP report error", e);
+            connectCheckerRtsp.onConnectionFailedRtsp("Error send report, " + e.getMessage());
+        }
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getLocalPort() {
+        return socket.getLocalPort();
+    }
+}
@@ -0,0 +1,261 @@
+package com.github.teocci.libstream.protocols.rtsp.rtp.packets;
+
+import com.github.teocci.libstream.coder.FrameInfo;
+import com.github.teocci.libstream.interfaces.RtpTransport;
+import com.github.teocci.libstream.protocols.rtsp.rtp.sockets.BaseRtpSocket;
+import com.github.teocci.libstream.protocols.rtsp.rtp.sockets.RtpSocketTcp;
+import com.github.teocci.libstream.protocols.rtsp.rtp.sockets.RtpSocketUdp;
+import com.github.teocci.libstream.utils.LogHelper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.teocci.libstream.utils.rtsp.RtpConstants.MAX_PACKET_SIZE;
+import static com.github.teocci.libstream.utils.rtsp.RtpConstants.RTP_HEADER_LENGTH;
+
+/**
+ * RFC 3640.
+ * Encapsulates AAC Access Units in RTP packets as specified in the RFC 3640.
+ * <p>
+ * Consecutive AUs are aggregated in one packet while the first one has not waited more than
+ * the max latency, see {@link #setMaxLatency(long)}. The RTP timestamp of the packet is the
+ * one of its first AU, the receiver deduces the others from the frame duration. An AU
+ * bigger than a packet is fragmented, RFC 3640 3.2.3: each fragment carries the AU-header
+ * of the whole AU and only the last one has the marker bit.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2017-Jan-14
+ */
+public class AacPacket extends BasePacket
+{
+    private static String TAG = LogHelper.makeLogTag(AacPacket.class);
+
+    // Samples of an AAC frame
+    private static final int SAMPLES_PER_FRAME = 1024;
+
+    // AU-headers-length field and AU-header of each AU
+    private static final int AU_HEADERS_LENGTH_SIZE = 2;
+    private static final int AU_HEADER_SIZE = 2;
+
+    // Room for the AU-headers and the AUs in a packet
+    private static final int MAX_PAYLOAD = MAX_PACKET_SIZE - RTP_HEADER_LENGTH - AU_HEADERS_LENGTH_SIZE;
+    // Largest AU the 13 bits of the AU-size can tell
+    private static final int MAX_AU_SIZE = 0x1FFF;
+    private static final int MAX_AU_COUNT = 64;
+
+    // AUs waiting for their packet
+    private final byte[] pending = new byte[MAX_PAYLOAD];
+    private final int[] sizes = new int[MAX_AU_COUNT];
+    private int pendingCount = 0;
+    private int pendingLength = 0;
+    private long firstTs;
+
+    private long frameDuration = 0;
+    private volatile long maxLatency = 0;
+
+    public AacPacket(RtpTransport currentSession)
+    {
+        super(currentSession);
+    }
+
+    public AacPacket(BaseRtpSocket socket)
+    {
+        super(null, socket);
+    }
+
+    @Override
+    public void updateDestination()
+    {
+        if (socket instanceof RtpSocketUdp) {
+            ((RtpSocketUdp) socket).setDestination(
+                    session.getDestination(),
+                    session.getAudioPorts()[0],
+                    session.getAudioPorts()[1]
+            );
+        } else if (socket instanceof RtpSocketTcp) {
+            ((RtpSocketTcp) socket).setBatchWriter(session.getBatchWriter(), (byte) 0);
+        }
+        // A RtpSocketFanout gets the destinations from the subscribers of its sessions
+    }
+
+    @Override
+    public void createAndSendPacket(ByteBuffer byteBuffer, FrameInfo bufferInfo)
+    {
+        // 3.3.6.  High Bit-rate AAC
+        //
+        //    0               1               2               3
+        //    0 1 2 3 4 5 6 7 0 1 2 3 4 5 6 7 0 1 2 3 4 5 6 7 0 1 2 3 4 5 6 7
+        //   +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+        // 0 |                           RTP header                          |
+        //   +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+        //   |                              ...                              |
+        //   +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+        // 3 |       AU-headers-length       |        AU-Size(1)       |AU-In|
+        //   +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+        // 4 |        AU-Size(2)       |AU-De|        AU-Size(n)       |AU-De|
+        //   +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+        //   |                          AU(1) ... AU(n)                      |
+        //   +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+
+        boolean interrupted = false;
+        try {
+            int length = bufferInfo.size - byteBuffer.position();
+            if (length <= 0) return;
+            if (length > MAX_AU_SIZE) {
+                LogHelper.e(TAG, "AU of " + length + " bytes dropped, larger than the AU-size");
+                return;
+            }
+
+            long oldTs = ts;
+            long timestamp = bufferInfo.presentationTimeUs * 1000;
+            if (oldTs > timestamp) return;
+            ts = timestamp;
+
+            if (pendingCount > 0 && !canAggregate(length, oldTs, timestamp)) {
+                sendPending();
+            }
+
+            if (AU_HEADER_SIZE + length > MAX_PAYLOAD) {
+                sendFragments(byteBuffer, length, timestamp);
+                return;
+            }
+
+            if (pendingCount == 0) firstTs = timestamp;
+            byteBuffer.get(pending, pendingLength, length);
+            sizes[pendingCount++] = length;
+            pendingLength += length;
+
+            // The next AU would make the first one wait too long
+            if (frameDuration == 0 || timestamp + frameDuration - firstTs > maxLatency) {
+                sendPending();
+            }
+        } catch (IOException | ArrayIndexOutOfBoundsException e) {
+            e.printStackTrace();
+        } catch (InterruptedException ie) {
+            ie.printStackTrace();
+            interrupted = true;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+                close();
+            }
+        }
+    }
+
+    /**
+     * Tells whether the AU can join the pending ones: it must fit in the packet, and follow
+     * the previous AU by one frame, since the receiver deduces its timestamp from it.
+     */
+    private boolean canAggregate(int length, long previousTs, long timestamp)
+    {
+        if (pendingCount == MAX_AU_COUNT) return false;
+        if ((pendingCount + 1) * AU_HEADER_SIZE + pendingLength + length > MAX_PAYLOAD) return false;
+
+        long gap = timestamp - previousTs - frameDuration;
+        return Math.abs(gap) < frameDuration / 2;
+    }
+
+    /**
+     * Sends the pending AUs in one packet.
+     */
+    private void sendPending() throws IOException, InterruptedException
+    {
+        buffer = socket.requestBuffer();
+        socket.markNextPacket();
+        socket.updateTimestamp(firstTs);
+
+        int offset = setHeadersLength(pendingCount);
+        for (int i = 0; i < pendingCount; i++) {
+            // AU-Index then AU-Index-delta, 0 since the AUs are consecutive
+            offset = setHeader(offset, sizes[i]);
+        }
+        System.arraycopy(pending, 0, buffer, offset, pendingLength);
+
+        socket.commitBuffer(offset + pendingLength);
+
+        pendingCount = 0;
+        pendingLength = 0;
+    }
+
+    /**
+     * Sends an AU too big for one packet in fragments.
+     */
+    private void sendFragments(ByteBuffer byteBuffer, int length, long timestamp)
+            throws IOException, InterruptedException
+    {
+        int sum = 0;
+        while (sum < length) {
+            int size = Math.min(MAX_PAYLOAD - AU_HEADER_SIZE, length - sum);
+
+            buffer = socket.requestBuffer();
+            socket.updateTimestamp(timestamp);
+
+            // The AU-size is the one of the whole AU
+            int offset = setHeader(setHeadersLength(1), length);
+            byteBuffer.get(buffer, offset, size);
+            sum += size;
+
+            // Last fragment of the AU
+            if (sum == length) socket.markNextPacket();
+            socket.commitBuffer(offset + size);
+        }
+    }
+
+    /**
+     * Writes the AU-headers-length field, in bits.
+     *
+     * @return the offset of the first AU-header
+     */
+    private int setHeadersLength(int count)
+    {
+        // 13 bits for the AU-size and 3 bits for the AU-Index / AU-Index-delta
+        int bits = count * AU_HEADER_SIZE * 8;
+        buffer[RTP_HEADER_LENGTH] = (byte) (bits >> 8);
+        buffer[RTP_HEADER_LENGTH + 1] = (byte) bits;
+
+        return RTP_HEADER_LENGTH + AU_HEADERS_LENGTH_SIZE;
+    }
+
+    /**
+     * Writes an AU-header, with an AU-Index or AU-Index-delta of 0.
+     *
+     * @return the offset after the AU-header
+     */
+    private int setHeader(int offset, int size)
+    {
+        // 11111000 = 0xF8
+        buffer[offset] = (byte) (size >> 5);
+        buffer[offset + 1] = (byte) ((size << 3) & 0xF8);
+
+        return offset + AU_HEADER_SIZE;
+    }
+
+    @Override
+    public void close()
+    {
+        // The pending AUs can not be sent anymore
+        pendingCount = 0;
+        pendingLength = 0;
+        super.close();
+    }
+
+    /**
+     * Sets how long an AU may wait for the next ones to share its packet, 0 by default:
+     * each AU is then sent in its own packet. A few frames, e.g. 100 ms, divide the packet
+     * rate of the audio by as many.
+     *
+     * @param maxLatency The latency bound in ms
+     */
+    public void setMaxLatency(long maxLatency)
+    {
+        this.maxLatency = TimeUnit.MILLISECONDS.toNanos(maxLatency);
+    }
+
+    public void setSampleRate(int sampleRate)
+    {
+        socket.setClockFrequency(sampleRate);
+        frameDuration = sampleRate > 0 ? SAMPLES_PER_FRAME * 1_000_000_000L / sampleRate : 0;
+    }
+}
@@ -1,11 +1,12 @@
 package com.github.teocci.libstream.protocols.rtsp.rtp.packets;
 
-import android.media.MediaCodec;
-
+import com.github.teocci.libstream.coder.FrameInfo;
+import com.github.teocci.libstream.interfaces.RtcpListener;
+import com.github.teocci.libstream.interfaces.RtpTransport;
 import com.github.teocci.libstream.protocols.rtsp.rtp.sockets.BaseRtpSocket;
+import com.github.teocci.libstream.protocols.rtsp.rtp.sockets.RtpRetransmitter;
 import com.github.teocci.libstream.protocols.rtsp.rtp.sockets.RtpSocketTcp;
 import com.github.teocci.libstream.protocols.rtsp.rtp.sockets.RtpSocketUdp;
-import com.github.teocci.libstream.protocols.rtsp.rtsp.Session;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -25,17 +26,30 @@ public abstract class BasePacket
     protected byte[] buffer;
     protected long ts;
 
-    protected Session session;
+    protected RtpTransport session;
 
     protected volatile boolean streaming;
 
-    public BasePacket(Session session)
+    public BasePacket(RtpTransport session)
+    {
+        this(session, session.isTCP() ?
+                new RtpSocketTcp(session.getConnectCheckerRtsp()) :
+                new RtpSocketUdp(session.getConnectCheckerRtsp())
+        );
+    }
+
+    /**
+     * Creates a packetizer writing into the given socket, e.g. the RtpSocketFanout
+     * shared by all the clients of a server.
+     *
+     * @param session The transport of the session of the packetizer, it may be null for a shared socket
+     * @param socket  The RTP socket that sends the packets
+     */
+    public BasePacket(RtpTransport session, BaseRtpSocket socket)
     {
         this.session = session;
+        this.socket = socket;
         ts = new Random().nextInt();
-        socket = session.isTCP() ?
-                new RtpSocketTcp(session.getConnectCheckerRtsp()) :
-                new RtpSocketUdp(session.getConnectCheckerRtsp());
 
         socket.setSSRC(new Random().nextInt());
 
@@ -79,6 +93,41 @@ public abstract class BasePacket
         return null;
     }
 
+    /**
+     * Receives the RTCP feedback of the receiver, only over UDP: over TCP the reports are
+     * interleaved in the RTSP connection.
+     */
+    public void setRtcpListener(RtcpListener listener, int trackId)
+    {
+        if (socket instanceof RtpSocketUdp) {
+            ((RtpSocketUdp) socket).setRtcpListener(listener, trackId);
+        }
+    }
+
+    /**
+     * Resends the packets the receiver reports lost in its generic NACKs, only over UDP.
+     *
+     * @param historySize    The number of packets kept, 0 to disable the retransmissions
+     * @param rtxPayloadType The payload type of the RTX stream, or -1 to resend the packets as they were
+     */
+    public void setRetransmission(int historySize, int rtxPayloadType)
+    {
+        if (socket instanceof RtpSocketUdp) {
+            ((RtpSocketUdp) socket).setRetransmission(historySize, rtxPayloadType);
+        }
+    }
+
+    /**
+     * Returns the retransmitter of the socket, or null if the packets are not retransmitted.
+     */
+    public RtpRetransmitter getRetransmitter()
+    {
+        if (socket instanceof RtpSocketUdp) {
+            return ((RtpSocketUdp) socket).getRetransmitter();
+        }
+        return null;
+    }
+
 
     /**
      * Indicates if the {@link BasePacket} is streaming.
@@ -93,5 +142,5 @@ public abstract class BasePacket
 
     public abstract void updateDestination();
 
-    public abstract void createAndSendPacket(ByteBuffer byteBuffer, MediaCodec.BufferInfo bufferInfo);
+    public abstract void createAndSendPacket(ByteBuffer byteBuffer, FrameInfo bufferInfo);
 }
@@ -1,16 +1,13 @@
 package com.github.teocci.libstream.protocols.rtsp.rtp.packets;
 
-import android.media.MediaCodec.BufferInfo;
-
-import com.github.teocci.libstream.protocols.rtsp.rtp.sockets.RtpSocketTcp;
-import com.github.teocci.libstream.protocols.rtsp.rtp.sockets.RtpSocketUdp;
-import com.github.teocci.libstream.protocols.rtsp.rtsp.Session;
+import com.github.teocci.libstream.coder.FrameInfo;
+import com.github.teocci.libstream.interfaces.RtpTransport;
+import com.github.teocci.libstream.protocols.rtsp.rtp.sockets.BaseRtpSocket;
 import com.github.teocci.libstream.utils.LogHelper;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 
-import static com.github.teocci.libstream.utils.rtsp.RtpConstants.CLOCK_VIDEO_FREQUENCY;
 import static com.github.teocci.libstream.utils.rtsp.RtpConstants.MAX_PACKET_SIZE;
 import static com.github.teocci.libstream.utils.rtsp.RtpConstants.RTP_HEADER_LENGTH;
 
@@ -22,7 +19,7 @@ import static com.github.teocci.libstream.utils.rtsp.RtpConstants.RTP_HEADER_LEN
  *
  * @author teocci@yandex.com on 2017-Jan-14
  */
-public class H264Packet extends BasePacket
+public class H264Packet extends VideoPacket
 {
     private static String TAG = LogHelper.makeLogTag(H264Packet.class);
 
@@ -30,28 +27,18 @@ public class H264Packet extends BasePacket
     private byte[] header = new byte[5];
     private byte[] stapA;
 
-    public H264Packet(Session session)
+    public H264Packet(RtpTransport session)
     {
         super(session);
-        socket.setClockFrequency(CLOCK_VIDEO_FREQUENCY);
     }
 
-    @Override
-    public void updateDestination()
+    public H264Packet(BaseRtpSocket socket)
     {
-        if (socket instanceof RtpSocketUdp) {
-            ((RtpSocketUdp) socket).setDestination(
-                    session.getDestination(),
-                    session.getVideoPorts()[0],
-                    session.getVideoPorts()[1]
-            );
-        } else {
-            ((RtpSocketTcp) socket).setOutputStream(session.getOutputStream(), (byte) 2);
-        }
+        super(socket);
     }
 
     @Override
-    public void createAndSendPacket(ByteBuffer buffer, BufferInfo videoInfo)
+    public void createAndSendPacket(ByteBuffer buffer, FrameInfo videoInfo)
     {
         boolean interrupted = false;
         try {
@@ -61,8 +48,13 @@ public class H264Packet extends BasePacket
             ts = videoInfo.presentationTimeUs * 1000L;
             int naluLength = videoInfo.size - buffer.position() + 1;
             int type = header[4] & 0x1F; // 00011111 = 0x1F
+            // A NRI of 0 means no other picture is predicted from this NAL unit
+            // 01100000 = 0x60
+            socket.setReferenceFrame((header[4] & 0x60) != 0);
 
             if (type == 5) {
+                // The GOP of the new clients starts with the SPS and PPS
+                socket.markKeyFrame();
                 this.buffer = socket.requestBuffer();
                 socket.markNextPacket();
                 socket.updateTimestamp(ts);
@@ -158,6 +150,12 @@ public class H264Packet extends BasePacket
         }
     }
 
+    @Override
+    public void setParameterSets(byte[] sps, byte[] pps, byte[] vps)
+    {
+        setPSPair(sps, pps);
+    }
+
     public void setPSPair(byte[] sps, byte[] pps)
     {
         // Single-Time Aggregation Packet type A (STAP-A)
@@ -0,0 +1,236 @@
+package com.github.teocci.libstream.protocols.rtsp.rtp.packets;
+
+import com.github.teocci.libstream.coder.FrameInfo;
+import com.github.teocci.libstream.interfaces.RtpTransport;
+import com.github.teocci.libstream.protocols.rtsp.rtp.sockets.BaseRtpSocket;
+import com.github.teocci.libstream.utils.LogHelper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static com.github.teocci.libstream.utils.rtsp.RtpConstants.MAX_PACKET_SIZE;
+import static com.github.teocci.libstream.utils.rtsp.RtpConstants.RTP_HEADER_LENGTH;
+
+/**
+ * RFC 7798.
+ * H265/HEVC streaming over RTP.
+ * <p>
+ * Like {@link H264Packet}, a small NAL unit is sent as a single NAL unit packet, a large
+ * one is split into fragmentation units (FU, type 49), and the VPS, SPS and PPS are sent
+ * in an aggregation packet (AP, type 48) before each IRAP picture. The NAL unit header of
+ * HEVC is two bytes long.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-20
+ */
+public class HevcPacket extends VideoPacket
+{
+    private static String TAG = LogHelper.makeLogTag(HevcPacket.class);
+
+    // NAL unit types (RFC 7798 1.1.4)
+    private static final int TYPE_BLA_W_LP = 16;
+    private static final int TYPE_RSV_IRAP_VCL23 = 23;
+    private static final int TYPE_RSV_VCL_N14 = 14;
+    private static final int TYPE_AP = 48;
+    private static final int TYPE_FU = 49;
+
+    // Payload header (2 bytes) and FU header (1 byte)
+    private static final int MAX_FU_PAYLOAD = MAX_PACKET_SIZE - RTP_HEADER_LENGTH - 3;
+
+    // Contain header from ByteBuffer (start code and NAL unit header, first 6 bytes)
+    private byte[] header = new byte[6];
+    private byte[] ap;
+
+    public HevcPacket(RtpTransport session)
+    {
+        super(session);
+    }
+
+    public HevcPacket(BaseRtpSocket socket)
+    {
+        super(socket);
+    }
+
+    @Override
+    public void createAndSendPacket(ByteBuffer buffer, FrameInfo videoInfo)
+    {
+        boolean interrupted = false;
+        try {
+            // We read a NAL units from ByteBuffer and we send them
+            // NAL units are preceded with 0x00000001
+            buffer.get(header, 0, 6);
+            ts = videoInfo.presentationTimeUs * 1000L;
+            // The NAL unit header is part of the NAL unit
+            int naluLength = videoInfo.size - buffer.position() + 2;
+
+            // NAL unit header
+            // +---------------+---------------+
+            // |0|1|2|3|4|5|6|7|0|1|2|3|4|5|6|7|
+            // +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+            // |F|   Type    |  LayerId  | TID |
+            // +-------------+-----------------+
+            // 01111110 = 0x7E
+            int type = (header[4] & 0x7E) >> 1;
+            // The even VCL types up to 14 are sub-layer non-reference pictures
+            socket.setReferenceFrame(type > TYPE_RSV_VCL_N14 || (type & 1) != 0);
+
+            boolean irap = type >= TYPE_BLA_W_LP && type <= TYPE_RSV_IRAP_VCL23;
+            // The GOP of the new clients starts with the VPS, SPS and PPS
+            if (irap) socket.markKeyFrame();
+
+            if (irap && ap != null) {
+                this.buffer = socket.requestBuffer();
+                socket.markNextPacket();
+                socket.updateTimestamp(ts);
+                System.arraycopy(ap, 0, this.buffer, RTP_HEADER_LENGTH, ap.length);
+                socket.commitBuffer(ap.length + RTP_HEADER_LENGTH);
+            }
+
+            if (naluLength <= MAX_PACKET_SIZE - RTP_HEADER_LENGTH) {
+                // Small NAL unit -> Single NAL unit packet, the payload header is the NAL unit header
+                this.buffer = socket.requestBuffer();
+                this.buffer[RTP_HEADER_LENGTH] = header[4];
+                this.buffer[RTP_HEADER_LENGTH + 1] = header[5];
+
+                int cont = naluLength - 2;
+                int bufferSize = videoInfo.size - buffer.position();
+                int length = cont < bufferSize ? cont : bufferSize;
+                buffer.get(this.buffer, RTP_HEADER_LENGTH + 2, length);
+
+                socket.updateTimestamp(ts);
+                socket.markNextPacket();
+                socket.commitBuffer(naluLength + RTP_HEADER_LENGTH);
+            } else {
+                // Large NAL unit -> Split NAL unit
+                // Set payload header, the type of the NAL unit header is replaced by 49
+                // +---------------+---------------+
+                // |0|1|2|3|4|5|6|7|0|1|2|3|4|5|6|7|
+                // +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+                // |F|   Type=49 |  LayerId  | TID |
+                // +-------------+-----------------+
+                // 10000001 = 0x81
+                header[0] = (byte) ((header[4] & 0x81) | (TYPE_FU << 1));
+                header[1] = header[5];
+
+                // Set FU header
+                // +---------------+
+                // |0|1|2|3|4|5|6|7|
+                // +-+-+-+-+-+-+-+-+
+                // |S|E|  FuType   |
+                // +---------------+
+                // Start bit
+                // 10000000 = 0x80
+                header[2] = (byte) (type | 0x80);
+
+                // The NAL unit header is not sent, FU header carries its type
+                int sum = 2;
+
+                while (sum < naluLength) {
+                    this.buffer = socket.requestBuffer();
+                    this.buffer[RTP_HEADER_LENGTH] = header[0];
+                    this.buffer[RTP_HEADER_LENGTH + 1] = header[1];
+                    this.buffer[RTP_HEADER_LENGTH + 2] = header[2];
+                    socket.updateTimestamp(ts);
+
+                    int cont = naluLength - sum > MAX_FU_PAYLOAD ? MAX_FU_PAYLOAD : naluLength - sum;
+                    int bufferSize = videoInfo.size - buffer.position();
+                    int length = cont < bufferSize ? cont : bufferSize;
+
+                    buffer.get(this.buffer, RTP_HEADER_LENGTH + 3, length);
+                    if (length < 0) {
+                        return;
+                    }
+
+                    sum += length;
+                    // Last packet before next NAL
+                    if (sum >= naluLength) {
+                        // End bit on
+                        // 01000000 = 0x40
+                        this.buffer[RTP_HEADER_LENGTH + 2] |= 0x40;
+                        socket.markNextPacket();
+                    }
+                    socket.commitBuffer(length + RTP_HEADER_LENGTH + 3);
+                    // Switch start bit
+                    // 01111111 = 0x7F
+                    header[2] = (byte) (header[2] & 0x7F);
+                }
+            }
+        } catch (IOException | IndexOutOfBoundsException e) {
+            e.printStackTrace();
+        } catch (InterruptedException ie) {
+            ie.printStackTrace();
+            interrupted = true;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+                close();
+            }
+        }
+    }
+
+    @Override
+    public void setParameterSets(byte[] sps, byte[] pps, byte[] vps)
+    {
+        setVpsSpsPps(vps, sps, pps);
+    }
+
+    public void setVpsSpsPps(byte[] vps, byte[] sps, byte[] pps)
+    {
+        if (vps == null || sps == null || pps == null) {
+            LogHelper.e(TAG, "HEVC needs a VPS, a SPS and a PPS");
+            return;
+        }
+
+        // Aggregation Packet (AP)
+
+        //  0                   1                   2                   3
+        //  0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1
+        // +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+        // |                          RTP Header                           |
+        // +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+        // |   PayloadHdr (Type=48)        |         NALU 1 Size           |
+        // +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+        // |          NALU 1 HDR           |                               |
+        // +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+         NALU 1 Data           |
+        // |                   . . .                                       |
+        // |                                                               |
+        // +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+        // |  . . .        | NALU 2 Size                   | NALU 2 HDR    |
+        // +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+        // | NALU 2 HDR    |                                               |
+        // +-+-+-+-+-+-+-+-+              NALU 2 Data                      |
+        // |                   . . .                                       |
+        // |                               +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+        // |                               :    ...OPTIONAL RTP padding    |
+        // +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+        byte[] ap = new byte[2 + 2 + vps.length + 2 + sps.length + 2 + pps.length];
+
+        // PayloadHdr: F is 0, the type is 48, and the LayerId and TID are the lowest ones
+        // of the aggregated NAL units, see RFC 7798 4.4.2
+        // 00000111 = 0x07
+        int tid = Math.min(vps[1] & 0x07, Math.min(sps[1] & 0x07, pps[1] & 0x07));
+        ap[0] = (byte) (TYPE_AP << 1);
+        ap[1] = (byte) tid;
+
+        int offset = 2;
+        offset = aggregate(vps, ap, offset);
+        offset = aggregate(sps, ap, offset);
+        aggregate(pps, ap, offset);
+
+        this.ap = ap;
+    }
+
+    /**
+     * Writes the size of a NAL unit, then the NAL unit, and returns the offset after it.
+     */
+    private static int aggregate(byte[] nalu, byte[] ap, int offset)
+    {
+        // 11111111 = 0xFF
+        ap[offset] = (byte) (nalu.length >> 8);
+        ap[offset + 1] = (byte) (nalu.length & 0xFF);
+        System.arraycopy(nalu, 0, ap, offset + 2, nalu.length);
+
+        return offset + 2 + nalu.length;
+    }
+}
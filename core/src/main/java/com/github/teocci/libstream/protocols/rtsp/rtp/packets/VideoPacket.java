@@ -0,0 +1,57 @@
+package com.github.teocci.libstream.protocols.rtsp.rtp.packets;
+
+import com.github.teocci.libstream.interfaces.RtpTransport;
+import com.github.teocci.libstream.protocols.rtsp.rtp.sockets.BaseRtpSocket;
+import com.github.teocci.libstream.protocols.rtsp.rtp.sockets.RtpSocketTcp;
+import com.github.teocci.libstream.protocols.rtsp.rtp.sockets.RtpSocketUdp;
+
+import static com.github.teocci.libstream.utils.rtsp.RtpConstants.CLOCK_VIDEO_FREQUENCY;
+
+/**
+ * Base of the video packetizers, {@link H264Packet} and {@link HevcPacket}.
+ * <p>
+ * Both send the video track with a 90 kHz clock, and repeat the parameter sets of the
+ * stream in an aggregation packet before each key frame.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-20
+ */
+public abstract class VideoPacket extends BasePacket
+{
+    public VideoPacket(RtpTransport session)
+    {
+        super(session);
+        socket.setClockFrequency(CLOCK_VIDEO_FREQUENCY);
+    }
+
+    public VideoPacket(BaseRtpSocket socket)
+    {
+        super(null, socket);
+        socket.setClockFrequency(CLOCK_VIDEO_FREQUENCY);
+    }
+
+    @Override
+    public void updateDestination()
+    {
+        if (socket instanceof RtpSocketUdp) {
+            ((RtpSocketUdp) socket).setDestination(
+                    session.getDestination(),
+                    session.getVideoPorts()[0],
+                    session.getVideoPorts()[1]
+            );
+        } else if (socket instanceof RtpSocketTcp) {
+            ((RtpSocketTcp) socket).setBatchWriter(session.getBatchWriter(), (byte) 2);
+        }
+        // A RtpSocketFanout gets the destinations from the subscribers of its sessions
+    }
+
+    /**
+     * Sets the parameter sets sent before each key frame, without their start code.
+     *
+     * @param sps The sequence parameter set
+     * @param pps The picture parameter set
+     * @param vps The video parameter set, null for H.264
+     */
+    public abstract void setParameterSets(byte[] sps, byte[] pps, byte[] vps);
+}
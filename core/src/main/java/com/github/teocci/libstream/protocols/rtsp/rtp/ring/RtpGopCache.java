@@ -0,0 +1,155 @@
+package com.github.teocci.libstream.protocols.rtsp.rtp.ring;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.github.teocci.libstream.utils.rtsp.RtpConstants.MTU;
+
+/**
+ * Copy of the RTP packets of the current GOP of a track, from the last key frame on.
+ * <p>
+ * A client joining the stream would otherwise wait for the next key frame, up to the
+ * I-frame interval of the encoder. The {@link RtpPacketRing} copies each packet it
+ * publishes into this cache, which keeps them under the same positions as the ring: a
+ * new {@link RtpRingReader} starts at the key frame, reads the packets the ring has
+ * already overwritten from here, then goes on with the ring.
+ * <p>
+ * The copies come from a pool preallocated for the memory cap. A GOP larger than the
+ * cap is not cached, the clients then join at the live edge like before.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-21
+ */
+public class RtpGopCache
+{
+    /**
+     * Memory cap by default, about 4 Mbps with 2 seconds between key frames.
+     */
+    public static final int DEFAULT_MAX_BYTES = 1024 * 1024;
+
+    private final RtpPacketPool pool;
+    private final AtomicReferenceArray<RtpPacketBuffer> slots;
+
+    // Ring position of the key frame, -1 while no GOP is cached
+    private volatile long first = -1;
+    // Number of packets cached
+    private volatile int count = 0;
+
+    private long overflows = 0;
+
+    public RtpGopCache()
+    {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param maxBytes Memory used by the cached packets
+     */
+    public RtpGopCache(int maxBytes)
+    {
+        int size = Math.max(1, maxBytes / MTU);
+
+        this.pool = new RtpPacketPool(size, MTU);
+        this.slots = new AtomicReferenceArray<>(size);
+    }
+
+    /**
+     * Copies a published packet, a key frame starts a new GOP.
+     * Only the packetizer thread may call it.
+     *
+     * @param buffer   The packet published by the ring
+     * @param position Its position in the ring
+     */
+    void add(RtpPacketBuffer buffer, long position)
+    {
+        if (buffer.keyFrame) {
+            clear();
+        } else if (first < 0) {
+            // Waiting for the next key frame
+            return;
+        }
+
+        int index = count;
+        RtpPacketBuffer copy = index < slots.length() ? pool.acquire() : null;
+        if (copy == null) {
+            // Over the memory cap, or the last copies are still being sent
+            clear();
+            overflows++;
+            return;
+        }
+
+        System.arraycopy(buffer.data, 0, copy.data, 0, buffer.length);
+        copy.length = buffer.length;
+        copy.timestamp = buffer.timestamp;
+        copy.keyFrame = buffer.keyFrame;
+        copy.sequence = position;
+
+        slots.set(index, copy);
+        if (index == 0) first = position;
+        count = index + 1;
+    }
+
+    /**
+     * Returns the retained copy of the packet at the given ring position, or null if
+     * it is not cached. The caller must release it.
+     */
+    RtpPacketBuffer get(long position)
+    {
+        long start = first;
+        if (start < 0 || position < start || position - start >= count) return null;
+
+        RtpPacketBuffer buffer = slots.get((int) (position - start));
+        if (buffer == null || !buffer.tryRetain()) return null;
+        if (buffer.sequence != position) {
+            buffer.release();
+            return null;
+        }
+
+        return buffer;
+    }
+
+    /**
+     * Returns the ring position of the cached key frame, or -1 if there is none.
+     */
+    public long getStart()
+    {
+        return first;
+    }
+
+    /**
+     * Drops the cached GOP.
+     */
+    public void clear()
+    {
+        first = -1;
+        for (int i = 0, n = count; i < n; i++) {
+            RtpPacketBuffer old = slots.getAndSet(i, null);
+            if (old != null) old.release();
+        }
+        count = 0;
+    }
+
+    /**
+     * Returns the number of packets cached.
+     */
+    public int getCount()
+    {
+        return first < 0 ? 0 : count;
+    }
+
+    /**
+     * Returns the memory used by the pool of the cache.
+     */
+    public int getMaxBytes()
+    {
+        return pool.getSize() * MTU;
+    }
+
+    /**
+     * Returns the number of GOPs that could not be cached because of the memory cap.
+     */
+    public long getOverflows()
+    {
+        return overflows;
+    }
+}
@@ -0,0 +1,101 @@
+package com.github.teocci.libstream.protocols.rtsp.rtp.ring;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.github.teocci.libstream.utils.rtsp.RtpConstants.RTP_HEADER_LENGTH;
+
+/**
+ * A pooled, reference-counted RTP packet.
+ * The packetizer holds the first reference while it writes the packet, then the
+ * {@link RtpPacketRing} keeps it until the slot is overwritten. Each reader retains
+ * it only while it is sending it.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-05
+ */
+public class RtpPacketBuffer
+{
+    public final byte[] data;
+
+    public int length;
+
+    // RTP timestamp in clock units
+    public long timestamp;
+
+    // First packet of a key frame, parameter sets included
+    public boolean keyFrame;
+
+    // Position of the packet in the ring, -1 while it is not published
+    volatile long sequence = -1;
+
+    private final AtomicInteger refCount = new AtomicInteger();
+    private final RtpPacketPool pool;
+
+    private final ByteBuffer view;
+
+    RtpPacketBuffer(RtpPacketPool pool, int size)
+    {
+        this.pool = pool;
+        this.data = new byte[size];
+        this.view = ByteBuffer.wrap(data);
+    }
+
+    /**
+     * Called by the pool when the buffer is handed to the packetizer.
+     * The sequence is cleared before the buffer can be retained again.
+     */
+    void acquire()
+    {
+        sequence = -1;
+        length = 0;
+        keyFrame = false;
+        refCount.set(1);
+    }
+
+    /**
+     * Takes a new reference unless the buffer has already gone back to the pool.
+     *
+     * @return false if the buffer was recycled
+     */
+    boolean tryRetain()
+    {
+        for (; ; ) {
+            int count = refCount.get();
+            if (count <= 0) return false;
+            if (refCount.compareAndSet(count, count + 1)) return true;
+        }
+    }
+
+    /**
+     * Drops a reference, the last one returns the buffer to the pool.
+     */
+    public void release()
+    {
+        if (refCount.decrementAndGet() == 0) {
+            pool.recycle(this);
+        }
+    }
+
+    /**
+     * Returns a view of the payload, without the shared RTP header.
+     * The view is reused, only the sender thread of the ring may use it and only
+     * until the next call.
+     */
+    public ByteBuffer payload()
+    {
+        view.limit(length);
+        view.position(RTP_HEADER_LENGTH);
+
+        return view;
+    }
+
+    /**
+     * Returns the RTP sequence number written by the packetizer.
+     */
+    public int getSeq()
+    {
+        return ((data[2] & 0xFF) << 8) | (data[3] & 0xFF);
+    }
+}
@@ -0,0 +1,166 @@
+package com.github.teocci.libstream.protocols.rtsp.rtp.ring;
+
+import static com.github.teocci.libstream.utils.rtsp.RtpConstants.MTU;
+
+/**
+ * The last RTP packets sent on a stream, kept for their retransmission and found by their
+ * sequence number.
+ * <p>
+ * The history is a ring indexed by the low bits of the sequence number: a packet takes the
+ * slot of the one sent capacity packets before it, and a lookup checks the sequence number
+ * stored in the slot, so an overwritten packet is not found. A packet older than the max
+ * age is not found either, the receiver has given up on it.
+ * <p>
+ * It is not thread-safe: the socket writes and reads it under the lock of its channel.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-26
+ */
+public class RtpPacketHistory
+{
+    /**
+     * How long a packet is kept by default, in ms.
+     */
+    public static final long DEFAULT_MAX_AGE = 1000;
+
+    /**
+     * The resend time of a packet that was not resent.
+     */
+    public static final long NEVER = Long.MIN_VALUE;
+
+    private final byte[][] packets;
+    private final int[] lengths;
+    private final int[] seqs;
+    private final long[] sentAt;
+    private final long[] resentAt;
+    private final int mask;
+
+    private long maxAge = DEFAULT_MAX_AGE * 1_000_000L;
+
+    private int newestSeq = -1;
+    private int count = 0;
+    // Bytes held by the ring, for the rate of the stream
+    private long bytes = 0;
+
+    /**
+     * @param capacity The number of packets kept, rounded up to a power of two
+     */
+    public RtpPacketHistory(int capacity)
+    {
+        capacity = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mask = capacity - 1;
+        packets = new byte[capacity][MTU];
+        lengths = new int[capacity];
+        seqs = new int[capacity];
+        sentAt = new long[capacity];
+        resentAt = new long[capacity];
+        clear();
+    }
+
+    public void clear()
+    {
+        for (int i = 0; i <= mask; i++) {
+            seqs[i] = -1;
+        }
+        newestSeq = -1;
+        count = 0;
+        bytes = 0;
+    }
+
+    /**
+     * Keeps a copy of a packet being sent.
+     *
+     * @param packet The RTP packet, with its header
+     * @param length The length of the packet
+     * @param now    The send time, in ns of {@link System#nanoTime()}
+     */
+    public void put(byte[] packet, int length, long now)
+    {
+        // Byte 2,3 -> Sequence Number
+        int seq = (packet[2] & 0xFF) << 8 | (packet[3] & 0xFF);
+        int slot = seq & mask;
+
+        if (seqs[slot] >= 0) {
+            bytes -= lengths[slot];
+            count--;
+        }
+
+        System.arraycopy(packet, 0, packets[slot], 0, length);
+        lengths[slot] = length;
+        seqs[slot] = seq;
+        sentAt[slot] = now;
+        resentAt[slot] = NEVER;
+        bytes += length;
+        count++;
+        newestSeq = seq;
+    }
+
+    /**
+     * Returns the slot of the packet of the given sequence number, or -1 if it is not kept
+     * anymore.
+     *
+     * @param now The current time, in ns of {@link System#nanoTime()}
+     */
+    public int find(int seq, long now)
+    {
+        int slot = seq & mask;
+        if (seqs[slot] != seq || now - sentAt[slot] > maxAge) return -1;
+
+        return slot;
+    }
+
+    public byte[] getPacket(int slot)
+    {
+        return packets[slot];
+    }
+
+    public int getLength(int slot)
+    {
+        return lengths[slot];
+    }
+
+    /**
+     * Returns when the packet of the slot was last resent, in ns, or {@link #NEVER}.
+     */
+    public long getLastResent(int slot)
+    {
+        return resentAt[slot];
+    }
+
+    public void markResent(int slot, long now)
+    {
+        resentAt[slot] = now;
+    }
+
+    /**
+     * Returns the rate of the stream over the packets kept, in bytes/s, or 0 if unknown.
+     */
+    public long getByteRate()
+    {
+        if (count < 2) return 0;
+
+        // The sequence numbers of a stream are contiguous
+        int oldest = (newestSeq - count + 1) & 0xFFFF;
+        int oldestSlot = oldest & mask;
+        if (seqs[oldestSlot] != oldest) return 0;
+
+        long elapsed = sentAt[newestSeq & mask] - sentAt[oldestSlot];
+        return elapsed > 0 ? (bytes - lengths[newestSeq & mask]) * 1_000_000_000L / elapsed : 0;
+    }
+
+    /**
+     * Sets how long a packet can be retransmitted after it was first sent.
+     *
+     * @param maxAge The age in ms
+     */
+    public void setMaxAge(long maxAge)
+    {
+        this.maxAge = maxAge * 1_000_000L;
+    }
+
+    public int getCapacity()
+    {
+        return mask + 1;
+    }
+}
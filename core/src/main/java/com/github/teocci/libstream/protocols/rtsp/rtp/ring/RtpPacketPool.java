@@ -0,0 +1,68 @@
+package com.github.teocci.libstream.protocols.rtsp.rtp.ring;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+import static com.github.teocci.libstream.utils.rtsp.RtpConstants.PAYLOAD_TYPE;
+
+/**
+ * Fixed set of preallocated RTP packet buffers.
+ * The pool never grows, when it is empty the packetizer has to drop the packet.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-05
+ */
+public class RtpPacketPool
+{
+    private final ArrayBlockingQueue<RtpPacketBuffer> free;
+    private final int size;
+
+    public RtpPacketPool(int size, int bufferSize)
+    {
+        this.size = size;
+        this.free = new ArrayBlockingQueue<>(size);
+
+        for (int i = 0; i < size; i++) {
+            RtpPacketBuffer buffer = new RtpPacketBuffer(this, bufferSize);
+
+            // RTP-version field (V) must be 2
+            // Padding (P), extension (X), number of contributing sources (CC),
+            // and marker (M) fields. These are all set to zero
+            buffer.data[0] = (byte) 0x80;
+
+            // Byte 1 -> M, Payload Type (PT)
+            buffer.data[1] = (byte) PAYLOAD_TYPE;
+
+            free.offer(buffer);
+        }
+    }
+
+    /**
+     * Returns a free buffer holding one reference, or null if all of them are in use.
+     */
+    public RtpPacketBuffer acquire()
+    {
+        RtpPacketBuffer buffer = free.poll();
+        if (buffer != null) buffer.acquire();
+
+        return buffer;
+    }
+
+    void recycle(RtpPacketBuffer buffer)
+    {
+        free.offer(buffer);
+    }
+
+    public int getSize()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the number of buffers held by the packetizer, the ring or the readers.
+     */
+    public int getInUse()
+    {
+        return size - free.size();
+    }
+}
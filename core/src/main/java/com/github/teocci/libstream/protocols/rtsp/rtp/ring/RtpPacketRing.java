@@ -0,0 +1,258 @@
+package com.github.teocci.libstream.protocols.rtsp.rtp.ring;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.github.teocci.libstream.utils.rtsp.RtpConstants.MTU;
+
+/**
+ * Single producer, multiple consumer ring of the last RTP packets of a track.
+ * <p>
+ * The packetizer writes each packet once into a pooled buffer and publishes it.
+ * Every client reads the ring at its own pace with a {@link RtpRingReader}, so the
+ * memory used by a track does not depend on the number of clients.
+ * A reader that falls more than a ring behind loses the overwritten packets.
+ * <p>
+ * With a {@link RtpGopCache}, a new reader starts at the last key frame instead of the
+ * live edge, and the readers measure the time to their first key frame.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-05
+ */
+public class RtpPacketRing
+{
+    public static final int DEFAULT_CAPACITY = 256;
+
+    // Buffers that can be retained by the readers on top of the ring slots
+    private static final int SPARE_BUFFERS = 32;
+
+    private final RtpPacketPool pool;
+    private final AtomicReferenceArray<RtpPacketBuffer> slots;
+    private final int capacity;
+    private final int mask;
+
+    // Number of packets published so far
+    private volatile long head = 0;
+
+    private volatile RtpGopCache gopCache;
+    // Bytes per second of the GOP sent to a new reader, 0 to send it at once
+    private volatile int burstRate = 0;
+
+    private final AtomicLong droppedPackets = new AtomicLong();
+    private final AtomicLong overrunPackets = new AtomicLong();
+
+    private final AtomicLong firstFrameCount = new AtomicLong();
+    private final AtomicLong firstFrameNanos = new AtomicLong();
+    private final AtomicLong maxFirstFrameNanos = new AtomicLong();
+
+    public RtpPacketRing()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity Number of packets kept in the ring, rounded up to a power of two
+     */
+    public RtpPacketRing(int capacity)
+    {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+
+        this.capacity = size;
+        this.mask = size - 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.pool = new RtpPacketPool(size + SPARE_BUFFERS, MTU);
+    }
+
+    /**
+     * Returns a buffer for the next packet, or null if the pool is exhausted.
+     */
+    public RtpPacketBuffer acquire()
+    {
+        RtpPacketBuffer buffer = pool.acquire();
+        if (buffer == null) droppedPackets.incrementAndGet();
+
+        return buffer;
+    }
+
+    /**
+     * Publishes the packet, the ring takes over the reference of the packetizer.
+     * Only the packetizer thread may call it.
+     */
+    public void publish(RtpPacketBuffer buffer)
+    {
+        long position = head;
+        int index = (int) (position & mask);
+
+        buffer.sequence = position;
+        RtpPacketBuffer old = slots.getAndSet(index, buffer);
+
+        RtpGopCache gopCache = this.gopCache;
+        if (gopCache != null) gopCache.add(buffer, position);
+
+        head = position + 1;
+
+        if (old != null) old.release();
+    }
+
+    /**
+     * Returns the retained packet at the given position, from the ring or from the GOP
+     * cache, or null if it has been overwritten.
+     */
+    RtpPacketBuffer get(long position)
+    {
+        RtpPacketBuffer buffer = slots.get((int) (position & mask));
+        if (buffer != null && buffer.tryRetain()) {
+            if (buffer.sequence == position) return buffer;
+            buffer.release();
+        }
+
+        RtpGopCache gopCache = this.gopCache;
+        return gopCache != null ? gopCache.get(position) : null;
+    }
+
+    /**
+     * Returns the position of the oldest packet still available, in the ring or in the
+     * GOP cache.
+     */
+    long getOldest(long head)
+    {
+        long oldest = head - capacity;
+
+        RtpGopCache gopCache = this.gopCache;
+        long start = gopCache != null ? gopCache.getStart() : -1;
+
+        return start >= 0 && start < oldest ? start : oldest;
+    }
+
+    /**
+     * Returns where a new reader starts: the cached key frame, or the live edge.
+     */
+    long getJoinPosition()
+    {
+        RtpGopCache gopCache = this.gopCache;
+        long start = gopCache != null ? gopCache.getStart() : -1;
+
+        return start >= 0 ? start : head;
+    }
+
+    void addFirstFrame(long nanos)
+    {
+        firstFrameCount.incrementAndGet();
+        firstFrameNanos.addAndGet(nanos);
+
+        for (; ; ) {
+            long max = maxFirstFrameNanos.get();
+            if (nanos <= max || maxFirstFrameNanos.compareAndSet(max, nanos)) break;
+        }
+    }
+
+    void addOverrun(long count)
+    {
+        overrunPackets.addAndGet(count);
+    }
+
+    /**
+     * Releases all the packets kept in the ring.
+     */
+    public void clear()
+    {
+        for (int i = 0; i < capacity; i++) {
+            RtpPacketBuffer old = slots.getAndSet(i, null);
+            if (old != null) old.release();
+        }
+
+        RtpGopCache gopCache = this.gopCache;
+        if (gopCache != null) gopCache.clear();
+    }
+
+    /**
+     * Keeps the last GOP for the new readers, null to disable it.
+     * The cache must be set before the packetizer starts.
+     */
+    public void setGopCache(RtpGopCache gopCache)
+    {
+        RtpGopCache old = this.gopCache;
+        this.gopCache = gopCache;
+        if (old != null) old.clear();
+    }
+
+    public RtpGopCache getGopCache()
+    {
+        return gopCache;
+    }
+
+    /**
+     * Paces the GOP sent to a new reader.
+     *
+     * @param bytesPerSecond The rate of the burst, 0 to send it at once
+     */
+    public void setBurstRate(int bytesPerSecond)
+    {
+        this.burstRate = bytesPerSecond;
+    }
+
+    public int getBurstRate()
+    {
+        return burstRate;
+    }
+
+    public long getHead()
+    {
+        return head;
+    }
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of pooled buffers currently in use.
+     */
+    public int getOccupancy()
+    {
+        return pool.getInUse();
+    }
+
+    /**
+     * Returns the number of packets dropped by the packetizer because the pool was exhausted.
+     */
+    public long getDroppedPackets()
+    {
+        return droppedPackets.get();
+    }
+
+    /**
+     * Returns the number of packets the readers lost because they fell behind.
+     */
+    public long getOverrunPackets()
+    {
+        return overrunPackets.get();
+    }
+
+    /**
+     * Returns the number of readers that have received a key frame.
+     */
+    public long getFirstFrameCount()
+    {
+        return firstFrameCount.get();
+    }
+
+    /**
+     * Returns the mean time, in ns, between a reader joining and its first key frame.
+     */
+    public long getMeanTimeToFirstFrame()
+    {
+        long count = firstFrameCount.get();
+        return count == 0 ? 0 : firstFrameNanos.get() / count;
+    }
+
+    /**
+     * Returns the longest time, in ns, between a reader joining and its first key frame.
+     */
+    public long getMaxTimeToFirstFrame()
+    {
+        return maxFirstFrameNanos.get();
+    }
+}
@@ -0,0 +1,196 @@
+package com.github.teocci.libstream.protocols.rtsp.rtp.ring;
+
+import java.util.Random;
+
+import static com.github.teocci.libstream.utils.rtsp.RtpConstants.RTP_HEADER_LENGTH;
+
+/**
+ * Read cursor of one client over a {@link RtpPacketRing}.
+ * <p>
+ * The packets are shared by all the readers, so a reader never modifies them.
+ * Instead it builds its own RTP header with its SSRC, and with the sequence number
+ * and timestamp of the shared packet shifted by its own random offsets.
+ * <p>
+ * When the ring has a {@link RtpGopCache}, the reader starts with the cached GOP, sent
+ * at once or at the burst rate of the ring, then joins the live edge.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-05
+ */
+public class RtpRingReader
+{
+    private RtpPacketRing ring;
+
+    private final byte[] header = new byte[RTP_HEADER_LENGTH];
+
+    private final int ssrc;
+    private final int baseSeq;
+    private final long tsOffset;
+
+    // Next position to read, -1 until the reader joins the ring
+    private long cursor = -1;
+    private int seqOffset;
+    private boolean started = false;
+
+    // The cached GOP, sent before the live edge
+    private long burstEnd;
+    private long burstBytes;
+    private int burstRate;
+
+    private long attachTime;
+    private long timeToFirstFrame = -1;
+
+    private long dropped = 0;
+
+    public RtpRingReader()
+    {
+        Random random = new Random();
+        this.ssrc = random.nextInt();
+        this.baseSeq = random.nextInt(0x10000);
+        this.tsOffset = random.nextInt() & 0xFFFFFFFFL;
+
+        // Byte 8,9,10,11 -> Sync Source Identifier (SSRC)
+        setLong(ssrc, 8, 12);
+    }
+
+    /**
+     * Attaches the reader to the ring, it will receive the cached GOP if any, then the
+     * packets published from now on.
+     */
+    public void attach(RtpPacketRing ring)
+    {
+        this.attachTime = System.nanoTime();
+        this.burstEnd = ring.getHead();
+        this.burstRate = ring.getBurstRate();
+        this.cursor = Math.min(ring.getJoinPosition(), burstEnd);
+        this.ring = ring;
+    }
+
+    public boolean isAttached()
+    {
+        return ring != null;
+    }
+
+    /**
+     * Returns the next retained packet, or null if the reader has caught up.
+     * The caller must release the packet once it has been sent.
+     */
+    public RtpPacketBuffer poll()
+    {
+        if (ring == null) return null;
+
+        for (; ; ) {
+            long head = ring.getHead();
+            if (cursor >= head) return null;
+
+            // The cached GOP is paced at the burst rate
+            if (cursor < burstEnd && burstRate > 0 && burstBytes > 0 &&
+                    burstBytes > burstRate * (System.nanoTime() - attachTime) / 1_000_000_000L) {
+                return null;
+            }
+
+            // The producer has lapped this reader
+            long oldest = ring.getOldest(head);
+            if (cursor < oldest) {
+                dropped += oldest - cursor;
+                ring.addOverrun(oldest - cursor);
+                cursor = oldest;
+            }
+
+            RtpPacketBuffer buffer = ring.get(cursor++);
+            if (buffer == null) {
+                dropped++;
+                ring.addOverrun(1);
+                continue;
+            }
+
+            // The first packet sent to this client carries the base sequence number
+            if (!started) {
+                seqOffset = baseSeq - buffer.getSeq();
+                started = true;
+            }
+
+            if (cursor <= burstEnd) burstBytes += buffer.length;
+            if (timeToFirstFrame < 0 && buffer.keyFrame) {
+                timeToFirstFrame = System.nanoTime() - attachTime;
+                ring.addFirstFrame(timeToFirstFrame);
+            }
+
+            return buffer;
+        }
+    }
+
+    /**
+     * Builds the RTP header of this reader for the packet.
+     *
+     * @return The 12 bytes header, it is reused on the next call
+     */
+    public byte[] header(RtpPacketBuffer buffer)
+    {
+        // Byte 0,1 -> V, P, X, CC, M, PT
+        header[0] = buffer.data[0];
+        header[1] = buffer.data[1];
+
+        // Byte 2,3 -> Sequence Number
+        setLong((buffer.getSeq() + seqOffset) & 0xFFFF, 2, 4);
+
+        // Byte 4,5,6,7 -> Timestamp
+        setLong(rtpTimestamp(buffer), 4, 8);
+
+        return header;
+    }
+
+    /**
+     * Returns the random offset this reader adds to the RTP timestamps.
+     */
+    public long getTimestampOffset()
+    {
+        return tsOffset;
+    }
+
+    /**
+     * Returns the RTP timestamp of the packet as seen by this reader.
+     */
+    public long rtpTimestamp(RtpPacketBuffer buffer)
+    {
+        return (buffer.timestamp + tsOffset) & 0xFFFFFFFFL;
+    }
+
+    private void setLong(long n, int begin, int end)
+    {
+        for (end--; end >= begin; end--) {
+            header[end] = (byte) (n % 256);
+            n >>= 8;
+        }
+    }
+
+    public int getSSRC()
+    {
+        return ssrc;
+    }
+
+    /**
+     * Returns the sequence number of the first packet sent to this client.
+     */
+    public int getBaseSeq()
+    {
+        return baseSeq;
+    }
+
+    /**
+     * Returns the time, in ns, between the attachment and the first key frame, or -1.
+     */
+    public long getTimeToFirstFrame()
+    {
+        return timeToFirstFrame;
+    }
+
+    /**
+     * Returns the number of packets this reader lost because it fell behind.
+     */
+    public long getDropped()
+    {
+        return dropped;
+    }
+}
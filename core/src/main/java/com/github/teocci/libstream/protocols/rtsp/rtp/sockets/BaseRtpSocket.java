@@ -0,0 +1,457 @@
+package com.github.teocci.libstream.protocols.rtsp.rtp.sockets;
+
+import com.github.teocci.libstream.enums.FifoPolicy;
+import com.github.teocci.libstream.utils.rtsp.RtpClock;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.github.teocci.libstream.utils.rtsp.RtpConstants.MTU;
+import static com.github.teocci.libstream.utils.rtsp.RtpConstants.PAYLOAD_TYPE;
+
+/**
+ * A basic implementation of an RTP socket.
+ * It implements a buffering mechanism, relying on a FIFO of buffers and a Thread.
+ * That way, if a packetizer tries to send many packets too quickly, the FIFO will
+ * grow and packets will be sent one by one smoothly.
+ * <p>
+ * The FIFO is a lock-free single producer, single consumer ring: the packetizer is the
+ * only one to move the tail and the sender thread the only one to move the head, each
+ * on its own cache line. The sender takes all the packets committed since it last looked,
+ * see {@link #awaitPackets(long, TimeUnit)}, and it is only unparked when it was waiting
+ * for them. What happens when the FIFO is full depends on the {@link FifoPolicy}.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2017-Jan-14
+ */
+public abstract class BaseRtpSocket implements Runnable
+{
+    /**
+     * Number of buffers of the FIFO by default.
+     */
+    public static final int DEFAULT_BUFFER_COUNT = 256;
+
+    // How long a blocked packetizer sleeps before looking at the FIFO again
+    private static final long FULL_PARK_NANOS = 100_000L;
+
+    protected byte[][] buffers;
+    protected long[] timestamps;
+
+    protected volatile Thread thread;
+
+    protected int ssrc;
+
+    protected int bufferOut;
+    protected long clock = 0;
+    protected RtpClock rtpClock = new RtpClock(0);
+    protected int seq = 0;
+    protected int bufferCount, bufferIn;
+    private int mask;
+
+    // Next packet to send, only moved by the sender thread
+    private final PaddedSequence head = new PaddedSequence();
+    // Next packet to commit, only moved by the packetizer
+    private final PaddedSequence tail = new PaddedSequence();
+    // Packets before it are skipped by the sender, only moved by the packetizer
+    private volatile long skipTo = 0;
+    // Set while the sender thread is parked, waiting for packets
+    private volatile boolean waiting = false;
+
+    private volatile FifoPolicy policy = FifoPolicy.BLOCK;
+    private boolean referenceFrame = true;
+    // The packet being written will be discarded
+    private boolean dropping = false;
+    private boolean droppingFrame = false;
+    // Written instead of a FIFO buffer when the packet is discarded
+    private byte[] scratch;
+
+    private volatile long droppedPackets = 0;
+    private volatile long skippedPackets = 0;
+
+    /**
+     * This RTP socket implements a buffering mechanism relying on a FIFO of buffers and a Thread.
+     */
+    public BaseRtpSocket()
+    {
+        this(DEFAULT_BUFFER_COUNT);
+    }
+
+    /**
+     * @param bufferCount Number of MTU buffers of the FIFO, rounded up to a power of two,
+     *                    a socket that manages its own buffers can use 0
+     */
+    protected BaseRtpSocket(int bufferCount)
+    {
+        if (bufferCount > 0) {
+            bufferCount = Integer.highestOneBit(Math.max(2, bufferCount - 1)) << 1;
+        }
+        this.bufferCount = bufferCount;
+        this.mask = bufferCount - 1;
+        buffers = new byte[bufferCount][];
+        timestamps = new long[bufferCount];
+        resetFifo();
+
+        //   0               1               2               3
+        //   0 1 2 3 4 5 6 7 0 1 2 3 4 5 6 7 0 1 2 3 4 5 6 7 0 1 2 3 4 5 6 7
+        //  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+        //  |V=2|P|X|  CC   |M|     PT      |       sequence number         |
+        //  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+        //  |                           timestamp                           |
+        //  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+        //  |           synchronization source (SSRC) identifier            |
+        //  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+
+        for (int i = 0; i < bufferCount; i++) {
+            buffers[i] = newPacket();
+        }
+    }
+
+    private static byte[] newPacket()
+    {
+        byte[] buffer = new byte[MTU];
+
+        // RTP-version field (V) must be 2
+        // Padding (P), extension (X), number of contributing sources (CC),
+        // and marker (M) fields. These are all set to zero
+        // Byte 0          ->  V, P, X, CC.
+        buffer[0] = (byte) Integer.parseInt("10000000", 2);
+
+        // Byte 1          ->  M, Payload Type (PT)
+        buffer[1] = (byte) PAYLOAD_TYPE;
+
+        // Byte 2,3        ->  Sequence Number
+        // Byte 4,5,6,7    ->  Timestamp
+        // Byte 8,9,10,11  ->  Sync Source Identifier (SSRC)
+        return buffer;
+    }
+
+    /**
+     * Discards the packets not sent yet, only the sender thread, or the packetizer while
+     * there is no sender thread, may call it.
+     */
+    protected void resetFifo()
+    {
+        long position = tail.get();
+        head.set(position);
+        bufferOut = (int) (position & mask);
+    }
+
+    /**
+     * Returns an available buffer from the FIFO, it can then be modified.
+     * <p>
+     * If the FIFO is full the {@link FifoPolicy} applies, the returned buffer may then be
+     * a scratch one, discarded by {@link #commitBuffer(int)}.
+     *
+     * @throws InterruptedException
+     **/
+    public byte[] requestBuffer() throws InterruptedException
+    {
+        // Clears interrupted status!
+        if (Thread.interrupted()) throw new InterruptedException();
+
+        dropping = droppingFrame;
+        if (!dropping) {
+            long position = tail.get();
+            while (position - head.get() >= bufferCount) {
+                FifoPolicy policy = this.policy;
+                if (policy == FifoPolicy.DROP_NON_REFERENCE && !referenceFrame) {
+                    // The rest of the frame is useless without this packet
+                    droppingFrame = true;
+                    dropping = true;
+                    break;
+                }
+                if (policy == FifoPolicy.DROP_OLDEST) {
+                    skipTo = position - (bufferCount >> 1);
+                }
+                waitForSpace();
+            }
+        }
+
+        byte[] buffer = current();
+        buffer[1] &= 0x7F;
+
+        return buffer;
+    }
+
+    private void waitForSpace() throws InterruptedException
+    {
+        if (thread == null) {
+            // No sender left to make room
+            resetFifo();
+            return;
+        }
+
+        LockSupport.parkNanos(this, FULL_PARK_NANOS);
+        if (Thread.interrupted()) throw new InterruptedException();
+    }
+
+    private byte[] scratch()
+    {
+        if (scratch == null) scratch = newPacket();
+        return scratch;
+    }
+
+    /**
+     * Returns the buffer being written by the packetizer.
+     */
+    private byte[] current()
+    {
+        return dropping ? scratch() : buffers[bufferIn];
+    }
+
+    /**
+     * Increments the sequence number.
+     */
+    public void increaseSeq()
+    {
+        // Byte 2,3 -> Sequence Number
+        if (dropping) return;
+        setLong(buffers[bufferIn], ++seq, 2, 4);
+    }
+
+    /**
+     * Overwrites the timestamp in the packet.
+     *
+     * @param timestamp The new timestamp in ns.
+     **/
+    public void updateTimestamp(long timestamp)
+    {
+        if (dropping) return;
+
+        long ts = rtpClock.toRtp(timestamp);
+        timestamps[bufferIn] = ts;
+
+        // Byte 4,5,6,7 -> Timestamp
+        setLong(buffers[bufferIn], ts, 4, 8);
+    }
+
+    /**
+     * Overwrites the sync source identifier (SSRC) in each packet.
+     *
+     * @param ssrc The new sync source identifier.
+     **/
+    protected void updateSSRC(int ssrc)
+    {
+        // Byte 8,9,10,11 -> Sync Source Identifier (SSRC)
+        for (int i = 0; i < bufferCount; i++) {
+            setLong(buffers[i], ssrc, 8, 12);
+        }
+    }
+
+    /**
+     * Discards the buffer returned by {@link #requestBuffer()}.
+     */
+    public void commitBuffer() throws IOException
+    {
+        dropping = false;
+    }
+
+    /**
+     * Sends the RTP packet over the network.
+     */
+    public void commitBuffer(int length) throws IOException
+    {
+        if (dropping) {
+            // A discarded packet does not take a sequence number, so the
+            // receivers do not report it as lost
+            dropping = false;
+            droppedPackets++;
+            return;
+        }
+
+        increaseSeq();
+        commitLength(length);
+
+        long position = tail.get() + 1;
+        bufferIn = (int) (position & mask);
+        // Publishes the packet, then looks whether the sender is parked
+        tail.set(position);
+
+        if (thread == null) {
+            thread = new Thread(this);
+            thread.start();
+        } else {
+            wakeUp();
+        }
+    }
+
+    /**
+     * Tells the socket whether the next packets belong to a reference frame, i.e. a frame
+     * other frames are predicted from, until the next call. It is used by
+     * {@link FifoPolicy#DROP_NON_REFERENCE}, packets are reference ones by default.
+     */
+    public void setReferenceFrame(boolean reference)
+    {
+        referenceFrame = reference;
+        droppingFrame = false;
+    }
+
+    /**
+     * Tells the socket that the next committed packet starts a key frame, the parameter
+     * sets sent in front of it included. Only the RtpSocketFanout uses it, to cache the
+     * GOP of the new clients.
+     */
+    public void markKeyFrame() {}
+
+    /**
+     * Sets what {@link #requestBuffer()} does when the FIFO is full.
+     */
+    public void setFifoPolicy(FifoPolicy policy)
+    {
+        this.policy = policy;
+    }
+
+    public FifoPolicy getFifoPolicy()
+    {
+        return policy;
+    }
+
+    /**
+     * Returns the number of packets discarded by the packetizer or skipped by the sender
+     * because the FIFO was full.
+     */
+    public long getDroppedPackets()
+    {
+        return droppedPackets + skippedPackets;
+    }
+
+    /**
+     * Returns the number of packets committed and not sent yet.
+     */
+    public int getPendingPackets()
+    {
+        return (int) (tail.get() - head.get());
+    }
+
+    /**
+     * Returns the number of packets the sender thread can send, starting from bufferOut.
+     * Only the sender thread may call it.
+     */
+    protected int availablePackets()
+    {
+        long position = head.get();
+        long skip = skipTo;
+        if (skip > position) {
+            skippedPackets += skip - position;
+            position = skip;
+            head.lazySet(position);
+            bufferOut = (int) (position & mask);
+        }
+
+        return (int) (tail.get() - position);
+    }
+
+    /**
+     * Moves to the next packet once the one at bufferOut has been sent, its buffer can
+     * then be reused by the packetizer. Only the sender thread may call it.
+     */
+    protected void nextPacket()
+    {
+        long position = head.get() + 1;
+        bufferOut = (int) (position & mask);
+        head.lazySet(position);
+    }
+
+    /**
+     * Waits until packets are available, only the sender thread may call it.
+     *
+     * @return The number of packets that can be sent, as {@link #availablePackets()},
+     * or 0 if none came before the timeout
+     */
+    protected int awaitPackets(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        int count = availablePackets();
+        if (count > 0) return count;
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) return 0;
+
+            // Announces the wait, then checks again, so a commit can not be missed
+            waiting = true;
+            count = availablePackets();
+            if (count == 0) LockSupport.parkNanos(this, remaining);
+            waiting = false;
+
+            if (Thread.interrupted()) throw new InterruptedException();
+            if (count > 0 || (count = availablePackets()) > 0) return count;
+        }
+    }
+
+    /**
+     * Unparks the sender thread if it is waiting for packets.
+     */
+    protected void wakeUp()
+    {
+        if (waiting) {
+            Thread thread = this.thread;
+            if (thread != null) LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Sets the marker in the RTP packet.
+     */
+    public void markNextPacket()
+    {
+        // Byte 1
+        //  0 1 2 3 4 5 6 7
+        // +-+-+-+-+-+-+-+-+
+        // |M|     PT      |
+        // +-+-+-+-+-+-+-+-+
+        //  1 0 0 0 0 0 0 0 = 0x80
+        current()[1] |= 0x80;
+    }
+
+    /**
+     * Sets a long into a buffer.
+     *
+     * @param buffer The buffer into which the long value is to be written.
+     * @param n      The value to be inserted.
+     * @param begin  The begin byte.
+     * @param end    The end byte.
+     **/
+    protected void setLong(byte[] buffer, long n, int begin, int end)
+    {
+        for (end--; end >= begin; end--) {
+            buffer[end] = (byte) (n % 256);
+            n >>= 8;
+        }
+    }
+
+    /**
+     * Sets the clock frequency of the stream in Hz.
+     */
+    public void setClockFrequency(long clock)
+    {
+        this.clock = clock;
+        this.rtpClock = new RtpClock(clock);
+    }
+
+    public RtpClock getRtpClock()
+    {
+        return rtpClock;
+    }
+
+    /**
+     * Returns the SSRC of the stream.
+     */
+    public int getSSRC()
+    {
+        return ssrc;
+    }
+
+
+    /**
+     * Sets the SSRC of the stream.
+     */
+    public abstract void setSSRC(int ssrc);
+
+    protected abstract void send() throws IOException;
+
+    protected abstract void commitLength(int length);
+
+}
\ No newline at end of file
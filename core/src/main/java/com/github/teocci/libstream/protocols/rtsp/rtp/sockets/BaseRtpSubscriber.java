@@ -0,0 +1,110 @@
+package com.github.teocci.libstream.protocols.rtsp.rtp.sockets;
+
+import com.github.teocci.libstream.protocols.rtsp.rtcp.RtcpScheduler;
+import com.github.teocci.libstream.protocols.rtsp.rtcp.SenderReportSubscriber;
+import com.github.teocci.libstream.protocols.rtsp.rtp.ring.RtpPacketBuffer;
+import com.github.teocci.libstream.protocols.rtsp.rtp.ring.RtpRingReader;
+
+import java.io.IOException;
+
+/**
+ * The transport of one client receiving the RTP streams of a server.
+ * <p>
+ * Each track set up by the client has a {@link RtpRingReader}, its cursor over the shared
+ * packets, and a {@link SenderReportSubscriber}. The shared packets must never be modified,
+ * the header of the client is sent in front of their payload instead.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-03
+ */
+public abstract class BaseRtpSubscriber
+{
+    protected static final int TRACK_COUNT = 2;
+
+    private final RtpRingReader[] readers = new RtpRingReader[TRACK_COUNT];
+    private final SenderReportSubscriber[] senderReports = new SenderReportSubscriber[TRACK_COUNT];
+
+    /**
+     * Creates the reader of the track, with its own SSRC and initial sequence number.
+     *
+     * @param trackId The id of the track, 0 for audio and 1 for video
+     */
+    public void setupTrack(int trackId)
+    {
+        setupTrack(trackId, RtcpScheduler.getInstance());
+    }
+
+    /**
+     * Creates the reader of the track, with its own SSRC and initial sequence number,
+     * and schedules its Sender Reports.
+     *
+     * @param trackId   The id of the track, 0 for audio and 1 for video
+     * @param scheduler The scheduler sending the reports
+     */
+    public synchronized void setupTrack(int trackId, RtcpScheduler scheduler)
+    {
+        if (readers[trackId] != null) return;
+
+        RtpRingReader reader = new RtpRingReader();
+        SenderReportSubscriber report = new SenderReportSubscriber(this, trackId);
+        report.setSSRC(reader.getSSRC());
+        report.register(scheduler);
+
+        senderReports[trackId] = report;
+        readers[trackId] = reader;
+    }
+
+    /**
+     * Returns the reader of the track, or null if the client has not set it up.
+     */
+    public RtpRingReader getReader(int trackId)
+    {
+        return readers[trackId];
+    }
+
+    public SenderReportSubscriber getSenderReport(int trackId)
+    {
+        return senderReports[trackId];
+    }
+
+    /**
+     * Sends an RTP packet of the given track.
+     *
+     * @param trackId The id of the track, 0 for audio and 1 for video
+     * @param header  The RTP header of this client
+     * @param packet  The shared RTP packet, its own header is replaced by the given one
+     */
+    public abstract void sendRtp(int trackId, byte[] header, RtpPacketBuffer packet) throws IOException;
+
+    /**
+     * Sends an RTCP packet of the given track.
+     *
+     * @param trackId The id of the track, 0 for audio and 1 for video
+     * @param buffer  The RTCP packet
+     * @param length  The length of the RTCP packet
+     */
+    public abstract void sendRtcp(int trackId, byte[] buffer, int length) throws IOException;
+
+    /**
+     * Returns true while the transport cannot take more packets without queuing them.
+     * The fan-out then leaves the packets in the ring for this client.
+     */
+    public boolean isBlocked()
+    {
+        return false;
+    }
+
+    /**
+     * Stops the Sender Reports of the tracks, then closes the transport.
+     */
+    public synchronized void release()
+    {
+        for (SenderReportSubscriber report : senderReports) {
+            if (report != null) report.close();
+        }
+        close();
+    }
+
+    public abstract void close();
+}
@@ -0,0 +1,68 @@
+package com.github.teocci.libstream.protocols.rtsp.rtp.sockets;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * A volatile sequence alone on its cache line.
+ * <p>
+ * The head and the tail of a FIFO are written by different threads, the padding
+ * keeps one from invalidating the cache line of the other on each packet.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-17
+ */
+public class PaddedSequence extends SequenceValue
+{
+    protected long p9, p10, p11, p12, p13, p14, p15;
+
+    private static final AtomicLongFieldUpdater<SequenceValue> UPDATER =
+            AtomicLongFieldUpdater.newUpdater(SequenceValue.class, "value");
+
+    public PaddedSequence()
+    {
+        this(0);
+    }
+
+    public PaddedSequence(long initial)
+    {
+        value = initial;
+    }
+
+    public long get()
+    {
+        return value;
+    }
+
+    public void set(long value)
+    {
+        this.value = value;
+    }
+
+    /**
+     * Ordered write, cheaper than {@link #set(long)}: the writes done before it are
+     * visible to a thread that reads the new value, but it may be seen a bit later.
+     */
+    public void lazySet(long value)
+    {
+        UPDATER.lazySet(this, value);
+    }
+
+    /**
+     * Prevents the JIT from removing the padding fields.
+     */
+    protected long sumPadding()
+    {
+        return p1 + p2 + p3 + p4 + p5 + p6 + p7 + p9 + p10 + p11 + p12 + p13 + p14 + p15;
+    }
+}
+
+class SequenceLeftPadding
+{
+    protected long p1, p2, p3, p4, p5, p6, p7;
+}
+
+class SequenceValue extends SequenceLeftPadding
+{
+    protected volatile long value;
+}
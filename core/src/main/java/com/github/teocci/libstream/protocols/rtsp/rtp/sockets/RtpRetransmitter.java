@@ -0,0 +1,266 @@
+package com.github.teocci.libstream.protocols.rtsp.rtp.sockets;
+
+import com.github.teocci.libstream.protocols.rtsp.rtp.ring.RtpPacketHistory;
+
+import java.util.Random;
+
+import static com.github.teocci.libstream.protocols.rtsp.rtp.ring.RtpPacketHistory.NEVER;
+import static com.github.teocci.libstream.utils.rtsp.RtpConstants.RTP_HEADER_LENGTH;
+
+/**
+ * Answers the generic NACKs of a receiver, RFC 4585 6.2.1, with the packets kept in a
+ * {@link RtpPacketHistory}.
+ * <p>
+ * A lost fragment then costs one packet instead of the rest of the GOP, or of a key frame
+ * requested by the receiver. The packets are resent as they were, or in a RTX stream of
+ * RFC 4588 with its own payload type, SSRC and sequence numbers: the original sequence
+ * number (OSN) goes in front of the payload.
+ * <p>
+ * The retransmissions are limited to a fraction of the rate of the stream by a token
+ * bucket, so a burst of NACKs on a congested link does not make it worse. A packet is not
+ * resent again before {@link #MIN_RESEND_INTERVAL} ms, the NACKs of a receiver that did
+ * not get the retransmission yet are ignored.
+ * <p>
+ * It is not thread-safe: the socket uses it under the lock of its channel.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-26
+ */
+public class RtpRetransmitter
+{
+    /**
+     * Number of packets kept by default, around a second of a 4 Mbps stream.
+     */
+    public static final int DEFAULT_HISTORY_SIZE = 512;
+
+    /**
+     * Fraction of the rate of the stream the retransmissions can use by default.
+     */
+    public static final float DEFAULT_MAX_RATIO = 0.25f;
+
+    /**
+     * Minimum interval between two sends of a packet, in ms.
+     */
+    public static final long MIN_RESEND_INTERVAL = 10;
+
+    // The budget when the rate of the stream is not known yet, in bytes/s
+    private static final long MIN_BYTE_RATE = 16 * 1024;
+    // The bucket holds 250 ms of budget
+    private static final int BURST_DIVISOR = 4;
+
+    private static final int OSN_LENGTH = 2;
+
+    private final RtpPacketHistory history;
+
+    private int rtxPayloadType = -1;
+    private int rtxSsrc;
+    private int rtxSeq;
+
+    private float maxRatio = DEFAULT_MAX_RATIO;
+    private long tokens;
+    private long lastRefill;
+
+    private volatile long requested = 0;
+    private volatile long retransmitted = 0;
+    private volatile long missed = 0;
+    private volatile long limited = 0;
+
+    /**
+     * @param historySize The number of packets kept for retransmission
+     */
+    public RtpRetransmitter(int historySize)
+    {
+        history = new RtpPacketHistory(historySize);
+    }
+
+    /**
+     * Resends the packets in a RTX stream, RFC 4588, instead of as they were.
+     *
+     * @param payloadType The payload type of the RTX stream, or -1 to resend the packets as
+     *                    they were
+     */
+    public void setRtx(int payloadType)
+    {
+        this.rtxPayloadType = payloadType;
+        Random random = new Random();
+        rtxSsrc = random.nextInt();
+        rtxSeq = random.nextInt(0x10000);
+    }
+
+    /**
+     * Sets the fraction of the rate of the stream the retransmissions can use.
+     */
+    public void setMaxRatio(float maxRatio)
+    {
+        this.maxRatio = maxRatio;
+    }
+
+    /**
+     * Keeps a copy of a packet being sent.
+     *
+     * @param now The send time, in ns of {@link System#nanoTime()}
+     */
+    public void record(byte[] packet, int length, long now)
+    {
+        history.put(packet, length, now);
+    }
+
+    /**
+     * Builds the retransmission of a packet reported lost.
+     *
+     * @param seq The sequence number of the lost packet
+     * @param now The current time, in ns of {@link System#nanoTime()}
+     * @param out The buffer of the retransmission, at least 2 bytes longer than a packet
+     * @return the length of the retransmission, or 0 if the packet is not resent
+     */
+    public int prepare(int seq, long now, byte[] out)
+    {
+        requested++;
+
+        int slot = history.find(seq, now);
+        if (slot < 0) {
+            missed++;
+            return 0;
+        }
+
+        // Already resent, the receiver has not got it yet
+        long resent = history.getLastResent(slot);
+        if (resent != NEVER && now - resent < MIN_RESEND_INTERVAL * 1_000_000L) return 0;
+
+        int length = history.getLength(slot);
+        int size = rtxPayloadType < 0 ? length : length + OSN_LENGTH;
+        if (!consume(size, now)) {
+            limited++;
+            return 0;
+        }
+
+        byte[] packet = history.getPacket(slot);
+        if (rtxPayloadType < 0) {
+            System.arraycopy(packet, 0, out, 0, length);
+        } else {
+            //   0               1               2               3
+            //   0 1 2 3 4 5 6 7 0 1 2 3 4 5 6 7 0 1 2 3 4 5 6 7 0 1 2 3 4 5 6 7
+            //  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+            //  |                         RTP Header                            |
+            //  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+            //  |            OSN                |                               |
+            //  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+                               |
+            //  |                  Original RTP Packet Payload                  |
+            //  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+            // The timestamp and the marker of the original packet are kept
+            System.arraycopy(packet, 0, out, 0, RTP_HEADER_LENGTH);
+            // 10000000 = 0x80
+            out[1] = (byte) ((packet[1] & 0x80) | rtxPayloadType);
+            rtxSeq = (rtxSeq + 1) & 0xFFFF;
+            setInt(out, rtxSeq, 2, 2);
+            setInt(out, rtxSsrc, 8, 4);
+            out[RTP_HEADER_LENGTH] = packet[2];
+            out[RTP_HEADER_LENGTH + 1] = packet[3];
+            System.arraycopy(packet, RTP_HEADER_LENGTH, out, RTP_HEADER_LENGTH + OSN_LENGTH,
+                    length - RTP_HEADER_LENGTH);
+        }
+
+        history.markResent(slot, now);
+        retransmitted++;
+
+        return size;
+    }
+
+    /**
+     * Takes the bytes of a retransmission from the bucket, refilled at the budget rate.
+     */
+    private boolean consume(int size, long now)
+    {
+        long rate = (long) (Math.max(history.getByteRate(), MIN_BYTE_RATE) * maxRatio);
+        long burst = Math.max(rate / BURST_DIVISOR, size);
+
+        if (lastRefill == 0) {
+            tokens = burst;
+        } else {
+            long elapsed = now - lastRefill;
+            if (elapsed > 0) tokens = Math.min(burst, tokens + rate * elapsed / 1_000_000_000L);
+        }
+        lastRefill = now;
+
+        if (tokens < size) return false;
+        tokens -= size;
+
+        return true;
+    }
+
+    private static void setInt(byte[] buffer, int n, int offset, int length)
+    {
+        for (int i = offset + length - 1; i >= offset; i--) {
+            buffer[i] = (byte) n;
+            n >>= 8;
+        }
+    }
+
+    /**
+     * Returns the SDP attributes announcing the NACKs, and the RTX stream if any.
+     *
+     * @param payloadType The payload type of the stream
+     * @param clock       The clock rate of the stream
+     */
+    public String createAttributes(int payloadType, long clock)
+    {
+        String attributes = "a=rtcp-fb:" + payloadType + " nack\r\n";
+        if (rtxPayloadType >= 0) {
+            attributes += "a=rtpmap:" + rtxPayloadType + " rtx/" + clock + "\r\n" +
+                    "a=fmtp:" + rtxPayloadType + " apt=" + payloadType + "\r\n";
+        }
+
+        return attributes;
+    }
+
+    public RtpPacketHistory getHistory()
+    {
+        return history;
+    }
+
+    /**
+     * Returns the payload type of the RTX stream, or -1 if the packets are resent as they were.
+     */
+    public int getRtxPayloadType()
+    {
+        return rtxPayloadType;
+    }
+
+    public int getRtxSsrc()
+    {
+        return rtxSsrc;
+    }
+
+    /**
+     * Returns the number of packets the receivers asked for.
+     */
+    public long getRequestedPackets()
+    {
+        return requested;
+    }
+
+    /**
+     * Returns the number of packets resent.
+     */
+    public long getRetransmittedPackets()
+    {
+        return retransmitted;
+    }
+
+    /**
+     * Returns the number of packets asked for that were not kept anymore.
+     */
+    public long getMissedPackets()
+    {
+        return missed;
+    }
+
+    /**
+     * Returns the number of packets not resent because of the rate limit.
+     */
+    public long getLimitedPackets()
+    {
+        return limited;
+    }
+}
@@ -0,0 +1,240 @@
+package com.github.teocci.libstream.protocols.rtsp.rtp.sockets;
+
+import com.github.teocci.libstream.protocols.rtsp.rtcp.SenderReportSubscriber;
+import com.github.teocci.libstream.protocols.rtsp.rtp.ring.RtpPacketBuffer;
+import com.github.teocci.libstream.protocols.rtsp.rtp.ring.RtpPacketRing;
+import com.github.teocci.libstream.protocols.rtsp.rtp.ring.RtpRingReader;
+import com.github.teocci.libstream.protocols.rtsp.rtsp.Session;
+import com.github.teocci.libstream.protocols.rtsp.rtsp.SessionRegistry;
+import com.github.teocci.libstream.utils.LogHelper;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.teocci.libstream.utils.rtsp.RtpConstants.MTU;
+
+/**
+ * RTP socket shared by all the clients of a server.
+ * <p>
+ * The packetizer writes each packet once into a pooled buffer of a {@link RtpPacketRing}.
+ * The sender thread then drains the {@link RtpRingReader} of every playing session of the
+ * {@link SessionRegistry}: each client gets the shared payload behind its own RTP header,
+ * so it sees its own SSRC, sequence numbers and timestamps.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-03
+ */
+public class RtpSocketFanout extends BaseRtpSocket implements Runnable
+{
+    private static String TAG = LogHelper.makeLogTag(RtpSocketFanout.class);
+
+    private final SessionRegistry registry;
+    private final RtpPacketRing ring;
+    private final int trackId;
+
+    // Packet being written by the packetizer
+    private RtpPacketBuffer current;
+    // Written instead of a pooled buffer when the pool is exhausted, then discarded
+    private final byte[] scratch = new byte[MTU];
+    // Set when there may be packets or room for them, cleared by the sender thread
+    private volatile boolean signalled = false;
+    // The next published packet starts a key frame
+    private boolean keyFrame = false;
+
+    /**
+     * @param registry The sessions that will receive the packets
+     * @param trackId  The id of the track, 0 for audio and 1 for video
+     */
+    public RtpSocketFanout(SessionRegistry registry, int trackId)
+    {
+        super(0);
+        this.registry = registry;
+        this.trackId = trackId;
+        this.ring = new RtpPacketRing();
+    }
+
+    /**
+     * The Thread drains the ring for every playing session each time packets are committed.
+     */
+    @Override
+    public void run()
+    {
+        try {
+            while (awaitPackets(4, TimeUnit.SECONDS) > 0) {
+                signalled = false;
+                send();
+            }
+        } catch (IOException | InterruptedException e) {
+            LogHelper.e(TAG, "Fan-out send error: ", e);
+        }
+
+        thread = null;
+    }
+
+    @Override
+    public byte[] requestBuffer() throws InterruptedException
+    {
+        // Clears interrupted status!
+        if (Thread.interrupted()) throw new InterruptedException();
+
+        if (current == null) {
+            current = ring.acquire();
+        }
+
+        byte[] data = current != null ? current.data : scratch;
+        data[1] &= 0x7F;
+
+        return data;
+    }
+
+    @Override
+    public void markNextPacket()
+    {
+        if (current != null) current.data[1] |= 0x80;
+    }
+
+    @Override
+    public void increaseSeq()
+    {
+        if (current != null) setLong(current.data, ++seq, 2, 4);
+    }
+
+    @Override
+    public void updateTimestamp(long timestamp)
+    {
+        if (current == null) return;
+
+        long ts = rtpClock.toRtp(timestamp);
+        current.timestamp = ts;
+        setLong(current.data, ts, 4, 8);
+    }
+
+    @Override
+    public void markKeyFrame()
+    {
+        keyFrame = true;
+    }
+
+    /**
+     * Each reader writes its own SSRC, the shared packets do not carry one.
+     */
+    @Override
+    protected void updateSSRC(int ssrc) {}
+
+    /**
+     * Discards the packet being written.
+     */
+    @Override
+    public void commitBuffer() throws IOException
+    {
+        if (current != null) {
+            current.release();
+            current = null;
+        }
+    }
+
+    /**
+     * Publishes the packet in the ring and wakes up the sender thread.
+     */
+    @Override
+    public void commitBuffer(int length) throws IOException
+    {
+        if (current == null) return;
+
+        increaseSeq();
+        commitLength(length);
+        current.keyFrame = keyFrame;
+        keyFrame = false;
+        ring.publish(current);
+        current = null;
+
+        signalled = true;
+        if (thread == null) {
+            thread = new Thread(this);
+            thread.start();
+        } else {
+            wakeUp();
+        }
+    }
+
+    @Override
+    public void setSSRC(int ssrc)
+    {
+        this.ssrc = ssrc;
+    }
+
+    @Override
+    protected void send() throws IOException
+    {
+        Session[] sessions = registry.getPlaying();
+        for (Session session : sessions) {
+            BaseRtpSubscriber subscriber = session.getSubscriber();
+            if (subscriber == null) continue;
+
+            RtpRingReader reader = subscriber.getReader(trackId);
+            if (reader == null) continue;
+            if (!reader.isAttached()) {
+                reader.attach(ring);
+                // The reports give the RTP time of their send time, as seen by this client
+                subscriber.getSenderReport(trackId).setRtpClock(rtpClock, reader.getTimestampOffset());
+            }
+
+            try {
+                drain(subscriber, reader);
+            } catch (IOException e) {
+                // Only this client is dropped, the others keep receiving the stream
+                LogHelper.e(TAG, "Send error, dropping session " + session.getId(), e);
+                registry.unregister(session);
+            }
+        }
+    }
+
+    private void drain(BaseRtpSubscriber subscriber, RtpRingReader reader) throws IOException
+    {
+        SenderReportSubscriber report = subscriber.getSenderReport(trackId);
+        RtpPacketBuffer packet;
+        while (!subscriber.isBlocked() && (packet = reader.poll()) != null) {
+            try {
+                subscriber.sendRtp(trackId, reader.header(packet), packet);
+                report.update(packet.length, reader.rtpTimestamp(packet));
+            } finally {
+                packet.release();
+            }
+        }
+    }
+
+    @Override
+    public void commitLength(int length)
+    {
+        current.length = length;
+    }
+
+    /**
+     * Wakes up the sender thread, e.g. when a blocked client can take packets again.
+     */
+    public void signal()
+    {
+        signalled = true;
+        wakeUp();
+    }
+
+    /**
+     * The packets are in the ring, the sender only needs to know whether it was signalled.
+     */
+    @Override
+    protected int availablePackets()
+    {
+        return signalled ? 1 : 0;
+    }
+
+    public RtpPacketRing getRing()
+    {
+        return ring;
+    }
+
+    public int getTrackId()
+    {
+        return trackId;
+    }
+}
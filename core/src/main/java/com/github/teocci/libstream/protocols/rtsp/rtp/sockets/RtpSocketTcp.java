@@ -0,0 +1,181 @@
+package com.github.teocci.libstream.protocols.rtsp.rtp.sockets;
+
+import com.github.teocci.libstream.protocols.rtsp.rtcp.SenderReportTcp;
+import com.github.teocci.libstream.utils.LogHelper;
+import com.github.teocci.libstream.interfaces.ConnectCheckerRtsp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the RTP packets interleaved in the RTSP connection (RFC 2326, section 10.12).
+ * <p>
+ * The sender thread drains every committed slot of the FIFO in one pass and appends
+ * the framed packets to a {@link TcpBatchWriter}, shared with the other track of the
+ * session, which writes them with a single call. With a max latency set, the thread
+ * also waits for the next packets as long as the oldest one of the batch is younger
+ * than that bound. Without batching every packet is written on its own.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2017-Jan-14
+ */
+public class RtpSocketTcp extends BaseRtpSocket implements Runnable
+{
+    private static String TAG = LogHelper.makeLogTag(RtpSocketTcp.class);
+
+    private SenderReportTcp senderReportTcp;
+
+    private int[] lengths;
+
+    private TcpBatchWriter batchWriter = null;
+    private byte channelIdentifier;
+
+    private ConnectCheckerRtsp connectCheckerRtsp;
+
+    private volatile boolean batching = true;
+    private volatile long maxLatency = 0;
+
+    public RtpSocketTcp(ConnectCheckerRtsp connectCheckerRtsp)
+    {
+        super();
+        this.connectCheckerRtsp = connectCheckerRtsp;
+        lengths = new int[bufferCount];
+        senderReportTcp = new SenderReportTcp(connectCheckerRtsp);
+        senderReportTcp.reset();
+    }
+
+    /**
+     * The Thread drains the packets committed in the FIFO and writes them by batches.
+     */
+    @Override
+    public void run()
+    {
+        try {
+            int count;
+            while ((count = awaitPackets(4, TimeUnit.SECONDS)) > 0) {
+                while (count > 0) {
+                    for (; count > 0; count--) {
+                        send();
+                        nextPacket();
+                    }
+
+                    // More packets may join the batch while the oldest one is young enough
+                    count = availablePackets();
+                    long age = getPendingAge();
+                    long wait = batching && age > 0 ? maxLatency - age : 0;
+                    if (count == 0 && wait > 0) {
+                        count = awaitPackets(wait, TimeUnit.NANOSECONDS);
+                    }
+                }
+
+                if (batchWriter != null) batchWriter.flush();
+            }
+        } catch (IOException | InterruptedException e) {
+            LogHelper.e(TAG, "TCP send error: ", e);
+
+            connectCheckerRtsp.onConnectionFailedRtsp("Error send packet, " + e.getMessage());
+        }
+
+        if (batchWriter != null) {
+            LogHelper.i(TAG, "Sent " + batchWriter.getPacketRate() + " packets/s, " +
+                    batchWriter.getBytesPerWrite() + " bytes/write");
+        }
+
+        resetFifo();
+        thread = null;
+        senderReportTcp.reset();
+    }
+
+    @Override
+    public void setClockFrequency(long clock)
+    {
+        super.setClockFrequency(clock);
+        senderReportTcp.setRtpClock(rtpClock, 0);
+    }
+
+    @Override
+    public void setSSRC(int ssrc)
+    {
+        this.ssrc = ssrc;
+        updateSSRC(ssrc);
+        senderReportTcp.setSSRC(ssrc);
+    }
+
+    @Override
+    protected void send() throws IOException
+    {
+        if (batchWriter == null) return;
+        senderReportTcp.update(lengths[bufferOut], timestamps[bufferOut]);
+        batchWriter.append(channelIdentifier, buffers[bufferOut], 0, lengths[bufferOut]);
+        if (!batching) batchWriter.flush();
+    }
+
+    private long getPendingAge()
+    {
+        return batchWriter == null ? 0 : batchWriter.getPendingAge();
+    }
+
+    /**
+     * Sends the RTP packet over the network.
+     */
+    @Override
+    public void commitLength(int length)
+    {
+        lengths[bufferIn] = length;
+    }
+
+    public void setOutputStream(OutputStream outputStream, byte channelIdentifier)
+    {
+        if (outputStream != null) {
+            setBatchWriter(new TcpBatchWriter(outputStream), channelIdentifier);
+        }
+    }
+
+    /**
+     * Sets the writer of the connection, the same writer should be given to all the
+     * tracks of the session so that their packets are coalesced.
+     */
+    public void setBatchWriter(TcpBatchWriter batchWriter, byte channelIdentifier)
+    {
+        if (batchWriter != null) {
+            this.batchWriter = batchWriter;
+            this.channelIdentifier = channelIdentifier;
+            senderReportTcp.setOutputStream(batchWriter.getOutputStream(), (byte) (channelIdentifier + 1));
+        }
+    }
+
+    /**
+     * Enables the batching of the packets, enabled by default.
+     * When disabled, every packet is written as soon as it is drained.
+     */
+    public void setBatching(boolean batching)
+    {
+        this.batching = batching;
+    }
+
+    /**
+     * Sets how long a packet may wait for the next ones before its batch is written,
+     * 0 by default: a batch holds what was committed when the sender thread woke up.
+     *
+     * @param maxLatency The latency bound in ms
+     */
+    public void setMaxLatency(long maxLatency)
+    {
+        this.maxLatency = TimeUnit.MILLISECONDS.toNanos(maxLatency);
+    }
+
+    public TcpBatchWriter getBatchWriter()
+    {
+        return batchWriter;
+    }
+
+    public void close() throws IOException
+    {
+        senderReportTcp.close();
+        if (batchWriter != null) {
+            batchWriter.getOutputStream().close();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,449 @@
+package com.github.teocci.libstream.protocols.rtsp.rtp.sockets;
+
+import com.github.teocci.libstream.interfaces.RtcpListener;
+import com.github.teocci.libstream.protocols.rtsp.rtcp.ReceiverReport;
+import com.github.teocci.libstream.protocols.rtsp.rtcp.SenderReportUdp;
+import com.github.teocci.libstream.utils.LogHelper;
+import com.github.teocci.libstream.utils.rtsp.MulticastSender;
+import com.github.teocci.libstream.utils.rtsp.MulticastUtil;
+import com.github.teocci.libstream.interfaces.ConnectCheckerRtsp;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.teocci.libstream.utils.rtsp.RtpConstants.MTU;
+
+/**
+ * Sends the RTP packets over UDP with a {@link DatagramChannel}.
+ * <p>
+ * The sender thread drains all the packets committed in the FIFO in one burst. Each
+ * packet is copied once into a direct buffer, and that same buffer is sent to every
+ * destination. With a single destination the channel is connected to it, so the
+ * address is not checked again on each send. Below Android N the multicast datagrams
+ * are sent by a {@link MulticastSender} instead, the channel can not set their TTL.
+ * <p>
+ * With {@link #setRetransmission(int, int)} the packets sent are kept by a
+ * {@link RtpRetransmitter}, and the ones the receiver reports lost in its generic NACKs are
+ * resent from the RTCP receive thread.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2017-Jan-14
+ */
+public class RtpSocketUdp extends BaseRtpSocket implements Runnable
+{
+    private static String TAG = LogHelper.makeLogTag(RtpSocketUdp.class);
+
+    private static final InetSocketAddress[] NO_DESTINATION = new InetSocketAddress[0];
+
+    private SenderReportUdp senderReportUdp;
+    private DatagramChannel channel;
+
+    private final ByteBuffer datagram = ByteBuffer.allocateDirect(MTU);
+    private int[] lengths;
+
+    private final Object lock = new Object();
+    private InetSocketAddress[] destinations = NO_DESTINATION;
+    private boolean connect = true;
+
+    // Sends the multicast datagrams where the channel can not set their TTL, or null
+    private MulticastSender multicastSender;
+
+    private ConnectCheckerRtsp connectCheckerRtsp;
+
+    // Guarded by the lock, volatile for the sender thread to skip the lock when it is null
+    private volatile RtpRetransmitter retransmitter;
+    private ByteBuffer retransmission;
+    private byte[] retransmissionPacket;
+
+    private final RtcpListener feedbackListener = new FeedbackListener();
+    private volatile RtcpListener rtcpListener;
+    private int trackId;
+
+    private int port = -1;
+    private int timeToLive = 1;
+
+    /**
+     * This RTP socket implements a buffering mechanism relying on a FIFO of buffers and a Thread.
+     */
+    public RtpSocketUdp(ConnectCheckerRtsp connectCheckerRtsp)
+    {
+        super();
+        this.connectCheckerRtsp = connectCheckerRtsp;
+        senderReportUdp = new SenderReportUdp(connectCheckerRtsp);
+        senderReportUdp.reset();
+        lengths = new int[bufferCount];
+
+        try {
+            channel = DatagramChannel.open();
+            channel.socket().bind(null);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * The Thread sends all the packets committed in the FIFO in a burst.
+     */
+    @Override
+    public void run()
+    {
+        try {
+            int count;
+            while ((count = awaitPackets(4, TimeUnit.SECONDS)) > 0) {
+                for (; count > 0; count--) {
+                    send();
+                    nextPacket();
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            LogHelper.e(TAG, "UDP send error: ", e);
+            connectCheckerRtsp.onConnectionFailedRtsp("Error send packet, " + e.getMessage());
+        }
+        resetFifo();
+        thread = null;
+        senderReportUdp.reset();
+    }
+
+    @Override
+    public void setClockFrequency(long clock)
+    {
+        super.setClockFrequency(clock);
+        senderReportUdp.setRtpClock(rtpClock, 0);
+    }
+
+    @Override
+    public void setSSRC(int ssrc)
+    {
+        this.ssrc = ssrc;
+        updateSSRC(ssrc);
+        senderReportUdp.setSSRC(ssrc);
+    }
+
+    @Override
+    protected void send() throws IOException
+    {
+        if (channel == null) return;
+
+        int length = lengths[bufferOut];
+        datagram.clear();
+        datagram.put(buffers[bufferOut], 0, length);
+        datagram.flip();
+
+        synchronized (lock) {
+            if (destinations.length == 0) return;
+            senderReportUdp.update(length, timestamps[bufferOut]);
+
+            RtpRetransmitter retransmitter = this.retransmitter;
+            if (retransmitter != null) {
+                retransmitter.record(buffers[bufferOut], length, System.nanoTime());
+            }
+
+            write(datagram);
+        }
+    }
+
+    /**
+     * Sends a datagram to all the destinations, under the lock.
+     */
+    private void write(ByteBuffer datagram) throws IOException
+    {
+        try {
+            if (channel.isConnected()) {
+                channel.write(datagram);
+            } else {
+                for (InetSocketAddress destination : destinations) {
+                    datagram.rewind();
+                    if (multicastSender != null && destination.getAddress().isMulticastAddress()) {
+                        multicastSender.send(datagram, destination);
+                    } else {
+                        channel.send(datagram, destination);
+                    }
+                }
+            }
+        } catch (PortUnreachableException e) {
+            // The client is not listening (yet), UDP does not care
+        }
+    }
+
+    /**
+     * Resends the packets of a generic NACK entry, on the RTCP receive thread.
+     *
+     * @param pid The sequence number of the first lost packet
+     * @param blp The bitmask of the 16 following ones
+     */
+    private void retransmit(int pid, int blp)
+    {
+        if (channel == null) return;
+
+        long now = System.nanoTime();
+        synchronized (lock) {
+            RtpRetransmitter retransmitter = this.retransmitter;
+            if (retransmitter == null || destinations.length == 0) return;
+
+            try {
+                for (int i = -1; i < 16; i++) {
+                    if (i >= 0 && (blp >> i & 0x01) == 0) continue;
+
+                    int length = retransmitter.prepare((pid + i + 1) & 0xFFFF, now, retransmissionPacket);
+                    if (length == 0) continue;
+
+                    retransmission.clear();
+                    retransmission.put(retransmissionPacket, 0, length);
+                    retransmission.flip();
+                    write(retransmission);
+                }
+            } catch (IOException e) {
+                LogHelper.e(TAG, "UDP retransmission error: ", e);
+            }
+        }
+    }
+
+    @Override
+    public void commitLength(int length)
+    {
+        lengths[bufferIn] = length;
+    }
+
+    /**
+     * Closes the underlying socket.
+     */
+    public void close()
+    {
+        try {
+            if (channel != null) channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        synchronized (lock) {
+            if (multicastSender != null) {
+                multicastSender.close();
+                multicastSender = null;
+            }
+        }
+        senderReportUdp.close();
+    }
+
+    /**
+     * Sets the Time To Live of the UDP packets, applied at once to the multicast
+     * destinations. It only matters for them, see {@link MulticastUtil}.
+     */
+    public void setTimeToLive(int ttl) throws IOException
+    {
+        synchronized (lock) {
+            this.timeToLive = ttl;
+            updateChannel();
+        }
+    }
+
+    /**
+     * Sets the destination address and to which the packets will be sent.
+     * It replaces the destinations added with {@link #addDestination(String, int)}.
+     */
+    public void setDestination(String host, int dport, int rtcpPort)
+    {
+        try {
+            InetAddress dest = InetAddress.getByName(host);
+            if (dport != 0 && rtcpPort != 0) {
+                port = dport;
+                synchronized (lock) {
+                    destinations = new InetSocketAddress[]{new InetSocketAddress(dest, dport)};
+                    updateChannel();
+                }
+                senderReportUdp.setDestination(dest, rtcpPort);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Adds a unicast destination, the same datagrams are sent to all the destinations.
+     */
+    public void addDestination(String host, int dport) throws IOException
+    {
+        InetSocketAddress destination = new InetSocketAddress(InetAddress.getByName(host), dport);
+        synchronized (lock) {
+            for (InetSocketAddress address : destinations) {
+                if (address.equals(destination)) return;
+            }
+
+            destinations = Arrays.copyOf(destinations, destinations.length + 1);
+            destinations[destinations.length - 1] = destination;
+            updateChannel();
+        }
+    }
+
+    /**
+     * Removes a destination added with {@link #addDestination(String, int)}.
+     */
+    public void removeDestination(String host, int dport) throws IOException
+    {
+        InetSocketAddress destination = new InetSocketAddress(InetAddress.getByName(host), dport);
+        synchronized (lock) {
+            int count = 0;
+            InetSocketAddress[] remaining = new InetSocketAddress[destinations.length];
+            for (InetSocketAddress address : destinations) {
+                if (!address.equals(destination)) remaining[count++] = address;
+            }
+
+            destinations = count == 0 ? NO_DESTINATION : Arrays.copyOf(remaining, count);
+            updateChannel();
+        }
+    }
+
+    /**
+     * Connects the channel to its destination when there is only one, enabled by default.
+     */
+    public void setConnected(boolean connect) throws IOException
+    {
+        synchronized (lock) {
+            this.connect = connect;
+            updateChannel();
+        }
+    }
+
+    /**
+     * Connects or disconnects the channel according to the destinations, under the lock.
+     */
+    private void updateChannel() throws IOException
+    {
+        if (channel == null) return;
+
+        updateTimeToLive();
+
+        // A multicast destination of the fallback sender is not one of the channel
+        if (channel.isConnected()) channel.disconnect();
+        if (connect && destinations.length == 1 && multicastSender == null) channel.connect(destinations[0]);
+    }
+
+    /**
+     * Sets the TTL of the multicast datagrams if there is a multicast destination, under
+     * the lock.
+     */
+    private void updateTimeToLive() throws IOException
+    {
+        for (InetSocketAddress destination : destinations) {
+            if (destination.getAddress().isMulticastAddress()) {
+                multicastSender = MulticastUtil.setTimeToLive(channel, timeToLive, multicastSender);
+                return;
+            }
+        }
+
+        if (multicastSender != null) {
+            multicastSender.close();
+            multicastSender = null;
+        }
+    }
+
+    /**
+     * Receives the RTCP feedback of the destination on the RTCP port of this socket.
+     */
+    public void setRtcpListener(RtcpListener listener, int trackId)
+    {
+        this.rtcpListener = listener;
+        this.trackId = trackId;
+        updateFeedback();
+    }
+
+    /**
+     * Keeps the last packets sent, and resends the ones the receiver reports lost in its
+     * generic NACKs. The receiver only sends NACKs if the SDP announces them, see
+     * {@link RtpRetransmitter#createAttributes(int, long)}.
+     *
+     * @param historySize    The number of packets kept, 0 to disable the retransmissions
+     * @param rtxPayloadType The payload type of the RTX stream of RFC 4588, or -1 to resend
+     *                       the packets as they were
+     */
+    public void setRetransmission(int historySize, int rtxPayloadType)
+    {
+        synchronized (lock) {
+            if (historySize > 0) {
+                RtpRetransmitter retransmitter = new RtpRetransmitter(historySize);
+                if (rtxPayloadType >= 0) retransmitter.setRtx(rtxPayloadType);
+                if (retransmission == null) {
+                    retransmission = ByteBuffer.allocateDirect(MTU + 2);
+                    retransmissionPacket = new byte[MTU + 2];
+                }
+                this.retransmitter = retransmitter;
+            } else {
+                this.retransmitter = null;
+            }
+        }
+        updateFeedback();
+    }
+
+    /**
+     * Returns the retransmitter of the socket, with its counters, or null if the
+     * retransmissions are disabled.
+     */
+    public RtpRetransmitter getRetransmitter()
+    {
+        return retransmitter;
+    }
+
+    /**
+     * Listens to the RTCP packets of the receiver while someone needs them.
+     */
+    private void updateFeedback()
+    {
+        boolean needed = rtcpListener != null || retransmitter != null;
+        senderReportUdp.setRtcpListener(needed ? feedbackListener : null, trackId);
+    }
+
+    public int getPort()
+    {
+        return port;
+    }
+
+    public int[] getLocalPorts()
+    {
+        return new int[]{
+                channel != null ? channel.socket().getLocalPort() : -1,
+                senderReportUdp.getLocalPort()
+        };
+    }
+
+    /**
+     * Answers the NACKs, and hands all the feedback to the listener of the socket.
+     */
+    private class FeedbackListener implements RtcpListener
+    {
+        @Override
+        public void onReceiverReport(int trackId, ReceiverReport report)
+        {
+            RtcpListener listener = rtcpListener;
+            if (listener != null) listener.onReceiverReport(trackId, report);
+        }
+
+        @Override
+        public void onNack(int trackId, int sourceSsrc, int pid, int blp)
+        {
+            // Some receivers leave the media SSRC to 0
+            if (sourceSsrc == ssrc || sourceSsrc == 0) retransmit(pid, blp);
+
+            RtcpListener listener = rtcpListener;
+            if (listener != null) listener.onNack(trackId, sourceSsrc, pid, blp);
+        }
+
+        @Override
+        public void onEstimatedBitrate(int trackId, long bitrate)
+        {
+            RtcpListener listener = rtcpListener;
+            if (listener != null) listener.onEstimatedBitrate(trackId, bitrate);
+        }
+
+        @Override
+        public void onTransportFeedback(int trackId, int received, int lost)
+        {
+            RtcpListener listener = rtcpListener;
+            if (listener != null) listener.onTransportFeedback(trackId, received, lost);
+        }
+    }
+}
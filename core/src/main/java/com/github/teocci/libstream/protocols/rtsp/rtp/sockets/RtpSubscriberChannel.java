@@ -0,0 +1,81 @@
+package com.github.teocci.libstream.protocols.rtsp.rtp.sockets;
+
+import com.github.teocci.libstream.interfaces.InterleavedWriter;
+import com.github.teocci.libstream.protocols.rtsp.rtp.ring.RtpPacketBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static com.github.teocci.libstream.utils.rtsp.RtpConstants.RTP_HEADER_LENGTH;
+
+/**
+ * Sends the RTP and RTCP packets interleaved in a non-blocking RTSP connection.
+ * The interleaved frame header, the RTP header of this client and the shared payload
+ * go out in one gathering write, the payload is never copied.
+ * <p>
+ * While the connection is blocked, the fan-out stops draining the reader of this client,
+ * which then falls behind in the ring instead of queuing packets.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-10
+ */
+public class RtpSubscriberChannel extends BaseRtpSubscriber
+{
+    private final InterleavedWriter writer;
+
+    // Interleaved frame header followed by the RTP header of this client
+    private final byte[] rtpHeader = new byte[4 + RTP_HEADER_LENGTH];
+    private final byte[] tcpHeader = new byte[]{'$', 0, 0, 0};
+
+    private final ByteBuffer rtpHeaderBuffer = ByteBuffer.wrap(rtpHeader);
+    private final ByteBuffer tcpHeaderBuffer = ByteBuffer.wrap(tcpHeader);
+
+    private final ByteBuffer[] gather = new ByteBuffer[2];
+
+    public RtpSubscriberChannel(InterleavedWriter writer)
+    {
+        this.writer = writer;
+        this.rtpHeader[0] = '$';
+    }
+
+    @Override
+    public synchronized void sendRtp(int trackId, byte[] header, RtpPacketBuffer packet) throws IOException
+    {
+        int length = packet.length;
+        rtpHeader[1] = (byte) (2 * trackId);
+        rtpHeader[2] = (byte) (length >> 8);
+        rtpHeader[3] = (byte) (length & 0xFF);
+        System.arraycopy(header, 0, rtpHeader, 4, RTP_HEADER_LENGTH);
+        rtpHeaderBuffer.clear();
+
+        gather[0] = rtpHeaderBuffer;
+        gather[1] = packet.payload();
+        writer.write(gather);
+    }
+
+    @Override
+    public synchronized void sendRtcp(int trackId, byte[] buffer, int length) throws IOException
+    {
+        tcpHeader[1] = (byte) (2 * trackId + 1);
+        tcpHeader[2] = (byte) (length >> 8);
+        tcpHeader[3] = (byte) (length & 0xFF);
+        tcpHeaderBuffer.clear();
+
+        gather[0] = tcpHeaderBuffer;
+        gather[1] = ByteBuffer.wrap(buffer, 0, length);
+        writer.write(gather);
+    }
+
+    @Override
+    public boolean isBlocked()
+    {
+        return writer.isBlocked();
+    }
+
+    /**
+     * The channel belongs to the RTSP connection, it is closed with it.
+     */
+    @Override
+    public void close() {}
+}
@@ -0,0 +1,75 @@
+package com.github.teocci.libstream.protocols.rtsp.rtp.sockets;
+
+import com.github.teocci.libstream.protocols.rtsp.rtp.ring.RtpPacketBuffer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static com.github.teocci.libstream.utils.rtsp.RtpConstants.RTP_HEADER_LENGTH;
+
+/**
+ * Sends the RTP and RTCP packets interleaved in the RTSP connection (RFC 2326 10.12).
+ * The RTP packets of a track go on the channel 2 * trackId and its RTCP packets on
+ * the channel 2 * trackId + 1.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-03
+ */
+public class RtpSubscriberTcp extends BaseRtpSubscriber
+{
+    private final OutputStream outputStream;
+    private final byte[] tcpHeader;
+
+    // Interleaved frame header followed by the RTP header of this client
+    private final byte[] rtpHeader;
+
+    public RtpSubscriberTcp(OutputStream outputStream)
+    {
+        this.outputStream = outputStream;
+        this.tcpHeader = new byte[]{'$', 0, 0, 0};
+        this.rtpHeader = new byte[4 + RTP_HEADER_LENGTH];
+        this.rtpHeader[0] = '$';
+    }
+
+    @Override
+    public void sendRtp(int trackId, byte[] header, RtpPacketBuffer packet) throws IOException
+    {
+        int length = packet.length;
+        synchronized (outputStream) {
+            rtpHeader[1] = (byte) (2 * trackId);
+            rtpHeader[2] = (byte) (length >> 8);
+            rtpHeader[3] = (byte) (length & 0xFF);
+            System.arraycopy(header, 0, rtpHeader, 4, RTP_HEADER_LENGTH);
+
+            // The payload is written straight from the shared buffer
+            outputStream.write(rtpHeader);
+            outputStream.write(packet.data, RTP_HEADER_LENGTH, length - RTP_HEADER_LENGTH);
+            outputStream.flush();
+        }
+    }
+
+    @Override
+    public void sendRtcp(int trackId, byte[] buffer, int length) throws IOException
+    {
+        synchronized (outputStream) {
+            tcpHeader[1] = (byte) (2 * trackId + 1);
+            tcpHeader[2] = (byte) (length >> 8);
+            tcpHeader[3] = (byte) (length & 0xFF);
+            outputStream.write(tcpHeader);
+            outputStream.write(buffer, 0, length);
+            outputStream.flush();
+        }
+    }
+
+    /**
+     * The output stream belongs to the RTSP connection, it is closed with it.
+     */
+    @Override
+    public void close() {}
+
+    public OutputStream getOutputStream()
+    {
+        return outputStream;
+    }
+}
@@ -0,0 +1,190 @@
+package com.github.teocci.libstream.protocols.rtsp.rtp.sockets;
+
+import com.github.teocci.libstream.protocols.rtsp.rtp.ring.RtpPacketBuffer;
+import com.github.teocci.libstream.utils.LogHelper;
+import com.github.teocci.libstream.utils.rtsp.MulticastSender;
+import com.github.teocci.libstream.utils.rtsp.MulticastUtil;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+import static com.github.teocci.libstream.utils.rtsp.RtpConstants.MTU;
+import static com.github.teocci.libstream.utils.rtsp.RtpConstants.RTP_HEADER_LENGTH;
+
+/**
+ * Sends the RTP and RTCP packets of each track to the client ports negotiated in SETUP.
+ * Each track has its own pair of local sockets, so the server ports can be announced
+ * in the Transport header. The channels are connected to the client, and the datagrams
+ * are assembled in a reused direct buffer. Below Android N the datagrams to a multicast
+ * destination are sent by a {@link MulticastSender}, the channels can not set their TTL.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-03
+ */
+public class RtpSubscriberUdp extends BaseRtpSubscriber
+{
+    private static String TAG = LogHelper.makeLogTag(RtpSubscriberUdp.class);
+
+    private final DatagramChannel[] rtpChannels = new DatagramChannel[TRACK_COUNT];
+    private final DatagramChannel[] rtcpChannels = new DatagramChannel[TRACK_COUNT];
+
+    private final InetSocketAddress[] rtpDestinations = new InetSocketAddress[TRACK_COUNT];
+    private final InetSocketAddress[] rtcpDestinations = new InetSocketAddress[TRACK_COUNT];
+
+    // Sends to the multicast destinations where the channels can not set the TTL, or null
+    private volatile MulticastSender multicastSender;
+
+    // A datagram has to be contiguous, the header and the shared payload are copied here
+    private final ByteBuffer[] datagrams = new ByteBuffer[TRACK_COUNT];
+
+    private int timeToLive = 64;
+
+    /**
+     * Opens the local sockets of the track, if needed, and sets the destination of its packets.
+     *
+     * @param trackId  The id of the track, 0 for audio and 1 for video
+     * @param dest     The address of the client
+     * @param rtpPort  Destination port that will be used for RTP
+     * @param rtcpPort Destination port that will be used for RTCP
+     */
+    public synchronized void setDestination(int trackId, InetAddress dest, int rtpPort, int rtcpPort)
+            throws IOException
+    {
+        open(trackId);
+
+        rtpDestinations[trackId] = new InetSocketAddress(dest, rtpPort);
+        rtcpDestinations[trackId] = new InetSocketAddress(dest, rtcpPort);
+        connect(rtpChannels[trackId], rtpDestinations[trackId]);
+        connect(rtcpChannels[trackId], rtcpDestinations[trackId]);
+
+        if (datagrams[trackId] == null) {
+            datagrams[trackId] = ByteBuffer.allocateDirect(MTU);
+        }
+    }
+
+    private void open(int trackId) throws IOException
+    {
+        if (rtpChannels[trackId] == null) {
+            rtpChannels[trackId] = DatagramChannel.open();
+            rtpChannels[trackId].socket().bind(null);
+        }
+        if (rtcpChannels[trackId] == null) {
+            rtcpChannels[trackId] = DatagramChannel.open();
+            rtcpChannels[trackId].socket().bind(null);
+        }
+    }
+
+    private void connect(DatagramChannel channel, InetSocketAddress destination) throws IOException
+    {
+        if (channel.isConnected()) channel.disconnect();
+
+        // Only multicast packets need a TTL, below Android N they go through the sender
+        if (destination.getAddress().isMulticastAddress()) {
+            multicastSender = MulticastUtil.setTimeToLive(channel, timeToLive, multicastSender);
+            if (multicastSender != null) return;
+        }
+
+        channel.connect(destination);
+    }
+
+    @Override
+    public void sendRtp(int trackId, byte[] header, RtpPacketBuffer packet) throws IOException
+    {
+        ByteBuffer datagram = datagrams[trackId];
+        if (datagram == null) return;
+
+        datagram.clear();
+        datagram.put(header, 0, RTP_HEADER_LENGTH);
+        datagram.put(packet.data, RTP_HEADER_LENGTH, packet.length - RTP_HEADER_LENGTH);
+        datagram.flip();
+        send(rtpChannels[trackId], rtpDestinations[trackId], datagram);
+    }
+
+    @Override
+    public void sendRtcp(int trackId, byte[] buffer, int length) throws IOException
+    {
+        send(rtcpChannels[trackId], rtcpDestinations[trackId], ByteBuffer.wrap(buffer, 0, length));
+    }
+
+    private void send(DatagramChannel channel, InetSocketAddress destination, ByteBuffer datagram)
+            throws IOException
+    {
+        // The track has not been set up by this client
+        if (channel == null || destination == null) return;
+
+        try {
+            MulticastSender sender = multicastSender;
+            if (sender != null && destination.getAddress().isMulticastAddress()) {
+                // Shared by the RTP and the RTCP packets of the tracks
+                synchronized (sender) {
+                    sender.send(datagram, destination);
+                }
+            } else if (channel.isConnected()) {
+                channel.write(datagram);
+            }
+        } catch (PortUnreachableException e) {
+            // The client is not listening (yet), UDP does not care
+        }
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        for (int i = 0; i < TRACK_COUNT; i++) {
+            close(rtpChannels[i]);
+            close(rtcpChannels[i]);
+            rtpChannels[i] = null;
+            rtcpChannels[i] = null;
+            rtpDestinations[i] = null;
+            rtcpDestinations[i] = null;
+        }
+
+        if (multicastSender != null) {
+            multicastSender.close();
+            multicastSender = null;
+        }
+    }
+
+    private void close(DatagramChannel channel)
+    {
+        if (channel == null) return;
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LogHelper.e(TAG, "Could not close the UDP channel", e);
+        }
+    }
+
+    /**
+     * Sets the Time To Live of the UDP packets.
+     * It applies to the destinations set from then on, see {@link MulticastUtil}.
+     */
+    public synchronized void setTimeToLive(int ttl)
+    {
+        this.timeToLive = ttl;
+    }
+
+    /**
+     * Returns the local RTP and RTCP ports of the track.
+     */
+    public synchronized int[] getLocalPorts(int trackId)
+    {
+        try {
+            open(trackId);
+        } catch (IOException e) {
+            LogHelper.e(TAG, "Could not open the UDP sockets", e);
+            return null;
+        }
+
+        return new int[]{
+                rtpChannels[trackId].socket().getLocalPort(),
+                rtcpChannels[trackId].socket().getLocalPort()
+        };
+    }
+}
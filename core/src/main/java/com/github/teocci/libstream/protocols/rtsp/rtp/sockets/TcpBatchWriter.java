@@ -0,0 +1,146 @@
+package com.github.teocci.libstream.protocols.rtsp.rtp.sockets;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Coalesces the interleaved RTP/RTCP frames written to a RTSP connection.
+ * <p>
+ * The audio and video {@link RtpSocketTcp} of a session share the same writer: every
+ * '$' framed packet is appended to a batch, and the whole batch goes out with a single
+ * write when a sender has drained its FIFO, when its latency bound is reached or when
+ * the batch is full. Writes are synchronized on the output stream, like the ones of the
+ * sender reports.
+ * <p>
+ * The writer counts the packets, bytes and writes done, see {@link #getPacketRate()} and
+ * {@link #getBytesPerWrite()}.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-14
+ */
+public class TcpBatchWriter
+{
+    /**
+     * Size of the batch by default, about 50 full RTP packets.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 64 * 1024;
+
+    private final OutputStream outputStream;
+
+    private final byte[] batch;
+    private int length;
+    private int pending;
+    private long firstPending;
+
+    private long packetCount, byteCount, writeCount;
+    private long startTime;
+
+    public TcpBatchWriter(OutputStream outputStream)
+    {
+        this(outputStream, DEFAULT_BATCH_SIZE);
+    }
+
+    public TcpBatchWriter(OutputStream outputStream, int batchSize)
+    {
+        this.outputStream = outputStream;
+        this.batch = new byte[batchSize];
+    }
+
+    /**
+     * Appends an interleaved frame to the batch, the batch is written first if it is full.
+     *
+     * @param channel The interleaved channel identifier
+     * @param data    The RTP or RTCP packet
+     * @param offset  The offset of the packet in data
+     * @param size    The size of the packet
+     */
+    public void append(byte channel, byte[] data, int offset, int size) throws IOException
+    {
+        synchronized (outputStream) {
+            if (length + 4 + size > batch.length) writeBatch();
+
+            batch[length++] = '$';
+            batch[length++] = channel;
+            batch[length++] = (byte) (size >> 8);
+            batch[length++] = (byte) (size & 0xFF);
+            System.arraycopy(data, offset, batch, length, size);
+            length += size;
+
+            if (pending++ == 0) firstPending = System.nanoTime();
+        }
+    }
+
+    /**
+     * Writes the frames appended so far.
+     */
+    public void flush() throws IOException
+    {
+        synchronized (outputStream) {
+            writeBatch();
+        }
+    }
+
+    private void writeBatch() throws IOException
+    {
+        if (length == 0) return;
+
+        outputStream.write(batch, 0, length);
+        outputStream.flush();
+
+        if (startTime == 0) startTime = firstPending;
+        writeCount++;
+        byteCount += length;
+        packetCount += pending;
+
+        length = 0;
+        pending = 0;
+    }
+
+    /**
+     * Returns how long, in ns, the oldest frame of the batch has been waiting, or 0.
+     */
+    public long getPendingAge()
+    {
+        synchronized (outputStream) {
+            return pending == 0 ? 0 : System.nanoTime() - firstPending;
+        }
+    }
+
+    public OutputStream getOutputStream()
+    {
+        return outputStream;
+    }
+
+    public long getPacketCount()
+    {
+        return packetCount;
+    }
+
+    public long getByteCount()
+    {
+        return byteCount;
+    }
+
+    public long getWriteCount()
+    {
+        return writeCount;
+    }
+
+    /**
+     * Returns the mean number of bytes per write, i.e. per syscall.
+     */
+    public long getBytesPerWrite()
+    {
+        return writeCount == 0 ? 0 : byteCount / writeCount;
+    }
+
+    /**
+     * Returns the mean number of packets sent per second since the first write.
+     */
+    public long getPacketRate()
+    {
+        long elapsed = System.nanoTime() - startTime;
+        return startTime == 0 || elapsed <= 0 ? 0 : packetCount * 1_000_000_000L / elapsed;
+    }
+}
@@ -0,0 +1,426 @@
+package com.github.teocci.libstream.protocols.rtsp.rtsp;
+
+import com.github.teocci.libstream.enums.Protocol;
+import com.github.teocci.libstream.input.audio.AudioQuality;
+import com.github.teocci.libstream.interfaces.ConnectCheckerRtsp;
+import com.github.teocci.libstream.interfaces.RtcpListener;
+import com.github.teocci.libstream.interfaces.RtspServerListener;
+import com.github.teocci.libstream.protocols.rtsp.rtcp.RtcpScheduler;
+import com.github.teocci.libstream.protocols.rtsp.rtp.packets.AacPacket;
+import com.github.teocci.libstream.protocols.rtsp.rtp.packets.H264Packet;
+import com.github.teocci.libstream.protocols.rtsp.rtp.packets.HevcPacket;
+import com.github.teocci.libstream.protocols.rtsp.rtp.packets.VideoPacket;
+import com.github.teocci.libstream.protocols.rtsp.rtp.ring.RtpGopCache;
+import com.github.teocci.libstream.protocols.rtsp.rtp.ring.RtpPacketRing;
+import com.github.teocci.libstream.protocols.rtsp.rtp.sockets.RtpSocketFanout;
+import com.github.teocci.libstream.threads.RtspEventLoop;
+import com.github.teocci.libstream.utils.LogHelper;
+import com.github.teocci.libstream.utils.rtsp.Base64Util;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.nio.ByteBuffer;
+
+import static com.github.teocci.libstream.enums.Protocol.TCP;
+import static com.github.teocci.libstream.protocols.rtsp.rtsp.Session.STREAM_AUDIO;
+import static com.github.teocci.libstream.protocols.rtsp.rtsp.Session.STREAM_VIDEO;
+
+/**
+ * The RTSP server without the Android Service around it.
+ * <p>
+ * All the connections are handled by a single {@link RtspEventLoop}, a selector thread
+ * that accepts the clients, parses their requests and flushes what their sockets could
+ * not take. The encoded data is packetized once, by a packetizer per track, and the
+ * packets are handed to every playing Session of the {@link SessionRegistry}.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-10
+ */
+public class RtspServerCore
+{
+    private static String TAG = LogHelper.makeLogTag(RtspServerCore.class);
+
+    /**
+     * Port used by default.
+     */
+    public static final int DEFAULT_RTSP_PORT = 8086;
+
+    /**
+     * Port already in use.
+     */
+    public final static int ERROR_BIND_FAILED = 0x00;
+
+    /**
+     * A stream could not be started.
+     */
+    public final static int ERROR_START_FAILED = 0x01;
+
+    /**
+     * Streaming started.
+     */
+    public final static int MESSAGE_STREAMING_STARTED = 0X00;
+
+    /**
+     * Streaming stopped.
+     */
+    public final static int MESSAGE_STREAMING_STOPPED = 0X01;
+
+    public final SessionRegistry sessions = new SessionRegistry();
+
+    // Packetizers shared by all the sessions
+    private final RtpSocketFanout videoSocket = new RtpSocketFanout(sessions, STREAM_VIDEO);
+    private final RtpSocketFanout audioSocket = new RtpSocketFanout(sessions, STREAM_AUDIO);
+    private volatile VideoPacket videoPacket = new H264Packet(videoSocket);
+    private final AacPacket audioPacket = new AacPacket(audioSocket);
+
+    private final RtspServerListener listener;
+
+    private ConnectCheckerRtsp connectCheckerRtsp;
+
+    private RtspEventLoop eventLoop;
+
+    private int port = DEFAULT_RTSP_PORT;
+
+    private Protocol protocol = TCP;
+
+    /**
+     * Credentials for Basic Auth
+     */
+    private String user;
+    private String password;
+    private volatile byte[] credentials;
+
+    private volatile ByteBuffer sps, pps, vps;
+
+    // Listener of the RTCP reports interleaved by the TCP clients
+    private volatile RtcpListener rtcpListener;
+
+    // Sends the Sender Reports of all the clients
+    private final RtcpScheduler rtcpScheduler = new RtcpScheduler();
+
+    private final AudioQuality audioQuality = new AudioQuality(
+            AudioQuality.DEFAULT.sampleRate,
+            AudioQuality.DEFAULT.bitRate,
+            AudioQuality.DEFAULT.channel
+    );
+
+    private volatile boolean loaded = false;
+
+    public RtspServerCore(RtspServerListener listener)
+    {
+        this.listener = listener;
+        audioPacket.setSampleRate(audioQuality.sampleRate);
+        // The new clients start with the last GOP instead of waiting for a key frame
+        videoSocket.getRing().setGopCache(new RtpGopCache());
+    }
+
+    /**
+     * Binds the RTSP port and starts the event loop, if it is not already running.
+     *
+     * @throws IOException if the port could not be bound
+     */
+    public synchronized void start() throws IOException
+    {
+        if (eventLoop != null) return;
+
+        try {
+            eventLoop = new RtspEventLoop(this, port);
+            eventLoop.start();
+        } catch (BindException e) {
+            LogHelper.e(TAG, "Port already in use !");
+            postError(e, ERROR_BIND_FAILED);
+            throw e;
+        }
+    }
+
+    /**
+     * Closes all the connections and stops the event loop.
+     */
+    public synchronized void stop()
+    {
+        if (eventLoop == null) return;
+
+        boolean streaming = isStreaming();
+        eventLoop.kill();
+        eventLoop = null;
+
+        for (Session session : sessions.getSessions()) {
+            sessions.unregister(session);
+            session.release();
+        }
+
+        if (streaming) {
+            postMessage(MESSAGE_STREAMING_STOPPED);
+        }
+    }
+
+    /**
+     * Returns a new Session with the current configuration of the server.
+     */
+    public Session createSession()
+    {
+        Session session = new Session();
+        session.setProtocol(protocol);
+        session.setConnectCheckerRtsp(connectCheckerRtsp);
+        session.setRtcpScheduler(rtcpScheduler);
+        session.setSampleRate(audioQuality.sampleRate);
+        session.setChannel(audioQuality.channel);
+        ByteBuffer sps = this.sps, pps = this.pps, vps = this.vps;
+        if (sps != null && pps != null) {
+            session.setAVCInfo(sps.duplicate(), pps.duplicate(), vps != null ? vps.duplicate() : null);
+        }
+        session.setVideoPorts(5000 + (int) (Math.random() * 1000));
+        session.setAudioPorts(6000 + (int) (Math.random() * 1000));
+
+        // The packetizers are shared by all the sessions of the server
+        session.videoPacket = videoPacket;
+        session.aacPacket = audioPacket;
+
+        return session;
+    }
+
+    /**
+     * Wakes up the senders, e.g. when a blocked connection has flushed its queued bytes.
+     */
+    public void signalSenders()
+    {
+        videoSocket.signal();
+        audioSocket.signal();
+    }
+
+    public void postMessage(int message)
+    {
+        if (listener != null) listener.onMessage(message);
+    }
+
+    public void postError(Exception exception, int error)
+    {
+        if (listener != null) listener.onError(exception, error);
+    }
+
+    public void setAVCInfo(ByteBuffer sps, ByteBuffer pps, ByteBuffer vps)
+    {
+        if (sps == null && pps == null) return;
+        this.sps = sps;
+        this.pps = pps;
+        this.vps = vps;
+
+        // H264 has no vps, so if there is one the stream is H265
+        boolean hevc = vps != null;
+        if (hevc != videoPacket instanceof HevcPacket) {
+            videoPacket = hevc ? new HevcPacket(videoSocket) : new H264Packet(videoSocket);
+        }
+
+        if (sps != null && pps != null) {
+            videoPacket.setParameterSets(
+                    Session.extractData(sps.duplicate()),
+                    Session.extractData(pps.duplicate()),
+                    hevc ? Session.extractData(vps.duplicate()) : null
+            );
+        }
+
+        loaded = true;
+    }
+
+    public void setPort(int port)
+    {
+        this.port = port;
+    }
+
+    public void setProtocol(Protocol protocol)
+    {
+        this.protocol = protocol;
+    }
+
+    public void setConnectCheckerRtsp(ConnectCheckerRtsp connectCheckerRtsp)
+    {
+        this.connectCheckerRtsp = connectCheckerRtsp;
+    }
+
+    /**
+     * Sets the Basic authorization required by the next requests.
+     *
+     * @param user     username
+     * @param password password
+     */
+    public void setAuthorization(String user, String password)
+    {
+        this.user = user;
+        this.password = password;
+
+        if (user == null || password == null || user.isEmpty()) {
+            credentials = null;
+        } else {
+            String local = user + ":" + password;
+            credentials = Base64Util.encode(local.getBytes()).getBytes();
+        }
+    }
+
+    /**
+     * Sets the memory kept for the last GOP of the video, sent to the new clients so they
+     * do not wait for the next key frame.
+     *
+     * @param maxBytes The memory cap, 0 to disable the cache
+     */
+    public void setGopCacheSize(int maxBytes)
+    {
+        videoSocket.getRing().setGopCache(maxBytes > 0 ? new RtpGopCache(maxBytes) : null);
+    }
+
+    /**
+     * Paces the GOP sent to the new clients.
+     *
+     * @param bytesPerSecond The rate of the burst, 0 to send it at once
+     */
+    public void setGopBurstRate(int bytesPerSecond)
+    {
+        videoSocket.getRing().setBurstRate(bytesPerSecond);
+    }
+
+    /**
+     * Sets the listener of the RTCP reports the clients send over TCP, null to skip them.
+     */
+    public void setRtcpListener(RtcpListener listener)
+    {
+        this.rtcpListener = listener;
+    }
+
+    public void setChannel(int channel)
+    {
+        this.audioQuality.channel = channel;
+    }
+
+    public void setSampleRate(int sampleRate)
+    {
+        this.audioQuality.sampleRate = sampleRate;
+        audioPacket.setSampleRate(sampleRate);
+    }
+
+    /**
+     * Sets how long an audio frame may wait for the next ones to share its RTP packet,
+     * 0 by default.
+     *
+     * @param maxLatency The latency bound in ms
+     */
+    public void setAudioMaxLatency(long maxLatency)
+    {
+        audioPacket.setMaxLatency(maxLatency);
+    }
+
+    /**
+     * Returns the port set, or the one bound if the server listens on any free port (0).
+     */
+    public synchronized int getPort()
+    {
+        return eventLoop != null ? eventLoop.getPort() : port;
+    }
+
+    public Protocol getProtocol()
+    {
+        return protocol;
+    }
+
+    public ConnectCheckerRtsp getConnectCheckerRtsp()
+    {
+        return connectCheckerRtsp;
+    }
+
+    public String getUser()
+    {
+        return user;
+    }
+
+    public String getPassword()
+    {
+        return password;
+    }
+
+    /**
+     * Returns the expected Basic credentials, base64("user:password"),
+     * or null if no authorization is required.
+     */
+    public byte[] getCredentials()
+    {
+        return credentials;
+    }
+
+    public RtcpListener getRtcpListener()
+    {
+        return rtcpListener;
+    }
+
+    public RtcpScheduler getRtcpScheduler()
+    {
+        return rtcpScheduler;
+    }
+
+    public ByteBuffer getSps()
+    {
+        return sps;
+    }
+
+    public ByteBuffer getPps()
+    {
+        return pps;
+    }
+
+    public ByteBuffer getVps()
+    {
+        return vps;
+    }
+
+    public int getSampleRate()
+    {
+        return audioQuality.sampleRate;
+    }
+
+    public int getChannel()
+    {
+        return audioQuality.channel;
+    }
+
+    public VideoPacket getVideoPacket()
+    {
+        return videoPacket;
+    }
+
+    public AacPacket getAudioPacket()
+    {
+        return audioPacket;
+    }
+
+    /**
+     * Returns the ring holding the last video packets, with its occupancy and drop counters.
+     */
+    public RtpPacketRing getVideoRing()
+    {
+        return videoSocket.getRing();
+    }
+
+    /**
+     * Returns the ring holding the last audio packets, with its occupancy and drop counters.
+     */
+    public RtpPacketRing getAudioRing()
+    {
+        return audioSocket.getRing();
+    }
+
+    public boolean isLoaded()
+    {
+        return loaded;
+    }
+
+    public synchronized boolean isRunning()
+    {
+        return eventLoop != null;
+    }
+
+    /**
+     * Returns whether or not the RTSP server is streaming to some client(s).
+     */
+    public boolean isStreaming()
+    {
+        return sessions.hasPlaying();
+    }
+}
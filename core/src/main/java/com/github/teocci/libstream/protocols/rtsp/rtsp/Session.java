@@ -1,41 +1,43 @@
 package com.github.teocci.libstream.protocols.rtsp.rtsp;
 
-import android.os.Handler;
-import android.os.HandlerThread;
-import android.os.Looper;
-import android.util.Base64;
-import android.view.SurfaceView;
-
-import com.github.teocci.libstream.BuildConfig;
-import com.github.teocci.libstream.clients.RtspDirectEncoder;
-import com.github.teocci.libstream.coder.encoder.audio.AudioEncoder;
-import com.github.teocci.libstream.coder.encoder.video.VideoEncoder;
 import com.github.teocci.libstream.enums.Protocol;
 import com.github.teocci.libstream.input.audio.AudioQuality;
-import com.github.teocci.libstream.input.audio.AudioStream;
-import com.github.teocci.libstream.input.video.VideoStream;
 import com.github.teocci.libstream.interfaces.ConnectCheckerRtsp;
+import com.github.teocci.libstream.interfaces.RtpTransport;
 import com.github.teocci.libstream.interfaces.SessionCallback;
-import com.github.teocci.libstream.interfaces.Stream;
+import com.github.teocci.libstream.protocols.rtsp.rtcp.RtcpScheduler;
 import com.github.teocci.libstream.protocols.rtsp.rtp.packets.AacPacket;
-import com.github.teocci.libstream.protocols.rtsp.rtp.packets.H264Packet;
+import com.github.teocci.libstream.protocols.rtsp.rtp.packets.VideoPacket;
+import com.github.teocci.libstream.protocols.rtsp.rtp.sockets.BaseRtpSubscriber;
+import com.github.teocci.libstream.protocols.rtsp.rtp.sockets.RtpRetransmitter;
+import com.github.teocci.libstream.protocols.rtsp.rtp.sockets.RtpSubscriberTcp;
+import com.github.teocci.libstream.protocols.rtsp.rtp.sockets.RtpSubscriberUdp;
+import com.github.teocci.libstream.protocols.rtsp.rtp.sockets.TcpBatchWriter;
 import com.github.teocci.libstream.utils.LogHelper;
+import com.github.teocci.libstream.utils.rtsp.Base64Util;
 
+import java.io.IOException;
 import java.io.OutputStream;
+import java.net.InetAddress;
 import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static com.github.teocci.libstream.enums.Protocol.TCP;
 import static com.github.teocci.libstream.enums.Protocol.UDP;
+import static com.github.teocci.libstream.utils.rtsp.RtpConstants.CLOCK_VIDEO_FREQUENCY;
+import static com.github.teocci.libstream.utils.rtsp.RtpConstants.PAYLOAD_TYPE;
 
 /**
- * You should instantiate this class with the {@link SessionBuilder}.<br />
  * This is the class you will want to use to stream audio and or video to some peer using RTP.<br />
  * <p>
- * It holds a {@link VideoStream} and a {@link AudioStream} together and provides
- * synchronous and asynchronous functions to start and stop those steams.
- * You should implement a callback interface {@link SessionCallback} to receive notifications and error reports.<br />
+ * It holds the packetizers of the audio and the video tracks together and provides
+ * synchronous and asynchronous functions to stop those steams.
+ * You should implement a callback interface {@link SessionCallback} to receive notifications and error reports,
+ * they are called by the executor set with {@link #setCallbackExecutor(Executor)}.<br />
  * <p>
- * If you want to stream to a RTSP server, you will need an instance of this class and hand it to a {@link RtspClient}.
+ * If you want to stream to a RTSP server, you will need an instance of this class and hand it to a RtspClient.
  * <p>
  * If you don't use the RTSP protocol, you will still need to send a session description to the receiver
  * for him to be able to decode your audio/video streams. You can obtain this session description by calling
@@ -48,11 +50,14 @@ import static com.github.teocci.libstream.enums.Protocol.UDP;
  * See the example 3 here: https://github.com/fyhertz/libstreaming-examples to
  * see an example of how to stream to a RTSP server.<br />
  */
-public class Session
+public class Session implements RtpTransport
 {
     private final static String TAG = LogHelper.makeLogTag(Session.class);
 
-    private final static String THREAD_NAME = BuildConfig.APPLICATION_ID + ".Session";
+    private final static String THREAD_NAME = Session.class.getName();
+
+    // AAC LC, MediaCodecInfo.CodecProfileLevel.AACObjectLC
+    private final static int AUDIO_PROFILE = 2;
 
     public final static int STREAM_VIDEO = 0x01;
     public final static int STREAM_AUDIO = 0x00;
@@ -109,13 +114,21 @@ public class Session
     public byte[] vps; //For H265
 
     // Packets
-    public H264Packet h264Packet;
+    public VideoPacket videoPacket;
     public AacPacket aacPacket;
 
     public Protocol protocol = TCP;
 
     public ConnectCheckerRtsp connectCheckerRtsp;
 
+    // RTSP session id, assigned by the SessionRegistry of a server
+    private String id;
+
+    // Transport used by a server to send the shared packets to this client
+    private BaseRtpSubscriber subscriber;
+    private RtcpScheduler rtcpScheduler = RtcpScheduler.getInstance();
+    private volatile boolean playing = false;
+
     private String origin;
     private String destination;
 
@@ -125,6 +138,7 @@ public class Session
 
     // For tcp
     private OutputStream outputStream;
+    private TcpBatchWriter batchWriter;
 
     private AudioQuality audioQuality = AudioQuality.DEFAULT;
 
@@ -135,13 +149,11 @@ public class Session
     private int timeToLive = 64;
     private long timestamp;
 
-    private AudioStream audioStream = null;
-    private VideoStream videoStream = null;
-
     private SessionCallback sessionCallback;
 
-    private Handler mainHandler;
-    private Handler handler;
+    // Runs the callbacks, on the thread that calls them by default
+    private Executor callbackExecutor = Runnable::run;
+    private ExecutorService executor;
 
 
     /**
@@ -151,11 +163,6 @@ public class Session
     {
         long uptime = System.nanoTime() / 1000;
 
-        HandlerThread thread = new HandlerThread(THREAD_NAME);
-        thread.start();
-
-        this.handler = new Handler(thread.getLooper());
-        this.mainHandler = new Handler(Looper.getMainLooper());
         this.timestamp = (uptime / 1000) << 32 & (((uptime - ((uptime / 1000) * 1000)) >> 32) / 1000); // NTP timestamp
         this.origin = "127.0.0.1";
     }
@@ -172,28 +179,6 @@ public class Session
 //		this.videoStream = track;
 //	}
 
-    /**
-     * You probably don't need to use that directly, use the {@link SessionBuilder}.
-     */
-    public void removeAudioTrack()
-    {
-        if (audioStream != null) {
-            audioStream.stop();
-            audioStream = null;
-        }
-    }
-
-    /**
-     * You probably don't need to use that directly, use the {@link SessionBuilder}.
-     */
-    public void removeVideoTrack()
-    {
-        if (videoStream != null) {
-            videoStream.stopPreview();
-            videoStream = null;
-        }
-    }
-
 //	/** Returns the underlying {@link AudioStream} used by the {@link Session}. */
 //	public AudioStream getAudioTrack() {
 //		return audioStream;
@@ -237,6 +222,7 @@ public class Session
     /**
      * Returns the destination set with {@link #setDestination(String)}.
      */
+    @Override
     public String getDestination()
     {
         return destination;
@@ -247,6 +233,18 @@ public class Session
         return outputStream;
     }
 
+    /**
+     * Returns the writer shared by the interleaved tracks of the session.
+     */
+    @Override
+    public synchronized TcpBatchWriter getBatchWriter()
+    {
+        if (batchWriter == null && outputStream != null) {
+            batchWriter = new TcpBatchWriter(outputStream);
+        }
+        return batchWriter;
+    }
+
 //	/**
 //	 * Set the TTL of all packets sent during the session. <br />
 //	 * Changes will be taken into account the next time you start the session.
@@ -366,7 +364,7 @@ public class Session
     public boolean isStreaming()
     {
         return ((aacPacket != null && aacPacket.isStreaming()) ||
-                (h264Packet != null && h264Packet.isStreaming()));
+                (videoPacket != null && videoPacket.isStreaming()));
     }
 
 //	/**
@@ -514,20 +512,7 @@ public class Session
      */
     public void stop()
     {
-        handler.post(this::syncStop);
-    }
-
-    /**
-     * Stops one stream in a synchronous manner.
-     *
-     * @param id The id of the stream to stop
-     **/
-    private void syncStop(final int id)
-    {
-        Stream stream = id == STREAM_AUDIO ? audioStream : videoStream;
-        if (stream != null) {
-            stream.stop();
-        }
+        getExecutor().execute(this::syncStop);
     }
 
     /**
@@ -535,8 +520,6 @@ public class Session
      */
     public void syncStop()
     {
-        syncStop(0);
-        syncStop(1);
         postSessionStopped();
     }
 
@@ -679,9 +662,15 @@ public class Session
      */
     public void release()
     {
-        removeAudioTrack();
-        removeVideoTrack();
-        handler.getLooper().quit();
+        if (subscriber != null) {
+            subscriber.release();
+        }
+        synchronized (this) {
+            if (executor != null) {
+                executor.shutdown();
+                executor = null;
+            }
+        }
     }
 
     //	private void postPreviewStarted() {
@@ -706,9 +695,22 @@ public class Session
 //		});
 //	}
 //
+    /**
+     * The thread of the session is only started when it is needed, a server may hold
+     * thousands of sessions that never use it.
+     */
+    private synchronized Executor getExecutor()
+    {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(r -> new Thread(r, THREAD_NAME));
+        }
+
+        return executor;
+    }
+
     private void postSessionStarted()
     {
-        mainHandler.post(() -> {
+        callbackExecutor.execute(() -> {
             if (sessionCallback != null) {
                 sessionCallback.onSessionStarted();
             }
@@ -717,18 +719,50 @@ public class Session
 
     private void postSessionStopped()
     {
-        mainHandler.post(() -> {
+        callbackExecutor.execute(() -> {
             if (sessionCallback != null) {
                 sessionCallback.onSessionStopped();
             }
         });
     }
 
+    /**
+     * Creates the subscriber of this session, if needed, and sets the destination of the track.
+     * It is used by a server, where the packets are shared by all the sessions.
+     *
+     * @param trackId The id of the track, 0 for audio and 1 for video
+     */
+    public void setupSubscriber(int trackId) throws IOException
+    {
+        if (protocol == TCP) {
+            if (subscriber == null) {
+                subscriber = new RtpSubscriberTcp(outputStream);
+            }
+        } else {
+            if (subscriber == null) {
+                RtpSubscriberUdp udpSubscriber = new RtpSubscriberUdp();
+                udpSubscriber.setTimeToLive(timeToLive);
+                subscriber = udpSubscriber;
+            }
+            int[] ports = getDestinationPorts(trackId);
+            if (ports != null) {
+                ((RtpSubscriberUdp) subscriber).setDestination(
+                        trackId,
+                        InetAddress.getByName(destination),
+                        ports[0],
+                        ports[1]
+                );
+            }
+        }
+
+        subscriber.setupTrack(trackId, rtcpScheduler);
+    }
+
     public void updateDestination()
     {
         aacPacket.updateDestination();
-        h264Packet.updateDestination();
-        connectCheckerRtsp.onConnectionSuccessRtsp();
+        videoPacket.updateDestination();
+        if (connectCheckerRtsp != null) connectCheckerRtsp.onConnectionSuccessRtsp();
     }
 
     public String createDescription()
@@ -737,8 +771,27 @@ public class Session
 
         String sSPS;
         String sPPS;
-        sSPS = Base64.encodeToString(sps, 0, sps.length, Base64.NO_WRAP);
-        sPPS = Base64.encodeToString(pps, 0, pps.length, Base64.NO_WRAP);
+        sSPS = Base64Util.encode(sps);
+        sPPS = Base64Util.encode(pps);
+        String videoBody;
+        if (vps != null) {
+            String sVPS = Base64Util.encode(vps);
+            videoBody = createVideoBody(trackVideo, getVideoPorts()[0], sVPS, sSPS, sPPS);
+        } else {
+            videoBody = createVideoBody(trackVideo, getVideoPorts()[0], sSPS, sPPS);
+        }
+
+        // The NACKs and the RTX stream of the retransmissions, RFC 4585 and RFC 4588
+        RtpRetransmitter retransmitter = videoPacket != null ? videoPacket.getRetransmitter() : null;
+        if (retransmitter != null) {
+            if (retransmitter.getRtxPayloadType() >= 0) {
+                int end = videoBody.indexOf("\r\n");
+                videoBody = videoBody.substring(0, end) + " " + retransmitter.getRtxPayloadType() +
+                        videoBody.substring(end);
+            }
+            videoBody += retransmitter.createAttributes(PAYLOAD_TYPE, CLOCK_VIDEO_FREQUENCY);
+        }
+
         return "v=0\r\n" +
                 "o=- " + timestamp + " " + timestamp + " IN IP4 " + origin + "\r\n" +
                 "s=Unnamed\r\n" +
@@ -746,11 +799,47 @@ public class Session
                 "c=IN IP4 " + destination + "\r\n" +
                 "t=0 0\r\n" + // this means the session is permanent
                 "a=recvonly\r\n" +
-                AudioEncoder.createBody(trackAudio, getAudioPorts()[0], audioQuality) +
-                VideoEncoder.createBody(trackVideo, getVideoPorts()[0], sSPS, sPPS);
+                createAudioBody(trackAudio, getAudioPorts()[0], audioQuality) +
+                videoBody;
+    }
+
+    /**
+     * Returns the media description of a AAC track, RFC 3640.
+     */
+    public static String createAudioBody(int trackAudio, int port, AudioQuality quality)
+    {
+        // Audio profile, sample rate index and channel configuration of the AudioSpecificConfig
+        int config = (AUDIO_PROFILE & 0x1F) << 11 | (quality.getSampleRateIndex() & 0x0F) << 7 | (quality.channel & 0x0F) << 3;
+        return "m=audio " + port + " RTP/AVP " + PAYLOAD_TYPE + "\r\n" +
+                "a=rtpmap:" + PAYLOAD_TYPE + " mpeg4-generic/" + quality.sampleRate + "/" + quality.channel + "\r\n" +
+                "a=fmtp:" + PAYLOAD_TYPE + " streamtype=5; profile-level-id=15; mode=AAC-hbr; " +
+                "config=" + Integer.toHexString(config) + "; SizeLength=13; IndexLength=3; IndexDeltaLength=3;\r\n" +
+                "a=control:trackID=" + trackAudio + "\r\n";
+    }
+
+    /**
+     * Returns the media description of a H264 track, RFC 6184.
+     */
+    public static String createVideoBody(int trackVideo, int port, String sps, String pps)
+    {
+        return "m=video " + port + " RTP/AVP " + PAYLOAD_TYPE + "\r\n" +
+                "a=rtpmap:" + PAYLOAD_TYPE + " H264/" + CLOCK_VIDEO_FREQUENCY + "\r\n" +
+                "a=fmtp:" + PAYLOAD_TYPE + " packetization-mode=1;sprop-parameter-sets=" + sps + "," + pps + ";\r\n" +
+                "a=control:trackID=" + trackVideo + "\r\n";
+    }
+
+    /**
+     * Returns the media description of a H265 track, RFC 7798 7.2.
+     */
+    public static String createVideoBody(int trackVideo, int port, String vps, String sps, String pps)
+    {
+        return "m=video " + port + " RTP/AVP " + PAYLOAD_TYPE + "\r\n" +
+                "a=rtpmap:" + PAYLOAD_TYPE + " H265/" + CLOCK_VIDEO_FREQUENCY + "\r\n" +
+                "a=fmtp:" + PAYLOAD_TYPE + " sprop-vps=" + vps + ";sprop-sps=" + sps + ";sprop-pps=" + pps + "\r\n" +
+                "a=control:trackID=" + trackVideo + "\r\n";
     }
 
-    private byte[] extractData(ByteBuffer buffer)
+    static byte[] extractData(ByteBuffer buffer)
     {
         if (buffer == null) return null;
 
@@ -764,9 +853,19 @@ public class Session
 
     // Setters
 
-    public void setOutputStream(OutputStream outputStream)
+    /**
+     * Sets the executor that runs the {@link SessionCallback}, e.g. one posting to the main
+     * thread on Android.
+     */
+    public void setCallbackExecutor(Executor executor)
+    {
+        this.callbackExecutor = executor;
+    }
+
+    public synchronized void setOutputStream(OutputStream outputStream)
     {
         this.outputStream = outputStream;
+        this.batchWriter = null;
     }
 
     public void setPSPair(ByteBuffer sps, ByteBuffer pps) throws IllegalAccessException
@@ -892,6 +991,16 @@ public class Session
         this.protocol = protocol;
     }
 
+    public void setId(String id)
+    {
+        this.id = id;
+    }
+
+    public void setPlaying(boolean playing)
+    {
+        this.playing = playing;
+    }
+
     public void setSampleRate(int sampleRate)
     {
         audioQuality.sampleRate = sampleRate;
@@ -955,11 +1064,39 @@ public class Session
 
     // Getters
 
+    @Override
     public ConnectCheckerRtsp getConnectCheckerRtsp()
     {
         return connectCheckerRtsp;
     }
 
+    public String getId()
+    {
+        return id;
+    }
+
+    /**
+     * Sets the subscriber used by {@link #setupSubscriber(int)} instead of creating one,
+     * e.g. when the RTSP connection is not a blocking socket.
+     */
+    public void setSubscriber(BaseRtpSubscriber subscriber)
+    {
+        this.subscriber = subscriber;
+    }
+
+    public BaseRtpSubscriber getSubscriber()
+    {
+        return subscriber;
+    }
+
+    /**
+     * Sets the scheduler of the Sender Reports of the subscriber, e.g. the one of a server.
+     */
+    public void setRtcpScheduler(RtcpScheduler rtcpScheduler)
+    {
+        this.rtcpScheduler = rtcpScheduler;
+    }
+
     /**
      * Returns a pair of destination ports, the first one is the
      * one used for RTP and the second one is used for RTCP.
@@ -975,6 +1112,7 @@ public class Session
      * Returns a pair of video destination ports, the first one is the
      * one used for RTP and the second one is used for RTCP.
      **/
+    @Override
     public int[] getVideoPorts()
     {
         return videoPorts;
@@ -984,6 +1122,7 @@ public class Session
      * Returns a pair of audio destination ports, the first one is the
      * one used for RTP and the second one is used for RTCP.
      **/
+    @Override
     public int[] getAudioPorts()
     {
         return audioPorts;
@@ -992,7 +1131,21 @@ public class Session
     public int getSSRC(int id)
     {
         if (!trackExists(id)) return -1;
-        return id == 0 ? aacPacket.getSSRC() : h264Packet.getSSRC();
+        if (subscriber != null && subscriber.getReader(id) != null) {
+            return subscriber.getReader(id).getSSRC();
+        }
+        return id == 0 ? aacPacket.getSSRC() : videoPacket.getSSRC();
+    }
+
+    /**
+     * Returns the sequence number of the first RTP packet this session will receive.
+     */
+    public int getInitialSeq(int id)
+    {
+        if (subscriber != null && subscriber.getReader(id) != null) {
+            return subscriber.getReader(id).getBaseSeq();
+        }
+        return 0;
     }
 
     /**
@@ -1003,7 +1156,10 @@ public class Session
     {
         if (protocol != UDP) return null;
         if (!trackExists(id)) return null;
-        return id == 0 ? aacPacket.getLocalPorts() : h264Packet.getLocalPorts();
+        if (subscriber instanceof RtpSubscriberUdp) {
+            return ((RtpSubscriberUdp) subscriber).getLocalPorts(id);
+        }
+        return id == 0 ? aacPacket.getLocalPorts() : videoPacket.getLocalPorts();
     }
 
     public int getSampleRate()
@@ -1016,11 +1172,20 @@ public class Session
 
     public boolean trackExists(int id)
     {
-        return (id == 0) ? aacPacket != null : h264Packet != null;
+        return (id == 0) ? aacPacket != null : videoPacket != null;
     }
 
+    @Override
     public boolean isTCP()
     {
         return protocol == TCP;
     }
+
+    /**
+     * Indicates if a server is sending the shared packets to this session.
+     */
+    public boolean isPlaying()
+    {
+        return playing;
+    }
 }
@@ -0,0 +1,133 @@
+package com.github.teocci.libstream.protocols.rtsp.rtsp;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the RTSP sessions handled by a server, keyed by their RTSP session id.
+ * <p>
+ * It also keeps a snapshot of the sessions that are currently playing, so the RTP
+ * fan-out can iterate over them for every packet without locking nor allocating.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-03
+ */
+public class SessionRegistry
+{
+    private static final Session[] EMPTY = new Session[0];
+
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+
+    private final Object lock = new Object();
+
+    private volatile Session[] playing = EMPTY;
+
+    /**
+     * Assigns a new unique RTSP session id to the session and registers it.
+     *
+     * @param session The session to register
+     * @return The RTSP session id
+     */
+    public String register(Session session)
+    {
+        String id;
+        do {
+            id = Long.toHexString(random.nextLong() & Long.MAX_VALUE);
+        } while (sessions.putIfAbsent(id, session) != null);
+
+        session.setId(id);
+        return id;
+    }
+
+    /**
+     * Removes the session from the registry, it will not receive any more packets.
+     *
+     * @param session The session to remove
+     */
+    public void unregister(Session session)
+    {
+        if (session == null || session.getId() == null) return;
+
+        pause(session);
+        sessions.remove(session.getId());
+    }
+
+    /**
+     * Marks the session as playing, the next packets will be sent to it.
+     */
+    public void play(Session session)
+    {
+        synchronized (lock) {
+            if (session.isPlaying()) return;
+            session.setPlaying(true);
+            rebuild();
+        }
+    }
+
+    /**
+     * Marks the session as paused, packets will not be sent to it until {@link #play(Session)}.
+     */
+    public void pause(Session session)
+    {
+        synchronized (lock) {
+            if (!session.isPlaying()) return;
+            session.setPlaying(false);
+            rebuild();
+        }
+    }
+
+    private void rebuild()
+    {
+        int count = 0;
+        for (Session session : sessions.values()) {
+            if (session.isPlaying()) count++;
+        }
+
+        Session[] snapshot = new Session[count];
+        int i = 0;
+        for (Session session : sessions.values()) {
+            if (session.isPlaying() && i < count) snapshot[i++] = session;
+        }
+
+        playing = i == count ? snapshot : Arrays.copyOf(snapshot, i);
+    }
+
+    public Session get(String id)
+    {
+        return id == null ? null : sessions.get(id.trim());
+    }
+
+    /**
+     * Returns the sessions that are currently playing.
+     * The returned array must not be modified.
+     */
+    public Session[] getPlaying()
+    {
+        return playing;
+    }
+
+    public Collection<Session> getSessions()
+    {
+        return sessions.values();
+    }
+
+    public int size()
+    {
+        return sessions.size();
+    }
+
+    public boolean isEmpty()
+    {
+        return sessions.isEmpty();
+    }
+
+    public boolean hasPlaying()
+    {
+        return playing.length > 0;
+    }
+}
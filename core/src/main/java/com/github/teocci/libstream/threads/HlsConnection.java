@@ -0,0 +1,454 @@
+package com.github.teocci.libstream.threads;
+
+import com.github.teocci.libstream.protocols.hls.HlsPart;
+import com.github.teocci.libstream.protocols.hls.HlsSegmenter;
+import com.github.teocci.libstream.utils.LogHelper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+
+import static com.github.teocci.libstream.utils.Config.HLS_SERVER_NAME;
+
+/**
+ * A non-blocking HTTP/1.1 connection of a viewer, driven by the {@link HlsEventLoop}.
+ * <p>
+ * The requests are answered one at a time, in order: the next request is only parsed once
+ * the response of the previous one is sent. The media are sent from views of the buffers
+ * of the segmenter in gathering writes, a part being held until its response is sent.
+ * <p>
+ * The LL-HLS requests that can not be answered yet wait in the event loop:
+ * <pre>
+ *  GET /index.m3u8?_HLS_msn=12&amp;_HLS_part=3   until the part 3 of the segment 12 is listed
+ *  GET /part63.m4s                             until the part of the preload hint is there
+ * </pre>
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-28
+ */
+public class HlsConnection
+{
+    private static String TAG = LogHelper.makeLogTag(HlsConnection.class);
+
+    /**
+     * Size of the buffer receiving the requests, a larger header is refused.
+     */
+    private static final int INPUT_BUFFER_SIZE = 8192;
+
+    private static final String STATUS_OK = "200 OK";
+    private static final String STATUS_BAD_REQUEST = "400 Bad Request";
+    private static final String STATUS_NOT_FOUND = "404 Not Found";
+    private static final String STATUS_METHOD_NOT_ALLOWED = "405 Method Not Allowed";
+    private static final String STATUS_HEADER_TOO_LARGE = "431 Request Header Fields Too Large";
+    private static final String STATUS_SERVICE_UNAVAILABLE = "503 Service Unavailable";
+
+    private static final String TYPE_PLAYLIST = "application/vnd.apple.mpegurl";
+    private static final String TYPE_INIT = "video/mp4";
+    private static final String TYPE_SEGMENT = "video/iso.segment";
+
+    // The init segment keeps its URI when the stream restarts
+    private static final String CACHE_PLAYLIST = "no-cache";
+    // The parts and segments never change, their numbers go on across the streams
+    private static final String CACHE_MEDIA = "max-age=60";
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    // A blocking request waits for at most this many target durations
+    private static final int WAIT_TARGETS = 3;
+
+    private static final int WAIT_NONE = 0;
+    private static final int WAIT_PLAYLIST = 1;
+    private static final int WAIT_PART = 2;
+
+    private final HlsSegmenter segmenter;
+    private final HlsEventLoop loop;
+    private final SocketChannel channel;
+
+    private final ByteBuffer input = ByteBuffer.allocate(INPUT_BUFFER_SIZE);
+    private final StringBuilder header = new StringBuilder(256);
+
+    private SelectionKey key;
+
+    // The request being answered
+    private boolean head;
+    private boolean keepAlive;
+
+    // The response being sent, and the parts it holds
+    private ByteBuffer[] output;
+    private HlsPart[] parts;
+
+    // The request waiting for the playlist
+    private int waiting = WAIT_NONE;
+    private long waitMsn;
+    private int waitPart;
+    private long waitSequence;
+    private long deadline;
+
+    private boolean closed = false;
+
+    HlsConnection(HlsSegmenter segmenter, HlsEventLoop loop, SocketChannel channel)
+    {
+        this.segmenter = segmenter;
+        this.loop = loop;
+        this.channel = channel;
+    }
+
+    void setKey(SelectionKey key)
+    {
+        this.key = key;
+    }
+
+    void onReadable() throws IOException
+    {
+        if (channel.read(input) < 0) {
+            // Viewer has left
+            close();
+            return;
+        }
+
+        processInput();
+    }
+
+    void onWritable() throws IOException
+    {
+        flush();
+    }
+
+    /**
+     * Answers the requests received, until one can not be answered at once.
+     */
+    private void processInput() throws IOException
+    {
+        while (!closed && output == null && waiting == WAIT_NONE) {
+            int end = findHeaderEnd();
+            if (end < 0) {
+                if (!input.hasRemaining()) {
+                    keepAlive = false;
+                    send(STATUS_HEADER_TOO_LARGE, null, null, null, null);
+                }
+                return;
+            }
+
+            String request = new String(input.array(), 0, end, ASCII);
+            input.flip();
+            input.position(end + 4);
+            input.compact();
+
+            answer(request);
+        }
+    }
+
+    /**
+     * Returns the offset of the empty line ending the header, -1 if it is not received yet.
+     */
+    private int findHeaderEnd()
+    {
+        byte[] bytes = input.array();
+        for (int i = 0, n = input.position() - 3; i < n; i++) {
+            if (bytes[i] == '\r' && bytes[i + 1] == '\n' && bytes[i + 2] == '\r' && bytes[i + 3] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void answer(String request) throws IOException
+    {
+        String[] lines = request.split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+        if (requestLine.length != 3) {
+            keepAlive = false;
+            send(STATUS_BAD_REQUEST, null, null, null, null);
+            return;
+        }
+
+        String method = requestLine[0];
+        String target = requestLine[1];
+        String version = requestLine[2];
+
+        // HTTP/1.1 keeps the connection open by default, HTTP/1.0 closes it
+        keepAlive = "HTTP/1.1".equals(version);
+        for (int i = 1; i < lines.length; i++) {
+            String line = lines[i];
+            int colon = line.indexOf(':');
+            if (colon < 0 || !line.substring(0, colon).trim().equalsIgnoreCase("Connection")) continue;
+
+            String value = line.substring(colon + 1).trim();
+            if (value.equalsIgnoreCase("close")) keepAlive = false;
+            else if (value.equalsIgnoreCase("keep-alive")) keepAlive = true;
+        }
+
+        head = "HEAD".equals(method);
+        if (!head && !"GET".equals(method)) {
+            send(STATUS_METHOD_NOT_ALLOWED, null, null, null, null);
+            return;
+        }
+
+        int question = target.indexOf('?');
+        String path = question < 0 ? target : target.substring(0, question);
+        String query = question < 0 ? "" : target.substring(question + 1);
+        String name = path.substring(path.lastIndexOf('/') + 1);
+
+        if (name.endsWith(".m3u8")) {
+            answerPlaylist(query);
+        } else if (name.equals("init.mp4")) {
+            ByteBuffer init = segmenter.getInit();
+            if (init == null) {
+                send(STATUS_NOT_FOUND, null, null, null, null);
+            } else {
+                send(STATUS_OK, TYPE_INIT, CACHE_PLAYLIST, new ByteBuffer[]{init}, null);
+            }
+        } else if (name.startsWith("seg") && name.endsWith(".m4s")) {
+            answerSegment(parseNumber(name, 3));
+        } else if (name.startsWith("part") && name.endsWith(".m4s")) {
+            answerPart(parseNumber(name, 4));
+        } else {
+            send(STATUS_NOT_FOUND, null, null, null, null);
+        }
+    }
+
+    private void answerPlaylist(String query) throws IOException
+    {
+        long msn = -1;
+        int part = -1;
+        for (String parameter : query.split("&")) {
+            if (parameter.startsWith("_HLS_msn=")) {
+                msn = parseLong(parameter.substring(9));
+            } else if (parameter.startsWith("_HLS_part=")) {
+                part = (int) parseLong(parameter.substring(10));
+            }
+        }
+
+        if (msn < 0) {
+            if (part >= 0) {
+                // A part without its segment
+                send(STATUS_BAD_REQUEST, null, null, null, null);
+            } else {
+                sendPlaylist();
+            }
+            return;
+        }
+
+        if (segmenter.isTooFarAhead(msn)) {
+            send(STATUS_BAD_REQUEST, null, null, null, null);
+        } else if (segmenter.hasPlaylist(msn, part)) {
+            sendPlaylist();
+        } else {
+            waitMsn = msn;
+            waitPart = part;
+            park(WAIT_PLAYLIST);
+        }
+    }
+
+    private void sendPlaylist() throws IOException
+    {
+        ByteBuffer playlist = segmenter.getPlaylist();
+        if (playlist == null) {
+            send(STATUS_NOT_FOUND, null, null, null, null);
+        } else {
+            send(STATUS_OK, TYPE_PLAYLIST, CACHE_PLAYLIST, new ByteBuffer[]{playlist}, null);
+        }
+    }
+
+    private void answerSegment(long msn) throws IOException
+    {
+        HlsPart[] parts = msn >= 0 ? segmenter.acquireSegment(msn) : null;
+        if (parts == null) {
+            send(STATUS_NOT_FOUND, null, null, null, null);
+            return;
+        }
+
+        int count = 0;
+        for (HlsPart part : parts) {
+            count += part.getBufferCount();
+        }
+        ByteBuffer[] body = new ByteBuffer[count];
+        int offset = 0;
+        for (HlsPart part : parts) {
+            offset = part.duplicate(body, offset);
+        }
+
+        send(STATUS_OK, TYPE_SEGMENT, CACHE_MEDIA, body, parts);
+    }
+
+    private void answerPart(long sequence) throws IOException
+    {
+        HlsPart part = sequence >= 0 ? segmenter.acquirePart(sequence) : null;
+        if (part != null) {
+            sendPart(part);
+        } else if (sequence >= 0 && segmenter.isNextPart(sequence)) {
+            waitSequence = sequence;
+            park(WAIT_PART);
+        } else {
+            send(STATUS_NOT_FOUND, null, null, null, null);
+        }
+    }
+
+    private void sendPart(HlsPart part) throws IOException
+    {
+        ByteBuffer[] body = new ByteBuffer[part.getBufferCount()];
+        part.duplicate(body, 0);
+
+        send(STATUS_OK, TYPE_SEGMENT, CACHE_MEDIA, body, new HlsPart[]{part});
+    }
+
+    private void park(int waiting)
+    {
+        this.waiting = waiting;
+        this.deadline = System.currentTimeMillis() + WAIT_TARGETS * segmenter.getTargetDuration();
+
+        // Nothing is read meanwhile, the next request waits in the socket
+        key.interestOps(0);
+        loop.park(this);
+    }
+
+    /**
+     * Called by the event loop when the playlist changed or the deadline passed.
+     */
+    void retry(long now) throws IOException
+    {
+        if (closed) return;
+
+        int waiting = this.waiting;
+        this.waiting = WAIT_NONE;
+
+        if (waiting == WAIT_PLAYLIST) {
+            if (segmenter.hasPlaylist(waitMsn, waitPart)) {
+                sendPlaylist();
+                return;
+            }
+        } else if (waiting == WAIT_PART) {
+            HlsPart part = segmenter.acquirePart(waitSequence);
+            if (part != null) {
+                sendPart(part);
+                return;
+            }
+            if (!segmenter.isNextPart(waitSequence)) {
+                // The stream restarted without this part
+                send(STATUS_NOT_FOUND, null, null, null, null);
+                return;
+            }
+        } else {
+            return;
+        }
+
+        if (now >= deadline) {
+            send(STATUS_SERVICE_UNAVAILABLE, null, null, null, null);
+        } else {
+            this.waiting = waiting;
+            loop.park(this);
+        }
+    }
+
+    long getDeadline()
+    {
+        return deadline;
+    }
+
+    /**
+     * Sends a response, the parts are released once it is sent.
+     */
+    private void send(String status, String type, String cache, ByteBuffer[] body, HlsPart[] parts) throws IOException
+    {
+        long length = 0;
+        if (body != null) {
+            for (ByteBuffer buffer : body) {
+                length += buffer.remaining();
+            }
+        }
+
+        header.setLength(0);
+        header.append("HTTP/1.1 ").append(status).append("\r\n");
+        header.append("Server: ").append(HLS_SERVER_NAME).append("\r\n");
+        if (type != null) header.append("Content-Type: ").append(type).append("\r\n");
+        header.append("Content-Length: ").append(length).append("\r\n");
+        if (cache != null) header.append("Cache-Control: ").append(cache).append("\r\n");
+        header.append("Access-Control-Allow-Origin: *\r\n");
+        header.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n\r\n");
+
+        ByteBuffer headerBuffer = ByteBuffer.wrap(header.toString().getBytes(ASCII));
+        if (body == null || head) {
+            output = new ByteBuffer[]{headerBuffer};
+        } else {
+            output = new ByteBuffer[body.length + 1];
+            output[0] = headerBuffer;
+            System.arraycopy(body, 0, output, 1, body.length);
+        }
+        this.parts = parts;
+
+        flush();
+    }
+
+    /**
+     * Writes what the socket takes of the response, then goes on with the next request.
+     */
+    private void flush() throws IOException
+    {
+        ByteBuffer[] output = this.output;
+        if (output == null) return;
+
+        channel.write(output);
+        for (ByteBuffer buffer : output) {
+            if (buffer.hasRemaining()) {
+                key.interestOps(SelectionKey.OP_WRITE);
+                return;
+            }
+        }
+
+        this.output = null;
+        releaseParts();
+
+        if (!keepAlive) {
+            close();
+            return;
+        }
+
+        key.interestOps(SelectionKey.OP_READ);
+        processInput();
+    }
+
+    private void releaseParts()
+    {
+        if (parts == null) return;
+
+        for (HlsPart part : parts) {
+            part.release();
+        }
+        parts = null;
+    }
+
+    /**
+     * Closes the socket and releases the parts still held.
+     */
+    void close()
+    {
+        if (closed) return;
+        closed = true;
+
+        releaseParts();
+        output = null;
+        loop.onClosed(this);
+
+        if (key != null) key.cancel();
+        try {
+            channel.close();
+        } catch (IOException ignore) {}
+    }
+
+    private static long parseNumber(String name, int start)
+    {
+        return parseLong(name.substring(start, name.length() - 4));
+    }
+
+    private static long parseLong(String value)
+    {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
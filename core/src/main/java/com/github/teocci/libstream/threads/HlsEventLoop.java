@@ -0,0 +1,227 @@
+package com.github.teocci.libstream.threads;
+
+import com.github.teocci.libstream.interfaces.PlaylistListener;
+import com.github.teocci.libstream.protocols.hls.HlsSegmenter;
+import com.github.teocci.libstream.utils.LogHelper;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A single selector thread for all the HTTP connections of a HLS server.
+ * <p>
+ * It accepts the viewers, parses their requests and sends the responses as their sockets
+ * take them. The blocking playlist reloads and the requests of the next part wait in this
+ * thread, without holding any other: they are retried each time the segmenter updates its
+ * playlist, and answered 503 at their deadline.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-28
+ */
+public class HlsEventLoop extends Thread implements PlaylistListener
+{
+    private static String TAG = LogHelper.makeLogTag(HlsEventLoop.class);
+
+    private final HlsSegmenter segmenter;
+
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+
+    // Connections waiting for the playlist to change, only used by this thread
+    private final List<HlsConnection> waiting = new ArrayList<>();
+
+    private volatile boolean updated = false;
+    private volatile boolean running = true;
+
+    private volatile int connectionCount = 0;
+
+    public HlsEventLoop(HlsSegmenter segmenter, int port) throws IOException
+    {
+        this.segmenter = segmenter;
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+
+        try {
+            serverChannel.socket().setReuseAddress(true);
+            serverChannel.socket().bind(new InetSocketAddress(port));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            serverChannel.close();
+            selector.close();
+            throw e;
+        }
+
+        setName("HlsEventLoop");
+    }
+
+    @Override
+    public void run()
+    {
+        LogHelper.e(TAG, "HLS server listening on port " + serverChannel.socket().getLocalPort());
+        try {
+            while (running) {
+                selector.select(getTimeout());
+
+                updated = false;
+                retryWaiting();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+
+                    HlsConnection connection = (HlsConnection) key.attachment();
+                    try {
+                        if (key.isReadable()) connection.onReadable();
+                        if (key.isValid() && key.isWritable()) connection.onWritable();
+                    } catch (IOException e) {
+                        connection.close();
+                    } catch (RuntimeException e) {
+                        // A bad viewer must not take the other ones down
+                        LogHelper.e(TAG, e.getMessage() != null ? e.getMessage() : "Connection failed");
+                        connection.close();
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            LogHelper.e(TAG, e.getMessage() != null ? e.getMessage() : "Selector failed");
+        } finally {
+            closeAll();
+        }
+        LogHelper.e(TAG, "HLS server stopped !");
+    }
+
+    /**
+     * Called by the segmenter, from the thread of the encoder.
+     */
+    @Override
+    public void onPlaylistUpdate()
+    {
+        if (updated) return;
+        updated = true;
+        selector.wakeup();
+    }
+
+    private void accept()
+    {
+        try {
+            SocketChannel channel = serverChannel.accept();
+            if (channel == null) return;
+
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+
+            HlsConnection connection = new HlsConnection(segmenter, this, channel);
+            connection.setKey(channel.register(selector, SelectionKey.OP_READ, connection));
+            connectionCount++;
+        } catch (IOException e) {
+            LogHelper.e(TAG, e.getMessage() != null ? e.getMessage() : "Accept failed");
+        }
+    }
+
+    /**
+     * Returns how long the selector may block, until the closest deadline.
+     */
+    private long getTimeout()
+    {
+        if (waiting.isEmpty()) return 0;
+
+        long deadline = Long.MAX_VALUE;
+        for (HlsConnection connection : waiting) {
+            deadline = Math.min(deadline, connection.getDeadline());
+        }
+        return Math.max(1, deadline - System.currentTimeMillis());
+    }
+
+    private void retryWaiting()
+    {
+        if (waiting.isEmpty()) return;
+
+        long now = System.currentTimeMillis();
+        // A retry may answer and park the next pipelined request, so iterate on a copy
+        HlsConnection[] connections = waiting.toArray(new HlsConnection[waiting.size()]);
+        waiting.clear();
+        for (HlsConnection connection : connections) {
+            try {
+                connection.retry(now);
+            } catch (IOException e) {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Called by a connection whose request waits for the playlist to change.
+     */
+    void park(HlsConnection connection)
+    {
+        waiting.add(connection);
+    }
+
+    void onClosed(HlsConnection connection)
+    {
+        waiting.remove(connection);
+        connectionCount--;
+    }
+
+    private void closeAll()
+    {
+        try {
+            for (SelectionKey key : selector.keys()) {
+                Object attachment = key.attachment();
+                if (attachment instanceof HlsConnection) {
+                    ((HlsConnection) attachment).close();
+                }
+            }
+        } catch (ClosedSelectorException ignore) {}
+
+        try {
+            serverChannel.close();
+        } catch (IOException ignore) {}
+
+        try {
+            selector.close();
+        } catch (IOException ignore) {}
+    }
+
+    /**
+     * Returns the number of viewers connected.
+     */
+    public int getConnectionCount()
+    {
+        return connectionCount;
+    }
+
+    public int getPort()
+    {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public void kill()
+    {
+        running = false;
+        selector.wakeup();
+
+        try {
+            this.join();
+        } catch (InterruptedException ie) {
+            ie.printStackTrace();
+        }
+    }
+}
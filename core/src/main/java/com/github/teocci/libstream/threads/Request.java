@@ -0,0 +1,234 @@
+package com.github.teocci.libstream.threads;
+
+import com.github.teocci.libstream.enums.RtspMethod;
+import com.github.teocci.libstream.utils.LogHelper;
+
+import java.nio.charset.Charset;
+
+/**
+ * A RTSP request as received, filled by a {@link RtspRequestParser}.
+ * <p>
+ * The request line and the headers are kept in their raw bytes, with the bounds of every
+ * header, so the same instance is reused for all the requests of a connection. Header
+ * names are matched case-insensitively against the lower case constants below, values
+ * are only turned into Strings when asked for.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2017-Dec-14
+ */
+
+public class Request
+{
+    private static String TAG = LogHelper.makeLogTag(Request.class);
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    /**
+     * Maximum size of the request line and headers.
+     */
+    public static final int MAX_SIZE = 4096;
+
+    /**
+     * Maximum number of headers.
+     */
+    public static final int MAX_HEADERS = 32;
+
+    public static final byte[] HEADER_AUTHORIZATION = ascii("authorization");
+    public static final byte[] HEADER_CONTENT_LENGTH = ascii("content-length");
+    public static final byte[] HEADER_CSEQ = ascii("cseq");
+    public static final byte[] HEADER_SESSION = ascii("session");
+    public static final byte[] HEADER_TRANSPORT = ascii("transport");
+
+    private static final byte[] TRACK_ID = ascii("trackid=");
+    private static final byte[] CLIENT_PORT = ascii("client_port=");
+
+    public RtspMethod method;
+
+    final byte[] data = new byte[MAX_SIZE];
+    int length;
+
+    int uriStart, uriEnd;
+
+    final int[] nameStart = new int[MAX_HEADERS];
+    final int[] nameEnd = new int[MAX_HEADERS];
+    final int[] valueStart = new int[MAX_HEADERS];
+    final int[] valueEnd = new int[MAX_HEADERS];
+    int headerCount;
+
+    int contentLength;
+
+    boolean valid;
+
+    void reset()
+    {
+        method = null;
+        length = 0;
+        uriStart = uriEnd = 0;
+        headerCount = 0;
+        contentLength = 0;
+        valid = true;
+    }
+
+    /**
+     * Returns false if the request was malformed or too large.
+     */
+    public boolean isValid()
+    {
+        return valid;
+    }
+
+    /**
+     * Returns the index of the header, or -1.
+     *
+     * @param name The lower case name of the header
+     */
+    public int findHeader(byte[] name)
+    {
+        for (int i = 0; i < headerCount; i++) {
+            if (equalsIgnoreCase(nameStart[i], nameEnd[i], name)) return i;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the value of the header as a String, or null.
+     */
+    public String getHeader(byte[] name)
+    {
+        int i = findHeader(name);
+        return i < 0 ? null : new String(data, valueStart[i], valueEnd[i] - valueStart[i], ISO_8859_1);
+    }
+
+    /**
+     * Returns the value of the header as a positive integer, or the default value.
+     */
+    public int getIntHeader(byte[] name, int defaultValue)
+    {
+        int i = findHeader(name);
+        if (i < 0) return defaultValue;
+
+        int value = parseInt(valueStart[i], valueEnd[i]);
+        return value < 0 ? defaultValue : value;
+    }
+
+    public int getCSeq()
+    {
+        return getIntHeader(HEADER_CSEQ, -1);
+    }
+
+    public int getContentLength()
+    {
+        return contentLength;
+    }
+
+    /**
+     * Returns the track requested by the uri, as in "rtsp://host:port/trackID=1", or -1.
+     */
+    public int getTrackId()
+    {
+        int i = indexOfIgnoreCase(uriStart, uriEnd, TRACK_ID);
+        return i < 0 ? -1 : parseInt(i + TRACK_ID.length, uriEnd);
+    }
+
+    /**
+     * Reads the client_port pair of the Transport header.
+     *
+     * @param ports Receives the RTP and RTCP ports
+     * @return false if the header has no client_port
+     */
+    public boolean getClientPorts(int[] ports)
+    {
+        int i = findHeader(HEADER_TRANSPORT);
+        if (i < 0) return false;
+
+        int start = indexOfIgnoreCase(valueStart[i], valueEnd[i], CLIENT_PORT);
+        if (start < 0) return false;
+        start += CLIENT_PORT.length;
+
+        int dash = start;
+        while (dash < valueEnd[i] && data[dash] != '-') dash++;
+        if (dash == valueEnd[i]) return false;
+
+        ports[0] = parseInt(start, dash);
+        ports[1] = parseInt(dash + 1, valueEnd[i]);
+
+        return ports[0] >= 0 && ports[1] >= 0;
+    }
+
+    /**
+     * Checks the credentials of the Authorization header, the last token of its value.
+     *
+     * @param credentials The expected credentials, e.g. base64("user:password")
+     */
+    public boolean hasCredentials(byte[] credentials)
+    {
+        int i = findHeader(HEADER_AUTHORIZATION);
+        if (i < 0) return false;
+
+        int start = valueEnd[i];
+        while (start > valueStart[i] && data[start - 1] != ' ') start--;
+        if (valueEnd[i] - start != credentials.length) return false;
+
+        for (int j = 0; j < credentials.length; j++) {
+            if (data[start + j] != credentials[j]) return false;
+        }
+
+        return true;
+    }
+
+    public String getUri()
+    {
+        return new String(data, uriStart, uriEnd - uriStart, ISO_8859_1);
+    }
+
+    /**
+     * Parses the decimal digits found at the beginning of the range.
+     *
+     * @return The value, or -1 if there are no digits
+     */
+    private int parseInt(int from, int to)
+    {
+        int value = 0;
+        int i = from;
+        while (i < to && data[i] >= '0' && data[i] <= '9' && value < Integer.MAX_VALUE / 10) {
+            value = value * 10 + (data[i++] - '0');
+        }
+
+        return i == from ? -1 : value;
+    }
+
+    private int indexOfIgnoreCase(int from, int to, byte[] lowerCase)
+    {
+        for (int i = from; i + lowerCase.length <= to; i++) {
+            if (equalsIgnoreCase(i, i + lowerCase.length, lowerCase)) return i;
+        }
+
+        return -1;
+    }
+
+    boolean equalsIgnoreCase(int from, int to, byte[] lowerCase)
+    {
+        if (to - from != lowerCase.length) return false;
+
+        for (int i = 0; i < lowerCase.length; i++) {
+            byte b = data[from + i];
+            if (b >= 'A' && b <= 'Z') b += 'a' - 'A';
+            if (b != lowerCase[i]) return false;
+        }
+
+        return true;
+    }
+
+    static byte[] ascii(String value)
+    {
+        return value.getBytes(ISO_8859_1);
+    }
+
+    @Override
+    public String toString()
+    {
+        return method + " " + getUri();
+    }
+}
@@ -0,0 +1,144 @@
+package com.github.teocci.libstream.threads;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import static com.github.teocci.libstream.utils.Config.SERVER_NAME;
+
+/**
+ * A RTSP response, serialized directly into a ByteBuffer.
+ * <p>
+ * The same instance can be reused for all the responses of a connection, see
+ * {@link #reset(Request)}. The status line, the CSeq and the Content-Length are written
+ * without building any intermediate String.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2017-Dec-14
+ */
+public class Response
+{
+    // Status code definitions
+    public static final String STATUS_OK = "200 OK";
+    public static final String STATUS_BAD_REQUEST = "400 Bad Request";
+    public static final String STATUS_UNAUTHORIZED = "401 Unauthorized";
+    public static final String STATUS_NOT_FOUND = "404 Not Found";
+    public static final String STATUS_INTERNAL_SERVER_ERROR = "500 Internal Server Error";
+
+    private static final String STATUS_LINE = "RTSP/1.0 ";
+    private static final String HEADER_SERVER = "\r\nServer: " + SERVER_NAME;
+    private static final String HEADER_CSEQ = "\r\nCseq: ";
+    private static final String HEADER_CONTENT_LENGTH = "\r\nContent-Length: ";
+    private static final String CRLF = "\r\n";
+
+    public String status = STATUS_INTERNAL_SERVER_ERROR;
+    public String content = "";
+    public String attributes = "";
+
+    // Be careful if you modify the send() method because request might be null!
+    private Request request;
+
+    public Response(Request request)
+    {
+        this.request = request;
+    }
+
+    public Response()
+    {
+        request = null;
+    }
+
+    /**
+     * Prepares the response to answer another request.
+     */
+    public void reset(Request request)
+    {
+        this.request = request;
+        this.status = STATUS_INTERNAL_SERVER_ERROR;
+        this.content = "";
+        this.attributes = "";
+    }
+
+    /**
+     * Returns the size of the serialized response.
+     */
+    public int length()
+    {
+        int seqId = getCSeq();
+        String content = this.content != null ? this.content : "";
+
+        return STATUS_LINE.length() + status.length() +
+                HEADER_SERVER.length() +
+                (seqId >= 0 ? HEADER_CSEQ.length() + digits(seqId) : 0) +
+                HEADER_CONTENT_LENGTH.length() + digits(content.length()) + CRLF.length() +
+                attributes.length() +
+                CRLF.length() +
+                content.length();
+    }
+
+    /**
+     * Writes the response at the position of the buffer.
+     *
+     * @throws java.nio.BufferOverflowException if the buffer is smaller than {@link #length()}
+     */
+    public void writeTo(ByteBuffer output)
+    {
+        int seqId = getCSeq();
+        String content = this.content != null ? this.content : "";
+
+        put(output, STATUS_LINE);
+        put(output, status);
+        put(output, HEADER_SERVER);
+        if (seqId >= 0) {
+            put(output, HEADER_CSEQ);
+            put(output, seqId);
+        }
+        put(output, HEADER_CONTENT_LENGTH);
+        put(output, content.length());
+        put(output, CRLF);
+        put(output, attributes);
+        put(output, CRLF);
+        put(output, content);
+    }
+
+    public void send(OutputStream output) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(length());
+        writeTo(buffer);
+        output.write(buffer.array(), 0, buffer.position());
+    }
+
+    private int getCSeq()
+    {
+        return request != null ? request.getCSeq() : -1;
+    }
+
+    private static void put(ByteBuffer output, String value)
+    {
+        for (int i = 0, n = value.length(); i < n; i++) {
+            output.put((byte) value.charAt(i));
+        }
+    }
+
+    private static void put(ByteBuffer output, int value)
+    {
+        int divisor = 1;
+        while (value / divisor >= 10) divisor *= 10;
+
+        for (; divisor > 0; divisor /= 10) {
+            output.put((byte) ('0' + value / divisor % 10));
+        }
+    }
+
+    private static int digits(int value)
+    {
+        int digits = 1;
+        while (value >= 10) {
+            value /= 10;
+            digits++;
+        }
+
+        return digits;
+    }
+}
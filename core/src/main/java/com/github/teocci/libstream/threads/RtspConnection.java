@@ -0,0 +1,469 @@
+package com.github.teocci.libstream.threads;
+
+import com.github.teocci.libstream.interfaces.InterleavedWriter;
+import com.github.teocci.libstream.interfaces.RtcpListener;
+import com.github.teocci.libstream.protocols.rtsp.rtcp.RtcpParser;
+import com.github.teocci.libstream.protocols.rtsp.rtp.sockets.RtpSubscriberChannel;
+import com.github.teocci.libstream.protocols.rtsp.rtsp.RtspServerCore;
+import com.github.teocci.libstream.protocols.rtsp.rtsp.Session;
+import com.github.teocci.libstream.protocols.rtsp.rtsp.SessionRegistry;
+import com.github.teocci.libstream.utils.LogHelper;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+import static com.github.teocci.libstream.enums.Protocol.TCP;
+import static com.github.teocci.libstream.enums.Protocol.UDP;
+import static com.github.teocci.libstream.enums.RtspMethod.OPTIONS;
+import static com.github.teocci.libstream.protocols.rtsp.rtsp.RtspServerCore.MESSAGE_STREAMING_STARTED;
+import static com.github.teocci.libstream.protocols.rtsp.rtsp.RtspServerCore.MESSAGE_STREAMING_STOPPED;
+import static com.github.teocci.libstream.threads.Response.STATUS_BAD_REQUEST;
+import static com.github.teocci.libstream.threads.Response.STATUS_INTERNAL_SERVER_ERROR;
+import static com.github.teocci.libstream.utils.Config.SERVER_NAME;
+
+/**
+ * A non-blocking RTSP connection, driven by the {@link RtspEventLoop}.
+ * <p>
+ * The requests are parsed incrementally by a {@link RtspRequestParser} as the bytes
+ * arrive, pipelined requests are answered in order. Interleaved frames sent by the client
+ * between two requests are skipped, except the RTCP reports handed to the listener of the
+ * server. Responses and interleaved RTP packets share the socket: what the socket
+ * can not take is queued and flushed on OP_WRITE, and the connection reports itself as
+ * blocked meanwhile so the senders skip it.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-10
+ */
+public class RtspConnection implements InterleavedWriter
+{
+    private static String TAG = LogHelper.makeLogTag(RtspConnection.class);
+
+    /**
+     * Size of the buffer receiving the bytes of the client.
+     */
+    private static final int INPUT_BUFFER_SIZE = 4096;
+
+    /**
+     * Initial size of the buffer receiving the serialized responses, it grows if needed.
+     */
+    private static final int RESPONSE_BUFFER_SIZE = 2048;
+
+    /**
+     * Bytes that can be queued while the socket is full, above that the client is dropped.
+     */
+    private static final int PENDING_BUFFER_SIZE = 64 * 1024;
+
+    private final RtspServerCore server;
+    private final RtspEventLoop loop;
+    private final SessionRegistry sessions;
+    private final SocketChannel channel;
+    private final Socket socket;
+
+    private final ByteBuffer input = ByteBuffer.allocate(INPUT_BUFFER_SIZE);
+    private ByteBuffer output;
+
+    private ByteBuffer responseBuffer = ByteBuffer.allocate(RESPONSE_BUFFER_SIZE);
+    private final ByteBuffer[] single = new ByteBuffer[1];
+
+    private final Request request = new Request();
+    private final Response response = new Response();
+    private final RtspRequestParser parser = new RtspRequestParser(request);
+
+    private final int[] clientPorts = new int[2];
+
+    private SelectionKey key;
+
+    // Each connection has an associated session
+    private final Session session;
+
+    // Remaining bytes of an interleaved frame sent by the client
+    private int skip;
+
+    private volatile boolean blocked = false;
+    private volatile boolean closing = false;
+    private boolean closed = false;
+
+    RtspConnection(RtspServerCore server, RtspEventLoop loop, SocketChannel channel)
+    {
+        this.server = server;
+        this.loop = loop;
+        this.sessions = server.sessions;
+        this.channel = channel;
+        this.socket = channel.socket();
+
+        this.session = server.createSession();
+        if (session.protocol == TCP) {
+            session.setSubscriber(new RtpSubscriberChannel(this));
+        }
+
+        LogHelper.i(TAG, "Connection from " + socket.getInetAddress().getHostAddress());
+    }
+
+    void setKey(SelectionKey key)
+    {
+        this.key = key;
+    }
+
+    void onReadable() throws IOException
+    {
+        if (channel.read(input) < 0) {
+            // Client has left
+            close();
+            return;
+        }
+
+        input.flip();
+        while (input.hasRemaining()) {
+            if (skip > 0) {
+                int length = Math.min(skip, input.remaining());
+                input.position(input.position() + length);
+                skip -= length;
+                continue;
+            }
+
+            int start = input.position();
+            if (parser.isIdle() && input.get(start) == '$') {
+                // Interleaved frame: '$', channel and a 16 bits length
+                if (input.remaining() < 4) break;
+                int channel = input.get(start + 1) & 0xFF;
+                int length = (input.get(start + 2) & 0xFF) << 8 | (input.get(start + 3) & 0xFF);
+
+                RtcpListener listener = server.getRtcpListener();
+                if (listener != null && (channel & 1) == 1 && 4 + length <= INPUT_BUFFER_SIZE) {
+                    // RTCP of the track channel / 2, parsed once the whole frame is here
+                    if (input.remaining() < 4 + length) break;
+                    RtcpParser.parse(input.array(), input.arrayOffset() + start + 4, length,
+                            channel / 2, listener);
+                    input.position(start + 4 + length);
+                    continue;
+                }
+
+                skip = 4 + length;
+                continue;
+            }
+
+            if (parser.parse(input)) {
+                answer();
+                if (closed) return;
+            }
+        }
+
+        input.compact();
+    }
+
+    /**
+     * Answers the request the parser has just completed.
+     */
+    private void answer() throws IOException
+    {
+        response.reset(request);
+
+        // Do something accordingly like starting the streams, sending a session description
+        if (!request.isValid()) {
+            // We don't understand the request :/
+            response.status = STATUS_BAD_REQUEST;
+        } else {
+            try {
+                processRequest(request, response);
+            } catch (Exception e) {
+                LogHelper.e(TAG, e.getMessage() != null ? e.getMessage() : "An error occurred");
+                e.printStackTrace();
+                response.status = STATUS_INTERNAL_SERVER_ERROR;
+            }
+        }
+
+        // We always send a response
+        // The socket will receive an "INTERNAL SERVER ERROR" if an exception has been thrown at some point
+        int length = response.length();
+        if (responseBuffer.capacity() < length) {
+            responseBuffer = ByteBuffer.allocate(Math.max(length, 2 * responseBuffer.capacity()));
+        }
+        responseBuffer.clear();
+        response.writeTo(responseBuffer);
+        responseBuffer.flip();
+
+        single[0] = responseBuffer;
+        write(single);
+    }
+
+    private void processRequest(Request request, Response response) throws IllegalStateException, IOException
+    {
+        String requestAttributes;
+
+        if (server.getSps() == null && server.getPps() == null) {
+            LogHelper.e(TAG, "SPS and PPS not setup.");
+            response.status = STATUS_INTERNAL_SERVER_ERROR;
+        }
+
+        // Ask for authorization unless this is an OPTIONS request
+        if (!isAuthorized(request) && request.method != OPTIONS) {
+            response.attributes = "WWW-Authenticate: Basic realm=\"" + SERVER_NAME + "\"\r\n";
+            response.status = Response.STATUS_UNAUTHORIZED;
+        } else {
+            switch (request.method) {
+                case DESCRIBE:
+                    // Configure the session
+                    configureSession();
+
+                    requestAttributes = "Content-Base: " + getHost() + "/\r\n" +
+                            "Content-Type: application/sdp\r\n";
+                    String requestContent = session.createDescription();
+
+                    if (requestContent == null) break;
+
+                    response.attributes = requestAttributes;
+                    response.content = requestContent;
+
+                    // If no exception has been thrown, we reply with OK
+                    response.status = Response.STATUS_OK;
+
+                    break;
+                case OPTIONS:
+                    response.status = Response.STATUS_OK;
+                    response.attributes = "Public: DESCRIBE,SETUP,TEARDOWN,PLAY,PAUSE\r\n";
+
+                    break;
+                case SETUP:
+                    int ssrc, trackId;
+                    int[] ports, src;
+
+                    String params;
+                    String destination;
+
+                    trackId = request.getTrackId();
+
+                    if (trackId < 0) {
+                        response.status = STATUS_BAD_REQUEST;
+                        return;
+                    }
+
+                    if (!session.trackExists(trackId)) {
+                        response.status = Response.STATUS_NOT_FOUND;
+                        return;
+                    }
+
+                    // A client may SETUP without a previous DESCRIBE
+                    configureSession();
+
+                    if (session.protocol == UDP) {
+                        if (request.getClientPorts(clientPorts)) {
+                            session.setDestinationPorts(trackId, clientPorts[0], clientPorts[1]);
+                        }
+
+                        session.setupSubscriber(trackId);
+                        ports = session.getDestinationPorts(trackId);
+
+                        src = session.getLocalPorts(trackId);
+                        destination = session.getDestination();
+
+                        params = "Transport: RTP/AVP/UDP;" + (isMulticast(destination) ? "multicast" : "unicast") + ";" +
+                                "destination=" + session.getDestination() + ";" +
+                                "client_port=" + ports[0] + "-" + ports[1] + ";" +
+                                "server_port=" + src[0] + "-" + src[1] + ";";
+                    } else {
+                        session.setupSubscriber(trackId);
+                        params = "Transport: RTP/AVP/TCP;client_ip=" + session.getDestination() + ";" +
+                                "interleaved=" + 2 * trackId + "-" + (2 * trackId + 1) + ";";
+                    }
+
+                    ssrc = session.getSSRC(trackId);
+
+                    session.updateDestination();
+
+                    response.attributes = params + "ssrc=" + Integer.toHexString(ssrc) + ";" +
+                            "mode=play\r\n" +
+                            "Session: " + session.getId() + ";timeout=10000" + "\r\n" +
+                            "Cache-Control: no-cache\r\n";
+
+                    // If no exception has been thrown, we reply with OK
+                    response.status = Response.STATUS_OK;
+
+                    LogHelper.d(TAG, response.attributes.replace("\r", ""));
+
+                    break;
+                case PLAY:
+                    requestAttributes = "RTP-Info: ";
+                    if (session.trackExists(0)) {
+                        requestAttributes += "url=rtsp://" + getHost() + "/trackID=" + 0 +
+                                ";seq=" + session.getInitialSeq(0) + ",";
+                    }
+                    if (session.trackExists(1)) {
+                        requestAttributes += "url=rtsp://" + getHost() + "/trackID=" + 1 +
+                                ";seq=" + session.getInitialSeq(1) + ",";
+                    }
+                    requestAttributes = requestAttributes.substring(0, requestAttributes.length() - 1) + "\r\n" +
+                            "Session: " + session.getId() + "\r\n";
+
+                    response.attributes = requestAttributes;
+
+                    // From now on this session receives the shared packets
+                    boolean streaming = server.isStreaming();
+                    sessions.play(session);
+                    if (!streaming && server.isStreaming()) {
+                        server.postMessage(MESSAGE_STREAMING_STARTED);
+                    }
+
+                    // If no exception has been thrown, we reply with OK
+                    response.status = Response.STATUS_OK;
+
+                    break;
+                case PAUSE:
+                    sessions.pause(session);
+                    response.status = Response.STATUS_OK;
+
+                    break;
+                case TEARDOWN:
+                    response.status = Response.STATUS_OK;
+
+                    sessions.unregister(session);
+
+                    break;
+                default:
+                    LogHelper.e(TAG, "Command unknown: " + request);
+                    response.status = STATUS_BAD_REQUEST;
+
+                    break;
+            }
+        }
+    }
+
+    private void configureSession()
+    {
+        if (session.getId() != null) return;
+
+        session.setOrigin(socket.getLocalAddress().getHostAddress());
+        if (session.getDestination() == null) {
+            session.setDestination(socket.getInetAddress().getHostAddress());
+        }
+        sessions.register(session);
+    }
+
+    /**
+     * Writes the buffers, or queues them behind the bytes already waiting for the socket.
+     */
+    @Override
+    public synchronized void write(ByteBuffer[] buffers) throws IOException
+    {
+        if (closing) throw new IOException("Connection closed");
+
+        if (!blocked) {
+            channel.write(buffers);
+        }
+
+        for (ByteBuffer buffer : buffers) {
+            if (!buffer.hasRemaining()) continue;
+
+            if (output == null) {
+                output = ByteBuffer.allocate(PENDING_BUFFER_SIZE);
+            }
+            if (output.remaining() < buffer.remaining()) {
+                // The client does not read fast enough
+                closing = true;
+                loop.schedule(this);
+                throw new IOException("Client too slow");
+            }
+            output.put(buffer);
+
+            if (!blocked) {
+                blocked = true;
+                loop.schedule(this);
+            }
+        }
+    }
+
+    /**
+     * Called by the event loop for a connection queued by {@link #write(ByteBuffer[])}.
+     */
+    void enableWrite()
+    {
+        if (key != null && key.isValid()) {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    void onWritable() throws IOException
+    {
+        synchronized (this) {
+            output.flip();
+            channel.write(output);
+            boolean flushed = !output.hasRemaining();
+            output.compact();
+            if (!flushed) return;
+
+            blocked = false;
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        // The senders skipped this connection while it was blocked
+        server.signalSenders();
+    }
+
+    @Override
+    public boolean isBlocked()
+    {
+        return blocked;
+    }
+
+    boolean isClosing()
+    {
+        return closing;
+    }
+
+    /**
+     * Closes the socket and releases the session, streaming stops when the client disconnects.
+     */
+    void close()
+    {
+        if (closed) return;
+        closed = true;
+        closing = true;
+
+        boolean streaming = server.isStreaming();
+        sessions.unregister(session);
+        session.syncStop();
+        if (streaming && !server.isStreaming()) {
+            server.postMessage(MESSAGE_STREAMING_STOPPED);
+        }
+        session.release();
+
+        if (key != null) key.cancel();
+        try {
+            channel.close();
+        } catch (IOException ignore) {}
+
+        LogHelper.e(TAG, "Client disconnected");
+    }
+
+    private String getHost()
+    {
+        return socket.getLocalAddress().getHostAddress() + ":" + socket.getLocalPort();
+    }
+
+    /**
+     * Check if the request is authorized
+     *
+     * @param request RTSP Request
+     * @return true or false
+     */
+    private boolean isAuthorized(Request request)
+    {
+        byte[] credentials = server.getCredentials();
+        return credentials == null || request.hasCredentials(credentials);
+    }
+
+    private boolean isMulticast(String destination)
+    {
+        try {
+            return InetAddress.getByName(destination).isMulticastAddress();
+        } catch (UnknownHostException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+}
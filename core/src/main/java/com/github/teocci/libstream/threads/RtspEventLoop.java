@@ -0,0 +1,183 @@
+package com.github.teocci.libstream.threads;
+
+import com.github.teocci.libstream.protocols.rtsp.rtsp.RtspServerCore;
+import com.github.teocci.libstream.utils.LogHelper;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static com.github.teocci.libstream.utils.rtsp.RtpConstants.IPTOS_LOWDELAY;
+
+/**
+ * A single selector thread for all the RTSP connections of a server.
+ * <p>
+ * It accepts the clients, reads and parses their requests and flushes the bytes their
+ * sockets could not take. The RTP senders write to the connections directly, they only
+ * hand a connection over to this loop when its socket is full.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-10
+ */
+public class RtspEventLoop extends Thread
+{
+    private static String TAG = LogHelper.makeLogTag(RtspEventLoop.class);
+
+    private final RtspServerCore server;
+
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+
+    // Connections waiting for OP_WRITE, or to be closed, queued by the sender threads
+    private final Queue<RtspConnection> pending = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean running = true;
+
+    public RtspEventLoop(RtspServerCore server, int port) throws IOException
+    {
+        this.server = server;
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+
+        try {
+            serverChannel.socket().setReuseAddress(true);
+            serverChannel.socket().bind(new InetSocketAddress(port));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            serverChannel.close();
+            selector.close();
+            throw e;
+        }
+
+        setName("RtspEventLoop");
+    }
+
+    @Override
+    public void run()
+    {
+        LogHelper.e(TAG, "RTSP server listening on port " + serverChannel.socket().getLocalPort());
+        try {
+            while (running) {
+                selector.select();
+                processPending();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+
+                    RtspConnection connection = (RtspConnection) key.attachment();
+                    try {
+                        if (key.isReadable()) connection.onReadable();
+                        if (key.isValid() && key.isWritable()) connection.onWritable();
+                    } catch (IOException e) {
+                        connection.close();
+                    } catch (RuntimeException e) {
+                        // A bad client must not take the other ones down
+                        LogHelper.e(TAG, e.getMessage() != null ? e.getMessage() : "Connection failed");
+                        connection.close();
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            LogHelper.e(TAG, e.getMessage() != null ? e.getMessage() : "Selector failed");
+        } finally {
+            closeAll();
+        }
+        LogHelper.e(TAG, "RTSP server stopped !");
+    }
+
+    private void accept()
+    {
+        try {
+            SocketChannel channel = serverChannel.accept();
+            if (channel == null) return;
+
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            channel.socket().setTrafficClass(IPTOS_LOWDELAY);
+
+            RtspConnection connection = new RtspConnection(server, this, channel);
+            connection.setKey(channel.register(selector, SelectionKey.OP_READ, connection));
+        } catch (IOException e) {
+            LogHelper.e(TAG, e.getMessage() != null ? e.getMessage() : "Accept failed");
+        }
+    }
+
+    /**
+     * Interest ops are only changed from this thread, some selectors block otherwise.
+     */
+    private void processPending()
+    {
+        RtspConnection connection;
+        while ((connection = pending.poll()) != null) {
+            if (connection.isClosing()) {
+                connection.close();
+            } else {
+                connection.enableWrite();
+            }
+        }
+    }
+
+    /**
+     * Called by the sender threads when the socket of a connection is full,
+     * or when it has to be closed.
+     */
+    void schedule(RtspConnection connection)
+    {
+        pending.offer(connection);
+        selector.wakeup();
+    }
+
+    private void closeAll()
+    {
+        try {
+            for (SelectionKey key : selector.keys()) {
+                Object attachment = key.attachment();
+                if (attachment instanceof RtspConnection) {
+                    ((RtspConnection) attachment).close();
+                }
+            }
+        } catch (ClosedSelectorException ignore) {}
+
+        try {
+            serverChannel.close();
+        } catch (IOException ignore) {}
+
+        try {
+            selector.close();
+        } catch (IOException ignore) {}
+    }
+
+    public int getPort()
+    {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public void kill()
+    {
+        running = false;
+        selector.wakeup();
+
+        try {
+            this.join();
+        } catch (InterruptedException ie) {
+            ie.printStackTrace();
+        }
+    }
+}
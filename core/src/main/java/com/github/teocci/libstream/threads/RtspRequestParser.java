@@ -0,0 +1,238 @@
+package com.github.teocci.libstream.threads;
+
+import com.github.teocci.libstream.enums.RtspMethod;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental parser of RTSP/1.0 requests (RFC 2326).
+ * <p>
+ * The parser is a state machine fed with whatever bytes have been received: it consumes
+ * them, keeps its state between calls and stops right after the end of a request, so
+ * pipelined requests are parsed one at a time from the same buffer. The request line and
+ * headers are copied into the reused {@link Request}, the body is skipped.
+ * <p>
+ * A malformed or too large request is consumed up to its end and reported as not
+ * {@link Request#isValid() valid}, so the connection stays in sync.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-12
+ */
+public class RtspRequestParser
+{
+    private static final RtspMethod[] METHODS = RtspMethod.values();
+    private static final byte[][] METHOD_NAMES = new byte[METHODS.length][];
+
+    static {
+        for (int i = 0; i < METHODS.length; i++) {
+            METHOD_NAMES[i] = Request.ascii(METHODS[i].name());
+        }
+    }
+
+    private static final int STATE_IDLE = 0;
+    private static final int STATE_METHOD = 1;
+    private static final int STATE_URI = 2;
+    private static final int STATE_VERSION = 3;
+    private static final int STATE_HEADER_START = 4;
+    private static final int STATE_HEADER_NAME = 5;
+    private static final int STATE_VALUE_START = 6;
+    private static final int STATE_VALUE = 7;
+    private static final int STATE_SKIP_LINE = 8;
+    private static final int STATE_BODY = 9;
+
+    private final Request request;
+
+    private int state = STATE_IDLE;
+    private int bodyRemaining;
+
+    public RtspRequestParser(Request request)
+    {
+        this.request = request;
+    }
+
+    /**
+     * Returns true if the parser is between two requests.
+     */
+    public boolean isIdle()
+    {
+        return state == STATE_IDLE;
+    }
+
+    public Request getRequest()
+    {
+        return request;
+    }
+
+    /**
+     * Consumes the bytes of the buffer until the end of the current request.
+     *
+     * @param input The received bytes, from its position to its limit
+     * @return true if a request is complete, the buffer is then positioned right after it
+     */
+    public boolean parse(ByteBuffer input)
+    {
+        final Request request = this.request;
+
+        while (input.hasRemaining()) {
+            if (state == STATE_BODY) {
+                int length = Math.min(bodyRemaining, input.remaining());
+                input.position(input.position() + length);
+                bodyRemaining -= length;
+                if (bodyRemaining == 0) return complete();
+                continue;
+            }
+
+            byte b = input.get();
+            switch (state) {
+                case STATE_IDLE:
+                    // Line breaks between pipelined requests
+                    if (b == '\r' || b == '\n') break;
+
+                    request.reset();
+                    state = STATE_METHOD;
+                    store(b);
+                    break;
+                case STATE_METHOD:
+                    if (b == ' ') {
+                        request.method = findMethod(0, request.length);
+                        store(b);
+                        request.uriStart = request.length;
+                        state = STATE_URI;
+                    } else if (b == '\n') {
+                        request.valid = false;
+                        state = STATE_HEADER_START;
+                    } else {
+                        store(b);
+                    }
+                    break;
+                case STATE_URI:
+                    if (b == ' ') {
+                        request.uriEnd = request.length;
+                        store(b);
+                        state = STATE_VERSION;
+                    } else if (b == '\n') {
+                        request.valid = false;
+                        state = STATE_HEADER_START;
+                    } else {
+                        store(b);
+                    }
+                    break;
+                case STATE_VERSION:
+                    if (b == '\n') {
+                        state = STATE_HEADER_START;
+                    } else if (b != '\r') {
+                        store(b);
+                    }
+                    break;
+                case STATE_HEADER_START:
+                    if (b == '\r') break;
+                    if (b == '\n') {
+                        // Empty line, end of the headers
+                        bodyRemaining = request.contentLength;
+                        if (bodyRemaining == 0) return complete();
+                        state = STATE_BODY;
+                    } else if (b == ' ' || b == '\t') {
+                        // Folded header lines are not supported
+                        state = STATE_SKIP_LINE;
+                    } else {
+                        if (request.headerCount == Request.MAX_HEADERS) {
+                            request.valid = false;
+                            state = STATE_SKIP_LINE;
+                            break;
+                        }
+                        request.nameStart[request.headerCount] = request.length;
+                        store(b);
+                        state = STATE_HEADER_NAME;
+                    }
+                    break;
+                case STATE_HEADER_NAME:
+                    if (b == ':') {
+                        request.nameEnd[request.headerCount] = request.length;
+                        state = STATE_VALUE_START;
+                    } else if (b == '\n') {
+                        // Not a header, ignore the line
+                        state = STATE_HEADER_START;
+                    } else {
+                        store(b);
+                    }
+                    break;
+                case STATE_VALUE_START:
+                    if (b == ' ' || b == '\t') break;
+
+                    request.valueStart[request.headerCount] = request.length;
+                    if (b == '\n') {
+                        endHeader();
+                    } else {
+                        if (b != '\r') store(b);
+                        state = STATE_VALUE;
+                    }
+                    break;
+                case STATE_VALUE:
+                    if (b == '\n') {
+                        endHeader();
+                    } else if (b != '\r') {
+                        store(b);
+                    }
+                    break;
+                case STATE_SKIP_LINE:
+                    if (b == '\n') state = STATE_HEADER_START;
+                    break;
+            }
+        }
+
+        return false;
+    }
+
+    private void endHeader()
+    {
+        final Request request = this.request;
+        int i = request.headerCount;
+
+        // Trailing white spaces are not part of the value
+        int end = request.length;
+        while (end > request.valueStart[i] && request.data[end - 1] == ' ') end--;
+        request.valueEnd[i] = end;
+        request.headerCount++;
+
+        if (request.equalsIgnoreCase(request.nameStart[i], request.nameEnd[i], Request.HEADER_CONTENT_LENGTH)) {
+            int length = request.getIntHeader(Request.HEADER_CONTENT_LENGTH, 0);
+            request.contentLength = length;
+        }
+
+        state = STATE_HEADER_START;
+    }
+
+    private boolean complete()
+    {
+        state = STATE_IDLE;
+        if (request.method == null) request.valid = false;
+
+        return true;
+    }
+
+    private void store(byte b)
+    {
+        if (request.length < request.data.length) {
+            request.data[request.length++] = b;
+        } else {
+            // Too large, the positions stored so far stay in range
+            request.valid = false;
+        }
+    }
+
+    private RtspMethod findMethod(int from, int to)
+    {
+        byte[] data = request.data;
+        for (int i = 0; i < METHODS.length; i++) {
+            byte[] name = METHOD_NAMES[i];
+            if (name.length != to - from) continue;
+
+            int j = 0;
+            while (j < name.length && data[from + j] == name[j]) j++;
+            if (j == name.length) return METHODS[i];
+        }
+
+        return null;
+    }
+}
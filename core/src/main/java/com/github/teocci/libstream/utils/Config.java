@@ -14,4 +14,9 @@ public class Config
      * The server name that will appear in responses.
      */
     public static final String SERVER_NAME = "RTSP Server";
+
+    /**
+     * The server name that will appear in the HTTP responses of the HLS server.
+     */
+    public static final String HLS_SERVER_NAME = "HLS Server";
 }
@@ -0,0 +1,45 @@
+package com.github.teocci.libstream.utils;
+
+import com.github.teocci.libstream.interfaces.LogWriter;
+
+import java.io.PrintStream;
+
+/**
+ * Writes the logs to the console, the writer of {@link LogHelper} on a plain JVM.
+ * The warnings and errors go to the standard error.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-26
+ */
+public class ConsoleLogWriter implements LogWriter
+{
+    private static final char[] LEVELS = {'?', '?', 'V', 'D', 'I', 'W', 'E'};
+
+    private final int minLevel;
+
+    /**
+     * @param minLevel The lowest level written, LogHelper.VERBOSE to LogHelper.ERROR
+     */
+    public ConsoleLogWriter(int minLevel)
+    {
+        this.minLevel = minLevel;
+    }
+
+    @Override
+    public boolean isLoggable(String tag, int level)
+    {
+        return level >= minLevel;
+    }
+
+    @Override
+    public void println(int level, String tag, String message)
+    {
+        PrintStream out = level >= LogHelper.WARN ? System.err : System.out;
+        char c = level >= 0 && level < LEVELS.length ? LEVELS[level] : '?';
+        out.println(c + "/" + tag + ": " + message);
+    }
+
+    @Override
+    public void onTag(String tag) {}
+}
@@ -0,0 +1,149 @@
+package com.github.teocci.libstream.utils;
+
+import com.github.teocci.libstream.interfaces.LogWriter;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static com.github.teocci.libstream.utils.Config.LOG_PREFIX;
+
+/**
+ * The logs of the library, written by a {@link LogWriter}.
+ * <p>
+ * On Android the writer is the AndroidLogWriter of the Android library, found when this
+ * class is loaded, and the messages go to logcat. On a plain JVM, e.g. in the benchmarks,
+ * they go to the console through a {@link ConsoleLogWriter}.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2017-Feb-02
+ */
+public class LogHelper
+{
+    // The levels of android.util.Log
+    public static final int VERBOSE = 2;
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+
+    private static final String ANDROID_WRITER = "com.github.teocci.libstream.utils.AndroidLogWriter";
+
+    private static final int LOG_PREFIX_LENGTH = LOG_PREFIX.length();
+    private static final int MAX_LOG_TAG_LENGTH = 23;
+    private static final int RESERVED_LENGTH = MAX_LOG_TAG_LENGTH - LOG_PREFIX_LENGTH - 2;
+
+    private static volatile LogWriter writer = createWriter();
+
+    private static LogWriter createWriter()
+    {
+        try {
+            return (LogWriter) Class.forName(ANDROID_WRITER).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // Not on Android
+            return new ConsoleLogWriter(INFO);
+        }
+    }
+
+    /**
+     * Replaces the writer of the logs, e.g. with a {@link ConsoleLogWriter} of another level.
+     */
+    public static void setWriter(LogWriter writer)
+    {
+        if (writer != null) LogHelper.writer = writer;
+    }
+
+    public static LogWriter getWriter()
+    {
+        return writer;
+    }
+
+    public static String makeLogTag(String str)
+    {
+        String tag = LOG_PREFIX
+                + '['
+                + (str.length() > RESERVED_LENGTH ? str.substring(0, RESERVED_LENGTH - 1) : str)
+                + ']';
+        writer.onTag(tag);
+
+        return tag;
+    }
+
+    /**
+     * Don't use this when obfuscating class names!
+     */
+    public static String makeLogTag(Class cls)
+    {
+        return makeLogTag(cls.getSimpleName());
+    }
+
+    public static void v(String tag, Object... messages)
+    {
+        // The writer only logs VERBOSE if build type is DEBUG
+        log(tag, VERBOSE, null, messages);
+    }
+
+    public static void d(String tag, Object... messages)
+    {
+        // The writer only logs DEBUG if build type is DEBUG
+        log(tag, DEBUG, null, messages);
+    }
+
+    public static void i(String tag, Object... messages)
+    {
+        log(tag, INFO, null, messages);
+    }
+
+    public static void w(String tag, Object... messages)
+    {
+        log(tag, WARN, null, messages);
+    }
+
+    public static void w(String tag, Throwable t, Object... messages)
+    {
+        log(tag, WARN, t, messages);
+    }
+
+    public static void e(String tag, Object... messages)
+    {
+        log(tag, ERROR, null, messages);
+    }
+
+    public static void e(String tag, Throwable t, Object... messages)
+    {
+        log(tag, ERROR, t, messages);
+    }
+
+    public static void log(String tag, int level, Throwable t, Object... messages)
+    {
+        LogWriter writer = LogHelper.writer;
+        if (writer.isLoggable(tag, level)) {
+            String message;
+            if (t == null && messages != null && messages.length == 1) {
+                // Handle this common case without the extra cost of creating a StringBuffer:
+                message = messages[0].toString();
+            } else {
+                StringBuilder sb = new StringBuilder();
+                if (messages != null) for (Object m : messages) {
+                    sb.append(m);
+                }
+                if (t != null) {
+                    sb.append("\n").append(getStackTraceString(t));
+                }
+                message = sb.toString();
+            }
+
+            writer.println(level, tag, message);
+        }
+    }
+
+    private static String getStackTraceString(Throwable t)
+    {
+        StringWriter sw = new StringWriter();
+        PrintWriter pw = new PrintWriter(sw);
+        t.printStackTrace(pw);
+        pw.flush();
+
+        return sw.toString();
+    }
+}
@@ -0,0 +1,54 @@
+package com.github.teocci.libstream.utils.rtsp;
+
+/**
+ * Base64 encoding of RFC 4648, without line breaks, for the parameter sets of the SDP and
+ * the Basic credentials.
+ * <p>
+ * java.util.Base64 only exists from API 26 and android.util.Base64 only on Android, so the
+ * core has its own.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-26
+ */
+public class Base64Util
+{
+    private static final char[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    public static String encode(byte[] data)
+    {
+        return encode(data, 0, data.length);
+    }
+
+    /**
+     * Encodes the bytes [offset, offset + length) of data, padded with '='.
+     */
+    public static String encode(byte[] data, int offset, int length)
+    {
+        char[] out = new char[(length + 2) / 3 * 4];
+        int end = offset + length;
+        int i = offset, j = 0;
+
+        // 3 bytes -> 4 chars of 6 bits
+        while (end - i >= 3) {
+            int n = (data[i] & 0xFF) << 16 | (data[i + 1] & 0xFF) << 8 | (data[i + 2] & 0xFF);
+            out[j++] = ALPHABET[n >>> 18];
+            out[j++] = ALPHABET[(n >>> 12) & 0x3F];
+            out[j++] = ALPHABET[(n >>> 6) & 0x3F];
+            out[j++] = ALPHABET[n & 0x3F];
+            i += 3;
+        }
+
+        int rest = end - i;
+        if (rest > 0) {
+            int n = (data[i] & 0xFF) << 16 | (rest == 2 ? (data[i + 1] & 0xFF) << 8 : 0);
+            out[j++] = ALPHABET[n >>> 18];
+            out[j++] = ALPHABET[(n >>> 12) & 0x3F];
+            out[j++] = rest == 2 ? ALPHABET[(n >>> 6) & 0x3F] : '=';
+            out[j] = '=';
+        }
+
+        return new String(out);
+    }
+}
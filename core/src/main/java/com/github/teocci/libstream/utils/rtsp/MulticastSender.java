@@ -0,0 +1,73 @@
+package com.github.teocci.libstream.utils.rtsp;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.nio.ByteBuffer;
+
+import static com.github.teocci.libstream.utils.rtsp.RtpConstants.MTU;
+
+/**
+ * Sends the multicast datagrams of a {@link java.nio.channels.DatagramChannel} that can not
+ * set their Time To Live, below Android N, through a {@link MulticastSocket} that can.
+ * <p>
+ * The datagrams are copied from the buffer of the channel into a reused packet. It is
+ * not thread safe, its owner sends under its own lock.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-28
+ */
+public class MulticastSender
+{
+    private final MulticastSocket socket;
+    private final DatagramPacket packet = new DatagramPacket(new byte[MTU], MTU);
+
+    public MulticastSender(int ttl) throws IOException
+    {
+        socket = new MulticastSocket();
+        socket.setTimeToLive(ttl);
+    }
+
+    public void setTimeToLive(int ttl) throws IOException
+    {
+        socket.setTimeToLive(ttl);
+    }
+
+    public int getTimeToLive() throws IOException
+    {
+        return socket.getTimeToLive();
+    }
+
+    /**
+     * Sends the remaining bytes of the buffer, which are consumed like by
+     * {@link java.nio.channels.DatagramChannel#send(ByteBuffer, java.net.SocketAddress)}.
+     */
+    public void send(ByteBuffer datagram, InetSocketAddress destination) throws IOException
+    {
+        int length = datagram.remaining();
+        byte[] data = packet.getData();
+        if (data.length < length) data = new byte[length];
+
+        datagram.get(data, 0, length);
+        packet.setData(data, 0, length);
+        packet.setSocketAddress(destination);
+        socket.send(packet);
+    }
+
+    public int getLocalPort()
+    {
+        return socket.getLocalPort();
+    }
+
+    public void close()
+    {
+        socket.close();
+    }
+
+    public boolean isClosed()
+    {
+        return socket.isClosed();
+    }
+}
@@ -0,0 +1,100 @@
+package com.github.teocci.libstream.utils.rtsp;
+
+import com.github.teocci.libstream.utils.LogHelper;
+
+import java.io.IOException;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Sets the multicast Time To Live of a {@link DatagramChannel}.
+ * <p>
+ * The channel only has socket options from Android N (API 24), where it implements
+ * NetworkChannel, and its {@link DatagramChannel#socket()} is a plain DatagramSocket
+ * without any TTL. Below it the multicast datagrams are sent by a {@link MulticastSender}
+ * instead, see {@link #setTimeToLive(DatagramChannel, int, MulticastSender)}: sent by the
+ * channel, they would keep the default TTL of 1 and not leave the local network.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-28
+ */
+public class MulticastUtil
+{
+    private static String TAG = LogHelper.makeLogTag(MulticastUtil.class);
+
+    private static final boolean SOCKET_OPTIONS = hasSocketOptions();
+
+    /**
+     * Sets the TTL of the multicast datagrams sent by the channel.
+     *
+     * @return false if the platform can not set it
+     */
+    public static boolean setTimeToLive(DatagramChannel channel, int ttl) throws IOException
+    {
+        if (!SOCKET_OPTIONS) return false;
+
+        Options.setTimeToLive(channel, ttl);
+        return true;
+    }
+
+    /**
+     * Sets the TTL of the multicast datagrams of the channel or, where the channel can not
+     * set it, of the sender the owner of the channel sends them with.
+     *
+     * @param sender The current sender of the multicast datagrams, or null
+     * @return the sender of the multicast datagrams, or null if the channel sends them
+     */
+    public static MulticastSender setTimeToLive(DatagramChannel channel, int ttl, MulticastSender sender)
+            throws IOException
+    {
+        return setTimeToLive(channel, ttl, sender, SOCKET_OPTIONS);
+    }
+
+    static MulticastSender setTimeToLive(DatagramChannel channel, int ttl, MulticastSender sender,
+                                         boolean supported) throws IOException
+    {
+        if (supported) {
+            Options.setTimeToLive(channel, ttl);
+            if (sender != null) sender.close();
+            return null;
+        }
+
+        if (sender == null) {
+            LogHelper.i(TAG, "Multicast TTL not supported by the channel, sent by a MulticastSocket");
+            return new MulticastSender(ttl);
+        }
+
+        sender.setTimeToLive(ttl);
+        return sender;
+    }
+
+    public static boolean isSupported()
+    {
+        return SOCKET_OPTIONS;
+    }
+
+    private static boolean hasSocketOptions()
+    {
+        try {
+            Class.forName("java.net.StandardSocketOptions");
+            DatagramChannel.class.getMethod("setOption", SocketOption.class, Object.class);
+            return true;
+        } catch (ClassNotFoundException | NoSuchMethodException | NoClassDefFoundError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Keeps the references to the socket options out of the outer class, it is only loaded
+     * where they exist.
+     */
+    private static class Options
+    {
+        static void setTimeToLive(DatagramChannel channel, int ttl) throws IOException
+        {
+            channel.setOption(StandardSocketOptions.IP_MULTICAST_TTL, ttl);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.github.teocci.libstream.utils.rtsp;
+
+/**
+ * Maps the capture times of the samples, in ns of {@link System#nanoTime()}, to the RTP
+ * timestamps of a track.
+ * <p>
+ * All the clocks share the same origin, so the audio and the video timestamps stay aligned
+ * on the capture time whatever their clock rate. The time is split in seconds and remaining
+ * ns before being scaled, the product never overflows: the timestamps wrap at 32 bits like
+ * the RTP ones, not after a day of uptime like nanoTime * 90000 did.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-24
+ */
+public class RtpClock
+{
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    // Shared by all the tracks, package-private for the tests
+    static final long ORIGIN = System.nanoTime();
+
+    private final long rate;
+
+    /**
+     * @param rate The clock rate of the track in Hz, e.g. 90000 for video, the sample rate for audio
+     */
+    public RtpClock(long rate)
+    {
+        this.rate = rate;
+    }
+
+    public long getRate()
+    {
+        return rate;
+    }
+
+    /**
+     * Returns the 32 bits RTP timestamp of a capture time.
+     *
+     * @param nanos The capture time, in ns of {@link System#nanoTime()}
+     */
+    public long toRtp(long nanos)
+    {
+        // The subtraction is exact even if nanoTime wrapped in between
+        long elapsed = nanos - ORIGIN;
+
+        // Floor division, a capture time may be older than the origin
+        long seconds = elapsed / NANOS_PER_SECOND;
+        long rest = elapsed - seconds * NANOS_PER_SECOND;
+        if (rest < 0) {
+            seconds--;
+            rest += NANOS_PER_SECOND;
+        }
+
+        return (seconds * rate + rest * rate / NANOS_PER_SECOND) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Returns the number of clock units from the RTP timestamp a to b, signed, across a wrap.
+     */
+    public static int delta(long a, long b)
+    {
+        return (int) (b - a);
+    }
+
+    /**
+     * Converts a number of clock units to ns.
+     */
+    public long toNanos(long units)
+    {
+        return rate == 0 ? 0 : units / rate * NANOS_PER_SECOND + units % rate * NANOS_PER_SECOND / rate;
+    }
+}
@@ -11,6 +11,8 @@ public class RtpConstants
 
     public static final int MTU = 1300;
     public static final int PAYLOAD_TYPE = 96;
+    // Payload type of the RTX stream of the video, RFC 4588
+    public static final int RTX_PAYLOAD_TYPE = 97;
 
     // Used on all packets
     public final static int MAX_PACKET_SIZE = MTU - 28;
@@ -7,6 +7,9 @@ package com.github.teocci.libstream.utils.yuv;
  * The same as NV12 except the interleave order of U and V is reversed.
  * NV21: YYYYYYYY VU VU =>YUV420SP
  * <p>
+ * The conversions and rotations write into buffers shared by all the threads, they are
+ * deprecated in favor of {@link YUVKernels}.
+ * <p>
  * Created by teocci.
  *
  * @author teocci@yandex.com on 2019-May-28
@@ -16,6 +19,7 @@ public class NV21Utils
     private static byte[] preAllocatedBufferRotate;
     private static byte[] preAllocatedBufferColor;
 
+    @Deprecated
     public static void preAllocateBuffers(int length)
     {
         preAllocatedBufferRotate = new byte[length];
@@ -32,6 +36,7 @@ public class NV21Utils
      * @param height height of the frame
      * @return an I420 yuv pixel format buffer
      */
+    @Deprecated
     public static byte[] toI420(byte[] input, int width, int height)
     {
         final int frameSize = width * height;
@@ -57,6 +62,7 @@ public class NV21Utils
      * @param height the height of the frame
      * @return YV12 yuv pixel format buffer
      */
+    @Deprecated
     public static byte[] toYV12(byte[] input, int width, int height)
     {
         final int frameSize = width * height;
@@ -88,6 +94,7 @@ public class NV21Utils
      * @param height the height of the frame
      * @return NV12 yuv pixel format buffer
      */
+    @Deprecated
     public static byte[] toNV12(byte[] input, int width, int height)
     {
         final int frameSize = width * height;
@@ -111,9 +118,17 @@ public class NV21Utils
      * @return an ARGB frame buffer
      */
     public static int[] toARGB(byte[] yuv, int width, int height)
+    {
+        return toARGB(yuv, new int[width * height], width, height);
+    }
+
+    /**
+     * @param argb buffer of the ARGB frame, at least width * height pixels
+     * @return argb
+     */
+    public static int[] toARGB(byte[] yuv, int[] argb, int width, int height)
     {
         final int frameSize = width * height;
-        int[] argb = new int[frameSize];
         final int ii = 0;
         final int ij = 0;
         final int di = +1;
@@ -143,6 +158,7 @@ public class NV21Utils
     }
 
 
+    @Deprecated
     public static byte[] rotate90(byte[] data, int imageWidth, int imageHeight)
     {
         // Rotate the Y-Luma
@@ -166,6 +182,7 @@ public class NV21Utils
         return preAllocatedBufferRotate;
     }
 
+    @Deprecated
     public static byte[] rotate180(byte[] data, int imageWidth, int imageHeight)
     {
         int size = imageWidth * imageHeight;
@@ -182,6 +199,7 @@ public class NV21Utils
         return preAllocatedBufferRotate;
     }
 
+    @Deprecated
     public static byte[] rotate270(byte[] data, int imageWidth, int imageHeight)
     {
         // Rotate the Y-Luma
@@ -207,7 +225,15 @@ public class NV21Utils
 
     public static byte[] rotatePixels(byte[] input, int width, int height, int rotation)
     {
-        byte[] output = new byte[input.length];
+        return rotatePixels(input, new byte[input.length], width, height, rotation);
+    }
+
+    /**
+     * @param output buffer of the same size as input, it can not be input
+     * @return output
+     */
+    public static byte[] rotatePixels(byte[] input, byte[] output, int width, int height, int rotation)
+    {
 
         boolean swap = (rotation == 90 || rotation == 270);
         boolean yflip = (rotation == 90 || rotation == 180);
@@ -252,7 +278,15 @@ public class NV21Utils
 
     public static byte[] mirror(byte[] input, int width, int height)
     {
-        byte[] output = new byte[input.length];
+        return mirror(input, new byte[input.length], width, height);
+    }
+
+    /**
+     * @param output buffer of the same size as input, it can not be input
+     * @return output
+     */
+    public static byte[] mirror(byte[] input, byte[] output, int width, int height)
+    {
 
         for (int x = 0; x < width; x++) {
             for (int y = 0; y < height; y++) {
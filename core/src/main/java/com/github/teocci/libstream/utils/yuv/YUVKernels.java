@@ -0,0 +1,857 @@
+package com.github.teocci.libstream.utils.yuv;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Allocation free YUV 4:2:0 conversions and rotations.
+ * <p>
+ * Every kernel writes into a destination given by the caller and keeps no state, so it
+ * can be called from any thread at the same time. The frames are described by a stride,
+ * the number of bytes between the start of two rows of the luma plane, which may be
+ * larger than the width:
+ * <p>
+ * NV21 and NV12 (semi-planar): the Y plane, then height / 2 rows of interleaved chroma
+ * pairs, VU for NV21 and UV for NV12, both with the luma stride.
+ * <p>
+ * I420 and YV12 (planar): the Y plane, then two chroma planes of height / 2 rows with a
+ * stride of stride / 2, U then V for I420 and V then U for YV12.
+ * <p>
+ * The width and the height must be even. A ByteBuffer destination, e.g. the input buffer
+ * of a MediaCodec, is written from its position like a bulk put, and its position is
+ * moved after the frame. The chroma samples of a direct buffer are written eight at a time
+ * with putLong, a single put per byte being much slower than the array loops.
+ * <p>
+ * The rotations walk the frame by blocks of {@link #TILE} x {@link #TILE} samples, and
+ * can convert the chroma while rotating it, e.g. {@link #rotateNV21ToI420}, so a frame
+ * to rotate and to convert is only read once.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-19
+ */
+public class YUVKernels
+{
+    /**
+     * Returns the size in bytes of a 4:2:0 frame.
+     */
+    public static int frameSize(int stride, int height)
+    {
+        return stride * height * 3 / 2;
+    }
+
+    // -------------------------------------------------------------------------------------
+    // Conversions into a byte array
+    // -------------------------------------------------------------------------------------
+
+    /**
+     * NV21 (YYYYYYYY VU VU) to I420 (YYYYYYYY UU VV).
+     */
+    public static void nv21ToI420(byte[] src, int srcStride, byte[] dst, int dstStride, int width, int height)
+    {
+        int srcChroma = srcStride * height;
+        int dstU = dstStride * height;
+        int dstV = dstU + dstStride / 2 * (height / 2);
+
+        copyPlane(src, 0, srcStride, dst, 0, dstStride, width, height);
+        deinterleave(src, srcChroma, srcStride, dst, dstV, dstU, dstStride / 2, width / 2, height / 2);
+    }
+
+    /**
+     * NV21 (YYYYYYYY VU VU) to YV12 (YYYYYYYY VV UU).
+     */
+    public static void nv21ToYV12(byte[] src, int srcStride, byte[] dst, int dstStride, int width, int height)
+    {
+        int srcChroma = srcStride * height;
+        int dstV = dstStride * height;
+        int dstU = dstV + dstStride / 2 * (height / 2);
+
+        copyPlane(src, 0, srcStride, dst, 0, dstStride, width, height);
+        deinterleave(src, srcChroma, srcStride, dst, dstV, dstU, dstStride / 2, width / 2, height / 2);
+    }
+
+    /**
+     * NV21 (YYYYYYYY VU VU) to NV12 (YYYYYYYY UV UV).
+     */
+    public static void nv21ToNV12(byte[] src, int srcStride, byte[] dst, int dstStride, int width, int height)
+    {
+        copyPlane(src, 0, srcStride, dst, 0, dstStride, width, height);
+        swapPairs(src, srcStride * height, srcStride, dst, dstStride * height, dstStride, width / 2, height / 2);
+    }
+
+    /**
+     * YV12 (YYYYYYYY VV UU) to I420 (YYYYYYYY UU VV).
+     */
+    public static void yv12ToI420(byte[] src, int srcStride, byte[] dst, int dstStride, int width, int height)
+    {
+        int srcV = srcStride * height;
+        int srcU = srcV + srcStride / 2 * (height / 2);
+        int dstU = dstStride * height;
+        int dstV = dstU + dstStride / 2 * (height / 2);
+
+        copyPlane(src, 0, srcStride, dst, 0, dstStride, width, height);
+        copyPlane(src, srcU, srcStride / 2, dst, dstU, dstStride / 2, width / 2, height / 2);
+        copyPlane(src, srcV, srcStride / 2, dst, dstV, dstStride / 2, width / 2, height / 2);
+    }
+
+    /**
+     * YV12 (YYYYYYYY VV UU) to NV12 (YYYYYYYY UV UV).
+     */
+    public static void yv12ToNV12(byte[] src, int srcStride, byte[] dst, int dstStride, int width, int height)
+    {
+        int srcV = srcStride * height;
+        int srcU = srcV + srcStride / 2 * (height / 2);
+
+        copyPlane(src, 0, srcStride, dst, 0, dstStride, width, height);
+        interleave(src, srcU, srcV, srcStride / 2, dst, dstStride * height, dstStride, width / 2, height / 2);
+    }
+
+    /**
+     * YV12 (YYYYYYYY VV UU) to NV21 (YYYYYYYY VU VU).
+     */
+    public static void yv12ToNV21(byte[] src, int srcStride, byte[] dst, int dstStride, int width, int height)
+    {
+        int srcV = srcStride * height;
+        int srcU = srcV + srcStride / 2 * (height / 2);
+
+        copyPlane(src, 0, srcStride, dst, 0, dstStride, width, height);
+        interleave(src, srcV, srcU, srcStride / 2, dst, dstStride * height, dstStride, width / 2, height / 2);
+    }
+
+    // -------------------------------------------------------------------------------------
+    // Conversions into a ByteBuffer
+    // -------------------------------------------------------------------------------------
+
+    /**
+     * NV21 (YYYYYYYY VU VU) to I420 (YYYYYYYY UU VV).
+     */
+    public static void nv21ToI420(byte[] src, int srcStride, ByteBuffer dst, int dstStride, int width, int height)
+    {
+        int base = begin(dst, dstStride, height);
+        int dstU = base + dstStride * height;
+        int dstV = dstU + dstStride / 2 * (height / 2);
+
+        copyPlane(src, 0, srcStride, dst, base, dstStride, width, height);
+        deinterleave(src, srcStride * height, srcStride, dst, dstV, dstU, dstStride / 2, width / 2, height / 2);
+        end(dst, base, dstStride, height);
+    }
+
+    /**
+     * NV21 (YYYYYYYY VU VU) to YV12 (YYYYYYYY VV UU).
+     */
+    public static void nv21ToYV12(byte[] src, int srcStride, ByteBuffer dst, int dstStride, int width, int height)
+    {
+        int base = begin(dst, dstStride, height);
+        int dstV = base + dstStride * height;
+        int dstU = dstV + dstStride / 2 * (height / 2);
+
+        copyPlane(src, 0, srcStride, dst, base, dstStride, width, height);
+        deinterleave(src, srcStride * height, srcStride, dst, dstV, dstU, dstStride / 2, width / 2, height / 2);
+        end(dst, base, dstStride, height);
+    }
+
+    /**
+     * NV21 (YYYYYYYY VU VU) to NV12 (YYYYYYYY UV UV).
+     */
+    public static void nv21ToNV12(byte[] src, int srcStride, ByteBuffer dst, int dstStride, int width, int height)
+    {
+        int base = begin(dst, dstStride, height);
+
+        copyPlane(src, 0, srcStride, dst, base, dstStride, width, height);
+        swapPairs(src, srcStride * height, srcStride, dst, base + dstStride * height, dstStride, width / 2, height / 2);
+        end(dst, base, dstStride, height);
+    }
+
+    /**
+     * Copies a NV21 frame, e.g. for an encoder that takes NV21.
+     */
+    public static void nv21ToNV21(byte[] src, int srcStride, ByteBuffer dst, int dstStride, int width, int height)
+    {
+        int base = begin(dst, dstStride, height);
+
+        copyPlane(src, 0, srcStride, dst, base, dstStride, width, height);
+        copyPlane(src, srcStride * height, srcStride, dst, base + dstStride * height, dstStride, width, height / 2);
+        end(dst, base, dstStride, height);
+    }
+
+    /**
+     * YV12 (YYYYYYYY VV UU) to I420 (YYYYYYYY UU VV).
+     */
+    public static void yv12ToI420(byte[] src, int srcStride, ByteBuffer dst, int dstStride, int width, int height)
+    {
+        int base = begin(dst, dstStride, height);
+        int srcV = srcStride * height;
+        int srcU = srcV + srcStride / 2 * (height / 2);
+        int dstU = base + dstStride * height;
+        int dstV = dstU + dstStride / 2 * (height / 2);
+
+        copyPlane(src, 0, srcStride, dst, base, dstStride, width, height);
+        copyPlane(src, srcU, srcStride / 2, dst, dstU, dstStride / 2, width / 2, height / 2);
+        copyPlane(src, srcV, srcStride / 2, dst, dstV, dstStride / 2, width / 2, height / 2);
+        end(dst, base, dstStride, height);
+    }
+
+    /**
+     * YV12 (YYYYYYYY VV UU) to NV12 (YYYYYYYY UV UV).
+     */
+    public static void yv12ToNV12(byte[] src, int srcStride, ByteBuffer dst, int dstStride, int width, int height)
+    {
+        int base = begin(dst, dstStride, height);
+        int srcV = srcStride * height;
+        int srcU = srcV + srcStride / 2 * (height / 2);
+
+        copyPlane(src, 0, srcStride, dst, base, dstStride, width, height);
+        interleave(src, srcU, srcV, srcStride / 2, dst, base + dstStride * height, dstStride, width / 2, height / 2);
+        end(dst, base, dstStride, height);
+    }
+
+    /**
+     * YV12 (YYYYYYYY VV UU) to NV21 (YYYYYYYY VU VU).
+     */
+    public static void yv12ToNV21(byte[] src, int srcStride, ByteBuffer dst, int dstStride, int width, int height)
+    {
+        int base = begin(dst, dstStride, height);
+        int srcV = srcStride * height;
+        int srcU = srcV + srcStride / 2 * (height / 2);
+
+        copyPlane(src, 0, srcStride, dst, base, dstStride, width, height);
+        interleave(src, srcV, srcU, srcStride / 2, dst, base + dstStride * height, dstStride, width / 2, height / 2);
+        end(dst, base, dstStride, height);
+    }
+
+    /**
+     * Copies a YV12 frame, e.g. for an encoder that takes YV12.
+     */
+    public static void yv12ToYV12(byte[] src, int srcStride, ByteBuffer dst, int dstStride, int width, int height)
+    {
+        int base = begin(dst, dstStride, height);
+        int srcChroma = srcStride * height;
+        int dstChroma = base + dstStride * height;
+
+        copyPlane(src, 0, srcStride, dst, base, dstStride, width, height);
+        // Both chroma planes follow each other with the same stride
+        copyPlane(src, srcChroma, srcStride / 2, dst, dstChroma, dstStride / 2, width / 2, height);
+        end(dst, base, dstStride, height);
+    }
+
+    // -------------------------------------------------------------------------------------
+    // Rotations, clockwise
+    // -------------------------------------------------------------------------------------
+
+    /**
+     * Rotates a NV21 or NV12 frame clockwise. The destination is height wide and width
+     * high for 90 and 270 degrees.
+     *
+     * @param width    The width of the source frame
+     * @param height   The height of the source frame
+     * @param rotation 0, 90, 180 or 270
+     */
+    public static void rotateNV21(byte[] src, int srcStride, byte[] dst, int dstStride, int width, int height,
+                                  int rotation)
+    {
+        int dstHeight = rotatedHeight(width, height, rotation);
+
+        rotatePlane(src, 0, srcStride, dst, 0, dstStride, width, height, rotation);
+        rotatePairs(
+                src, srcStride * height, srcStride,
+                dst, dstStride * dstHeight, dstStride,
+                width / 2, height / 2, rotation, false
+        );
+    }
+
+    /**
+     * Rotates a YV12 or I420 frame clockwise. The destination is height wide and width
+     * high for 90 and 270 degrees.
+     *
+     * @param width    The width of the source frame
+     * @param height   The height of the source frame
+     * @param rotation 0, 90, 180 or 270
+     */
+    public static void rotateYV12(byte[] src, int srcStride, byte[] dst, int dstStride, int width, int height,
+                                  int rotation)
+    {
+        int dstHeight = rotatedHeight(width, height, rotation);
+        int srcFirst = srcStride * height;
+        int srcSecond = srcFirst + srcStride / 2 * (height / 2);
+        int dstFirst = dstStride * dstHeight;
+        int dstSecond = dstFirst + dstStride / 2 * (dstHeight / 2);
+
+        rotatePlane(src, 0, srcStride, dst, 0, dstStride, width, height, rotation);
+        rotatePlane(src, srcFirst, srcStride / 2, dst, dstFirst, dstStride / 2, width / 2, height / 2, rotation);
+        rotatePlane(src, srcSecond, srcStride / 2, dst, dstSecond, dstStride / 2, width / 2, height / 2, rotation);
+    }
+
+    // -------------------------------------------------------------------------------------
+    // Rotations fused with a conversion, the frame is only read once
+    // -------------------------------------------------------------------------------------
+
+    /**
+     * Rotates a NV21 frame clockwise into I420 (YYYYYYYY UU VV).
+     */
+    public static void rotateNV21ToI420(byte[] src, int srcStride, byte[] dst, int dstStride,
+                                        int width, int height, int rotation)
+    {
+        int dstHeight = rotatedHeight(width, height, rotation);
+        int dstU = dstStride * dstHeight;
+        int dstV = dstU + dstStride / 2 * (dstHeight / 2);
+
+        rotatePlane(src, 0, srcStride, dst, 0, dstStride, width, height, rotation);
+        rotateDeinterleave(
+                src, srcStride * height, srcStride,
+                dst, dstV, dstU, dstStride / 2,
+                width / 2, height / 2, rotation
+        );
+    }
+
+    /**
+     * Rotates a NV21 frame clockwise into YV12 (YYYYYYYY VV UU).
+     */
+    public static void rotateNV21ToYV12(byte[] src, int srcStride, byte[] dst, int dstStride,
+                                        int width, int height, int rotation)
+    {
+        int dstHeight = rotatedHeight(width, height, rotation);
+        int dstV = dstStride * dstHeight;
+        int dstU = dstV + dstStride / 2 * (dstHeight / 2);
+
+        rotatePlane(src, 0, srcStride, dst, 0, dstStride, width, height, rotation);
+        rotateDeinterleave(
+                src, srcStride * height, srcStride,
+                dst, dstV, dstU, dstStride / 2,
+                width / 2, height / 2, rotation
+        );
+    }
+
+    /**
+     * Rotates a NV21 frame clockwise into NV12 (YYYYYYYY UV UV).
+     */
+    public static void rotateNV21ToNV12(byte[] src, int srcStride, byte[] dst, int dstStride,
+                                        int width, int height, int rotation)
+    {
+        int dstHeight = rotatedHeight(width, height, rotation);
+
+        rotatePlane(src, 0, srcStride, dst, 0, dstStride, width, height, rotation);
+        rotatePairs(
+                src, srcStride * height, srcStride,
+                dst, dstStride * dstHeight, dstStride,
+                width / 2, height / 2, rotation, true
+        );
+    }
+
+    /**
+     * Rotates a YV12 frame clockwise into I420 (YYYYYYYY UU VV).
+     */
+    public static void rotateYV12ToI420(byte[] src, int srcStride, byte[] dst, int dstStride,
+                                        int width, int height, int rotation)
+    {
+        int dstHeight = rotatedHeight(width, height, rotation);
+        int srcV = srcStride * height;
+        int srcU = srcV + srcStride / 2 * (height / 2);
+        int dstU = dstStride * dstHeight;
+        int dstV = dstU + dstStride / 2 * (dstHeight / 2);
+
+        rotatePlane(src, 0, srcStride, dst, 0, dstStride, width, height, rotation);
+        rotatePlane(src, srcU, srcStride / 2, dst, dstU, dstStride / 2, width / 2, height / 2, rotation);
+        rotatePlane(src, srcV, srcStride / 2, dst, dstV, dstStride / 2, width / 2, height / 2, rotation);
+    }
+
+    /**
+     * Rotates a YV12 frame clockwise into NV12 (YYYYYYYY UV UV).
+     */
+    public static void rotateYV12ToNV12(byte[] src, int srcStride, byte[] dst, int dstStride,
+                                        int width, int height, int rotation)
+    {
+        int dstHeight = rotatedHeight(width, height, rotation);
+        int srcV = srcStride * height;
+        int srcU = srcV + srcStride / 2 * (height / 2);
+
+        rotatePlane(src, 0, srcStride, dst, 0, dstStride, width, height, rotation);
+        rotateInterleave(
+                src, srcU, srcV, srcStride / 2,
+                dst, dstStride * dstHeight, dstStride,
+                width / 2, height / 2, rotation
+        );
+    }
+
+    /**
+     * Rotates a YV12 frame clockwise into NV21 (YYYYYYYY VU VU).
+     */
+    public static void rotateYV12ToNV21(byte[] src, int srcStride, byte[] dst, int dstStride,
+                                        int width, int height, int rotation)
+    {
+        int dstHeight = rotatedHeight(width, height, rotation);
+        int srcV = srcStride * height;
+        int srcU = srcV + srcStride / 2 * (height / 2);
+
+        rotatePlane(src, 0, srcStride, dst, 0, dstStride, width, height, rotation);
+        rotateInterleave(
+                src, srcV, srcU, srcStride / 2,
+                dst, dstStride * dstHeight, dstStride,
+                width / 2, height / 2, rotation
+        );
+    }
+
+    // -------------------------------------------------------------------------------------
+    // Tiled plane rotations
+    // -------------------------------------------------------------------------------------
+    //
+    // A rotation by 90 or 270 degrees reads the source column by column, one row apart for
+    // each sample: with whole rows, every read misses the cache from 1080p on. The plane is
+    // rotated by TILE x TILE blocks instead, the TILE source rows of a block stay cached
+    // while its destination rows are written.
+    //
+    // The sample (x, y) of the destination, in samples of the plane, is read at
+    // base + x * stepX + y * stepY of the source, see sourceBase(), stepX() and stepY().
+
+    /**
+     * Side of the blocks, in samples.
+     */
+    public static final int TILE = 16;
+
+    /**
+     * Rotates a plane of one byte samples clockwise.
+     *
+     * @param width    The width of the source plane in samples
+     * @param height   The height of the source plane in rows
+     * @param rotation 0, 90, 180 or 270
+     */
+    public static void rotatePlane(byte[] src, int srcOffset, int srcStride,
+                                   byte[] dst, int dstOffset, int dstStride,
+                                   int width, int height, int rotation)
+    {
+        if (rotation == 0) {
+            copyPlane(src, srcOffset, srcStride, dst, dstOffset, dstStride, width, height);
+            return;
+        }
+
+        int base = sourceBase(srcOffset, srcStride, width, height, rotation, 1);
+        int stepX = stepX(srcStride, rotation, 1);
+        int stepY = stepY(srcStride, rotation, 1);
+        int dstWidth = rotatedWidth(width, height, rotation);
+        int dstHeight = rotatedHeight(width, height, rotation);
+
+        for (int ty = 0; ty < dstHeight; ty += TILE) {
+            int yEnd = Math.min(ty + TILE, dstHeight);
+            for (int tx = 0; tx < dstWidth; tx += TILE) {
+                int xEnd = Math.min(tx + TILE, dstWidth);
+                for (int y = ty; y < yEnd; y++) {
+                    int out = dstOffset + y * dstStride;
+                    int in = base + tx * stepX + y * stepY;
+                    for (int x = tx; x < xEnd; x++, in += stepX) {
+                        dst[out + x] = src[in];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Rotates a plane of interleaved two bytes samples clockwise.
+     *
+     * @param pairs    The width of the source plane in pairs
+     * @param height   The height of the source plane in rows
+     * @param rotation 0, 90, 180 or 270
+     * @param swap     Whether the two bytes of each pair are swapped, e.g. VU to UV
+     */
+    public static void rotatePairs(byte[] src, int srcOffset, int srcStride,
+                                   byte[] dst, int dstOffset, int dstStride,
+                                   int pairs, int height, int rotation, boolean swap)
+    {
+        if (rotation == 0) {
+            if (swap) {
+                swapPairs(src, srcOffset, srcStride, dst, dstOffset, dstStride, pairs, height);
+            } else {
+                copyPlane(src, srcOffset, srcStride, dst, dstOffset, dstStride, pairs * 2, height);
+            }
+            return;
+        }
+
+        int base = sourceBase(srcOffset, srcStride, pairs, height, rotation, 2);
+        int stepX = stepX(srcStride, rotation, 2);
+        int stepY = stepY(srcStride, rotation, 2);
+        int dstWidth = rotatedWidth(pairs, height, rotation);
+        int dstHeight = rotatedHeight(pairs, height, rotation);
+        int first = swap ? 1 : 0;
+        int second = swap ? 0 : 1;
+
+        for (int ty = 0; ty < dstHeight; ty += TILE) {
+            int yEnd = Math.min(ty + TILE, dstHeight);
+            for (int tx = 0; tx < dstWidth; tx += TILE) {
+                int xEnd = Math.min(tx + TILE, dstWidth);
+                for (int y = ty; y < yEnd; y++) {
+                    int out = dstOffset + y * dstStride + tx * 2;
+                    int in = base + tx * stepX + y * stepY;
+                    for (int x = tx; x < xEnd; x++, in += stepX, out += 2) {
+                        dst[out] = src[in + first];
+                        dst[out + 1] = src[in + second];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Rotates a plane of interleaved pairs clockwise into two planes: the first byte of
+     * each pair goes to the plane at firstOffset, the second one to the plane at secondOffset.
+     *
+     * @param pairs    The width of the source plane in pairs
+     * @param height   The height of the source plane in rows
+     * @param rotation 0, 90, 180 or 270
+     */
+    public static void rotateDeinterleave(byte[] src, int srcOffset, int srcStride,
+                                          byte[] dst, int firstOffset, int secondOffset, int dstStride,
+                                          int pairs, int height, int rotation)
+    {
+        if (rotation == 0) {
+            deinterleave(src, srcOffset, srcStride, dst, firstOffset, secondOffset, dstStride, pairs, height);
+            return;
+        }
+
+        int base = sourceBase(srcOffset, srcStride, pairs, height, rotation, 2);
+        int stepX = stepX(srcStride, rotation, 2);
+        int stepY = stepY(srcStride, rotation, 2);
+        int dstWidth = rotatedWidth(pairs, height, rotation);
+        int dstHeight = rotatedHeight(pairs, height, rotation);
+
+        for (int ty = 0; ty < dstHeight; ty += TILE) {
+            int yEnd = Math.min(ty + TILE, dstHeight);
+            for (int tx = 0; tx < dstWidth; tx += TILE) {
+                int xEnd = Math.min(tx + TILE, dstWidth);
+                for (int y = ty; y < yEnd; y++) {
+                    int outFirst = firstOffset + y * dstStride;
+                    int outSecond = secondOffset + y * dstStride;
+                    int in = base + tx * stepX + y * stepY;
+                    for (int x = tx; x < xEnd; x++, in += stepX) {
+                        dst[outFirst + x] = src[in];
+                        dst[outSecond + x] = src[in + 1];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Rotates two planes clockwise into a plane of interleaved pairs: the plane at
+     * firstOffset gives the first byte of each pair, the plane at secondOffset the second one.
+     *
+     * @param width    The width of the source planes in samples
+     * @param height   The height of the source planes in rows
+     * @param rotation 0, 90, 180 or 270
+     */
+    public static void rotateInterleave(byte[] src, int firstOffset, int secondOffset, int srcStride,
+                                        byte[] dst, int dstOffset, int dstStride,
+                                        int width, int height, int rotation)
+    {
+        if (rotation == 0) {
+            interleave(src, firstOffset, secondOffset, srcStride, dst, dstOffset, dstStride, width, height);
+            return;
+        }
+
+        int base = sourceBase(0, srcStride, width, height, rotation, 1);
+        int stepX = stepX(srcStride, rotation, 1);
+        int stepY = stepY(srcStride, rotation, 1);
+        int dstWidth = rotatedWidth(width, height, rotation);
+        int dstHeight = rotatedHeight(width, height, rotation);
+
+        for (int ty = 0; ty < dstHeight; ty += TILE) {
+            int yEnd = Math.min(ty + TILE, dstHeight);
+            for (int tx = 0; tx < dstWidth; tx += TILE) {
+                int xEnd = Math.min(tx + TILE, dstWidth);
+                for (int y = ty; y < yEnd; y++) {
+                    int out = dstOffset + y * dstStride + tx * 2;
+                    int in = base + tx * stepX + y * stepY;
+                    for (int x = tx; x < xEnd; x++, in += stepX, out += 2) {
+                        dst[out] = src[firstOffset + in];
+                        dst[out + 1] = src[secondOffset + in];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the source index of the sample (0, 0) of the rotated plane.
+     *
+     * @param width  The width of the source plane in samples
+     * @param height The height of the source plane in rows
+     * @param size   The size of a sample in bytes
+     */
+    private static int sourceBase(int offset, int stride, int width, int height, int rotation, int size)
+    {
+        switch (rotation) {
+            case 90:
+                // Bottom left corner, going up
+                return offset + (height - 1) * stride;
+            case 180:
+                // Bottom right corner, going left
+                return offset + (height - 1) * stride + (width - 1) * size;
+            case 270:
+                // Top right corner, going down
+                return offset + (width - 1) * size;
+            default:
+                throw new IllegalArgumentException("Unsupported rotation: " + rotation);
+        }
+    }
+
+    /**
+     * Returns the source step between two samples of a row of the rotated plane.
+     */
+    private static int stepX(int stride, int rotation, int size)
+    {
+        switch (rotation) {
+            case 90:
+                return -stride;
+            case 180:
+                return -size;
+            default:
+                return stride;
+        }
+    }
+
+    /**
+     * Returns the source step between two rows of the rotated plane.
+     */
+    private static int stepY(int stride, int rotation, int size)
+    {
+        switch (rotation) {
+            case 90:
+                return size;
+            case 180:
+                return -stride;
+            default:
+                return -size;
+        }
+    }
+
+    private static int rotatedWidth(int width, int height, int rotation)
+    {
+        return rotation == 90 || rotation == 270 ? height : width;
+    }
+
+    private static int rotatedHeight(int width, int height, int rotation)
+    {
+        return rotation == 90 || rotation == 270 ? width : height;
+    }
+
+    // -------------------------------------------------------------------------------------
+    // Plane primitives
+    // -------------------------------------------------------------------------------------
+
+    /**
+     * Copies width bytes of height rows.
+     */
+    public static void copyPlane(byte[] src, int srcOffset, int srcStride,
+                                 byte[] dst, int dstOffset, int dstStride,
+                                 int width, int height)
+    {
+        if (srcStride == width && dstStride == width) {
+            System.arraycopy(src, srcOffset, dst, dstOffset, width * height);
+            return;
+        }
+
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(src, srcOffset + y * srcStride, dst, dstOffset + y * dstStride, width);
+        }
+    }
+
+    /**
+     * Copies width bytes of height rows at the absolute dstOffset of the buffer.
+     */
+    public static void copyPlane(byte[] src, int srcOffset, int srcStride,
+                                 ByteBuffer dst, int dstOffset, int dstStride,
+                                 int width, int height)
+    {
+        if (dst.hasArray()) {
+            copyPlane(src, srcOffset, srcStride, dst.array(), dst.arrayOffset() + dstOffset, dstStride, width, height);
+            return;
+        }
+
+        // The bulk put of a direct buffer is a native copy
+        int position = dst.position();
+        if (srcStride == width && dstStride == width) {
+            dst.position(dstOffset);
+            dst.put(src, srcOffset, width * height);
+        } else {
+            for (int y = 0; y < height; y++) {
+                dst.position(dstOffset + y * dstStride);
+                dst.put(src, srcOffset + y * srcStride, width);
+            }
+        }
+        dst.position(position);
+    }
+
+    /**
+     * Swaps the two bytes of each pair, e.g. VU to UV.
+     */
+    public static void swapPairs(byte[] src, int srcOffset, int srcStride,
+                                 byte[] dst, int dstOffset, int dstStride,
+                                 int pairs, int height)
+    {
+        for (int y = 0; y < height; y++) {
+            int in = srcOffset + y * srcStride;
+            int out = dstOffset + y * dstStride;
+            for (int end = in + pairs * 2; in < end; in += 2, out += 2) {
+                dst[out] = src[in + 1];
+                dst[out + 1] = src[in];
+            }
+        }
+    }
+
+    /**
+     * Swaps the two bytes of each pair, e.g. VU to UV, at the absolute dstOffset of the buffer.
+     */
+    public static void swapPairs(byte[] src, int srcOffset, int srcStride,
+                                 ByteBuffer dst, int dstOffset, int dstStride,
+                                 int pairs, int height)
+    {
+        if (dst.hasArray()) {
+            swapPairs(src, srcOffset, srcStride, dst.array(), dst.arrayOffset() + dstOffset, dstStride, pairs, height);
+            return;
+        }
+
+        boolean swap = dst.order() != ByteOrder.BIG_ENDIAN;
+        for (int y = 0; y < height; y++) {
+            int in = srcOffset + y * srcStride;
+            int out = dstOffset + y * dstStride;
+            int end = in + pairs * 2;
+            for (; in + 8 <= end; in += 8, out += 8) {
+                long v = 0;
+                for (int k = 0; k < 8; k += 2) {
+                    v = (v << 16) | (src[in + k + 1] & 0xFFL) << 8 | (src[in + k] & 0xFFL);
+                }
+                dst.putLong(out, swap ? Long.reverseBytes(v) : v);
+            }
+            for (; in < end; in += 2, out += 2) {
+                dst.put(out, src[in + 1]);
+                dst.put(out + 1, src[in]);
+            }
+        }
+    }
+
+    /**
+     * Splits interleaved pairs into two planes: the first byte of each pair goes to the
+     * plane at firstOffset, the second one to the plane at secondOffset.
+     */
+    public static void deinterleave(byte[] src, int srcOffset, int srcStride,
+                                    byte[] dst, int firstOffset, int secondOffset, int dstStride,
+                                    int pairs, int height)
+    {
+        for (int y = 0; y < height; y++) {
+            int in = srcOffset + y * srcStride;
+            int first = firstOffset + y * dstStride;
+            int second = secondOffset + y * dstStride;
+            for (int x = 0; x < pairs; x++, in += 2) {
+                dst[first + x] = src[in];
+                dst[second + x] = src[in + 1];
+            }
+        }
+    }
+
+    /**
+     * Splits interleaved pairs into two planes at absolute offsets of the buffer.
+     */
+    public static void deinterleave(byte[] src, int srcOffset, int srcStride,
+                                    ByteBuffer dst, int firstOffset, int secondOffset, int dstStride,
+                                    int pairs, int height)
+    {
+        if (dst.hasArray()) {
+            int offset = dst.arrayOffset();
+            deinterleave(
+                    src, srcOffset, srcStride,
+                    dst.array(), offset + firstOffset, offset + secondOffset, dstStride,
+                    pairs, height
+            );
+            return;
+        }
+
+        boolean swap = dst.order() != ByteOrder.BIG_ENDIAN;
+        for (int y = 0; y < height; y++) {
+            int in = srcOffset + y * srcStride;
+            int first = firstOffset + y * dstStride;
+            int second = secondOffset + y * dstStride;
+            int x = 0;
+            for (; x + 8 <= pairs; x += 8, in += 16) {
+                long u = 0, v = 0;
+                for (int k = 0; k < 16; k += 2) {
+                    u = (u << 8) | (src[in + k] & 0xFFL);
+                    v = (v << 8) | (src[in + k + 1] & 0xFFL);
+                }
+                dst.putLong(first + x, swap ? Long.reverseBytes(u) : u);
+                dst.putLong(second + x, swap ? Long.reverseBytes(v) : v);
+            }
+            for (; x < pairs; x++, in += 2) {
+                dst.put(first + x, src[in]);
+                dst.put(second + x, src[in + 1]);
+            }
+        }
+    }
+
+    /**
+     * Interleaves two planes into pairs: the plane at firstOffset gives the first byte of
+     * each pair, the plane at secondOffset the second one.
+     */
+    public static void interleave(byte[] src, int firstOffset, int secondOffset, int srcStride,
+                                  byte[] dst, int dstOffset, int dstStride,
+                                  int pairs, int height)
+    {
+        for (int y = 0; y < height; y++) {
+            int first = firstOffset + y * srcStride;
+            int second = secondOffset + y * srcStride;
+            int out = dstOffset + y * dstStride;
+            for (int x = 0; x < pairs; x++, out += 2) {
+                dst[out] = src[first + x];
+                dst[out + 1] = src[second + x];
+            }
+        }
+    }
+
+    /**
+     * Interleaves two planes into pairs at the absolute dstOffset of the buffer.
+     */
+    public static void interleave(byte[] src, int firstOffset, int secondOffset, int srcStride,
+                                  ByteBuffer dst, int dstOffset, int dstStride,
+                                  int pairs, int height)
+    {
+        if (dst.hasArray()) {
+            interleave(
+                    src, firstOffset, secondOffset, srcStride,
+                    dst.array(), dst.arrayOffset() + dstOffset, dstStride,
+                    pairs, height
+            );
+            return;
+        }
+
+        boolean swap = dst.order() != ByteOrder.BIG_ENDIAN;
+        for (int y = 0; y < height; y++) {
+            int first = firstOffset + y * srcStride;
+            int second = secondOffset + y * srcStride;
+            int out = dstOffset + y * dstStride;
+            int x = 0;
+            for (; x + 4 <= pairs; x += 4, out += 8) {
+                long v = 0;
+                for (int k = 0; k < 4; k++) {
+                    v = (v << 16) | (src[first + x + k] & 0xFFL) << 8 | (src[second + x + k] & 0xFFL);
+                }
+                dst.putLong(out, swap ? Long.reverseBytes(v) : v);
+            }
+            for (; x < pairs; x++, out += 2) {
+                dst.put(out, src[first + x]);
+                dst.put(out + 1, src[second + x]);
+            }
+        }
+    }
+
+    /**
+     * Checks that a frame fits from the position of the buffer, returns that position.
+     */
+    private static int begin(ByteBuffer dst, int stride, int height)
+    {
+        if (dst.remaining() < frameSize(stride, height)) throw new BufferOverflowException();
+        return dst.position();
+    }
+
+    private static void end(ByteBuffer dst, int base, int stride, int height)
+    {
+        dst.position(base + frameSize(stride, height));
+    }
+}
@@ -5,6 +5,9 @@ package com.github.teocci.libstream.utils.yuv;
  * In the name, "YV" refers to the plane order: Y, then V (then U).
  * "12" refers to the pixel depth: 12-bits per pixel as for I420.
  * <p>
+ * The conversions and rotations write into buffers shared by all the threads, they are
+ * deprecated in favor of {@link YUVKernels}.
+ * <p>
  * Created by teocci.
  *
  * @author teocci@yandex.com on 2019-May-28
@@ -14,6 +17,7 @@ public class YV12Utils
     private static byte[] preAllocatedBufferRotate;
     private static byte[] preAllocatedBufferColor;
 
+    @Deprecated
     public static void preAllocateBuffers(int length)
     {
         preAllocatedBufferRotate = new byte[length];
@@ -33,6 +37,7 @@ public class YV12Utils
      * @param height height of the frame
      * @return I420 yuv pixel format buffer
      */
+    @Deprecated
     public static byte[] toI420(byte[] input, int width, int height)
     {
         final int frameSize = width * height;
@@ -58,6 +63,7 @@ public class YV12Utils
      * @param height height of the frame
      * @return NV12 yuv pixel format buffer
      */
+    @Deprecated
     public static byte[] toNV12(byte[] input, int width, int height)
     {
         final int frameSize = width * height;
@@ -83,6 +89,7 @@ public class YV12Utils
      * @param height height of the frame
      * @return NV21 yuv pixel format buffer
      */
+    @Deprecated
     public static byte[] toNV21(byte[] input, int width, int height)
     {
         final int frameSize = width * height;
@@ -99,6 +106,7 @@ public class YV12Utils
         return preAllocatedBufferColor;
     }
 
+    @Deprecated
     public static byte[] rotate90(byte[] data, int imageWidth, int imageHeight)
     {
         // Rotate the Y luma
@@ -127,6 +135,7 @@ public class YV12Utils
         return preAllocatedBufferRotate;
     }
 
+    @Deprecated
     public static byte[] rotate180(byte[] data, int imageWidth, int imageHeight)
     {
         int count = 0;
@@ -147,6 +156,7 @@ public class YV12Utils
         return preAllocatedBufferRotate;
     }
 
+    @Deprecated
     public static byte[] rotate270(byte[] data, int imageWidth, int imageHeight)
     {
         // Rotate the Y luma
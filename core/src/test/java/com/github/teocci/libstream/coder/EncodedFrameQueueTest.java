@@ -0,0 +1,131 @@
+package com.github.teocci.libstream.coder;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Stops and restarts of an {@link EncodedFrameQueue} while its producer keeps offering:
+ * the frames queued at a stop are discarded, never dispatched later, and there is never
+ * more than one dispatch thread.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-28
+ */
+public class EncodedFrameQueueTest
+{
+    private static final int FRAME_SIZE = 256;
+
+    private final ByteBuffer codecBuffer = ByteBuffer.allocateDirect(FRAME_SIZE);
+    private final FrameInfo info = new FrameInfo();
+
+    @Test
+    public void stopDiscardsTheQueuedFrames() throws InterruptedException
+    {
+        CountDownLatch blocked = new CountDownLatch(1);
+        List<Long> frames = new ArrayList<>();
+        EncodedFrameQueue queue = new EncodedFrameQueue("test", 8, FRAME_SIZE, (data, frame) -> {
+            synchronized (frames) {
+                frames.add(frame.presentationTimeUs);
+            }
+            if (frame.presentationTimeUs == 0) {
+                // The first sink call blocks until the stop interrupts it
+                blocked.countDown();
+                try {
+                    Thread.sleep(60_000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        queue.start();
+
+        assertTrue(offer(queue, 0, true));
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i <= 5; i++) assertTrue(offer(queue, i, false));
+        // The blocked frame is only released once dispatched
+        assertEquals(6, queue.getDepth());
+
+        queue.stop();
+        assertEquals(0, queue.getDepth());
+
+        // Only the frames offered after the stop are dispatched once started again
+        assertTrue(offer(queue, 6, true));
+        queue.start();
+        waitForDispatch(queue, 2);
+        queue.stop();
+
+        synchronized (frames) {
+            assertEquals(2, frames.size());
+            assertEquals(0L, (long) frames.get(0));
+            assertEquals(6L, (long) frames.get(1));
+        }
+    }
+
+    @Test
+    public void restartsNeverRunTwoConsumers() throws InterruptedException
+    {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger overlaps = new AtomicInteger();
+        long[] last = {-1};
+        AtomicInteger outOfOrder = new AtomicInteger();
+
+        EncodedFrameQueue queue = new EncodedFrameQueue("test", 8, FRAME_SIZE, (data, frame) -> {
+            if (running.incrementAndGet() > 1) overlaps.incrementAndGet();
+            if (frame.presentationTimeUs <= last[0]) outOfOrder.incrementAndGet();
+            last[0] = frame.presentationTimeUs;
+            // A slow sink, so the stops find frames queued
+            for (int i = 0; i < 1000; i++) Thread.yield();
+            running.decrementAndGet();
+        });
+
+        // The producer runs on its own thread, and never waits for the queue
+        AtomicInteger done = new AtomicInteger();
+        Thread producer = new Thread(() -> {
+            for (long pts = 0; done.get() == 0; pts++) {
+                offer(queue, pts, pts % 10 == 0);
+                if (pts % 64 == 0) Thread.yield();
+            }
+        }, "EncodedFrameQueueTest-producer");
+        producer.start();
+
+        for (int i = 0; i < 200; i++) {
+            queue.start();
+            Thread.sleep(1);
+            queue.stop();
+        }
+        done.set(1);
+        producer.join();
+
+        assertEquals(0, overlaps.get());
+        assertEquals(0, outOfOrder.get());
+        assertTrue(queue.getDispatchedFrames() > 0);
+    }
+
+
+    // Fixtures
+
+    private boolean offer(EncodedFrameQueue queue, long pts, boolean key)
+    {
+        info.set(0, FRAME_SIZE, pts, key ? FrameInfo.FLAG_KEY_FRAME : 0);
+        return queue.offer(codecBuffer, info);
+    }
+
+    private static void waitForDispatch(EncodedFrameQueue queue, long count) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (queue.getDispatchedFrames() < count && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(count, queue.getDispatchedFrames());
+    }
+}
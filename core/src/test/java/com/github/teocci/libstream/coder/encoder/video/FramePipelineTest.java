@@ -0,0 +1,206 @@
+package com.github.teocci.libstream.coder.encoder.video;
+
+import com.github.teocci.libstream.input.video.FrameBuffer;
+import com.github.teocci.libstream.input.video.FrameBufferPool;
+import com.github.teocci.libstream.interfaces.video.FrameStage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Stops of a {@link FramePipeline} while frames are flowing: every frame goes back to its
+ * pool exactly once, whatever stage it was in, and a stop waits for a slow stage instead
+ * of releasing its frames behind its back.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-28
+ */
+public class FramePipelineTest
+{
+    private static final int COUNT = 8;
+    private static final int FRAME_SIZE = 64;
+
+    private final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+    private Thread.UncaughtExceptionHandler handler;
+
+    @Before
+    public void setUp()
+    {
+        // A frame released twice throws on the thread of the stage
+        handler = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler((thread, e) -> failures.add(e));
+    }
+
+    @After
+    public void tearDown()
+    {
+        Thread.setDefaultUncaughtExceptionHandler(handler);
+    }
+
+    @Test
+    public void stopWaitsForASlowStage()
+    {
+        FrameBufferPool pool = new FrameBufferPool(COUNT, FRAME_SIZE);
+        FramePipeline pipeline = new FramePipeline("test", 2)
+                .addStage("slow", new BusyStage(300_000))
+                .addStage("sink", new BusyStage(0));
+        pipeline.start();
+
+        // One frame in the slow stage, two waiting in front of it
+        assertTrue(pipeline.offer(pool.acquire()));
+        sleep(50);
+        assertTrue(pipeline.offer(pool.acquire()));
+        assertTrue(pipeline.offer(pool.acquire()));
+
+        long start = System.nanoTime();
+        pipeline.stop();
+        long elapsed = System.nanoTime() - start;
+
+        // The slow stage finished its frame, and passed it on, before the stop returned
+        assertTrue("stopped after " + elapsed / 1_000_000 + " ms", elapsed >= TimeUnit.MILLISECONDS.toNanos(200));
+        assertEquals(COUNT, pool.getAvailable());
+        assertTrue(failures.toString(), failures.isEmpty());
+
+        FrameBuffer frame = pool.acquire();
+        assertFalse(pipeline.offer(frame));
+        frame.release();
+        assertEquals(COUNT, pool.getAvailable());
+    }
+
+    @Test
+    public void everyFrameIsReleasedOnceAcrossStops() throws InterruptedException
+    {
+        FrameBufferPool pool = new FrameBufferPool(COUNT, FRAME_SIZE);
+        Producer producer = new Producer(pool);
+        Random random = new Random(42);
+
+        for (int i = 0; i < 100; i++) {
+            FramePipeline pipeline = new FramePipeline("test", 2)
+                    .addStage("rotate", new BusyStage(random.nextInt(200)))
+                    .addStage("convert", new CopyStage(pool))
+                    .addStage("encode", new BusyStage(random.nextInt(200)));
+            pipeline.start();
+
+            producer.pipeline = pipeline;
+            if (i == 0) producer.start();
+
+            sleep(random.nextInt(5));
+            pipeline.stop();
+        }
+
+        producer.running = false;
+        producer.join();
+
+        assertTrue(producer.offered > 0);
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertEquals(COUNT, pool.getAvailable());
+    }
+
+
+    // Fixtures
+
+    private static void sleep(long millis)
+    {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Works on the frame for a while without looking at the interrupts, then passes it on.
+     */
+    private static class BusyStage implements FrameStage
+    {
+        private final long micros;
+
+        private BusyStage(long micros)
+        {
+            this.micros = micros;
+        }
+
+        @Override
+        public FrameBuffer process(FrameBuffer frame)
+        {
+            long end = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(micros);
+            while (System.nanoTime() < end) {
+                frame.data[0]++;
+            }
+
+            return frame;
+        }
+    }
+
+    /**
+     * Passes on a new frame of the pool, and releases the one received.
+     */
+    private static class CopyStage implements FrameStage
+    {
+        private final FrameBufferPool pool;
+
+        private CopyStage(FrameBufferPool pool)
+        {
+            this.pool = pool;
+        }
+
+        @Override
+        public FrameBuffer process(FrameBuffer frame)
+        {
+            FrameBuffer copy = pool.acquire();
+            if (copy != null) System.arraycopy(frame.data, 0, copy.data, 0, FRAME_SIZE);
+            frame.release();
+
+            return copy;
+        }
+    }
+
+    /**
+     * Offers the frames of the pool to the current pipeline as fast as it can, like the
+     * camera.
+     */
+    private static class Producer extends Thread
+    {
+        private final FrameBufferPool pool;
+
+        volatile FramePipeline pipeline;
+        volatile boolean running = true;
+        long offered;
+
+        private Producer(FrameBufferPool pool)
+        {
+            super("FramePipelineTest-producer");
+            this.pool = pool;
+        }
+
+        @Override
+        public void run()
+        {
+            while (running) {
+                FrameBuffer frame = pool.acquire();
+                if (frame == null) {
+                    Thread.yield();
+                    continue;
+                }
+
+                if (pipeline.offer(frame)) {
+                    offered++;
+                } else {
+                    frame.release();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.github.teocci.libstream.input.video;
+
+import com.github.teocci.libstream.interfaces.video.FrameRecycleListener;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * The frames of a {@link FrameBufferPool} cycle between the camera and the encoder without
+ * any allocation once the pool is created. The allocation check reads the bytes allocated
+ * by the test thread from the HotSpot ThreadMXBean, it is skipped on other VMs.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-28
+ */
+public class FrameBufferPoolTest
+{
+    private static final int COUNT = 4;
+    // A 64x40 YUV 4:2:0 frame, the copy is not what is measured
+    private static final int FRAME_SIZE = 64 * 40 * 3 / 2;
+
+    @Test
+    public void cyclingTheFramesAllocatesNothing()
+    {
+        com.sun.management.ThreadMXBean threads = allocationCounter();
+        long id = Thread.currentThread().getId();
+
+        FrameBufferPool pool = new FrameBufferPool(COUNT, FRAME_SIZE);
+        CountingListener listener = new CountingListener();
+        pool.setRecycleListener(listener);
+        byte[] camera = new byte[FRAME_SIZE];
+        FrameBuffer[] queue = new FrameBuffer[COUNT];
+
+        // Until the JIT compiled the loop
+        cycle(pool, camera, queue, 50_000);
+
+        long before = threads.getThreadAllocatedBytes(id);
+        long misses = cycle(pool, camera, queue, 500_000);
+        long allocated = threads.getThreadAllocatedBytes(id) - before;
+
+        // A single object per frame would be tens of MB
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+        assertTrue(misses > 0);
+        assertEquals(COUNT, pool.getAvailable());
+        assertEquals(550_000L * COUNT, listener.recycled);
+    }
+
+    /**
+     * Acquires the frames as the camera does, one more than the pool holds, and hands them
+     * to the encoder, which releases them.
+     *
+     * @return the number of frames dropped
+     */
+    private static long cycle(FrameBufferPool pool, byte[] camera, FrameBuffer[] queue, int rounds)
+    {
+        long misses = pool.getMissCount();
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i <= queue.length; i++) {
+                FrameBuffer frame = pool.acquire();
+                if (frame == null) continue;
+
+                System.arraycopy(camera, 0, frame.data, 0, FRAME_SIZE);
+                frame.timestamp = round;
+                // Queued for the encoder, then released by the camera
+                queue[i] = frame.retain();
+                frame.release();
+            }
+
+            for (int i = 0; i < queue.length; i++) {
+                queue[i].release();
+                queue[i] = null;
+            }
+        }
+        return pool.getMissCount() - misses;
+    }
+
+    @Test
+    public void theLastReleaseRecyclesTheFrame()
+    {
+        FrameBufferPool pool = new FrameBufferPool(2, 16);
+        CountingListener listener = new CountingListener();
+        pool.setRecycleListener(listener);
+
+        FrameBuffer frame = pool.acquire();
+        assertNotNull(frame);
+        assertEquals(1, frame.getRefCount());
+        assertEquals(16, frame.length);
+        assertSame(pool, frame.getPool());
+        assertEquals(1, pool.getAvailable());
+
+        frame.retain();
+        frame.release();
+        assertEquals(0, listener.recycled);
+        assertEquals(1, pool.getAvailable());
+
+        frame.release();
+        assertEquals(1, listener.recycled);
+        assertSame(frame, listener.last);
+        assertEquals(2, pool.getAvailable());
+        assertEquals(0, frame.getRefCount());
+    }
+
+    @Test
+    public void anExhaustedPoolDropsTheFrame()
+    {
+        FrameBufferPool pool = new FrameBufferPool(COUNT, 16);
+        Set<FrameBuffer> frames = new HashSet<>();
+        for (int i = 0; i < COUNT; i++) frames.add(pool.acquire());
+        assertEquals(COUNT, frames.size());
+
+        assertNull(pool.acquire());
+        assertNull(pool.acquire());
+        assertEquals(2, pool.getMissCount());
+        assertEquals(COUNT + 2, pool.getAcquireCount());
+
+        // Each frame is handed out again once released, never another one
+        List<FrameBuffer> again = new ArrayList<>();
+        for (FrameBuffer frame : frames) frame.release();
+        for (int i = 0; i < COUNT; i++) again.add(pool.acquire());
+        assertEquals(frames, new HashSet<>(again));
+    }
+
+    @Test
+    public void aRecycledFrameCanNotBeUsedAgain()
+    {
+        FrameBufferPool pool = new FrameBufferPool(1, 16);
+        FrameBuffer frame = pool.acquire();
+        frame.release();
+
+        try {
+            frame.retain();
+            fail("retained a recycled frame");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        try {
+            frame.release();
+            fail("released a recycled frame");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+
+        // The pool is left consistent
+        assertEquals(1, pool.getAvailable());
+        assertSame(frame, pool.acquire());
+        assertEquals(1, frame.getRefCount());
+    }
+
+    @Test
+    public void findsTheFrameOfAnArray()
+    {
+        FrameBufferPool pool = new FrameBufferPool(COUNT, 16);
+        FrameBuffer frame = pool.acquire();
+
+        assertSame(frame, pool.find(frame.data));
+        assertNull(pool.find(new byte[16]));
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter()
+    {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        return threads;
+    }
+
+    private static class CountingListener implements FrameRecycleListener
+    {
+        long recycled;
+        FrameBuffer last;
+
+        @Override
+        public void onFrameRecycled(FrameBuffer frame)
+        {
+            recycled++;
+            last = frame;
+        }
+    }
+}
@@ -0,0 +1,479 @@
+package com.github.teocci.libstream.muxers.mp4;
+
+import com.github.teocci.libstream.coder.FrameInfo;
+import com.github.teocci.libstream.interfaces.FragmentSink;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Golden-file checks of the fragmented MP4: fixed H.264, H.265 and AAC access units are
+ * muxed into a file whose bytes must match the ones in src/test/resources/mp4, then the
+ * boxes are parsed to check the data offsets of the truns, the continuity of the tfdts and
+ * the duration patched in the mehd by {@link Fmp4Muxer#stop()}.
+ * <p>
+ * After an intended change of the output, the golden files are rewritten by running the
+ * tests with -Dlibstream.golden=&lt;path of src/test/resources/mp4&gt;.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-28
+ */
+public class Fmp4MuxerTest
+{
+    private static final String GOLDEN_PROPERTY = "libstream.golden";
+
+    private static final long START_US = 1_000_000;
+    private static final long VIDEO_FRAME_US = 40_000;
+    private static final int VIDEO_FRAMES = 75;
+    private static final int KEY_FRAME_INTERVAL = 25;
+    private static final int SAMPLE_RATE = 44100;
+    private static final int AUDIO_FRAMES = 130;
+
+    private static final byte[] AVC_SPS = {
+            0, 0, 0, 1, 0x67, 0x42, (byte) 0xC0, 0x1E, (byte) 0xDA, 0x02, (byte) 0x80, (byte) 0xF6, (byte) 0x84
+    };
+    private static final byte[] AVC_PPS = {0, 0, 0, 1, 0x68, (byte) 0xCE, 0x3C, (byte) 0x80};
+
+    private static final byte[] HEVC_VPS = {0, 0, 0, 1, 0x40, 0x01, 0x0C, 0x01, (byte) 0xFF, (byte) 0xFF};
+    private static final byte[] HEVC_SPS = {
+            0, 0, 0, 1, 0x42, 0x01, 0x01, 0x01, 0x60, 0, 0, 0, (byte) 0x90, 0, 0, 0, 0, 0, 0x5D, (byte) 0xA0,
+            0x02, (byte) 0x80
+    };
+    private static final byte[] HEVC_PPS = {0, 0, 0, 1, 0x44, 0x01, (byte) 0xC1, 0x72};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private enum Video
+    {
+        NONE, H264, HEVC
+    }
+
+    @Test
+    public void h264AndAacMatchTheGoldenFile() throws IOException
+    {
+        checkGolden("h264_aac.mp4", muxToFile(Video.H264, true));
+    }
+
+    @Test
+    public void hevcAndAacMatchTheGoldenFile() throws IOException
+    {
+        checkGolden("hevc_aac.mp4", muxToFile(Video.HEVC, true));
+    }
+
+    @Test
+    public void aacOnlyMatchesTheGoldenFile() throws IOException
+    {
+        checkGolden("aac.mp4", muxToFile(Video.NONE, true));
+    }
+
+    @Test
+    public void trunDataOffsetsPointAtTheSamplesOfTheirMdat() throws IOException
+    {
+        for (Video video : Video.values()) {
+            byte[] file = muxToFile(video, true);
+            List<Box> top = Box.parse(file, 0, file.length);
+
+            int fragments = 0;
+            for (int i = 0; i < top.size(); i++) {
+                Box moof = top.get(i);
+                if (!moof.type.equals("moof")) continue;
+                fragments++;
+
+                Box mdat = top.get(i + 1);
+                assertEquals("mdat", mdat.type);
+                assertEquals(moof.end(), mdat.offset);
+
+                // The samples of the trafs follow each other and fill the mdat
+                int expected = mdat.offset + 8;
+                for (Box traf : moof.children("traf")) {
+                    Box trun = traf.child("trun");
+                    int count = u32(file, trun.offset + 12);
+                    int dataOffset = u32(file, trun.offset + 16);
+                    assertEquals(expected, moof.offset + dataOffset);
+
+                    boolean videoTraf = video != Video.NONE && u32(file, traf.child("tfhd").offset + 12) == 1;
+                    int sample = moof.offset + dataOffset;
+                    for (int k = 0; k < count; k++) {
+                        int size = u32(file, trun.offset + 20 + 12 * k + 4);
+                        if (videoTraf) assertLengthPrefixed(file, sample, size);
+                        sample += size;
+                    }
+                    expected = sample;
+                }
+                assertEquals(mdat.end(), expected);
+            }
+            assertTrue(video + " fragments", fragments >= 3);
+        }
+    }
+
+    @Test
+    public void tfdtFollowsTheEndOfThePreviousFragment() throws IOException
+    {
+        for (Video video : Video.values()) {
+            byte[] file = muxToFile(video, true);
+            Map<Integer, Long> ends = new HashMap<>();
+
+            for (Box moof : Box.parse(file, 0, file.length)) {
+                if (!moof.type.equals("moof")) continue;
+
+                for (Box traf : moof.children("traf")) {
+                    int trackId = u32(file, traf.child("tfhd").offset + 12);
+                    Box tfdt = traf.child("tfdt");
+                    assertEquals("tfdt version", 1, file[tfdt.offset + 8]);
+                    long base = u64(file, tfdt.offset + 12);
+
+                    Long end = ends.get(trackId);
+                    if (end != null) {
+                        // The video is cut on its own times, the AAC times are rounded to the us
+                        long tolerance = video != Video.NONE && trackId == 1 ? 0 : 1;
+                        assertTrue(video + " track " + trackId + " gap " + (base - end),
+                                Math.abs(base - end) <= tolerance);
+                    }
+
+                    Box trun = traf.child("trun");
+                    long duration = 0;
+                    int count = u32(file, trun.offset + 12);
+                    for (int k = 0; k < count; k++) {
+                        duration += u32(file, trun.offset + 20 + 12 * k);
+                    }
+                    ends.put(trackId, base + duration);
+                }
+            }
+            assertEquals(video == Video.NONE ? 1 : 2, ends.size());
+        }
+    }
+
+    @Test
+    public void stopPatchesTheDurationOfTheMehd() throws IOException
+    {
+        RecordingSink sink = new RecordingSink();
+        mux(new Fmp4Muxer(sink), Video.H264, true);
+
+        // Written as 0 with the header, then patched in place
+        Box mehd = Box.find(sink.header, "moov", "mvex", "mehd");
+        assertNotNull(mehd);
+        assertEquals("mehd version", 1, sink.header[mehd.offset + 8]);
+        assertEquals(0, u64(sink.header, mehd.offset + 12));
+
+        assertEquals(1, sink.patches.size());
+        long position = sink.positions.get(0);
+        byte[] patch = sink.patches.get(0);
+        assertEquals(mehd.offset + 12, position);
+        assertEquals(8, patch.length);
+
+        // The longest track, in the movie timescale of 1000
+        long duration = u64(patch, 0);
+        long videoEnd = (VIDEO_FRAMES - 1) * VIDEO_FRAME_US * 90 / 1000 + 90000 / 30;
+        assertEquals(videoEnd * 1000 / 90000, duration);
+
+        // The file gets the same patch
+        byte[] file = muxToFile(Video.H264, true);
+        Box fileMehd = Box.find(file, "moov", "mvex", "mehd");
+        assertEquals(duration, u64(file, fileMehd.offset + 12));
+    }
+
+    @Test
+    public void videoStartsAtItsFirstKeyFrame() throws IOException
+    {
+        byte[] file = muxToFile(Video.H264, true);
+        Box moof = null;
+        for (Box box : Box.parse(file, 0, file.length)) {
+            if (box.type.equals("moof")) {
+                moof = box;
+                break;
+            }
+        }
+        assertNotNull(moof);
+
+        Box trun = moof.children("traf").get(0).child("trun");
+        assertEquals(Fmp4Track.FLAGS_SYNC, u32(file, trun.offset + 20 + 8));
+        // The audio before the key frame is dropped, the frames before it are not written
+        assertEquals(0, u64(file, moof.children("traf").get(0).child("tfdt").offset + 12));
+    }
+
+
+    // Fixtures
+
+    private byte[] muxToFile(Video video, boolean audio) throws IOException
+    {
+        File file = folder.newFile();
+        mux(new Fmp4Muxer(file.getPath()), video, audio);
+        return Files.readAllBytes(file.toPath());
+    }
+
+    /**
+     * Muxes 3 s of fixed video frames, a key frame per second preceded by two frames that
+     * must be dropped, and the AAC frames from 100 ms before the first key frame.
+     */
+    private static void mux(Fmp4Muxer muxer, Video video, boolean audio) throws IOException
+    {
+        boolean hevc = video == Video.HEVC;
+        int videoTrack = -1, audioTrack = -1;
+        if (video != Video.NONE) {
+            videoTrack = hevc ? muxer.addVideoTrack(640, 480, HEVC_SPS, HEVC_PPS, HEVC_VPS)
+                    : muxer.addVideoTrack(640, 480, AVC_SPS, AVC_PPS, null);
+        }
+        if (audio) audioTrack = muxer.addAudioTrack(SAMPLE_RATE, 2, null);
+        muxer.start();
+
+        FrameInfo info = new FrameInfo();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(16 * 1024);
+        int audioIndex = 0;
+        for (int f = -2; f < VIDEO_FRAMES; f++) {
+            long pts = START_US + f * VIDEO_FRAME_US;
+            while (audioTrack >= 0 && audioIndex < AUDIO_FRAMES && audioTime(audioIndex) < pts) {
+                int size = audioFrame(buffer, audioIndex);
+                muxer.writeSampleData(audioTrack, buffer, info.set(5, size, audioTime(audioIndex), 1));
+                audioIndex++;
+            }
+
+            if (videoTrack < 0) continue;
+            boolean key = f >= 0 && f % KEY_FRAME_INTERVAL == 0;
+            int size = videoFrame(buffer, f, key, hevc);
+            muxer.writeSampleData(videoTrack, buffer, info.set(7, size, pts, key ? 1 : 0));
+        }
+
+        muxer.stop();
+    }
+
+    private static long audioTime(int index)
+    {
+        return START_US - 100_000 + Math.round(index * 1024 * 1_000_000.0 / SAMPLE_RATE);
+    }
+
+    /**
+     * Writes an AAC frame at offset 5 of the buffer, the position left at 3.
+     */
+    private static int audioFrame(ByteBuffer buffer, int index)
+    {
+        int size = 60 + index % 9;
+        buffer.clear();
+        buffer.position(5);
+        for (int k = 0; k < size; k++) buffer.put((byte) (index * 31 + k));
+        buffer.limit(buffer.position());
+        buffer.position(3);
+        return size;
+    }
+
+    /**
+     * Writes an access unit in Annex B at offset 7 of the buffer: the parameter sets on key
+     * frames, then two slices, behind start codes of 4 and 3 bytes.
+     */
+    private static int videoFrame(ByteBuffer buffer, int index, boolean key, boolean hevc)
+    {
+        buffer.clear();
+        buffer.position(7);
+        if (key) {
+            if (hevc) buffer.put(HEVC_VPS);
+            buffer.put(hevc ? HEVC_SPS : AVC_SPS);
+            buffer.put(hevc ? HEVC_PPS : AVC_PPS);
+        }
+
+        buffer.put(new byte[]{0, 0, 0, 1});
+        if (hevc) {
+            // IDR_W_RADL or TRAIL_R
+            buffer.put((byte) (key ? 0x26 : 0x02)).put((byte) 0x01);
+        } else {
+            buffer.put((byte) (key ? 0x65 : 0x41));
+        }
+        int size = (key ? 400 : 120) + (index & 0x0F) * 3;
+        for (int k = 0; k < size; k++) buffer.put((byte) (k % 7 == 0 ? 0x11 : index + k));
+
+        buffer.put(new byte[]{0, 0, 1});
+        if (hevc) {
+            buffer.put((byte) 0x02).put((byte) 0x01);
+        } else {
+            buffer.put((byte) 0x41);
+        }
+        for (int k = 0; k < 40; k++) buffer.put((byte) 0x22);
+
+        int length = buffer.position() - 7;
+        buffer.limit(buffer.position());
+        buffer.position(3);
+        return length;
+    }
+
+    private void checkGolden(String name, byte[] actual) throws IOException
+    {
+        String directory = System.getProperty(GOLDEN_PROPERTY);
+        if (directory != null) {
+            try (FileOutputStream out = new FileOutputStream(new File(directory, name))) {
+                out.write(actual);
+            }
+        }
+
+        InputStream in = getClass().getResourceAsStream("/mp4/" + name);
+        assertNotNull("Missing golden file " + name, in);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        try {
+            byte[] chunk = new byte[8192];
+            for (int n; (n = in.read(chunk)) > 0; ) expected.write(chunk, 0, n);
+        } finally {
+            in.close();
+        }
+
+        assertArrayEquals(name, expected.toByteArray(), actual);
+    }
+
+    private static void assertLengthPrefixed(byte[] file, int offset, int size)
+    {
+        int end = offset + size;
+        while (offset < end) {
+            int length = u32(file, offset);
+            assertTrue("NAL unit length " + length, length > 0);
+            offset += 4 + length;
+        }
+        assertEquals("NAL units fill the sample", end, offset);
+    }
+
+    private static int u32(byte[] data, int offset)
+    {
+        return (data[offset] & 0xFF) << 24 | (data[offset + 1] & 0xFF) << 16
+                | (data[offset + 2] & 0xFF) << 8 | data[offset + 3] & 0xFF;
+    }
+
+    private static long u64(byte[] data, int offset)
+    {
+        return (u32(data, offset) & 0xFFFFFFFFL) << 32 | u32(data, offset + 4) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * A box of the file, with the boxes it contains.
+     */
+    private static class Box
+    {
+        private static final String[] CONTAINERS = {"moov", "trak", "mdia", "minf", "stbl", "mvex", "moof", "traf"};
+
+        final String type;
+        final int offset;
+        final int size;
+        final List<Box> children;
+
+        private Box(String type, int offset, int size, List<Box> children)
+        {
+            this.type = type;
+            this.offset = offset;
+            this.size = size;
+            this.children = children;
+        }
+
+        int end()
+        {
+            return offset + size;
+        }
+
+        static List<Box> parse(byte[] data, int offset, int end)
+        {
+            List<Box> boxes = new ArrayList<>();
+            while (offset < end) {
+                int size = u32(data, offset);
+                assertTrue("box size " + size + " at " + offset, size >= 8 && offset + size <= end);
+                String type = new String(data, offset + 4, 4);
+
+                List<Box> children = new ArrayList<>();
+                for (String container : CONTAINERS) {
+                    if (container.equals(type)) children = parse(data, offset + 8, offset + size);
+                }
+                boxes.add(new Box(type, offset, size, children));
+                offset += size;
+            }
+            assertEquals(end, offset);
+            return boxes;
+        }
+
+        static Box find(byte[] data, String... path)
+        {
+            List<Box> boxes = parse(data, 0, data.length);
+            Box box = null;
+            for (String type : path) {
+                box = null;
+                for (Box candidate : boxes) {
+                    if (candidate.type.equals(type)) box = candidate;
+                }
+                if (box == null) return null;
+                boxes = box.children;
+            }
+            return box;
+        }
+
+        Box child(String type)
+        {
+            List<Box> boxes = children(type);
+            assertEquals(type + " in " + this.type, 1, boxes.size());
+            return boxes.get(0);
+        }
+
+        List<Box> children(String type)
+        {
+            List<Box> boxes = new ArrayList<>();
+            for (Box box : children) {
+                if (box.type.equals(type)) boxes.add(box);
+            }
+            return boxes;
+        }
+    }
+
+    /**
+     * Keeps the header and the patches of the muxer.
+     */
+    private static class RecordingSink implements FragmentSink
+    {
+        byte[] header;
+        final List<byte[]> patches = new ArrayList<>();
+        final List<Long> positions = new ArrayList<>();
+
+        @Override
+        public ByteBuffer obtain(int capacity)
+        {
+            return ByteBuffer.allocate(capacity);
+        }
+
+        @Override
+        public void writeHeader(ByteBuffer header)
+        {
+            this.header = toBytes(header);
+        }
+
+        @Override
+        public void writeFragment(ByteBuffer boxes, ByteBuffer[] data, long time, long duration,
+                                  boolean independent) {}
+
+        @Override
+        public void writeAt(ByteBuffer buffer, long position)
+        {
+            patches.add(toBytes(buffer));
+            positions.add(position);
+        }
+
+        @Override
+        public void close() {}
+
+        private static byte[] toBytes(ByteBuffer buffer)
+        {
+            ByteBuffer data = buffer.duplicate();
+            byte[] bytes = new byte[data.remaining()];
+            data.get(bytes);
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.github.teocci.libstream.protocols.hls;
+
+import com.github.teocci.libstream.coder.FrameInfo;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The playlists of a stream of H.264 frames at 25 fps: the target duration is set when the
+ * stream starts and never changes, even when a key frame comes late, and no segment lasts
+ * longer once rounded.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-28
+ */
+public class HlsSegmenterTest
+{
+    private static final long FRAME_US = 40_000;
+
+    private static final byte[] SPS = {
+            0, 0, 0, 1, 0x67, 0x42, (byte) 0xC0, 0x1E, (byte) 0xDA, 0x02, (byte) 0x80, (byte) 0xF6, (byte) 0x84
+    };
+    private static final byte[] PPS = {0, 0, 0, 1, 0x68, (byte) 0xCE, 0x3C, (byte) 0x80};
+
+    private static final Pattern TARGET = Pattern.compile("#EXT-X-TARGETDURATION:(\\d+)\n");
+    private static final Pattern EXTINF = Pattern.compile("#EXTINF:([0-9.]+),\n");
+
+    @Test
+    public void targetDurationIsTheSegmentDurationRoundedUpToTheKeyFrames()
+    {
+        // Unknown key frames
+        assertEquals(2, HlsSegmenter.computeTargetDuration(2_000_000, 500_000, 0));
+        assertEquals(3, HlsSegmenter.computeTargetDuration(2_500_000, 500_000, 0));
+        assertEquals(1, HlsSegmenter.computeTargetDuration(200_000, 100_000, 0));
+
+        assertEquals(2, HlsSegmenter.computeTargetDuration(2_000_000, 500_000, 1_000_000));
+        assertEquals(2, HlsSegmenter.computeTargetDuration(2_000_000, 500_000, 2_000_000));
+        // A segment cut at the first key frame after 1.75 s
+        assertEquals(3, HlsSegmenter.computeTargetDuration(2_000_000, 500_000, 1_500_000));
+        assertEquals(4, HlsSegmenter.computeTargetDuration(2_000_000, 500_000, 4_000_000));
+    }
+
+    @Test
+    public void targetDurationStaysTheSameWhenAKeyFrameIsLate()
+    {
+        HlsSegmenter segmenter = newSegmenter();
+        segmenter.setKeyFrameInterval(2000);
+        assertNull(segmenter.getPlaylist());
+
+        // Key frames every 2 s, but one 3.2 s late
+        long[] keyFrames = {0, 2_000_000, 4_000_000, 9_200_000, 11_200_000, 13_200_000};
+        List<String> playlists = new ArrayList<>();
+        stream(segmenter, keyFrames, 15_000_000, playlists);
+
+        assertTrue(playlists.size() > 30);
+        for (String playlist : playlists) {
+            assertEquals(playlist, 2, getTarget(playlist));
+        }
+        assertEquals(2000, segmenter.getTargetDuration());
+
+        String last = playlists.get(playlists.size() - 1);
+        assertTrue(last, last.endsWith("#EXT-X-ENDLIST\n"));
+        List<Double> durations = getSegmentDurations(last);
+        assertTrue(durations.size() >= 6);
+        for (double duration : durations) {
+            assertTrue(last, Math.round(duration) <= 2);
+        }
+
+        // Cut at 6.4 s and 8.8 s without a key frame, the segment at 9.2 s starts with it again
+        assertTrue(last, last.contains("#EXTINF:2.40000,\nseg3.m4s\n"));
+        assertTrue(last, last.contains("#EXTINF:0.40000,\nseg4.m4s\n"));
+        assertTrue(last, last.contains("#EXTINF:2.00000,\nseg5.m4s\n"));
+    }
+
+    @Test
+    public void targetDurationOfTheNextStreamChangesOnlyWhenItStarts()
+    {
+        HlsSegmenter segmenter = newSegmenter();
+        segmenter.setKeyFrameInterval(2000);
+        List<String> playlists = new ArrayList<>();
+        stream(segmenter, new long[]{0, 2_000_000}, 3_000_000, playlists);
+        assertEquals(2000, segmenter.getTargetDuration());
+
+        // Kept by the stream that ended, taken by the next one
+        segmenter.setKeyFrameInterval(3000);
+        assertEquals(2000, segmenter.getTargetDuration());
+        assertEquals(2, getTarget(toString(segmenter.getPlaylist())));
+
+        playlists.clear();
+        stream(segmenter, new long[]{0, 3_000_000, 6_000_000}, 7_000_000, playlists);
+        for (String playlist : playlists) {
+            assertEquals(playlist, 3, getTarget(playlist));
+        }
+        assertEquals(3000, segmenter.getTargetDuration());
+    }
+
+    @Test
+    public void blockingReloadConditionsFollowTheParts()
+    {
+        HlsSegmenter segmenter = newSegmenter();
+        segmenter.setKeyFrameInterval(2000);
+        FrameWriter writer = new FrameWriter(segmenter);
+
+        writer.writeUntil(new long[]{0}, 1_000_000);
+        // Parts of 0.48 s, the one being built is not listed yet
+        assertTrue(segmenter.hasPlaylist(0, 0));
+        assertTrue(segmenter.hasPlaylist(0, 1));
+        assertFalse(segmenter.hasPlaylist(0, 2));
+        assertFalse(segmenter.hasPlaylist(0, -1));
+        assertFalse(segmenter.hasPlaylist(1, 0));
+        assertTrue(segmenter.isNextPart(2));
+        assertFalse(segmenter.isNextPart(3));
+        assertFalse(segmenter.isTooFarAhead(2));
+        assertTrue(segmenter.isTooFarAhead(3));
+
+        // The key frame at 2 s completes the segment 0
+        writer.writeUntil(new long[]{0, 2_000_000}, 2_500_000);
+        assertTrue(segmenter.hasPlaylist(0, -1));
+        assertTrue(segmenter.hasPlaylist(1, 0));
+        assertFalse(segmenter.hasPlaylist(1, 1));
+
+        HlsPart part = segmenter.acquirePart(segmenter.getPartCount() - 1);
+        assertEquals(1, part.segment);
+        assertTrue(part.independent);
+        part.release();
+
+        segmenter.stop();
+        assertTrue(segmenter.hasPlaylist(5, 3));
+        assertFalse(segmenter.isNextPart(segmenter.getPartCount()));
+    }
+
+    static HlsSegmenter newSegmenter()
+    {
+        HlsSegmenter segmenter = new HlsSegmenter();
+        segmenter.setVideoSize(640, 480);
+        segmenter.setParameterSets(SPS, PPS, null);
+        return segmenter;
+    }
+
+    /**
+     * Writes the frames until the end, then stops the stream. The playlist is taken after
+     * each frame that changed it.
+     */
+    private static void stream(HlsSegmenter segmenter, long[] keyFrames, long end, List<String> playlists)
+    {
+        FrameWriter writer = new FrameWriter(segmenter);
+        String previous = null;
+        while (writer.time < end) {
+            writer.write(keyFrames);
+            String playlist = toString(segmenter.getPlaylist());
+            if (!playlist.equals(previous)) playlists.add(playlist);
+            previous = playlist;
+        }
+
+        segmenter.stop();
+        playlists.add(toString(segmenter.getPlaylist()));
+    }
+
+    private static int getTarget(String playlist)
+    {
+        Matcher matcher = TARGET.matcher(playlist);
+        assertTrue(playlist, matcher.find());
+        return Integer.parseInt(matcher.group(1));
+    }
+
+    private static List<Double> getSegmentDurations(String playlist)
+    {
+        List<Double> durations = new ArrayList<>();
+        Matcher matcher = EXTINF.matcher(playlist);
+        while (matcher.find()) {
+            durations.add(Double.parseDouble(matcher.group(1)));
+        }
+        return durations;
+    }
+
+    private static String toString(ByteBuffer buffer)
+    {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes, Charset.forName("US-ASCII"));
+    }
+
+
+    // Fixtures
+
+    /**
+     * Writes H.264 access units of a slice each, one every 40 ms.
+     */
+    static class FrameWriter
+    {
+        private final HlsSegmenter segmenter;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+        private final FrameInfo info = new FrameInfo();
+
+        long time = 0;
+
+        FrameWriter(HlsSegmenter segmenter)
+        {
+            this.segmenter = segmenter;
+        }
+
+        void writeUntil(long[] keyFrames, long end)
+        {
+            while (time < end) write(keyFrames);
+        }
+
+        void write(long[] keyFrames)
+        {
+            boolean key = false;
+            for (long keyFrame : keyFrames) {
+                if (keyFrame == time) key = true;
+            }
+
+            buffer.clear();
+            buffer.put(new byte[]{0, 0, 0, 1, (byte) (key ? 0x65 : 0x41)});
+            for (int k = 0; k < (key ? 400 : 100); k++) buffer.put((byte) (k + 1));
+            buffer.flip();
+
+            segmenter.writeVideo(buffer, info.set(0, buffer.remaining(), time, key ? FrameInfo.FLAG_KEY_FRAME : 0));
+            time += FRAME_US;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.github.teocci.libstream.protocols.hls;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The blocking requests of LL-HLS over the loopback: a playlist request for a part not
+ * written yet, and a request of the part of the preload hint, are only answered once the
+ * segmenter adds the part.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-28
+ */
+public class HlsServerTest
+{
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    // Long enough for the server to answer a request that does not wait
+    private static final int PENDING_MS = 300;
+    private static final int ANSWER_MS = 5000;
+
+    private HlsSegmenter segmenter;
+    private HlsServer server;
+    private HlsSegmenterTest.FrameWriter writer;
+
+    // Key frames every 2 s, parts of 0.48 s
+    private final long[] keyFrames = {0, 2_000_000, 4_000_000};
+
+    @Before
+    public void setUp() throws IOException
+    {
+        segmenter = HlsSegmenterTest.newSegmenter();
+        segmenter.setKeyFrameInterval(2000);
+        server = new HlsServer(segmenter);
+        server.setPort(0);
+        server.start();
+
+        writer = new HlsSegmenterTest.FrameWriter(segmenter);
+        writer.writeUntil(keyFrames, 1_000_000);
+    }
+
+    @After
+    public void tearDown()
+    {
+        server.stop();
+        segmenter.stop();
+    }
+
+    @Test
+    public void playlistRequestWaitsForThePart() throws IOException
+    {
+        try (Socket socket = connect()) {
+            // The first part of the next segment
+            request(socket, "/index.m3u8?_HLS_msn=1&_HLS_part=0");
+            assertPending(socket);
+
+            // Still not there
+            writer.writeUntil(keyFrames, 2_000_000);
+            assertPending(socket);
+
+            // Written at the cut of the next part
+            writer.writeUntil(keyFrames, 2_500_000);
+            Response response = read(socket);
+            assertEquals(200, response.status);
+
+            String playlist = new String(response.body, ASCII);
+            long part = segmenter.getPartCount() - 1;
+            assertTrue(playlist, playlist.contains("#EXT-X-TARGETDURATION:2\n"));
+            assertTrue(playlist, playlist.contains("seg0.m4s\n"));
+            assertTrue(playlist, playlist.contains("URI=\"" + HlsPart.getUri(part) + "\",INDEPENDENT=YES\n"));
+            assertTrue(playlist, playlist.contains("#EXT-X-PRELOAD-HINT:TYPE=PART,URI=\"" + HlsPart.getUri(part + 1)));
+
+            // The connection goes on with the next request, answered at once
+            request(socket, "/index.m3u8?_HLS_msn=1&_HLS_part=0");
+            assertEquals(200, read(socket).status);
+        }
+    }
+
+    @Test
+    public void partRequestWaitsForThePreloadHint() throws IOException
+    {
+        long next = segmenter.getPartCount();
+        try (Socket socket = connect()) {
+            request(socket, "/" + HlsPart.getUri(next));
+            assertPending(socket);
+
+            writer.writeUntil(keyFrames, 1_500_000);
+            Response response = read(socket);
+            assertEquals(200, response.status);
+
+            HlsPart part = segmenter.acquirePart(next);
+            assertEquals(part.getSize(), response.body.length);
+            part.release();
+
+            // The one after the next one is not waited for
+            request(socket, "/" + HlsPart.getUri(segmenter.getPartCount() + 1));
+            assertEquals(404, read(socket).status);
+        }
+    }
+
+    @Test
+    public void segmentTooFarAheadIsRefused() throws IOException
+    {
+        try (Socket socket = connect()) {
+            request(socket, "/index.m3u8?_HLS_msn=3&_HLS_part=0");
+            assertEquals(400, read(socket).status);
+        }
+    }
+
+    private Socket connect() throws IOException
+    {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+        socket.setTcpNoDelay(true);
+        return socket;
+    }
+
+    private static void request(Socket socket, String target) throws IOException
+    {
+        String request = "GET " + target + " HTTP/1.1\r\nHost: localhost\r\n\r\n";
+        socket.getOutputStream().write(request.getBytes(ASCII));
+    }
+
+    private static void assertPending(Socket socket) throws IOException
+    {
+        socket.setSoTimeout(PENDING_MS);
+        try {
+            int read = socket.getInputStream().read();
+            fail("Answered at once: " + (char) read);
+        } catch (SocketTimeoutException expected) {
+            // Still waiting
+        }
+    }
+
+    private static Response read(Socket socket) throws IOException
+    {
+        socket.setSoTimeout(ANSWER_MS);
+        InputStream input = socket.getInputStream();
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        int matched = 0;
+        while (matched < 4) {
+            int b = input.read();
+            if (b < 0) throw new IOException("Connection closed");
+            header.write(b);
+            matched = b == (matched % 2 == 0 ? '\r' : '\n') ? matched + 1 : b == '\r' ? 1 : 0;
+        }
+
+        String[] lines = new String(header.toByteArray(), ASCII).split("\r\n");
+        Response response = new Response();
+        response.status = Integer.parseInt(lines[0].split(" ")[1]);
+
+        int length = 0;
+        for (String line : lines) {
+            if (line.startsWith("Content-Length:")) length = Integer.parseInt(line.substring(15).trim());
+        }
+        response.body = new byte[length];
+        new DataInputStream(input).readFully(response.body);
+
+        return response;
+    }
+
+
+    // Fixtures
+
+    private static class Response
+    {
+        private int status;
+        private byte[] body;
+    }
+}
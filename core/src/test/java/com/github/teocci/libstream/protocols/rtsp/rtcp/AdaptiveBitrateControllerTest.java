@@ -0,0 +1,295 @@
+package com.github.teocci.libstream.protocols.rtsp.rtcp;
+
+import com.github.teocci.libstream.interfaces.video.EncoderRateListener;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives an {@link AdaptiveBitrateController} with the Receiver Reports of a simulated
+ * lossy link: every second the receiver reports the packets lost because the bitrate went
+ * over the capacity of the link, on top of a random background loss.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-28
+ */
+public class AdaptiveBitrateControllerTest
+{
+    private static final int VIDEO = 1;
+    private static final int AUDIO = 0;
+    private static final int SSRC = 0x1234ABCD;
+
+    private static final int MIN_BITRATE = 300_000;
+    private static final int MAX_BITRATE = 4_000_000;
+
+    private static final long REPORT_INTERVAL_MS = 1000;
+
+    private RecordingEncoder encoder;
+    private AdaptiveBitrateController controller;
+    private LossyLink link;
+
+    @Before
+    public void setUp()
+    {
+        encoder = new RecordingEncoder();
+        controller = new AdaptiveBitrateController(encoder, MIN_BITRATE, MAX_BITRATE);
+        controller.setSsrc(SSRC);
+        link = new LossyLink(controller, 7);
+    }
+
+    @Test
+    public void convergesToTheCapacityOfTheLink()
+    {
+        link.capacity = 1_500_000;
+        link.run(60);
+
+        // Under 2% of loss the bitrate grows, over 10% it is cut, it settles in between
+        int bitrate = controller.getBitrate();
+        assertTrue("bitrate " + bitrate, bitrate >= 1_350_000 && bitrate <= 1_750_000);
+
+        // Once settled, the link loses few packets
+        link.resetStats();
+        link.run(60);
+        assertTrue("mean loss " + link.meanLoss(), link.meanLoss() < 0.12);
+        assertTrue("min bitrate " + link.minBitrate, link.minBitrate >= 1_200_000);
+    }
+
+    @Test
+    public void followsTheCapacityUpAndDown()
+    {
+        link.capacity = 1_000_000;
+        link.run(60);
+        assertTrue(controller.getBitrate() <= 1_150_000);
+
+        // 8% every 2 s, from 1.1 Mbps to 2.7 Mbps in about 24 s
+        link.capacity = 3_000_000;
+        int seconds = link.runUntil(40, () -> controller.getBitrate() >= 2_700_000);
+        assertTrue("recovered in " + seconds + " s", seconds >= 0);
+
+        // A drop of the capacity is followed within a few reports
+        link.capacity = 800_000;
+        seconds = link.runUntil(10, () -> controller.getBitrate() <= 950_000);
+        assertTrue("backed off in " + seconds + " s", seconds >= 0);
+    }
+
+    @Test
+    public void staysInTheBitrateRange()
+    {
+        link.capacity = 100_000;
+        link.run(60);
+        assertEquals(MIN_BITRATE, controller.getBitrate());
+        assertTrue(link.minBitrate >= MIN_BITRATE);
+
+        link.capacity = 50_000_000;
+        link.run(120);
+        assertEquals(MAX_BITRATE, controller.getBitrate());
+        assertTrue(link.maxBitrate <= MAX_BITRATE);
+    }
+
+    @Test
+    public void theEncoderGetsEveryChangeOnce()
+    {
+        link.capacity = 1_200_000;
+        link.run(30);
+        link.capacity = 2_500_000;
+        link.run(30);
+
+        assertTrue(encoder.bitrates.size() > 5);
+        for (int i = 1; i < encoder.bitrates.size(); i++) {
+            assertTrue("repeated " + encoder.bitrates.get(i),
+                    !encoder.bitrates.get(i).equals(encoder.bitrates.get(i - 1)));
+        }
+        assertEquals(controller.getBitrate(), (int) encoder.bitrates.get(encoder.bitrates.size() - 1));
+    }
+
+    @Test
+    public void ignoresTheReportsOfOtherSourcesAndOfTheAudio()
+    {
+        long now = 0;
+        for (int i = 0; i < 10; i++) {
+            now += REPORT_INTERVAL_MS;
+            controller.onReceiverReport(VIDEO, report(SSRC + 1, 0.5f, 0), now);
+            controller.onReceiverReport(AUDIO, report(SSRC, 0.5f, 0), now);
+        }
+
+        assertEquals(MAX_BITRATE, controller.getBitrate());
+        assertTrue(encoder.bitrates.isEmpty());
+
+        controller.onReceiverReport(VIDEO, report(SSRC, 0.5f, 0), now + REPORT_INTERVAL_MS);
+        assertEquals((int) (MAX_BITRATE * 0.75f), controller.getBitrate());
+    }
+
+    @Test
+    public void aGrowingJitterHoldsTheBitrate()
+    {
+        long now = 0;
+        controller.onReceiverReport(VIDEO, report(SSRC, 0.5f, 100), now += REPORT_INTERVAL_MS);
+        int bitrate = controller.getBitrate();
+
+        // No loss, but the queue of the link grows
+        long jitter = 100;
+        for (int i = 0; i < 10; i++) {
+            jitter *= 3;
+            controller.onReceiverReport(VIDEO, report(SSRC, 0, jitter), now += 2 * REPORT_INTERVAL_MS);
+            assertEquals(bitrate, controller.getBitrate());
+        }
+
+        // Then the bitrate grows again once the jitter is stable
+        for (int i = 0; i < 10; i++) {
+            controller.onReceiverReport(VIDEO, report(SSRC, 0, jitter), now += 2 * REPORT_INTERVAL_MS);
+        }
+        assertTrue(controller.getBitrate() > bitrate);
+    }
+
+    @Test
+    public void theEstimateOfTheReceiverCapsTheBitrate()
+    {
+        controller.onEstimatedBitrate(1_000_000L, 0L);
+        assertEquals(1_000_000, controller.getBitrate());
+
+        link.capacity = 10_000_000;
+        link.run(30);
+        assertEquals(1_000_000, controller.getBitrate());
+    }
+
+    @Test
+    public void theFrameRateFollowsUnderHalfTheMaximumBitrate()
+    {
+        controller.setFpsRange(10, 30);
+        link.capacity = 2_500_000;
+        link.run(40);
+        assertEquals(30, controller.getFps());
+        assertTrue(encoder.fps.isEmpty());
+
+        link.capacity = 1_000_000;
+        link.run(40);
+        int bitrate = controller.getBitrate();
+        assertEquals(Math.max(10, 30 * 2 * bitrate / MAX_BITRATE), controller.getFps());
+        assertEquals(controller.getFps(), (int) encoder.fps.get(encoder.fps.size() - 1));
+
+        link.capacity = 200_000;
+        link.run(40);
+        assertEquals(10, controller.getFps());
+    }
+
+
+    // Fixtures
+
+    private static ReceiverReport report(int ssrc, float loss, long jitter)
+    {
+        return new ReceiverReport(0x55, ssrc, (int) (loss * 256), 0, 0, jitter, 0, 0);
+    }
+
+    private interface Condition
+    {
+        boolean isMet();
+    }
+
+    /**
+     * A link losing the share of the bitrate over its capacity, and a random background
+     * loss of up to 1.5%. Its jitter grows with the overshoot, like a queue filling.
+     */
+    private static class LossyLink
+    {
+        private final AdaptiveBitrateController controller;
+        private final Random random;
+
+        int capacity;
+
+        private long now = 0;
+        private int cumulativeLost = 0;
+        private long highestSeq = 0;
+
+        private double lossSum;
+        private int reports;
+        int minBitrate;
+        int maxBitrate;
+
+        LossyLink(AdaptiveBitrateController controller, long seed)
+        {
+            this.controller = controller;
+            this.random = new Random(seed);
+            resetStats();
+        }
+
+        void run(int seconds)
+        {
+            for (int i = 0; i < seconds; i++) report();
+        }
+
+        /**
+         * Returns the seconds it took to meet the condition, or -1.
+         */
+        int runUntil(int seconds, Condition condition)
+        {
+            for (int i = 1; i <= seconds; i++) {
+                report();
+                if (condition.isMet()) return i;
+            }
+            return -1;
+        }
+
+        private void report()
+        {
+            int bitrate = controller.getBitrate();
+            double overshoot = Math.max(0, (double) (bitrate - capacity) / bitrate);
+            double loss = Math.min(1, overshoot + random.nextDouble() * 0.015);
+
+            // 1200 bytes per packet
+            int packets = Math.max(1, bitrate / 8 / 1200);
+            int lost = (int) Math.round(packets * loss);
+            cumulativeLost += lost;
+            highestSeq += packets;
+            long jitter = 90 + (long) (overshoot * 9000);
+
+            now += REPORT_INTERVAL_MS;
+            controller.onReceiverReport(VIDEO, new ReceiverReport(
+                    0x55, SSRC, Math.min(255, (int) (loss * 256)), cumulativeLost, highestSeq, jitter, 0, 0
+            ), now);
+
+            lossSum += loss;
+            reports++;
+            minBitrate = Math.min(minBitrate, controller.getBitrate());
+            maxBitrate = Math.max(maxBitrate, controller.getBitrate());
+        }
+
+        void resetStats()
+        {
+            lossSum = 0;
+            reports = 0;
+            minBitrate = Integer.MAX_VALUE;
+            maxBitrate = 0;
+        }
+
+        double meanLoss()
+        {
+            return reports == 0 ? 0 : lossSum / reports;
+        }
+    }
+
+    private static class RecordingEncoder implements EncoderRateListener
+    {
+        final List<Integer> bitrates = new ArrayList<>();
+        final List<Integer> fps = new ArrayList<>();
+
+        @Override
+        public void onBitrateChanged(int bitrate)
+        {
+            bitrates.add(bitrate);
+        }
+
+        @Override
+        public void onFpsChanged(int fps)
+        {
+            this.fps.add(fps);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.github.teocci.libstream.protocols.rtsp.rtcp;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The RTCP interval of RFC 3550 A.7 computed by {@link RtcpScheduler}, and the SR+SDES
+ * compound packet built by {@link BaseSenderReport}.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-28
+ */
+public class RtcpSchedulerTest
+{
+    // e - 3/2, the randomization makes the interval longer on average
+    private static final double COMPENSATION = Math.E - 1.5;
+    private static final int SAMPLES = 20_000;
+
+    private static final long NTP_OFFSET = 2208988800L;
+
+    private final RtcpScheduler scheduler = new RtcpScheduler("user@host");
+
+    @Test
+    public void theIntervalIsNeverUnderTheMinimum()
+    {
+        // Without a known bandwidth, and with a bandwidth giving a shorter interval
+        assertSpread(0, 100, false, 5000);
+        assertSpread(1_000_000, 100, false, 5000);
+    }
+
+    @Test
+    public void theFirstIntervalIsHalved()
+    {
+        assertSpread(0, 100, true, 2500);
+    }
+
+    @Test
+    public void aSmallerMinimumCanBeSet()
+    {
+        scheduler.setMinInterval(360, TimeUnit.MILLISECONDS);
+        assertSpread(1_000_000, 100, false, 360);
+        assertSpread(1_000_000, 100, true, 180);
+    }
+
+    @Test
+    public void theIntervalFollowsTheBandwidthOfTheStream()
+    {
+        // 5% of 400 B/s is 20 B/s, two members sending 100 B each take 10 s
+        assertSpread(400, 100, false, 10_000);
+        // The minimum is only halved, not the interval of the bandwidth
+        assertSpread(400, 100, true, 10_000);
+        // Larger packets take longer
+        assertSpread(400, 200, false, 20_000);
+    }
+
+    /**
+     * Asserts the intervals are spread over [0.5, 1.5] times the deterministic interval,
+     * divided by e - 3/2, with a mean of the deterministic interval divided by e - 3/2.
+     */
+    private void assertSpread(int bandwidth, float avgRtcpSize, boolean initial, double interval)
+    {
+        double low = 0.5 * interval / COMPENSATION;
+        double high = 1.5 * interval / COMPENSATION;
+
+        long min = Long.MAX_VALUE, max = 0;
+        double sum = 0;
+        for (int i = 0; i < SAMPLES; i++) {
+            long value = scheduler.interval(bandwidth, avgRtcpSize, initial);
+            // Truncated to ms
+            assertTrue(value + " under " + low, value >= (long) low);
+            assertTrue(value + " over " + high, value <= high);
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            sum += value;
+        }
+
+        // Uniform, so both ends are reached and the mean is in the middle
+        double range = high - low;
+        assertTrue("min " + min, min < low + range * 0.01 + 1);
+        assertTrue("max " + max, max > high - range * 0.01 - 1);
+        double mean = sum / SAMPLES;
+        assertEquals(interval / COMPENSATION, mean, range * 0.02 + 1);
+    }
+
+    @Test
+    public void theCompoundPacketIsAnSrFollowedByAnSdes() throws IOException
+    {
+        RecordingReport report = new RecordingReport();
+        report.setSSRC(0x1234ABCD);
+        byte[] cname = "user@host".getBytes(Charset.forName("UTF-8"));
+
+        // Nothing sent before the first packet
+        assertEquals(0, report.sendReport(cname));
+
+        report.update(1000, 0xFFFFFFF0L);
+        report.update(500, 3000);
+        long before = System.currentTimeMillis();
+        int length = report.sendReport(cname);
+        long after = System.currentTimeMillis();
+
+        byte[] packet = report.sent;
+        assertEquals(length, packet.length);
+
+        // SR: V=2, no padding, no report block, PT=200, length in 32 bits words - 1
+        assertEquals(0x80, packet[0] & 0xFF);
+        assertEquals(200, packet[1] & 0xFF);
+        assertEquals(28 / 4 - 1, readShort(packet, 2));
+        assertEquals(0x1234ABCD, readInt(packet, 4));
+
+        long seconds = readInt(packet, 8) & 0xFFFFFFFFL;
+        assertTrue(seconds >= before / 1000 + NTP_OFFSET && seconds <= after / 1000 + NTP_OFFSET);
+        long fraction = readInt(packet, 12) & 0xFFFFFFFFL;
+        long millis = (seconds - NTP_OFFSET) * 1000 + fraction * 1000 / 4294967296L;
+        assertTrue(millis >= before - 1 && millis <= after);
+
+        // Without a clock, the RTP timestamp of the last packet
+        assertEquals(3000, readInt(packet, 16));
+        assertEquals(2, readInt(packet, 20));
+        assertEquals(1500, readInt(packet, 24));
+
+        // SDES: V=2, one chunk, PT=202, the CNAME item, ended by a null octet, padded
+        int sdes = 28;
+        int size = (4 + 4 + 2 + cname.length + 1 + 3) & ~3;
+        assertEquals(sdes + size, length);
+        assertEquals(0, length % 4);
+        assertEquals(0x81, packet[sdes] & 0xFF);
+        assertEquals(202, packet[sdes + 1] & 0xFF);
+        assertEquals(size / 4 - 1, readShort(packet, sdes + 2));
+        assertEquals(0x1234ABCD, readInt(packet, sdes + 4));
+        assertEquals(1, packet[sdes + 8]);
+        assertEquals(cname.length, packet[sdes + 9]);
+        assertArrayEquals(cname, Arrays.copyOfRange(packet, sdes + 10, sdes + 10 + cname.length));
+        for (int i = sdes + 10 + cname.length; i < length; i++) assertEquals(0, packet[i]);
+
+        // Not sent again until a new packet is sent
+        report.sent = null;
+        assertEquals(0, report.sendReport(cname));
+        report.update(200, 6000);
+        assertEquals(length, report.sendReport(cname));
+        assertEquals(3, readInt(report.sent, 20));
+        assertEquals(1700, readInt(report.sent, 24));
+    }
+
+    @Test
+    public void theCnameEndsWithANullOctetWhenAligned() throws IOException
+    {
+        RecordingReport report = new RecordingReport();
+        report.setSSRC(1);
+        report.update(100, 0);
+
+        // 10 + 2 octets end on a 32 bits boundary, the null octet takes 4 more
+        byte[] cname = "ab".getBytes(Charset.forName("UTF-8"));
+        int length = report.sendReport(cname);
+        assertEquals(28 + 16, length);
+        for (int i = 28 + 12; i < length; i++) assertEquals(0, report.sent[i]);
+    }
+
+
+    // Fixtures
+
+    private static int readShort(byte[] data, int offset)
+    {
+        return (data[offset] & 0xFF) << 8 | data[offset + 1] & 0xFF;
+    }
+
+    private static int readInt(byte[] data, int offset)
+    {
+        return (data[offset] & 0xFF) << 24 | (data[offset + 1] & 0xFF) << 16
+                | (data[offset + 2] & 0xFF) << 8 | data[offset + 3] & 0xFF;
+    }
+
+    private static class RecordingReport extends BaseSenderReport
+    {
+        byte[] sent;
+
+        @Override
+        protected void send(byte[] buffer, int length)
+        {
+            sent = Arrays.copyOf(buffer, length);
+        }
+    }
+}
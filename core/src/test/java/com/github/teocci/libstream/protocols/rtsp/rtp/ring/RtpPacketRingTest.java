@@ -0,0 +1,281 @@
+package com.github.teocci.libstream.protocols.rtsp.rtp.ring;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.github.teocci.libstream.utils.rtsp.RtpConstants.RTP_HEADER_LENGTH;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Fan-out of a {@link RtpPacketRing} to many readers, the way the sender thread of the
+ * shared RTP socket drains it: every reader polls, sends and releases each packet.
+ * Every subscriber must get every packet once, in order, behind its own header, and all
+ * the references taken by the readers must be released.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-28
+ */
+public class RtpPacketRingTest
+{
+    private static final int CAPACITY = 64;
+    private static final int SUBSCRIBERS = 50;
+
+    @Test
+    public void everySubscriberGetsEveryPacketOnce()
+    {
+        RtpPacketRing ring = new RtpPacketRing(CAPACITY);
+        List<Subscriber> subscribers = subscribe(ring, SUBSCRIBERS);
+
+        // Batches shorter than the ring, each drained before the next one
+        int seq = 0;
+        for (int batch = 0; batch < 200; batch++) {
+            int count = 1 + batch % CAPACITY;
+            for (int i = 0; i < count; i++) publish(ring, seq++);
+            for (Subscriber subscriber : subscribers) subscriber.drain();
+        }
+
+        for (Subscriber subscriber : subscribers) subscriber.assertReceived(0, seq);
+        assertEquals(0, ring.getOverrunPackets());
+        assertEquals(0, ring.getDroppedPackets());
+        assertReleased(ring);
+    }
+
+    @Test
+    public void lateSubscribersStartAtTheLiveEdge()
+    {
+        RtpPacketRing ring = new RtpPacketRing(CAPACITY);
+        List<Subscriber> subscribers = new ArrayList<>();
+
+        int seq = 0;
+        for (int round = 0; round < SUBSCRIBERS; round++) {
+            Subscriber subscriber = new Subscriber(seq);
+            subscriber.reader.attach(ring);
+            subscribers.add(subscriber);
+
+            for (int i = 0; i < CAPACITY / 2; i++) publish(ring, seq++);
+            for (Subscriber s : subscribers) s.drain();
+        }
+
+        for (Subscriber subscriber : subscribers) subscriber.assertReceived(subscriber.first, seq);
+        assertReleased(ring);
+    }
+
+    @Test
+    public void aSlowSubscriberOnlyLosesTheOverwrittenPackets()
+    {
+        RtpPacketRing ring = new RtpPacketRing(CAPACITY);
+        List<Subscriber> subscribers = subscribe(ring, 4);
+        Subscriber slow = subscribers.remove(0);
+
+        int seq = 0;
+        for (int i = 0; i < 3 * CAPACITY; i++) {
+            publish(ring, seq++);
+            for (Subscriber subscriber : subscribers) subscriber.drain();
+        }
+        slow.drain();
+
+        for (Subscriber subscriber : subscribers) subscriber.assertReceived(0, seq);
+        // The slow one gets the last ring of packets, and loses the ones before it
+        slow.assertReceived(seq - CAPACITY, seq);
+        assertEquals(seq - CAPACITY, slow.reader.getDropped());
+        assertEquals(seq - CAPACITY, ring.getOverrunPackets());
+        assertReleased(ring);
+    }
+
+    @Test
+    public void concurrentSenderGetsEveryPacketOnce() throws InterruptedException
+    {
+        RtpPacketRing ring = new RtpPacketRing(CAPACITY);
+        List<Subscriber> subscribers = subscribe(ring, SUBSCRIBERS);
+        int packets = 100_000;
+
+        // The sender publishes how far the slowest subscriber got, the producer stays
+        // less than a ring ahead of it
+        AtomicLong sent = new AtomicLong();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread sender = new Thread(() -> {
+            try {
+                while (sent.get() < packets) {
+                    long slowest = Long.MAX_VALUE;
+                    for (Subscriber subscriber : subscribers) {
+                        subscriber.drain();
+                        slowest = Math.min(slowest, subscriber.count);
+                    }
+                    sent.set(slowest);
+                }
+            } catch (Throwable e) {
+                error.set(e);
+            }
+        }, "RtpPacketRingTest-sender");
+        sender.start();
+
+        for (int seq = 0; seq < packets && sender.isAlive(); seq++) {
+            while (seq - sent.get() >= CAPACITY - 1 && sender.isAlive()) Thread.yield();
+            publish(ring, seq);
+        }
+        sender.join(30_000);
+        assertFalse("sender stuck", sender.isAlive());
+        if (error.get() != null) throw new AssertionError(error.get());
+
+        for (Subscriber subscriber : subscribers) subscriber.assertReceived(0, packets);
+        assertEquals(0, ring.getOverrunPackets());
+        assertReleased(ring);
+    }
+
+    @Test
+    public void theSharedPacketIsNeverModified()
+    {
+        RtpPacketRing ring = new RtpPacketRing(CAPACITY);
+        RtpRingReader first = new RtpRingReader();
+        RtpRingReader second = new RtpRingReader();
+        first.attach(ring);
+        second.attach(ring);
+
+        publish(ring, 0xFFFF);
+        RtpPacketBuffer a = first.poll();
+        RtpPacketBuffer b = second.poll();
+        assertNotNull(a);
+        assertTrue(a == b);
+
+        byte[] original = a.data.clone();
+        byte[] header = first.header(a);
+        assertEquals(first.getBaseSeq(), (header[2] & 0xFF) << 8 | header[3] & 0xFF);
+        assertEquals(first.getSSRC(), readInt(header, 8));
+        header = second.header(b);
+        assertEquals(second.getBaseSeq(), (header[2] & 0xFF) << 8 | header[3] & 0xFF);
+        assertEquals(second.getSSRC(), readInt(header, 8));
+
+        for (int i = 0; i < a.length; i++) assertEquals(original[i], a.data[i]);
+
+        a.release();
+        b.release();
+        assertReleased(ring);
+    }
+
+
+    // Fixtures
+
+    private static List<Subscriber> subscribe(RtpPacketRing ring, int count)
+    {
+        List<Subscriber> subscribers = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Subscriber subscriber = new Subscriber(0);
+            subscriber.reader.attach(ring);
+            subscribers.add(subscriber);
+        }
+        return subscribers;
+    }
+
+    /**
+     * Publishes a packet as the packetizer does, its index in the payload.
+     */
+    private static void publish(RtpPacketRing ring, int seq)
+    {
+        RtpPacketBuffer buffer = ring.acquire();
+        assertNotNull("pool exhausted", buffer);
+
+        byte[] data = buffer.data;
+        data[0] = (byte) 0x80;
+        data[1] = 96;
+        data[2] = (byte) (seq >> 8);
+        data[3] = (byte) seq;
+        writeInt(data, 4, seq * 3000);
+        writeInt(data, RTP_HEADER_LENGTH, seq);
+        buffer.timestamp = seq * 3000L;
+        buffer.length = RTP_HEADER_LENGTH + 4 + seq % 100;
+
+        ring.publish(buffer);
+    }
+
+    /**
+     * Once the readers are done, the ring holds a single reference per slot, and none
+     * once it is cleared.
+     */
+    private static void assertReleased(RtpPacketRing ring)
+    {
+        assertTrue(ring.getOccupancy() <= ring.getCapacity());
+        ring.clear();
+        assertEquals(0, ring.getOccupancy());
+    }
+
+    private static int readInt(byte[] data, int offset)
+    {
+        return (data[offset] & 0xFF) << 24 | (data[offset + 1] & 0xFF) << 16
+                | (data[offset + 2] & 0xFF) << 8 | data[offset + 3] & 0xFF;
+    }
+
+    private static void writeInt(byte[] data, int offset, int value)
+    {
+        data[offset] = (byte) (value >> 24);
+        data[offset + 1] = (byte) (value >> 16);
+        data[offset + 2] = (byte) (value >> 8);
+        data[offset + 3] = (byte) value;
+    }
+
+    /**
+     * A client of the fan-out: it checks each packet as it is sent, then releases it.
+     */
+    private static class Subscriber
+    {
+        final RtpRingReader reader = new RtpRingReader();
+        final int first;
+
+        // First packet received, then the next one expected
+        int received = -1;
+        int next;
+        volatile long count;
+
+        Subscriber(int first)
+        {
+            this.first = first;
+            this.next = first;
+        }
+
+        void drain()
+        {
+            RtpPacketBuffer packet;
+            while ((packet = reader.poll()) != null) {
+                try {
+                    int index = readInt(packet.data, RTP_HEADER_LENGTH);
+                    if (index != next) {
+                        // A packet lost to an overrun, never one received twice
+                        assertTrue("packet " + index + " after " + (next - 1), index > next);
+                        next = index;
+                    }
+
+                    if (received < 0) received = index;
+
+                    byte[] header = reader.header(packet);
+                    int seq = (header[2] & 0xFF) << 8 | header[3] & 0xFF;
+                    assertEquals((reader.getBaseSeq() + index - received) & 0xFFFF, seq);
+                    assertEquals(reader.getSSRC(), readInt(header, 8));
+                    assertEquals((index * 3000L + reader.getTimestampOffset()) & 0xFFFFFFFFL,
+                            readInt(header, 4) & 0xFFFFFFFFL);
+
+                    next++;
+                    count++;
+                } finally {
+                    packet.release();
+                }
+            }
+        }
+
+        /**
+         * Asserts the packets from first to end were all received, the last ones in a row.
+         */
+        void assertReceived(int from, int end)
+        {
+            assertEquals(end, next);
+            if (from == first) assertEquals(end - from, count);
+            assertEquals(0, reader.getDropped() - (from - first));
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.github.teocci.libstream.protocols.rtsp.rtp.sockets;
+
+import com.github.teocci.libstream.protocols.rtsp.rtcp.RtcpScheduler;
+import com.github.teocci.libstream.protocols.rtsp.rtp.ring.RtpGopCache;
+import com.github.teocci.libstream.protocols.rtsp.rtp.ring.RtpRingReader;
+import com.github.teocci.libstream.protocols.rtsp.rtsp.Session;
+import com.github.teocci.libstream.protocols.rtsp.rtsp.SessionRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The fan-out of a {@link RtpSocketFanout} to the playing sessions of a
+ * {@link SessionRegistry} over the loopback, half of them through a
+ * {@link RtpSubscriberTcp} and the other half through a {@link RtpSubscriberUdp}: each
+ * receiver gets every payload as it was written, with its own SSRC and continuous
+ * sequence numbers.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-28
+ */
+public class RtpSocketFanoutTest
+{
+    private static final int TRACK = 1;
+    private static final int SUBSCRIBERS = 50;
+    private static final int PACKETS = 100;
+    private static final int PAYLOAD_LENGTH = 200;
+    private static final int TIMEOUT_MS = 5000;
+
+    private final InetAddress loopback = InetAddress.getLoopbackAddress();
+
+    private final SessionRegistry registry = new SessionRegistry();
+    private final RtcpScheduler scheduler = new RtcpScheduler();
+    private final List<Receiver> receivers = new ArrayList<>();
+    private final List<Session> sessions = new ArrayList<>();
+
+    private ServerSocket server;
+    private RtpSocketFanout socket;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        server = new ServerSocket(0, SUBSCRIBERS, loopback);
+
+        socket = new RtpSocketFanout(registry, TRACK);
+        socket.setClockFrequency(90000);
+        // The sessions attach when the first packet is sent, they all start with its GOP
+        socket.getRing().setGopCache(new RtpGopCache());
+
+        for (int i = 0; i < SUBSCRIBERS; i++) {
+            Receiver receiver = i % 2 == 0 ? new TcpReceiver() : new UdpReceiver();
+            receivers.add(receiver);
+
+            Session session = new Session();
+            session.setSubscriber(receiver.subscriber);
+            receiver.subscriber.setupTrack(TRACK, scheduler);
+            registry.register(session);
+            registry.play(session);
+            sessions.add(session);
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        for (Session session : sessions) {
+            registry.unregister(session);
+            session.release();
+        }
+        for (Receiver receiver : receivers) {
+            receiver.close();
+        }
+        server.close();
+    }
+
+    @Test
+    public void everySubscriberReceivesTheSamePayloadsInSequence() throws IOException, InterruptedException
+    {
+        assertEquals(SUBSCRIBERS, registry.getPlaying().length);
+
+        List<byte[]> payloads = new ArrayList<>();
+        for (int i = 0; i < PACKETS; i++) {
+            payloads.add(sendPacket(i));
+        }
+
+        for (Receiver receiver : receivers) {
+            RtpRingReader reader = receiver.subscriber.getReader(TRACK);
+            int seq = reader.getBaseSeq();
+            for (int i = 0; i < PACKETS; i++) {
+                byte[] packet = receiver.receive();
+                String message = receiver.getClass().getSimpleName() + " packet " + i;
+
+                assertEquals(message, seq, (packet[2] & 0xFF) << 8 | packet[3] & 0xFF);
+                assertEquals(message, reader.getSSRC(), getInt(packet, 8));
+                assertArrayEquals(message, payloads.get(i), Arrays.copyOfRange(packet, 12, packet.length));
+                seq = (seq + 1) & 0xFFFF;
+            }
+        }
+        assertEquals(SUBSCRIBERS, registry.getPlaying().length);
+    }
+
+    private byte[] sendPacket(int index) throws IOException, InterruptedException
+    {
+        byte[] payload = new byte[PAYLOAD_LENGTH];
+        for (int k = 0; k < PAYLOAD_LENGTH; k++) {
+            payload[k] = (byte) (index * 7 + k);
+        }
+
+        byte[] buffer = socket.requestBuffer();
+        System.arraycopy(payload, 0, buffer, 12, PAYLOAD_LENGTH);
+        if (index == 0) socket.markKeyFrame();
+        socket.updateTimestamp(System.nanoTime());
+        socket.commitBuffer(12 + PAYLOAD_LENGTH);
+
+        return payload;
+    }
+
+    private static int getInt(byte[] buffer, int offset)
+    {
+        return (buffer[offset] & 0xFF) << 24 | (buffer[offset + 1] & 0xFF) << 16 |
+                (buffer[offset + 2] & 0xFF) << 8 | buffer[offset + 3] & 0xFF;
+    }
+
+
+    // Fixtures
+
+    private abstract static class Receiver
+    {
+        BaseRtpSubscriber subscriber;
+
+        /**
+         * Returns the next RTP packet sent to this receiver, header included.
+         */
+        abstract byte[] receive() throws IOException;
+
+        abstract void close() throws IOException;
+    }
+
+    /**
+     * Reads the interleaved frames of a connection accepted from the server socket, and
+     * skips the Sender Reports on the RTCP channel.
+     */
+    private class TcpReceiver extends Receiver
+    {
+        private final Socket client;
+        private final Socket accepted;
+        private final DataInputStream input;
+
+        private TcpReceiver() throws IOException
+        {
+            client = new Socket(loopback, server.getLocalPort());
+            client.setSoTimeout(TIMEOUT_MS);
+            accepted = server.accept();
+            input = new DataInputStream(client.getInputStream());
+            subscriber = new RtpSubscriberTcp(accepted.getOutputStream());
+        }
+
+        @Override
+        byte[] receive() throws IOException
+        {
+            for (; ; ) {
+                assertEquals('$', input.readUnsignedByte());
+                int channel = input.readUnsignedByte();
+                byte[] frame = new byte[input.readUnsignedShort()];
+                input.readFully(frame);
+                if (channel == 2 * TRACK) return frame;
+            }
+        }
+
+        @Override
+        void close() throws IOException
+        {
+            client.close();
+            accepted.close();
+        }
+    }
+
+    private class UdpReceiver extends Receiver
+    {
+        private final DatagramSocket rtp;
+        private final DatagramSocket rtcp;
+
+        private UdpReceiver() throws IOException
+        {
+            rtp = new DatagramSocket(new InetSocketAddress(loopback, 0));
+            rtp.setSoTimeout(TIMEOUT_MS);
+            rtcp = new DatagramSocket(new InetSocketAddress(loopback, 0));
+
+            RtpSubscriberUdp udpSubscriber = new RtpSubscriberUdp();
+            udpSubscriber.setDestination(TRACK, loopback, rtp.getLocalPort(), rtcp.getLocalPort());
+            subscriber = udpSubscriber;
+        }
+
+        @Override
+        byte[] receive() throws IOException
+        {
+            byte[] buffer = new byte[1500];
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            rtp.receive(packet);
+            return Arrays.copyOf(buffer, packet.getLength());
+        }
+
+        @Override
+        void close()
+        {
+            rtp.close();
+            rtcp.close();
+        }
+    }
+}
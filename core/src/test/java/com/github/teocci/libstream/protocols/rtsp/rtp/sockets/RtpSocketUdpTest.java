@@ -0,0 +1,225 @@
+package com.github.teocci.libstream.protocols.rtsp.rtp.sockets;
+
+import com.github.teocci.libstream.interfaces.ConnectCheckerRtsp;
+import com.github.teocci.libstream.interfaces.RtcpListener;
+import com.github.teocci.libstream.protocols.rtsp.rtcp.ReceiverReport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * The RTCP feedback of a receiver over the loopback, sent to the RTCP port the socket
+ * advertises in the SETUP, {@link RtpSocketUdp#getLocalPorts()}: the packets of a NACK are
+ * resent to the RTP port of the receiver, and its reports reach the listener.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-28
+ */
+public class RtpSocketUdpTest
+{
+    private static final int SSRC = 0x12345678;
+    private static final int PACKETS = 20;
+    private static final int PAYLOAD_LENGTH = 200;
+    private static final int TIMEOUT_MS = 5000;
+
+    private final InetAddress loopback = InetAddress.getLoopbackAddress();
+
+    private DatagramSocket rtpReceiver;
+    private DatagramSocket rtcpReceiver;
+    private RtpSocketUdp socket;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        rtpReceiver = new DatagramSocket(new InetSocketAddress(loopback, 0));
+        rtpReceiver.setSoTimeout(TIMEOUT_MS);
+        rtcpReceiver = new DatagramSocket(new InetSocketAddress(loopback, 0));
+
+        socket = new RtpSocketUdp(new NoConnectChecker());
+        socket.setClockFrequency(90000);
+        socket.setSSRC(SSRC);
+        socket.setDestination(loopback.getHostAddress(), rtpReceiver.getLocalPort(), rtcpReceiver.getLocalPort());
+    }
+
+    @After
+    public void tearDown()
+    {
+        socket.close();
+        rtpReceiver.close();
+        rtcpReceiver.close();
+    }
+
+    @Test
+    public void nackToTheAdvertisedPortIsRetransmitted() throws IOException, InterruptedException
+    {
+        socket.setRetransmission(64, -1);
+
+        for (int i = 0; i < PACKETS; i++) {
+            sendPacket(i);
+        }
+        Map<Integer, byte[]> sent = new HashMap<>();
+        int first = -1;
+        for (int i = 0; i < PACKETS; i++) {
+            byte[] packet = receive(rtpReceiver);
+            if (first < 0) first = getSeq(packet);
+            sent.put(getSeq(packet), packet);
+        }
+        assertEquals(PACKETS, sent.size());
+
+        // The 4th packet and the 6th one, lost
+        int pid = (first + 3) & 0xFFFF;
+        sendRtcp(createNack(pid, 0x0002));
+
+        byte[] resent = receive(rtpReceiver);
+        byte[] resentNext = receive(rtpReceiver);
+        assertArrayEquals(sent.get(pid), resent);
+        assertArrayEquals(sent.get((pid + 2) & 0xFFFF), resentNext);
+        assertEquals(2, socket.getRetransmitter().getRetransmittedPackets());
+    }
+
+    @Test
+    public void receiverReportToTheAdvertisedPortReachesTheListener() throws IOException, InterruptedException
+    {
+        RecordingListener listener = new RecordingListener();
+        socket.setRtcpListener(listener, 1);
+
+        sendRtcp(createReceiverReport(3, 1234));
+
+        ReceiverReport report = listener.reports.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        assertNotNull(report);
+        assertEquals(SSRC, report.sourceSsrc);
+        assertEquals(3, report.cumulativeLost);
+        assertEquals(1234, report.highestSeq);
+    }
+
+    private void sendPacket(int index) throws IOException, InterruptedException
+    {
+        byte[] buffer = socket.requestBuffer();
+        for (int k = 0; k < PAYLOAD_LENGTH; k++) {
+            buffer[12 + k] = (byte) (index * 7 + k);
+        }
+        socket.updateTimestamp(System.nanoTime());
+        socket.commitBuffer(12 + PAYLOAD_LENGTH);
+    }
+
+    /**
+     * Sends a RTCP packet from the receiver to the RTCP port the socket advertises.
+     */
+    private void sendRtcp(byte[] packet) throws IOException
+    {
+        int port = socket.getLocalPorts()[1];
+        rtcpReceiver.send(new DatagramPacket(packet, packet.length, loopback, port));
+    }
+
+    private static byte[] receive(DatagramSocket receiver) throws IOException
+    {
+        byte[] buffer = new byte[1500];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        receiver.receive(packet);
+        return Arrays.copyOf(buffer, packet.getLength());
+    }
+
+    private static int getSeq(byte[] packet)
+    {
+        return (packet[2] & 0xFF) << 8 | packet[3] & 0xFF;
+    }
+
+    /**
+     * A generic NACK of RFC 4585 with a single entry.
+     */
+    private static byte[] createNack(int pid, int blp)
+    {
+        byte[] packet = new byte[16];
+        packet[0] = (byte) 0x81;
+        packet[1] = (byte) 205;
+        setInt(packet, 3, 2, 2);
+        setInt(packet, 0x0BADCAFE, 4, 4);
+        setInt(packet, SSRC, 8, 4);
+        setInt(packet, pid, 12, 2);
+        setInt(packet, blp, 14, 2);
+        return packet;
+    }
+
+    /**
+     * A Receiver Report with a report block on the stream of the socket.
+     */
+    private static byte[] createReceiverReport(int lost, int highestSeq)
+    {
+        byte[] packet = new byte[32];
+        packet[0] = (byte) 0x81;
+        packet[1] = (byte) 201;
+        setInt(packet, 7, 2, 2);
+        setInt(packet, 0x0BADCAFE, 4, 4);
+        setInt(packet, SSRC, 8, 4);
+        setInt(packet, lost, 13, 3);
+        setInt(packet, highestSeq, 16, 4);
+        return packet;
+    }
+
+    private static void setInt(byte[] buffer, int n, int offset, int length)
+    {
+        for (int i = offset + length - 1; i >= offset; i--) {
+            buffer[i] = (byte) n;
+            n >>= 8;
+        }
+    }
+
+
+    // Fixtures
+
+    private static class NoConnectChecker implements ConnectCheckerRtsp
+    {
+        @Override
+        public void onConnectionSuccessRtsp() {}
+
+        @Override
+        public void onConnectionFailedRtsp(String reason) {}
+
+        @Override
+        public void onDisconnectRtsp() {}
+
+        @Override
+        public void onAuthErrorRtsp() {}
+
+        @Override
+        public void onAuthSuccessRtsp() {}
+    }
+
+    private static class RecordingListener implements RtcpListener
+    {
+        private final BlockingQueue<ReceiverReport> reports = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onReceiverReport(int trackId, ReceiverReport report)
+        {
+            reports.add(report);
+        }
+
+        @Override
+        public void onNack(int trackId, int sourceSsrc, int pid, int blp) {}
+
+        @Override
+        public void onEstimatedBitrate(int trackId, long bitrate) {}
+
+        @Override
+        public void onTransportFeedback(int trackId, int received, int lost) {}
+    }
+}
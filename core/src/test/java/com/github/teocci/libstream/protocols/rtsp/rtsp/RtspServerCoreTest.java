@@ -0,0 +1,306 @@
+package com.github.teocci.libstream.protocols.rtsp.rtsp;
+
+import com.github.teocci.libstream.coder.FrameInfo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A load test of the selector server in a plain JVM: thousands of simulated clients over
+ * the loopback DESCRIBE, SETUP an interleaved video track and PLAY, then each one must
+ * receive the whole stream, the same payloads in the same order, with continuous sequence
+ * numbers starting at the one of its RTP-Info, and the SSRC of its SETUP.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-28
+ */
+public class RtspServerCoreTest
+{
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private static final int CLIENTS = 2000;
+    private static final int FRAMES = 25;
+    private static final int FRAME_LENGTH = 1000;
+    private static final long FRAME_US = 40_000;
+    private static final int TIMEOUT_MS = 30_000;
+
+    private static final byte[] SPS = {
+            0, 0, 0, 1, 0x67, 0x42, (byte) 0xC0, 0x1E, (byte) 0xDA, 0x02, (byte) 0x80, (byte) 0xF6, (byte) 0x84
+    };
+    private static final byte[] PPS = {0, 0, 0, 1, 0x68, (byte) 0xCE, 0x3C, (byte) 0x80};
+
+    private static final Pattern SEQ = Pattern.compile("trackID=1;seq=(\\d+)");
+    private static final Pattern SSRC = Pattern.compile("ssrc=([0-9a-f]+);");
+
+    private RtspServerCore server;
+    private final List<Client> clients = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException
+    {
+        server = new RtspServerCore(null);
+        server.setPort(0);
+        server.setAVCInfo(ByteBuffer.wrap(SPS), ByteBuffer.wrap(PPS), null);
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        server.stop();
+        for (Client client : clients) {
+            client.channel.close();
+        }
+    }
+
+    @Test
+    public void thousandsOfClientsReceiveTheSameStream() throws IOException, InterruptedException
+    {
+        String url = "rtsp://127.0.0.1:" + server.getPort() + "/";
+        for (int i = 0; i < CLIENTS; i++) {
+            Client client = new Client(server.getPort());
+            clients.add(client);
+            client.play(url);
+        }
+        assertEquals(CLIENTS, server.sessions.size());
+        assertEquals(CLIENTS, server.sessions.getPlaying().length);
+        assertTrue(server.isStreaming());
+
+        // A key frame, then P frames, a packet each plus the SPS and PPS before the key frame
+        FrameInfo info = new FrameInfo();
+        for (int i = 0; i < FRAMES; i++) {
+            ByteBuffer frame = createFrame(i);
+            server.getVideoPacket().createAndSendPacket(frame, info.set(0, frame.limit(), i * FRAME_US, 0));
+        }
+        int packets = FRAMES + 1;
+
+        receive(packets);
+
+        List<byte[]> expected = clients.get(0).payloads;
+        for (Client client : clients) {
+            assertEquals(packets, client.payloads.size());
+            assertEquals(client.advertisedSeq, client.firstSeq);
+            assertEquals(0, client.gaps);
+            assertEquals(0, client.wrongSsrc);
+            for (int i = 0; i < packets; i++) {
+                assertArrayEquals(expected.get(i), client.payloads.get(i));
+            }
+        }
+        assertEquals(0, server.getVideoRing().getOverrunPackets());
+    }
+
+    /**
+     * Reads the interleaved frames of all the clients until each one has the packets.
+     */
+    private void receive(int packets) throws IOException
+    {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        try (Selector selector = Selector.open()) {
+            int pending = 0;
+            for (Client client : clients) {
+                client.channel.configureBlocking(false);
+                client.channel.register(selector, SelectionKey.OP_READ, client);
+                client.drain();
+                if (client.payloads.size() < packets) pending++;
+            }
+
+            while (pending > 0) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) break;
+                selector.select(remaining);
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    Client client = (Client) key.attachment();
+                    boolean done = client.payloads.size() >= packets;
+                    client.onReadable();
+                    if (!done && client.payloads.size() >= packets) pending--;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a H.264 access unit of a single slice, the first one is a key frame.
+     */
+    private static ByteBuffer createFrame(int index)
+    {
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_LENGTH);
+        frame.put(new byte[]{0, 0, 0, 1, (byte) (index == 0 ? 0x65 : 0x41)});
+        while (frame.hasRemaining()) {
+            frame.put((byte) (index * 31 + frame.position()));
+        }
+        frame.flip();
+        return frame;
+    }
+
+
+    // Fixtures
+
+    /**
+     * A RTSP client over a blocking channel for its requests, then read by the selector of
+     * the test once it plays.
+     */
+    private static class Client
+    {
+        private final SocketChannel channel;
+        private final ByteBuffer input = ByteBuffer.allocate(4096);
+
+        private final List<byte[]> payloads = new ArrayList<>();
+        private int cseq = 0;
+
+        private int advertisedSeq;
+        private int advertisedSsrc;
+        private int firstSeq = -1;
+        private int lastSeq;
+        private int gaps;
+        private int wrongSsrc;
+
+        private Client(int port) throws IOException
+        {
+            channel = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            channel.socket().setTcpNoDelay(true);
+        }
+
+        private void play(String url) throws IOException
+        {
+            Response describe = request("DESCRIBE " + url, "Accept: application/sdp\r\n");
+            assertEquals(200, describe.status);
+            assertTrue(describe.body, describe.body.contains("H264/90000"));
+
+            Response setup = request("SETUP " + url + "trackID=1", "Transport: RTP/AVP/TCP;unicast;interleaved=2-3\r\n");
+            assertEquals(200, setup.status);
+            Matcher ssrc = SSRC.matcher(setup.headers.get("transport"));
+            assertTrue(ssrc.find());
+            advertisedSsrc = (int) Long.parseLong(ssrc.group(1), 16);
+            String session = setup.headers.get("session").split(";")[0];
+
+            Response play = request("PLAY " + url, "Session: " + session + "\r\n");
+            assertEquals(200, play.status);
+            Matcher seq = SEQ.matcher(play.headers.get("rtp-info"));
+            assertTrue(seq.find());
+            advertisedSeq = Integer.parseInt(seq.group(1));
+        }
+
+        private Response request(String line, String headers) throws IOException
+        {
+            String request = line + " RTSP/1.0\r\nCSeq: " + ++cseq + "\r\n" + headers + "\r\n";
+            ByteBuffer buffer = ByteBuffer.wrap(request.getBytes(ASCII));
+            while (buffer.hasRemaining()) channel.write(buffer);
+
+            Response response;
+            while ((response = parseResponse()) == null) {
+                if (channel.read(input) < 0) throw new EOFException();
+            }
+            assertEquals(String.valueOf(cseq), response.headers.get("cseq"));
+            return response;
+        }
+
+        /**
+         * Returns the response at the start of the input, or null if it is not all there.
+         */
+        private Response parseResponse()
+        {
+            String text = new String(input.array(), 0, input.position(), ASCII);
+            int end = text.indexOf("\r\n\r\n");
+            if (end < 0) return null;
+
+            String[] lines = text.substring(0, end).split("\r\n");
+            Response response = new Response();
+            response.status = Integer.parseInt(lines[0].split(" ")[1]);
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                response.headers.put(lines[i].substring(0, colon).trim().toLowerCase(), lines[i].substring(colon + 1).trim());
+            }
+
+            String length = response.headers.get("content-length");
+            int bodyLength = length != null ? Integer.parseInt(length) : 0;
+            if (input.position() < end + 4 + bodyLength) return null;
+            response.body = text.substring(end + 4, end + 4 + bodyLength);
+
+            // Keeps what follows, e.g. the first interleaved frames
+            input.flip();
+            input.position(end + 4 + bodyLength);
+            input.compact();
+            return response;
+        }
+
+        private void onReadable() throws IOException
+        {
+            if (channel.read(input) < 0) throw new EOFException();
+            drain();
+        }
+
+        /**
+         * Takes the complete interleaved frames out of the input.
+         */
+        private void drain()
+        {
+            input.flip();
+            while (input.remaining() >= 4) {
+                int start = input.position();
+                assertEquals('$', input.get(start));
+                int channel = input.get(start + 1) & 0xFF;
+                int length = input.getShort(start + 2) & 0xFFFF;
+                if (input.remaining() < 4 + length) break;
+
+                byte[] frame = new byte[length];
+                input.position(start + 4);
+                input.get(frame);
+                // The Sender Reports go on the RTCP channel
+                if (channel == 2) onRtp(frame);
+            }
+            input.compact();
+        }
+
+        private void onRtp(byte[] packet)
+        {
+            int seq = (packet[2] & 0xFF) << 8 | packet[3] & 0xFF;
+            int ssrc = ByteBuffer.wrap(packet, 8, 4).getInt();
+
+            if (firstSeq < 0) {
+                firstSeq = seq;
+            } else if (seq != ((lastSeq + 1) & 0xFFFF)) {
+                gaps++;
+            }
+            lastSeq = seq;
+            if (ssrc != advertisedSsrc) wrongSsrc++;
+
+            payloads.add(Arrays.copyOfRange(packet, 12, packet.length));
+        }
+    }
+
+    private static class Response
+    {
+        private int status;
+        private final Map<String, String> headers = new HashMap<>();
+        private String body = "";
+    }
+}
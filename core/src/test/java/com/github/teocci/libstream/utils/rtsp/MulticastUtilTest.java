@@ -0,0 +1,95 @@
+package com.github.teocci.libstream.utils.rtsp;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * On a JVM, as on Android N and later, the channel has socket options and the TTL is set.
+ * The fallback of the older versions, a {@link MulticastSender}, is forced.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-28
+ */
+public class MulticastUtilTest
+{
+    @Test
+    public void setsTheTimeToLiveOfTheChannel() throws IOException
+    {
+        assertTrue(MulticastUtil.isSupported());
+
+        try (DatagramChannel channel = DatagramChannel.open()) {
+            channel.socket().bind(null);
+
+            assertTrue(MulticastUtil.setTimeToLive(channel, 64));
+            assertEquals(64, (int) channel.getOption(StandardSocketOptions.IP_MULTICAST_TTL));
+
+            // Applied again to the open channel
+            assertTrue(MulticastUtil.setTimeToLive(channel, 3));
+            assertEquals(3, (int) channel.getOption(StandardSocketOptions.IP_MULTICAST_TTL));
+        }
+    }
+
+    @Test
+    public void noSenderWhereTheChannelSetsTheTimeToLive() throws IOException
+    {
+        try (DatagramChannel channel = DatagramChannel.open()) {
+            channel.socket().bind(null);
+
+            assertNull(MulticastUtil.setTimeToLive(channel, 16, null));
+            assertEquals(16, (int) channel.getOption(StandardSocketOptions.IP_MULTICAST_TTL));
+        }
+    }
+
+    @Test
+    public void fallsBackToAMulticastSocket() throws IOException
+    {
+        try (DatagramChannel channel = DatagramChannel.open();
+             DatagramChannel receiver = DatagramChannel.open()) {
+            channel.socket().bind(null);
+            receiver.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+            MulticastSender sender = MulticastUtil.setTimeToLive(channel, 32, null, false);
+            assertNotNull(sender);
+            assertEquals(32, sender.getTimeToLive());
+
+            // Kept, with the new TTL
+            assertSame(sender, MulticastUtil.setTimeToLive(channel, 8, sender, false));
+            assertEquals(8, sender.getTimeToLive());
+
+            // Sends the remaining bytes of a direct buffer, like the channel
+            byte[] payload = new byte[1400];
+            for (int i = 0; i < payload.length; i++) payload[i] = (byte) i;
+            ByteBuffer datagram = ByteBuffer.allocateDirect(1500);
+            datagram.put(payload).flip();
+
+            sender.send(datagram, (InetSocketAddress) receiver.getLocalAddress());
+            assertFalse(datagram.hasRemaining());
+
+            ByteBuffer received = ByteBuffer.allocate(1500);
+            receiver.receive(received);
+            received.flip();
+            byte[] bytes = new byte[received.remaining()];
+            received.get(bytes);
+            assertArrayEquals(payload, bytes);
+
+            // Released once the channel can set the TTL itself
+            assertNull(MulticastUtil.setTimeToLive(channel, 8, sender, true));
+            assertTrue(sender.isClosed());
+        }
+    }
+}
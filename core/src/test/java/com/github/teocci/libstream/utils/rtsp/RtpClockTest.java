@@ -0,0 +1,188 @@
+package com.github.teocci.libstream.utils.rtsp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A/V drift of the RTP timestamps: hours of synthetic video frames at 30 fps on the 90 kHz
+ * clock and AAC frames at 48 kHz are stamped from their capture times, and the timestamps
+ * are unwrapped the way a receiver does. At every capture time the two tracks must give
+ * the same media time, within a tick of each clock, and each track must stay within a
+ * tick of the capture time.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-28
+ */
+public class RtpClockTest
+{
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    private static final long NANOS_PER_HOUR = 3600 * NANOS_PER_SECOND;
+
+    private static final int VIDEO_RATE = 90000;
+    private static final int AUDIO_RATE = 48000;
+    private static final int AAC_SAMPLES = 1024;
+
+    // A tick of each clock, the most a single timestamp can be off by
+    private static final double TOLERANCE = 1.0 / VIDEO_RATE + 1.0 / AUDIO_RATE;
+
+    @Test
+    public void audioAndVideoDoNotDriftOverThirtyHours()
+    {
+        // Captured before the origin of the clocks, so the floor division is crossed too
+        Drift drift = run(RtpClock.ORIGIN - 5 * NANOS_PER_SECOND, 30 * NANOS_PER_HOUR);
+
+        // Both wrap at the origin, then the 90 kHz clock every 13.3 h, the 48 kHz one
+        // every 24.9 h
+        assertEquals(3, drift.video.wraps);
+        assertEquals(2, drift.audio.wraps);
+        assertTrue("A/V drift " + drift.maxAv, drift.maxAv <= TOLERANCE);
+        assertTrue("video drift " + drift.maxVideo, drift.maxVideo <= 1.0 / VIDEO_RATE);
+        assertTrue("audio drift " + drift.maxAudio, drift.maxAudio <= 1.0 / AUDIO_RATE);
+    }
+
+    @Test
+    public void doesNotOverflowAfterDaysOfUptime()
+    {
+        // nanoTime * 90000 overflowed after 1.18 days
+        Drift drift = run(RtpClock.ORIGIN + 40 * 24 * NANOS_PER_HOUR, 2 * NANOS_PER_HOUR);
+
+        assertTrue("A/V drift " + drift.maxAv, drift.maxAv <= TOLERANCE);
+        assertTrue("video drift " + drift.maxVideo, drift.maxVideo <= 1.0 / VIDEO_RATE);
+        assertTrue("audio drift " + drift.maxAudio, drift.maxAudio <= 1.0 / AUDIO_RATE);
+    }
+
+    @Test
+    public void timestampsAreMonotonicAcrossTheOrigin()
+    {
+        RtpClock clock = new RtpClock(VIDEO_RATE);
+        long start = RtpClock.ORIGIN - 2 * NANOS_PER_SECOND;
+
+        long previous = clock.toRtp(start);
+        for (long t = start + 1_000_000; t < start + 4 * NANOS_PER_SECOND; t += 1_000_000) {
+            long rtp = clock.toRtp(t);
+            int delta = RtpClock.delta(previous, rtp);
+            // 1 ms is 90 ticks, rounded down at either end
+            assertTrue("delta " + delta + " at " + (t - start), delta >= 89 && delta <= 91);
+            previous = rtp;
+        }
+    }
+
+    @Test
+    public void deltaIsSignedAcrossTheWrap()
+    {
+        assertEquals(10, RtpClock.delta(0xFFFFFFFBL, 5));
+        assertEquals(-10, RtpClock.delta(5, 0xFFFFFFFBL));
+        assertEquals(0, RtpClock.delta(0xFFFFFFFFL, 0xFFFFFFFFL));
+    }
+
+    @Test
+    public void toNanosInvertsTheRate()
+    {
+        RtpClock video = new RtpClock(VIDEO_RATE);
+        RtpClock audio = new RtpClock(AUDIO_RATE);
+
+        assertEquals(NANOS_PER_SECOND, video.toNanos(VIDEO_RATE));
+        assertEquals(33_333_333, video.toNanos(3000));
+        assertEquals(21_333_333, audio.toNanos(AAC_SAMPLES));
+        // 30 h of video ticks, larger than a 32 bits timestamp
+        assertEquals(30 * NANOS_PER_HOUR, video.toNanos(30L * 3600 * VIDEO_RATE));
+        assertEquals(0, new RtpClock(0).toNanos(1000));
+    }
+
+    /**
+     * Stamps the frames of both tracks captured from start for the given duration.
+     */
+    private static Drift run(long start, long duration)
+    {
+        Drift drift = new Drift();
+        Track video = new Track(new RtpClock(VIDEO_RATE), start);
+        Track audio = new Track(new RtpClock(AUDIO_RATE), start);
+        drift.video = video;
+        drift.audio = audio;
+
+        // The audio frames are stamped in their own order, the video ones at 30 fps
+        long audioFrame = 0;
+        for (long frame = 0; ; frame++) {
+            long elapsed = frame * NANOS_PER_SECOND / 30;
+            if (elapsed > duration) break;
+
+            long audioElapsed;
+            while ((audioElapsed = audioFrame * AAC_SAMPLES * NANOS_PER_SECOND / AUDIO_RATE) <= elapsed) {
+                double audioTime = audio.stamp(start + audioElapsed);
+                drift.maxAudio = Math.max(drift.maxAudio, Math.abs(audioTime - seconds(audioElapsed)));
+                audioFrame++;
+            }
+
+            double videoTime = video.stamp(start + elapsed);
+            drift.maxVideo = Math.max(drift.maxVideo, Math.abs(videoTime - seconds(elapsed)));
+
+            // Where the receiver would play the audio captured with this frame
+            double audioTime = audio.peek(start + elapsed);
+            drift.maxAv = Math.max(drift.maxAv, Math.abs(videoTime - audioTime));
+        }
+
+        return drift;
+    }
+
+    private static double seconds(long nanos)
+    {
+        return nanos / (double) NANOS_PER_SECOND;
+    }
+
+    private static class Drift
+    {
+        Track video;
+        Track audio;
+        double maxVideo;
+        double maxAudio;
+        double maxAv;
+    }
+
+    /**
+     * Unwraps the 32 bits timestamps of a track from its first one, like a receiver.
+     */
+    private static class Track
+    {
+        final RtpClock clock;
+        final long first;
+
+        long last;
+        long unwrapped = 0;
+        int wraps = 0;
+
+        Track(RtpClock clock, long start)
+        {
+            this.clock = clock;
+            this.first = clock.toRtp(start);
+            this.last = first;
+        }
+
+        /**
+         * Stamps a frame, returns its media time from the first one, in s.
+         */
+        double stamp(long capture)
+        {
+            long rtp = clock.toRtp(capture);
+            assertTrue(rtp >= 0 && rtp <= 0xFFFFFFFFL);
+
+            int delta = RtpClock.delta(last, rtp);
+            assertTrue("timestamps go back by " + delta, delta >= 0);
+            if (rtp < last) wraps++;
+
+            unwrapped += delta;
+            last = rtp;
+            return unwrapped / (double) clock.getRate();
+        }
+
+        /**
+         * Returns the media time of a capture time, without stamping a frame.
+         */
+        double peek(long capture)
+        {
+            return (unwrapped + RtpClock.delta(last, clock.toRtp(capture))) / (double) clock.getRate();
+        }
+    }
+}
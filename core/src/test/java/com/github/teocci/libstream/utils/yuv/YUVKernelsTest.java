@@ -0,0 +1,457 @@
+package com.github.teocci.libstream.utils.yuv;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Checks {@link YUVKernels} against the legacy {@link NV21Utils} and {@link YV12Utils} on
+ * every even size up to 64 x 40, the odd half widths and heights included, and against
+ * a naive rotation of each plane, which is the intended behaviour.
+ * <p>
+ * The legacy YV12 rotations by 90 and 270 degrees are wrong when height / 2 is odd: they
+ * take the chroma planes as rows of width bytes, two chroma rows each, so they drop the
+ * last chroma row of the source and shift the rest of the rotated planes. The kernels
+ * rotate each plane on its own, see {@link #yv12RotationsOfOddHalfHeightsFollowThePlanes()}.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-28
+ */
+public class YUVKernelsTest
+{
+    private static final int MAX_WIDTH = 64;
+    private static final int MAX_HEIGHT = 40;
+    private static final int[] ROTATIONS = {0, 90, 180, 270};
+
+    private static final int NV21 = 0;
+    private static final int YV12 = 1;
+
+    private final Random random = new Random(42);
+
+    @Test
+    public void conversionsMatchTheLegacyUtils()
+    {
+        for (int width = 2; width <= MAX_WIDTH; width += 2) {
+            for (int height = 2; height <= MAX_HEIGHT; height += 2) {
+                int size = width * height * 3 / 2;
+                byte[] src = frame(size);
+                byte[] dst = new byte[size];
+                NV21Utils.preAllocateBuffers(size);
+                YV12Utils.preAllocateBuffers(size);
+                String name = width + "x" + height;
+
+                YUVKernels.nv21ToI420(src, width, dst, width, width, height);
+                assertArrayEquals("nv21ToI420 " + name, NV21Utils.toI420(src, width, height), dst);
+                YUVKernels.nv21ToYV12(src, width, dst, width, width, height);
+                assertArrayEquals("nv21ToYV12 " + name, NV21Utils.toYV12(src, width, height), dst);
+                YUVKernels.nv21ToNV12(src, width, dst, width, width, height);
+                assertArrayEquals("nv21ToNV12 " + name, NV21Utils.toNV12(src, width, height), dst);
+
+                YUVKernels.yv12ToI420(src, width, dst, width, width, height);
+                assertArrayEquals("yv12ToI420 " + name, YV12Utils.toI420(src, width, height), dst);
+                YUVKernels.yv12ToNV12(src, width, dst, width, width, height);
+                assertArrayEquals("yv12ToNV12 " + name, YV12Utils.toNV12(src, width, height), dst);
+                YUVKernels.yv12ToNV21(src, width, dst, width, width, height);
+                assertArrayEquals("yv12ToNV21 " + name, YV12Utils.toNV21(src, width, height), dst);
+            }
+        }
+    }
+
+    @Test
+    public void bufferConversionsMatchTheArrayOnes()
+    {
+        for (int width = 2; width <= MAX_WIDTH; width += 2) {
+            for (int height = 2; height <= MAX_HEIGHT; height += 2) {
+                int size = width * height * 3 / 2;
+                byte[] src = frame(size);
+                byte[] expected = new byte[size];
+
+                for (boolean direct : new boolean[]{false, true}) {
+                    // Written from the position, like a bulk put
+                    ByteBuffer dst = direct ? ByteBuffer.allocateDirect(size + 8) : ByteBuffer.allocate(size + 8);
+                    String name = width + "x" + height + (direct ? " direct" : " heap");
+
+                    YUVKernels.nv21ToI420(src, width, expected, width, width, height);
+                    dst.clear().position(3);
+                    YUVKernels.nv21ToI420(src, width, dst, width, width, height);
+                    assertWritten("nv21ToI420 " + name, expected, dst);
+
+                    YUVKernels.nv21ToYV12(src, width, expected, width, width, height);
+                    dst.clear().position(3);
+                    YUVKernels.nv21ToYV12(src, width, dst, width, width, height);
+                    assertWritten("nv21ToYV12 " + name, expected, dst);
+
+                    YUVKernels.nv21ToNV12(src, width, expected, width, width, height);
+                    dst.clear().position(3);
+                    YUVKernels.nv21ToNV12(src, width, dst, width, width, height);
+                    assertWritten("nv21ToNV12 " + name, expected, dst);
+
+                    dst.clear().position(3);
+                    YUVKernels.nv21ToNV21(src, width, dst, width, width, height);
+                    assertWritten("nv21ToNV21 " + name, src, dst);
+
+                    YUVKernels.yv12ToI420(src, width, expected, width, width, height);
+                    dst.clear().position(3);
+                    YUVKernels.yv12ToI420(src, width, dst, width, width, height);
+                    assertWritten("yv12ToI420 " + name, expected, dst);
+
+                    YUVKernels.yv12ToNV12(src, width, expected, width, width, height);
+                    dst.clear().position(3);
+                    YUVKernels.yv12ToNV12(src, width, dst, width, width, height);
+                    assertWritten("yv12ToNV12 " + name, expected, dst);
+
+                    YUVKernels.yv12ToNV21(src, width, expected, width, width, height);
+                    dst.clear().position(3);
+                    YUVKernels.yv12ToNV21(src, width, dst, width, width, height);
+                    assertWritten("yv12ToNV21 " + name, expected, dst);
+
+                    dst.clear().position(3);
+                    YUVKernels.yv12ToYV12(src, width, dst, width, width, height);
+                    assertWritten("yv12ToYV12 " + name, src, dst);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void conversionsRoundTrip()
+    {
+        for (int width = 2; width <= MAX_WIDTH; width += 2) {
+            for (int height = 2; height <= MAX_HEIGHT; height += 2) {
+                int size = width * height * 3 / 2;
+                byte[] src = frame(size);
+                byte[] middle = new byte[size];
+                byte[] back = new byte[size];
+                String name = width + "x" + height;
+
+                YUVKernels.nv21ToYV12(src, width, middle, width, width, height);
+                YUVKernels.yv12ToNV21(middle, width, back, width, width, height);
+                assertArrayEquals("NV21 -> YV12 -> NV21 " + name, src, back);
+
+                YUVKernels.yv12ToNV21(src, width, middle, width, width, height);
+                YUVKernels.nv21ToYV12(middle, width, back, width, width, height);
+                assertArrayEquals("YV12 -> NV21 -> YV12 " + name, src, back);
+
+                // NV12 is NV21 with the pairs swapped, so swapping twice gives NV21 back
+                YUVKernels.nv21ToNV12(src, width, middle, width, width, height);
+                YUVKernels.nv21ToNV12(middle, width, back, width, width, height);
+                assertArrayEquals("NV21 -> NV12 -> NV21 " + name, src, back);
+
+                // I420 is YV12 with the planes swapped
+                YUVKernels.yv12ToI420(src, width, middle, width, width, height);
+                YUVKernels.yv12ToI420(middle, width, back, width, width, height);
+                assertArrayEquals("YV12 -> I420 -> YV12 " + name, src, back);
+            }
+        }
+    }
+
+    @Test
+    public void rotationsFollowThePlanes()
+    {
+        for (int width = 2; width <= MAX_WIDTH; width += 2) {
+            for (int height = 2; height <= MAX_HEIGHT; height += 2) {
+                int size = width * height * 3 / 2;
+                byte[] src = frame(size);
+                byte[] dst = new byte[size];
+
+                for (int rotation : ROTATIONS) {
+                    String name = width + "x" + height + " by " + rotation;
+                    int dstStride = rotation % 180 == 0 ? width : height;
+
+                    YUVKernels.rotateNV21(src, width, dst, dstStride, width, height, rotation);
+                    assertArrayEquals("NV21 " + name, rotate(src, width, height, rotation, NV21), dst);
+
+                    YUVKernels.rotateYV12(src, width, dst, dstStride, width, height, rotation);
+                    assertArrayEquals("YV12 " + name, rotate(src, width, height, rotation, YV12), dst);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void rotationsMatchTheLegacyUtils()
+    {
+        for (int width = 2; width <= MAX_WIDTH; width += 2) {
+            for (int height = 2; height <= MAX_HEIGHT; height += 2) {
+                int size = width * height * 3 / 2;
+                byte[] src = frame(size);
+                byte[] dst = new byte[size];
+                NV21Utils.preAllocateBuffers(size);
+                YV12Utils.preAllocateBuffers(size);
+                String name = width + "x" + height;
+
+                YUVKernels.rotateNV21(src, width, dst, height, width, height, 90);
+                assertArrayEquals("NV21 90 " + name, NV21Utils.rotate90(src, width, height), dst);
+                YUVKernels.rotateNV21(src, width, dst, width, width, height, 180);
+                assertArrayEquals("NV21 180 " + name, NV21Utils.rotate180(src, width, height), dst);
+                YUVKernels.rotateNV21(src, width, dst, height, width, height, 270);
+                assertArrayEquals("NV21 270 " + name, NV21Utils.rotate270(src, width, height), dst);
+
+                YUVKernels.rotateYV12(src, width, dst, width, width, height, 180);
+                assertArrayEquals("YV12 180 " + name, YV12Utils.rotate180(src, width, height), dst);
+
+                // See yv12RotationsOfOddHalfHeightsFollowThePlanes for the others
+                if (height / 2 % 2 != 0) continue;
+                YUVKernels.rotateYV12(src, width, dst, height, width, height, 90);
+                assertArrayEquals("YV12 90 " + name, YV12Utils.rotate90(src, width, height), dst);
+                YUVKernels.rotateYV12(src, width, dst, height, width, height, 270);
+                assertArrayEquals("YV12 270 " + name, YV12Utils.rotate270(src, width, height), dst);
+            }
+        }
+    }
+
+    /**
+     * The intended YV12 rotation by 90 and 270 degrees: each chroma plane, width / 2 by
+     * height / 2, is rotated like the luma one. The legacy rotations differ when height / 2
+     * is odd, the luma plane aside.
+     */
+    @Test
+    public void yv12RotationsOfOddHalfHeightsFollowThePlanes()
+    {
+        int[][] sizes = {{34, 18}, {50, 22}, {2, 2}, {16, 6}, {64, 38}};
+        for (int[] frame : sizes) {
+            int width = frame[0], height = frame[1];
+            int size = width * height * 3 / 2;
+            int luma = width * height;
+            byte[] src = frame(size);
+            byte[] dst = new byte[size];
+            YV12Utils.preAllocateBuffers(size);
+
+            for (int rotation : new int[]{90, 270}) {
+                String name = width + "x" + height + " by " + rotation;
+                YUVKernels.rotateYV12(src, width, dst, height, width, height, rotation);
+                byte[] expected = rotate(src, width, height, rotation, YV12);
+                assertArrayEquals(name, expected, dst);
+
+                // The V plane of the source is rotated into the V plane of the destination
+                int chromaWidth = width / 2, chromaHeight = height / 2;
+                for (int y = 0; y < chromaHeight; y++) {
+                    for (int x = 0; x < chromaWidth; x++) {
+                        int rx = rotation == 90 ? chromaHeight - 1 - y : y;
+                        int ry = rotation == 90 ? x : chromaWidth - 1 - x;
+                        assertEquals(src[luma + y * chromaWidth + x], dst[luma + ry * chromaHeight + rx]);
+                    }
+                }
+
+                byte[] legacy = rotation == 90 ? YV12Utils.rotate90(src, width, height)
+                        : YV12Utils.rotate270(src, width, height);
+                assertArrayEquals(name, Arrays.copyOf(expected, luma), Arrays.copyOf(legacy, luma));
+                assertFalse("legacy " + name, Arrays.equals(expected, legacy));
+            }
+        }
+    }
+
+    @Test
+    public void rotationsRoundTrip()
+    {
+        for (int width = 2; width <= MAX_WIDTH; width += 2) {
+            for (int height = 2; height <= MAX_HEIGHT; height += 2) {
+                int size = width * height * 3 / 2;
+                byte[] src = frame(size);
+                byte[] middle = new byte[size];
+                byte[] back = new byte[size];
+                String name = width + "x" + height;
+
+                YUVKernels.rotateNV21(src, width, middle, height, width, height, 90);
+                YUVKernels.rotateNV21(middle, height, back, width, height, width, 270);
+                assertArrayEquals("NV21 90 then 270 " + name, src, back);
+
+                YUVKernels.rotateYV12(src, width, middle, height, width, height, 270);
+                YUVKernels.rotateYV12(middle, height, back, width, height, width, 90);
+                assertArrayEquals("YV12 270 then 90 " + name, src, back);
+
+                YUVKernels.rotateNV21(src, width, middle, width, width, height, 180);
+                YUVKernels.rotateNV21(middle, width, back, width, width, height, 180);
+                assertArrayEquals("NV21 180 twice " + name, src, back);
+
+                YUVKernels.rotateYV12(src, width, middle, width, width, height, 180);
+                YUVKernels.rotateYV12(middle, width, back, width, width, height, 180);
+                assertArrayEquals("YV12 180 twice " + name, src, back);
+            }
+        }
+    }
+
+    @Test
+    public void fusedRotationsMatchARotationThenAConversion()
+    {
+        for (int width = 2; width <= MAX_WIDTH; width += 2) {
+            for (int height = 2; height <= MAX_HEIGHT; height += 2) {
+                int size = width * height * 3 / 2;
+                byte[] src = frame(size);
+                byte[] rotated = new byte[size];
+                byte[] expected = new byte[size];
+                byte[] dst = new byte[size];
+
+                for (int rotation : ROTATIONS) {
+                    String name = width + "x" + height + " by " + rotation;
+                    int w = rotation % 180 == 0 ? width : height;
+                    int h = rotation % 180 == 0 ? height : width;
+
+                    YUVKernels.rotateNV21(src, width, rotated, w, width, height, rotation);
+                    YUVKernels.nv21ToI420(rotated, w, expected, w, w, h);
+                    YUVKernels.rotateNV21ToI420(src, width, dst, w, width, height, rotation);
+                    assertArrayEquals("rotateNV21ToI420 " + name, expected, dst);
+                    YUVKernels.nv21ToYV12(rotated, w, expected, w, w, h);
+                    YUVKernels.rotateNV21ToYV12(src, width, dst, w, width, height, rotation);
+                    assertArrayEquals("rotateNV21ToYV12 " + name, expected, dst);
+                    YUVKernels.nv21ToNV12(rotated, w, expected, w, w, h);
+                    YUVKernels.rotateNV21ToNV12(src, width, dst, w, width, height, rotation);
+                    assertArrayEquals("rotateNV21ToNV12 " + name, expected, dst);
+
+                    YUVKernels.rotateYV12(src, width, rotated, w, width, height, rotation);
+                    YUVKernels.yv12ToI420(rotated, w, expected, w, w, h);
+                    YUVKernels.rotateYV12ToI420(src, width, dst, w, width, height, rotation);
+                    assertArrayEquals("rotateYV12ToI420 " + name, expected, dst);
+                    YUVKernels.yv12ToNV12(rotated, w, expected, w, w, h);
+                    YUVKernels.rotateYV12ToNV12(src, width, dst, w, width, height, rotation);
+                    assertArrayEquals("rotateYV12ToNV12 " + name, expected, dst);
+                    YUVKernels.yv12ToNV21(rotated, w, expected, w, w, h);
+                    YUVKernels.rotateYV12ToNV21(src, width, dst, w, width, height, rotation);
+                    assertArrayEquals("rotateYV12ToNV21 " + name, expected, dst);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void paddedStridesOnlyWriteTheFrame()
+    {
+        int width = 34, height = 18;
+        for (int padding : new int[]{2, 6, 30}) {
+            int stride = width + padding;
+            byte[] compact = frame(width * height * 3 / 2);
+
+            for (int rotation : ROTATIONS) {
+                String name = "padding " + padding + " by " + rotation;
+                int w = rotation % 180 == 0 ? width : height;
+                int h = rotation % 180 == 0 ? height : width;
+                int dstStride = w + padding;
+
+                for (int format : new int[]{NV21, YV12}) {
+                    byte[] padded = pad(compact, width, height, stride, format, new byte[stride * height * 3 / 2]);
+                    byte[] expected = new byte[w * h * 3 / 2];
+                    byte[] dst = new byte[dstStride * h * 3 / 2];
+                    Arrays.fill(dst, (byte) 0x5A);
+                    if (format == NV21) {
+                        YUVKernels.rotateNV21(compact, width, expected, w, width, height, rotation);
+                        YUVKernels.rotateNV21(padded, stride, dst, dstStride, width, height, rotation);
+                    } else {
+                        YUVKernels.rotateYV12(compact, width, expected, w, width, height, rotation);
+                        YUVKernels.rotateYV12(padded, stride, dst, dstStride, width, height, rotation);
+                    }
+
+                    byte[] filler = new byte[dst.length];
+                    Arrays.fill(filler, (byte) 0x5A);
+                    byte[] frame = pad(expected, w, h, dstStride, format, filler);
+                    assertArrayEquals((format == NV21 ? "NV21 " : "YV12 ") + name, frame, dst);
+                }
+            }
+        }
+    }
+
+
+    // Reference
+
+    private byte[] frame(int size)
+    {
+        byte[] frame = new byte[size];
+        random.nextBytes(frame);
+        return frame;
+    }
+
+    /**
+     * Rotates each plane of a compact frame clockwise, one sample at a time.
+     */
+    private static byte[] rotate(byte[] src, int width, int height, int rotation, int format)
+    {
+        byte[] dst = new byte[src.length];
+        int luma = width * height;
+        rotatePlane(src, 0, dst, 0, width, height, 1, rotation);
+        if (format == NV21) {
+            rotatePlane(src, luma, dst, luma, width / 2, height / 2, 2, rotation);
+        } else {
+            int chroma = width / 2 * (height / 2);
+            rotatePlane(src, luma, dst, luma, width / 2, height / 2, 1, rotation);
+            rotatePlane(src, luma + chroma, dst, luma + chroma, width / 2, height / 2, 1, rotation);
+        }
+        return dst;
+    }
+
+    /**
+     * Rotates a plane of samples of the given size in bytes.
+     */
+    private static void rotatePlane(byte[] src, int srcOffset, byte[] dst, int dstOffset,
+                                    int width, int height, int sample, int rotation)
+    {
+        int dstWidth = rotation % 180 == 0 ? width : height;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int dx, dy;
+                switch (rotation) {
+                    case 90:
+                        dx = height - 1 - y;
+                        dy = x;
+                        break;
+                    case 180:
+                        dx = width - 1 - x;
+                        dy = height - 1 - y;
+                        break;
+                    case 270:
+                        dx = y;
+                        dy = width - 1 - x;
+                        break;
+                    default:
+                        dx = x;
+                        dy = y;
+                }
+                System.arraycopy(src, srcOffset + (y * width + x) * sample,
+                        dst, dstOffset + (dy * dstWidth + dx) * sample, sample);
+            }
+        }
+    }
+
+    /**
+     * Copies a compact frame into a frame of the given stride, the padding is kept.
+     * The chroma planes of YV12 have a stride of stride / 2.
+     */
+    private static byte[] pad(byte[] src, int width, int height, int stride, int format, byte[] dst)
+    {
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(src, y * width, dst, y * stride, width);
+        }
+
+        int luma = width * height;
+        int paddedLuma = stride * height;
+        if (format == NV21) {
+            for (int y = 0; y < height / 2; y++) {
+                System.arraycopy(src, luma + y * width, dst, paddedLuma + y * stride, width);
+            }
+        } else {
+            int chroma = width / 2 * (height / 2);
+            int paddedChroma = stride / 2 * (height / 2);
+            for (int plane = 0; plane < 2; plane++) {
+                for (int y = 0; y < height / 2; y++) {
+                    System.arraycopy(src, luma + plane * chroma + y * (width / 2),
+                            dst, paddedLuma + plane * paddedChroma + y * (stride / 2), width / 2);
+                }
+            }
+        }
+        return dst;
+    }
+
+    private static void assertWritten(String message, byte[] expected, ByteBuffer dst)
+    {
+        assertEquals(message + " position", 3 + expected.length, dst.position());
+        byte[] written = new byte[expected.length];
+        dst.position(3);
+        dst.get(written);
+        assertArrayEquals(message, expected, written);
+    }
+}
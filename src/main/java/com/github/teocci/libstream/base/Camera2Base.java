@@ -22,6 +22,7 @@ import com.github.teocci.libstream.input.audio.AudioQuality;
 import com.github.teocci.libstream.input.audio.MicManager;
 import com.github.teocci.libstream.input.video.Camera2Manager;
 import com.github.teocci.libstream.input.video.Frame;
+import com.github.teocci.libstream.input.video.FrameBuffer;
 import com.github.teocci.libstream.input.video.VideoQuality;
 import com.github.teocci.libstream.interfaces.audio.AACSinker;
 import com.github.teocci.libstream.enums.Camera2Facing;
@@ -166,6 +167,12 @@ public abstract class Camera2Base implements MicSinker, AACSinker, CameraSinker,
         videoEncoder.onYUVData(frame);
     }
 
+    @Override
+    public void onYUVData(FrameBuffer frame)
+    {
+        videoEncoder.onYUVData(frame);
+    }
+
     @Override
     public void onVideoFormat(MediaFormat mediaFormat)
     {
@@ -299,6 +306,7 @@ public abstract class Camera2Base implements MicSinker, AACSinker, CameraSinker,
             openGlView.addMediaCodecSurface(videoEncoder.getInputSurface());
             cameraManager.prepareCamera(openGlView.getSurface(), true);
         }
+        videoEncoder.setTimestampOffset(cameraManager.getTimestampOffset());
         videoEncoder.start();
         audioEncoder.start();
         if (onPreview) {
@@ -18,6 +18,7 @@ import com.github.teocci.libstream.coder.encoder.video.VideoEncoder;
 import com.github.teocci.libstream.input.audio.AudioQuality;
 import com.github.teocci.libstream.input.audio.MicManager;
 import com.github.teocci.libstream.input.video.Frame;
+import com.github.teocci.libstream.input.video.FrameBuffer;
 import com.github.teocci.libstream.input.video.VideoQuality;
 import com.github.teocci.libstream.interfaces.audio.AACSinker;
 import com.github.teocci.libstream.interfaces.audio.MicSinker;
@@ -131,6 +132,12 @@ public abstract class DisplayBase implements MicSinker, AACSinker, CameraSinker,
         videoEncoder.onYUVData(frame);
     }
 
+    @Override
+    public void onYUVData(FrameBuffer frame)
+    {
+        videoEncoder.onYUVData(frame);
+    }
+
     @Override
     public void onVideoFormat(MediaFormat mediaFormat)
     {
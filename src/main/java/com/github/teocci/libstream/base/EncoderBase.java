@@ -17,12 +17,14 @@ import com.github.teocci.libstream.controllers.RecordController;
 import com.github.teocci.libstream.enums.CameraFacing;
 import com.github.teocci.libstream.enums.ColorEffect;
 import com.github.teocci.libstream.enums.FormatVideoEncoder;
+import com.github.teocci.libstream.enums.RecordFormat;
 import com.github.teocci.libstream.enums.RecordStatus;
 import com.github.teocci.libstream.exceptions.CameraInUseException;
 import com.github.teocci.libstream.input.audio.AudioQuality;
 import com.github.teocci.libstream.input.audio.MicManager;
 import com.github.teocci.libstream.input.video.CamManager;
 import com.github.teocci.libstream.input.video.Frame;
+import com.github.teocci.libstream.input.video.FrameBuffer;
 import com.github.teocci.libstream.input.video.VideoQuality;
 import com.github.teocci.libstream.interfaces.RecordStatusListener;
 import com.github.teocci.libstream.interfaces.audio.AACSinker;
@@ -115,6 +117,7 @@ public abstract class EncoderBase implements MicSinker, AACSinker, CameraSinker,
     public void onPSReady(Pair<ByteBuffer, ByteBuffer> psPair)
     {
         LogHelper.e(TAG, "onPSReady()");
+        recordController.setParameterSets(psPair.first, psPair.second, null);
         sendAVCInfo(psPair.first, psPair.second, null);
     }
 
@@ -129,6 +132,7 @@ public abstract class EncoderBase implements MicSinker, AACSinker, CameraSinker,
     @Override
     public void onSpsPpsVpsReady(ByteBuffer sps, ByteBuffer pps, ByteBuffer vps)
     {
+        recordController.setParameterSets(sps, pps, vps);
         sendAVCInfo(sps, pps, vps);
     }
 
@@ -168,6 +172,12 @@ public abstract class EncoderBase implements MicSinker, AACSinker, CameraSinker,
         videoEncoder.onYUVData(frame);
     }
 
+    @Override
+    public void onYUVData(FrameBuffer frame)
+    {
+        videoEncoder.onYUVData(frame);
+    }
+
     @Override
     public void onVideoFormat(MediaFormat mediaFormat)
     {
@@ -320,7 +330,8 @@ public abstract class EncoderBase implements MicSinker, AACSinker, CameraSinker,
     {
         if (!streaming) {
             startEncoders();
-        } else if (videoEncoder.isRunning()) {
+        } else if (videoEncoder.isRunning() && recordController.getPreEventRing() == null) {
+            // The pre-event buffer starts at its oldest key frame, no need for a new one
             resetVideoEncoder();
         }
 
@@ -615,6 +626,35 @@ public abstract class EncoderBase implements MicSinker, AACSinker, CameraSinker,
         recordController.resumeRecord();
     }
 
+    /**
+     * Sets the container of the next records, a fragmented MP4 can be played while it is
+     * recorded and survives a crash of the app.
+     */
+    public void setRecordFormat(RecordFormat format)
+    {
+        recordController.setFormat(format);
+    }
+
+    /**
+     * Sets how long the fragments of the fragmented MP4 records last, 1000 ms by default.
+     */
+    public void setRecordFragmentDuration(long duration)
+    {
+        recordController.setFragmentDuration(duration);
+    }
+
+    /**
+     * Keeps the last seconds of the encoded frames while the encoders run, e.g. while
+     * streaming, so the next records start up to duration ms before startRecord() is called.
+     *
+     * @param maxBytes The memory of the frames, 0 to disable the pre-event buffer
+     * @param duration The time held, in ms
+     */
+    public void setPreEventBuffer(int maxBytes, long duration)
+    {
+        recordController.setPreEventBuffer(maxBytes, duration);
+    }
+
 
     // Setters
 
@@ -10,6 +10,7 @@ import android.util.Pair;
 
 import com.github.teocci.libstream.coder.encoder.video.VideoEncoder;
 import com.github.teocci.libstream.input.video.Frame;
+import com.github.teocci.libstream.input.video.FrameBuffer;
 import com.github.teocci.libstream.input.video.VideoQuality;
 import com.github.teocci.libstream.interfaces.video.CameraSinker;
 import com.github.teocci.libstream.interfaces.video.EncoderSinker;
@@ -90,6 +91,12 @@ public abstract class FromFileBase implements CameraSinker, EncoderSinker
         videoEncoder.onYUVData(frame);
     }
 
+    @Override
+    public void onYUVData(FrameBuffer frame)
+    {
+        videoEncoder.onYUVData(frame);
+    }
+
     @Override
     public void onVideoFormat(MediaFormat mediaFormat)
     {
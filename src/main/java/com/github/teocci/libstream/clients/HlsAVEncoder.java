@@ -0,0 +1,159 @@
+package com.github.teocci.libstream.clients;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.support.annotation.RequiresApi;
+import android.view.SurfaceView;
+import android.view.TextureView;
+
+import com.github.teocci.libstream.base.AVEncoderBase;
+import com.github.teocci.libstream.coder.FrameInfo;
+import com.github.teocci.libstream.input.audio.AudioQuality;
+import com.github.teocci.libstream.protocols.hls.HlsSegmenter;
+import com.github.teocci.libstream.protocols.hls.HlsServer;
+import com.github.teocci.libstream.utils.LogHelper;
+import com.github.teocci.libstream.view.OpenGlView;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static com.github.teocci.libstream.utils.CodecUtil.IFRAME_INTERVAL;
+
+/**
+ * Serves the camera and the microphone as a LL-HLS stream, the encoded frames going
+ * straight to the {@link HlsSegmenter} of a {@link HlsServer}.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-28
+ */
+public class HlsAVEncoder extends AVEncoderBase
+{
+    private static String TAG = LogHelper.makeLogTag(HlsAVEncoder.class);
+
+    private final HlsServer hlsServer;
+    private final HlsSegmenter segmenter;
+
+    // Descriptors handed to the segmenter, one per encoder thread
+    private final FrameInfo videoInfo = new FrameInfo();
+    private final FrameInfo audioInfo = new FrameInfo();
+
+    public HlsAVEncoder(HlsServer hlsServer, SurfaceView surfaceView)
+    {
+        super(surfaceView);
+        this.hlsServer = hlsServer;
+        this.segmenter = hlsServer.getSegmenter();
+    }
+
+    public HlsAVEncoder(HlsServer hlsServer, TextureView textureView)
+    {
+        super(textureView);
+        this.hlsServer = hlsServer;
+        this.segmenter = hlsServer.getSegmenter();
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+    public HlsAVEncoder(HlsServer hlsServer, OpenGlView openGlView)
+    {
+        super(openGlView);
+        this.hlsServer = hlsServer;
+        this.segmenter = hlsServer.getSegmenter();
+    }
+
+    /**
+     * The HLS server has no authorization.
+     */
+    @Override
+    public void setAuthorization(String user, String password)
+    {
+        LogHelper.w(TAG, "Authorization not supported by the HLS server");
+    }
+
+    @Override
+    public void onVideoFormat(MediaFormat mediaFormat)
+    {
+        super.onVideoFormat(mediaFormat);
+        segmenter.setVideoSize(
+                mediaFormat.getInteger(MediaFormat.KEY_WIDTH),
+                mediaFormat.getInteger(MediaFormat.KEY_HEIGHT)
+        );
+        // The interval the video encoder is configured with, in s
+        segmenter.setKeyFrameInterval(IFRAME_INTERVAL * 1000);
+    }
+
+    @Override
+    protected void prepareAudioRtp(AudioQuality audioQuality)
+    {
+        segmenter.setAudioFormat(audioQuality.sampleRate, audioQuality.channel);
+    }
+
+    @Override
+    protected void startRtpStream()
+    {
+        startServer();
+    }
+
+    @Override
+    protected void startRtpStream(String url)
+    {
+        startServer();
+    }
+
+    /**
+     * Ends the stream, the viewers can still get its last segments.
+     */
+    @Override
+    protected void stopRtpStream()
+    {
+        LogHelper.e(TAG, "stopRtpStream()");
+        segmenter.stop();
+    }
+
+    @Override
+    protected void sendAVCInfo(ByteBuffer sps, ByteBuffer pps, ByteBuffer vps)
+    {
+        LogHelper.e(TAG, "sendAVCInfo()");
+        segmenter.setParameterSets(toBytes(sps), toBytes(pps), toBytes(vps));
+    }
+
+    @Override
+    protected void sendAACData(ByteBuffer aacBuffer, MediaCodec.BufferInfo info)
+    {
+        audioInfo.set(info.offset, info.size, info.presentationTimeUs, info.flags);
+        segmenter.writeAudio(aacBuffer, audioInfo);
+    }
+
+    @Override
+    protected void sendH264Data(ByteBuffer h264Buffer, MediaCodec.BufferInfo info)
+    {
+        videoInfo.set(info.offset, info.size, info.presentationTimeUs, info.flags);
+        segmenter.writeVideo(h264Buffer, videoInfo);
+    }
+
+    public HlsServer getHlsServer()
+    {
+        return hlsServer;
+    }
+
+    private void startServer()
+    {
+        try {
+            hlsServer.start();
+        } catch (IOException e) {
+            LogHelper.e(TAG, "HLS server not started: " + e.getMessage());
+        }
+    }
+
+    private static byte[] toBytes(ByteBuffer buffer)
+    {
+        if (buffer == null) return null;
+
+        ByteBuffer data = buffer.duplicate();
+        data.rewind();
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+
+        return bytes;
+    }
+}
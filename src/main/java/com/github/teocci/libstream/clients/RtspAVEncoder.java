@@ -10,6 +10,7 @@ import com.github.teocci.libstream.base.AVEncoderBase;
 import com.github.teocci.libstream.enums.Protocol;
 import com.github.teocci.libstream.input.audio.AudioQuality;
 import com.github.teocci.libstream.interfaces.ConnectCheckerRtsp;
+import com.github.teocci.libstream.protocols.rtsp.rtcp.AdaptiveBitrateController;
 import com.github.teocci.libstream.protocols.rtsp.rtsp.RtspClient;
 import com.github.teocci.libstream.utils.LogHelper;
 import com.github.teocci.libstream.view.OpenGlView;
@@ -109,4 +110,24 @@ public class RtspAVEncoder extends AVEncoderBase
     {
         rtspClient.setProtocol(protocol);
     }
+
+    /**
+     * Adapts the video bitrate to the RTCP reports of the server, from the next connection.
+     *
+     * @param minBitrate The lowest video bitrate, in bps
+     * @param maxBitrate The highest video bitrate, in bps
+     * @return the controller, to set a frame rate range or read the link state
+     */
+    public AdaptiveBitrateController enableAdaptiveBitrate(int minBitrate, int maxBitrate)
+    {
+        AdaptiveBitrateController controller =
+                new AdaptiveBitrateController(videoEncoder, minBitrate, maxBitrate);
+        rtspClient.setRtcpListener(controller);
+        return controller;
+    }
+
+    public void disableAdaptiveBitrate()
+    {
+        rtspClient.setRtcpListener(null);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,187 @@
+package com.github.teocci.libstream.clients;
+
+import android.media.MediaCodec;
+import android.os.Build;
+import android.support.annotation.RequiresApi;
+import android.view.SurfaceView;
+import android.view.TextureView;
+
+import com.github.teocci.libstream.base.AVEncoderBase;
+import com.github.teocci.libstream.coder.FrameInfo;
+import com.github.teocci.libstream.input.audio.AudioQuality;
+import com.github.teocci.libstream.muxers.ts.TsMuxer;
+import com.github.teocci.libstream.muxers.ts.TsSocketUdp;
+import com.github.teocci.libstream.utils.LogHelper;
+import com.github.teocci.libstream.view.OpenGlView;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Pushes the camera and the microphone as a MPEG-TS stream over UDP, to an url like
+ * udp://host:port. The encoded frames go straight to a {@link TsMuxer}, next to where the
+ * other clients hand them to their RTP packetizers.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-28
+ */
+public class TsAVEncoder extends AVEncoderBase
+{
+    private static String TAG = LogHelper.makeLogTag(TsAVEncoder.class);
+
+    private static final String SCHEME = "udp://";
+
+    private TsSocketUdp socket;
+    private TsMuxer muxer;
+
+    // Descriptors handed to the muxer, one per encoder thread
+    private final FrameInfo videoInfo = new FrameInfo();
+    private final FrameInfo audioInfo = new FrameInfo();
+
+    public TsAVEncoder(SurfaceView surfaceView)
+    {
+        super(surfaceView);
+        init();
+    }
+
+    public TsAVEncoder(TextureView textureView)
+    {
+        super(textureView);
+        init();
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+    public TsAVEncoder(OpenGlView openGlView)
+    {
+        super(openGlView);
+        init();
+    }
+
+    private void init()
+    {
+        try {
+            socket = new TsSocketUdp();
+            muxer = new TsMuxer(socket);
+        } catch (IOException e) {
+            LogHelper.e(TAG, "UDP socket not opened: " + e.getMessage());
+        }
+    }
+
+    /**
+     * MPEG-TS over UDP has no authorization.
+     */
+    @Override
+    public void setAuthorization(String user, String password)
+    {
+        LogHelper.w(TAG, "Authorization not supported by MPEG-TS over UDP");
+    }
+
+    @Override
+    protected void prepareAudioRtp(AudioQuality audioQuality)
+    {
+        if (muxer == null) return;
+        muxer.setAudioFormat(audioQuality.sampleRate, audioQuality.channel);
+    }
+
+    @Override
+    protected void startRtpStream()
+    {
+        LogHelper.e(TAG, "A destination is required, use startRtpStream(udp://host:port)");
+    }
+
+    @Override
+    protected void startRtpStream(String url)
+    {
+        if (socket == null) return;
+
+        // udp://host:port, the options after it are ignored
+        if (url == null || !url.startsWith(SCHEME)) {
+            LogHelper.e(TAG, "Invalid url: " + url);
+            return;
+        }
+
+        String address = url.substring(SCHEME.length());
+        int end = address.indexOf('?');
+        if (end >= 0) address = address.substring(0, end);
+        int colon = address.lastIndexOf(':');
+
+        try {
+            socket.setDestination(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+        } catch (IOException | RuntimeException e) {
+            LogHelper.e(TAG, "Invalid destination " + url + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    protected void stopRtpStream()
+    {
+        LogHelper.e(TAG, "stopRtpStream()");
+        if (muxer == null) return;
+
+        try {
+            muxer.stop();
+        } catch (IOException e) {
+            LogHelper.e(TAG, "UDP send error: " + e.getMessage());
+        }
+    }
+
+    @Override
+    protected void sendAVCInfo(ByteBuffer sps, ByteBuffer pps, ByteBuffer vps)
+    {
+        LogHelper.e(TAG, "sendAVCInfo()");
+        if (muxer == null) return;
+        muxer.setParameterSets(toBytes(sps), toBytes(pps), toBytes(vps));
+    }
+
+    @Override
+    protected void sendAACData(ByteBuffer aacBuffer, MediaCodec.BufferInfo info)
+    {
+        if (muxer == null) return;
+
+        audioInfo.set(info.offset, info.size, info.presentationTimeUs, info.flags);
+        try {
+            muxer.writeAudio(aacBuffer, audioInfo);
+        } catch (IOException e) {
+            LogHelper.e(TAG, "UDP send error: " + e.getMessage());
+        }
+    }
+
+    @Override
+    protected void sendH264Data(ByteBuffer h264Buffer, MediaCodec.BufferInfo info)
+    {
+        if (muxer == null) return;
+
+        videoInfo.set(info.offset, info.size, info.presentationTimeUs, info.flags);
+        try {
+            muxer.writeVideo(h264Buffer, videoInfo);
+        } catch (IOException e) {
+            LogHelper.e(TAG, "UDP send error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the muxer, with its packet and byte counters.
+     */
+    public TsMuxer getMuxer()
+    {
+        return muxer;
+    }
+
+    public TsSocketUdp getSocket()
+    {
+        return socket;
+    }
+
+    private static byte[] toBytes(ByteBuffer buffer)
+    {
+        if (buffer == null) return null;
+
+        ByteBuffer data = buffer.duplicate();
+        data.rewind();
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+
+        return bytes;
+    }
+}
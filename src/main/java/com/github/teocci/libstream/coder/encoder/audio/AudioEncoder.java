@@ -21,7 +21,6 @@ import static android.media.MediaFormat.KEY_BIT_RATE;
 import static android.media.MediaFormat.KEY_MAX_INPUT_SIZE;
 import static com.github.teocci.libstream.utils.CodecUtil.MAX_INPUT_SIZE;
 import static com.github.teocci.libstream.utils.BuildUtil.minAPI21;
-import static com.github.teocci.libstream.utils.rtsp.RtpConstants.PAYLOAD_TYPE;
 
 /**
  * Encode PCM audio data to ACC and return in a callback
@@ -284,30 +283,6 @@ public class AudioEncoder implements MicSinker
         return correctedPts;
     }
 
-    public static String createBody(int trackAudio, int port, AudioQuality quality)
-    {
-        // 00000000 00000010 = 0x02
-        // 00000000 00011111 = 0x1F
-        // 00010000 00000000 = (2 & 0x1F) << 11 | Audio profile
-
-        // 00000000 00000100 = 0x04
-        // 00001111 = 0x0F
-        // 00000010 00000000 = (4 & 0x1F) << 7 | Sample rate index
-
-        // 00000000 00000010 = 0x02
-        // 00001111 = 0x0F
-        // 00000010 00010000 = (4 & 0x1F) << 3 | Channel Stereo
-
-
-        // 00010010 00010000 = 1210
-        int config = (AUDIO_PROFILE & 0x1F) << 11 | (quality.getSampleRateIndex() & 0x0F) << 7 | (quality.channel & 0x0F) << 3;
-        return "m=audio " + port + " RTP/AVP " + PAYLOAD_TYPE + "\r\n" +
-                "a=rtpmap:" + PAYLOAD_TYPE + " mpeg4-generic/" + quality.sampleRate + "/" + quality.channel + "\r\n" +
-                "a=fmtp:" + PAYLOAD_TYPE + " streamtype=5; profile-level-id=15; mode=AAC-hbr; " +
-                "config=" + Integer.toHexString(config) + "; SizeLength=13; IndexLength=3; IndexDeltaLength=3;\r\n" +
-                "a=control:trackID=" + trackAudio + "\r\n";
-    }
-
 
     public void setSampleRate(int sampleRate)
     {
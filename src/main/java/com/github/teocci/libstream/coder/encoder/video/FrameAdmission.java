@@ -0,0 +1,187 @@
+package com.github.teocci.libstream.coder.encoder.video;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides which camera frames the video encoder takes, so that the live latency stays
+ * bounded when the encoder falls behind, e.g. under CPU contention.
+ * <p>
+ * At capture, {@link #admit(long)} keeps the frames on a regular cadence from their
+ * capture times: one frame per interval of the target frame rate, or of the time the
+ * encoder spends per frame plus an eighth if it is longer. A slow encoder thus gets evenly spaced frames,
+ * instead of a queue that fills up and bursts of drops.
+ * <p>
+ * At dequeue, {@link #accept(long, boolean)} bounds the age of the frames rather than their
+ * number: a frame that waited longer than the max queue age is dropped, the oldest first,
+ * as long as a newer one is queued.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-25
+ */
+public class FrameAdmission
+{
+    /**
+     * How long a frame may wait for the encoder by default, in ms.
+     */
+    public static final long DEFAULT_MAX_QUEUE_AGE = 200;
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private volatile long maxQueueAge = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_QUEUE_AGE);
+    private volatile int fps;
+
+    // Capture side, only the capture thread writes them
+    private long nextDue = -1;
+    private volatile long admittedFrames = 0;
+    private volatile long skippedFrames = 0;
+    private volatile long overflowFrames = 0;
+
+    // Encoder side, only the encoder thread writes them
+    private volatile long serviceTime = 0;
+    private volatile long queueAge = 0;
+    private volatile long peakQueueAge = 0;
+    private volatile long expiredFrames = 0;
+
+    /**
+     * @param fps The target frame rate, 0 to only follow the encoder
+     */
+    public FrameAdmission(int fps)
+    {
+        this.fps = fps;
+    }
+
+    /**
+     * Tells whether a captured frame keeps the cadence, only the capture thread may call it.
+     *
+     * @param timestamp The capture time of the frame, in ns of System.nanoTime()
+     * @return false if the frame is skipped
+     */
+    public boolean admit(long timestamp)
+    {
+        int fps = this.fps;
+        // A bit slower than the encoder, so that the frames it is late on drain away
+        long service = serviceTime;
+        long interval = Math.max(fps > 0 ? NANOS_PER_SECOND / fps : 0, service + (service >> 3));
+
+        // The first frame, or a gap in the capture: the cadence starts again from this frame
+        if (nextDue < 0 || timestamp - nextDue > interval) nextDue = timestamp;
+
+        // A quarter of the interval absorbs the jitter of the capture
+        if (timestamp < nextDue - interval / 4) {
+            skippedFrames++;
+            return false;
+        }
+
+        nextDue += interval;
+        admittedFrames++;
+        return true;
+    }
+
+    /**
+     * Counts a frame dropped by the capture thread because the queue was full.
+     */
+    public void onOverflow()
+    {
+        overflowFrames++;
+    }
+
+    /**
+     * Tells whether the encoder takes a dequeued frame, only the encoder thread may call it.
+     *
+     * @param timestamp The capture time of the frame, in ns of System.nanoTime()
+     * @param newest    Whether no newer frame is queued, the newest frame is always taken
+     * @return false if the frame waited too long, it is then dropped
+     */
+    public boolean accept(long timestamp, boolean newest)
+    {
+        long age = System.nanoTime() - timestamp;
+        queueAge += (age - queueAge) >> 4;
+        if (age > peakQueueAge) peakQueueAge = age;
+
+        if (!newest && age > maxQueueAge) {
+            expiredFrames++;
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Records the time the encoder spent on a frame, only the encoder thread may call it.
+     */
+    public void onEncoded(long duration)
+    {
+        serviceTime += (duration - serviceTime) >> 3;
+    }
+
+    /**
+     * Starts again from the next frame, the counters are kept.
+     */
+    public void reset()
+    {
+        nextDue = -1;
+        serviceTime = 0;
+        queueAge = 0;
+    }
+
+    /**
+     * Sets how long a frame may wait for the encoder, 200 ms by default.
+     *
+     * @param maxQueueAge The age bound in ms
+     */
+    public void setMaxQueueAge(long maxQueueAge)
+    {
+        this.maxQueueAge = TimeUnit.MILLISECONDS.toNanos(maxQueueAge);
+    }
+
+    public void setFps(int fps)
+    {
+        this.fps = fps;
+    }
+
+    public long getAdmittedFrames()
+    {
+        return admittedFrames;
+    }
+
+    /**
+     * Returns the number of frames skipped to keep the cadence.
+     */
+    public long getSkippedFrames()
+    {
+        return skippedFrames;
+    }
+
+    /**
+     * Returns the number of frames dropped because they were too old, or the queue full.
+     */
+    public long getDroppedFrames()
+    {
+        return expiredFrames + overflowFrames;
+    }
+
+    /**
+     * Returns the average age of the frames taken from the queue, in us.
+     */
+    public long getQueueAge()
+    {
+        return queueAge / 1000;
+    }
+
+    /**
+     * Returns the highest age of a frame taken from the queue, in us.
+     */
+    public long getPeakQueueAge()
+    {
+        return peakQueueAge / 1000;
+    }
+
+    /**
+     * Returns the average time the encoder spends on a frame, in us.
+     */
+    public long getServiceTime()
+    {
+        return serviceTime / 1000;
+    }
+}
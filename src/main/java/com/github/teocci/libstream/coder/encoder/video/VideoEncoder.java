@@ -13,11 +13,17 @@ import android.support.annotation.RequiresApi;
 import android.util.Pair;
 import android.view.Surface;
 
+import com.github.teocci.libstream.coder.EncodedFrameQueue;
+import com.github.teocci.libstream.coder.FrameInfo;
 import com.github.teocci.libstream.enums.FormatVideoEncoder;
-import com.github.teocci.libstream.input.video.FpsLimiter;
+import com.github.teocci.libstream.enums.PipelineMode;
 import com.github.teocci.libstream.input.video.Frame;
+import com.github.teocci.libstream.input.video.FrameBuffer;
+import com.github.teocci.libstream.input.video.FrameBufferPool;
+import com.github.teocci.libstream.input.video.FrameQueue;
 import com.github.teocci.libstream.input.video.VideoQuality;
 import com.github.teocci.libstream.interfaces.video.CameraSinker;
+import com.github.teocci.libstream.interfaces.video.EncoderRateListener;
 import com.github.teocci.libstream.interfaces.video.EncoderSinker;
 import com.github.teocci.libstream.utils.LogHelper;
 import com.github.teocci.libstream.utils.yuv.YUVUtil;
@@ -26,9 +32,8 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
 
+import static android.media.MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME;
 import static android.media.MediaCodec.PARAMETER_KEY_VIDEO_BITRATE;
 import static com.github.teocci.libstream.enums.FormatVideoEncoder.SURFACE;
 import static com.github.teocci.libstream.enums.FormatVideoEncoder.YUV420DYNAMICAL;
@@ -41,10 +46,6 @@ import static com.github.teocci.libstream.utils.CodecUtil.getVideoCodecInfo;
 import static com.github.teocci.libstream.utils.BuildUtil.minAPI18;
 import static com.github.teocci.libstream.utils.BuildUtil.minAPI19;
 import static com.github.teocci.libstream.utils.BuildUtil.minAPI21;
-import static com.github.teocci.libstream.utils.rtsp.RtpConstants.CLOCK_VIDEO_FREQUENCY;
-import static com.github.teocci.libstream.utils.rtsp.RtpConstants.PAYLOAD_TYPE;
-import static com.github.teocci.libstream.utils.yuv.YUVUtil.NV21toYUV420byColor;
-import static com.github.teocci.libstream.utils.yuv.YUVUtil.YV12toYUV420byColor;
 
 /**
  * This class need use same resolution, fps and imageFormat that Camera1ApiManagerGl
@@ -54,7 +55,7 @@ import static com.github.teocci.libstream.utils.yuv.YUVUtil.YV12toYUV420byColor;
  * @author teocci@yandex.com on 2017-Jan-14
  */
 
-public class VideoEncoder implements CameraSinker
+public class VideoEncoder implements CameraSinker, EncoderRateListener
 {
     private static String TAG = LogHelper.makeLogTag(VideoEncoder.class);
 
@@ -68,20 +69,49 @@ public class VideoEncoder implements CameraSinker
 
     private EncoderSinker encoderSinker;
 
+    // Encoded frames waiting for the sinks while running, null to feed them from the codec thread
+    private int outputQueueCapacity = 0;
+    private volatile EncodedFrameQueue outputQueue;
+    private final FrameInfo outputInfo = new FrameInfo();
+    // Descriptor of the frames dispatched by the output queue, on its thread
+    private final MediaCodec.BufferInfo dispatchInfo = new MediaCodec.BufferInfo();
+    private boolean keyFrameRequested = false;
+
     //    private long presentTimeUs;
 //    private long frameIndex = 0;
     private long firstPts = 0;
     private long lastPts = 0;
+    private long lastInputPts = -1;
+
+    // Capture clock of the Surface input minus System.nanoTime(), in ns
+    private volatile long timestampOffset = 0;
 
     private boolean running = false;
     private boolean hasPSPair = false;
     private boolean hardwareRotation = false;
 
+    // Frames rotated and converted by the encoder thread
+    private byte[] rotateBuffer;
+
     // Surface to buffer encoder
     private Surface inputSurface;
 
+    // Frames received from onYUVData(byte[]) are copied into this pool
+    private static final int COPY_POOL_SIZE = 4;
+
     // Buffer to buffer, 3 queue to optimize frames on rotation
-    private BlockingQueue<byte[]> queue = new LinkedBlockingQueue<>(80);
+    // The queued frames are retained, their buffers are only reused once encoded
+    private final FrameQueue queue = new FrameQueue(80);
+    private FrameBufferPool copyPool;
+
+    // Frames waiting in front of a stage, and frames of the pool of a stage: the ring of the
+    // next stage, the frame it processes and the one being written
+    private static final int PIPELINE_CAPACITY = FramePipeline.DEFAULT_CAPACITY;
+    private static final int PIPELINE_POOL_SIZE = PIPELINE_CAPACITY + 2;
+
+    private PipelineMode pipelineMode = PipelineMode.SINGLE_THREAD;
+    // The pipeline of the YUV frames while running, if not in a single thread
+    private volatile FramePipeline pipeline;
 //    private BlockingQueue<byte[]> queueEncode = new LinkedBlockingQueue<>(30);
 //    private BlockingQueue<byte[]> queueRotate = new LinkedBlockingQueue<>(30);
 //    private BlockingQueue<byte[]> queueColor = new LinkedBlockingQueue<>(30);
@@ -105,7 +135,8 @@ public class VideoEncoder implements CameraSinker
     private boolean sendBlackImage = false;
     private byte[] blackImage;
 
-    private FpsLimiter fpsLimiter = new FpsLimiter();
+    // Keeps the cadence of the frames and bounds their age in the queue
+    private final FrameAdmission admission = new FrameAdmission(quality.fps);
 
     public VideoEncoder(EncoderSinker encoderSinker)
     {
@@ -117,15 +148,61 @@ public class VideoEncoder implements CameraSinker
     {
         synchronized (sync) {
             if (isRunning()) {
-                if (fpsLimiter.limitFPS(quality.fps)) return;
-                try {
-                    queue.add(buffer);
-//                    queueRotate.add(buffer);
-                } catch (IllegalStateException e) {
+                long timestamp = System.nanoTime();
+                if (!admission.admit(timestamp)) return;
+
+                // The caller may refill its buffer right away, the frame is copied
+                FrameBufferPool pool = copyPool;
+                if (pool == null || pool.getFrameSize() != buffer.length) {
+                    pool = copyPool = new FrameBufferPool(COPY_POOL_SIZE, buffer.length);
+                }
+
+                FrameBuffer frame = pool.acquire();
+                if (frame == null) {
                     LogHelper.i(TAG, "onYUVData: frame discarded");
-                    e.printStackTrace();
+                    return;
                 }
+
+                System.arraycopy(buffer, 0, frame.data, 0, buffer.length);
+                frame.timestamp = timestamp;
+                enqueue(frame);
+            }
+        }
+    }
+
+    @Override
+    public void onYUVData(FrameBuffer frame)
+    {
+        synchronized (sync) {
+            if (isRunning()) {
+                if (!admission.admit(frame.timestamp)) return;
+                enqueue(frame.retain());
+            }
+        }
+    }
+
+    /**
+     * Queues the frame with its reference. If the queue is full its oldest frame is
+     * released, the least useful one for a live stream; a pipeline drops the new frame.
+     */
+    private void enqueue(FrameBuffer frame)
+    {
+        FramePipeline pipeline = this.pipeline;
+        if (pipeline != null) {
+            if (!pipeline.offer(frame)) {
+                frame.release();
+                admission.onOverflow();
             }
+            return;
+        }
+
+        if (!queue.offer(frame)) {
+            FrameBuffer oldest = queue.poll();
+            if (oldest != null) oldest.release();
+            admission.onOverflow();
+            LogHelper.i(TAG, "onYUVData: frame discarded");
+
+            if (!queue.offer(frame)) frame.release();
         }
     }
 
@@ -184,6 +261,7 @@ public class VideoEncoder implements CameraSinker
         this.quality.height = quality.height;
         this.quality.bitrate = quality.bitrate;
         this.quality.fps = quality.fps;
+        admission.setFps(quality.fps);
 
         LogHelper.e(TAG, "quality: " + this.quality);
 
@@ -283,10 +361,13 @@ public class VideoEncoder implements CameraSinker
         }
         synchronized (sync) {
             hasPSPair = false;
+            lastPts = 0;
+            lastInputPts = -1;
 //            if (resetTs) presentTimeUs = System.nanoTime() / 1000;
 //            if (resetTs) frameIndex = 0;
 
             videoEncoder.start();
+            startOutputQueue();
             // Surface to buffer
             if (isSurface()) {
                 // Thread definition
@@ -304,7 +385,11 @@ public class VideoEncoder implements CameraSinker
                 }
 
                 // Thread definition
-                initBufferSingleProcess();
+                if (pipelineMode == PipelineMode.SINGLE_THREAD) {
+                    initBufferSingleProcess();
+                } else {
+                    initBufferPipeline();
+                }
 //                initBufferProcess();
             }
 
@@ -417,38 +502,32 @@ public class VideoEncoder implements CameraSinker
     private void initBufferSingleProcess()
     {
         thread = new Thread(() -> {
-            int width = quality.width;
-            int height = quality.height;
-
-            YUVUtil.preAllocateBuffers(width * height * 3 / 2);
+            // Owned by this thread, a rotated frame is converted in the same pass
+            rotateBuffer = new byte[quality.width * quality.height * 3 / 2];
             while (running && !Thread.interrupted()) {
                 try {
 //                    Frame frame = queue.take();
 //                    if (fpsLimiter.limitFPS(quality.fps)) continue;
 //                    byte[] buffer = frame.getBuffer();
 
-                    byte[] buffer = queue.take();
-//                            boolean isYV12 = frame.getFormat() == ImageFormat.YV12;
-                    if (!hardwareRotation) {
-//                                 int orientation = frame.isFlip() ? frame.getOrientation() + 180 : frame.getOrientation();
-                        int orientation = rotation;
-
-                        if (orientation >= 360) orientation -= 360;
-                        buffer = imageFormat == ImageFormat.YV12 ?
-                                YUVUtil.rotateYV12(buffer, width, height, orientation) :
-                                YUVUtil.rotateNV21(buffer, width, height, orientation);
-                    }
-                    buffer = (sendBlackImage) ?
-                            blackImage : imageFormat == ImageFormat.YV12 ?
-                            YV12toYUV420byColor(buffer, width, height, formatCodec) :
-                            NV21toYUV420byColor(buffer, width, height, formatCodec);
+                    FrameBuffer frame = queue.take();
+                    try {
+                        // A frame that waited too long is dropped, unless it is the last one
+                        if (!admission.accept(frame.timestamp, queue.size() == 0)) continue;
 
-                    if (Thread.currentThread().isInterrupted()) return;
+                        // The rotation, if any, is done by fillInputBuffer() with the conversion
+                        if (Thread.currentThread().isInterrupted()) return;
 
-                    if (minAPI21()) {
-                        requestEncodedDataAPI21(buffer);
-                    } else {
-                        requestEncodedData(buffer);
+                        long start = System.nanoTime();
+                        if (minAPI21()) {
+                            requestEncodedDataAPI21(frame, false);
+                        } else {
+                            requestEncodedData(frame, false);
+                        }
+                        admission.onEncoded(System.nanoTime() - start);
+                    } finally {
+                        // The frame has been copied into the codec, its buffer can be reused
+                        frame.release();
                     }
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
@@ -457,9 +536,129 @@ public class VideoEncoder implements CameraSinker
         });
     }
 
+    /**
+     * Spreads the rotation, the conversion and the feeding of the codec over the threads of
+     * a {@link FramePipeline}, see {@link PipelineMode}. The frames keep their order.
+     */
+    private void initBufferPipeline()
+    {
+        int width = quality.width;
+        int height = quality.height;
+        int orientation = hardwareRotation ? 0 : rotation % 360;
+        int frameSize = width * height * 3 / 2;
+
+        FramePipeline pipeline = new FramePipeline("VideoEncoder", PIPELINE_CAPACITY);
+        if (pipelineMode == PipelineMode.ROTATE_CONVERT_FEED && orientation != 0) {
+            FrameBufferPool rotatePool = new FrameBufferPool(PIPELINE_POOL_SIZE, frameSize);
+            pipeline.addStage("rotate", frame -> rotateFrame(frame, rotatePool, orientation));
+
+            // The rotated frame is height wide for 90 and 270 degrees
+            boolean swap = orientation == 90 || orientation == 270;
+            int rotatedWidth = swap ? height : width;
+            int rotatedHeight = swap ? width : height;
+            FrameBufferPool colorPool = new FrameBufferPool(PIPELINE_POOL_SIZE, frameSize);
+            pipeline.addStage("convert", frame -> convertFrame(frame, colorPool, rotatedWidth, rotatedHeight, 0));
+        } else {
+            FrameBufferPool colorPool = new FrameBufferPool(PIPELINE_POOL_SIZE, frameSize);
+            pipeline.addStage("convert", frame -> convertFrame(frame, colorPool, width, height, orientation));
+        }
+
+        pipeline.addStage("feed", frame -> {
+            try {
+                // The rings of the pipeline already bound the age of the frames
+                admission.accept(frame.timestamp, true);
+
+                long start = System.nanoTime();
+                if (minAPI21()) {
+                    requestEncodedDataAPI21(frame, true);
+                } else {
+                    requestEncodedData(frame, true);
+                }
+                admission.onEncoded(System.nanoTime() - start);
+            } finally {
+                // The frame has been copied into the codec, its buffer can be reused
+                frame.release();
+            }
+
+            return null;
+        });
+
+        this.pipeline = pipeline;
+    }
+
+    /**
+     * Rotates a camera frame into a frame of the pool, the stage releases the camera frame.
+     */
+    private FrameBuffer rotateFrame(FrameBuffer frame, FrameBufferPool pool, int orientation)
+    {
+        FrameBuffer rotated = pool.acquire();
+        if (rotated != null) {
+            if (imageFormat == ImageFormat.YV12) {
+                YUVUtil.rotateYV12(frame.data, rotated.data, quality.width, quality.height, orientation);
+            } else {
+                YUVUtil.rotateNV21(frame.data, rotated.data, quality.width, quality.height, orientation);
+            }
+            rotated.timestamp = frame.timestamp;
+        }
+
+        frame.release();
+        return rotated;
+    }
+
+    /**
+     * Converts a camera frame to the color format of the codec into a frame of the pool,
+     * rotating it in the same pass if the orientation is not 0. A frame already in the
+     * format of the codec goes on as it is.
+     */
+    private FrameBuffer convertFrame(FrameBuffer frame, FrameBufferPool pool, int width, int height, int orientation)
+    {
+        FrameBuffer converted = pool.acquire();
+        if (converted == null) {
+            frame.release();
+            return null;
+        }
+
+        int length;
+        if (orientation != 0) {
+            length = imageFormat == ImageFormat.YV12 ?
+                    YUVUtil.rotateYV12toYUV420byColor(
+                            frame.data, converted.data, width, height, orientation, formatCodec
+                    ) :
+                    YUVUtil.rotateNV21toYUV420byColor(
+                            frame.data, converted.data, width, height, orientation, formatCodec
+                    );
+        } else {
+            byte[] result = imageFormat == ImageFormat.YV12 ?
+                    YUVUtil.YV12toYUV420byColor(frame.data, converted.data, width, height, formatCodec) :
+                    YUVUtil.NV21toYUV420byColor(frame.data, converted.data, width, height, formatCodec);
+            if (result == frame.data) {
+                converted.release();
+                frame.length = width * height * 3 / 2;
+                return frame;
+            }
+            length = result != null ? width * height * 3 / 2 : -1;
+        }
+
+        if (length < 0) {
+            converted.release();
+            converted = null;
+        } else {
+            converted.length = length;
+            converted.timestamp = frame.timestamp;
+        }
+
+        frame.release();
+        return converted;
+    }
+
     private void runProcess()
     {
-        runSingleThread();
+        FramePipeline pipeline = this.pipeline;
+        if (pipeline != null) {
+            pipeline.start();
+        } else {
+            runSingleThread();
+        }
 //        runThreads();
         running = true;
     }
@@ -484,6 +683,8 @@ public class VideoEncoder implements CameraSinker
     {
         synchronized (sync) {
             stopSingleProcess();
+            stopPipeline();
+            stopOutputQueue();
 //            stopProcess();
 
             if (videoEncoder != null) {
@@ -498,7 +699,7 @@ public class VideoEncoder implements CameraSinker
 //            queueRotate.clear();
 //            queueColor.clear();
 
-            fpsLimiter.reset();
+            admission.reset();
             hasPSPair = false;
             inputSurface = null;
             running = false;
@@ -518,6 +719,41 @@ public class VideoEncoder implements CameraSinker
         }
     }
 
+    private void stopPipeline()
+    {
+        FramePipeline pipeline = this.pipeline;
+        if (pipeline != null) {
+            this.pipeline = null;
+            pipeline.stop();
+        }
+    }
+
+    /**
+     * Starts the thread feeding the sinks with the encoded frames, if there is an output
+     * queue.
+     */
+    private void startOutputQueue()
+    {
+        keyFrameRequested = false;
+        if (outputQueueCapacity <= 0) return;
+
+        EncodedFrameQueue outputQueue = new EncodedFrameQueue("VideoEncoder-output", outputQueueCapacity, (data, info) -> {
+            dispatchInfo.set(info.offset, info.size, info.presentationTimeUs, info.flags);
+            encoderSinker.onEncodedData(data, dispatchInfo);
+        });
+        outputQueue.start();
+        this.outputQueue = outputQueue;
+    }
+
+    private void stopOutputQueue()
+    {
+        EncodedFrameQueue outputQueue = this.outputQueue;
+        if (outputQueue != null) {
+            this.outputQueue = null;
+            outputQueue.stop();
+        }
+    }
+
 //    private void stopProcess()
 //    {
 //        if (threadEncode != null) {
@@ -593,12 +829,13 @@ public class VideoEncoder implements CameraSinker
     /**
      * New implementation
      *
-     * @param buffer frame buffer
+     * @param frame     camera frame, with its capture time
+     * @param converted whether the frame is already in the color format of the codec
      */
     @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
-    private void requestEncodedDataAPI21(byte[] buffer)
+    private void requestEncodedDataAPI21(FrameBuffer frame, boolean converted)
     {
-        if (buffer == null) return;
+        if (frame == null) return;
         // Wait indefinitely for the availability of an input buffer
         int inBufferIndex = videoEncoder.dequeueInputBuffer(-1);
         if (inBufferIndex >= 0) {
@@ -606,13 +843,11 @@ public class VideoEncoder implements CameraSinker
 //            long pts = System.nanoTime() / 1000;
 //            long pts = computePresentationTime();
 //            long pts = computePresentationTime(frameIndex);
-            // TODO: find a pts without glitching
+            long pts = getInputPts(frame.timestamp);
 
             ByteBuffer inputBuffer = videoEncoder.getInputBuffer(inBufferIndex);
-            if (inputBuffer != null) {
-                inputBuffer.put(buffer, 0, buffer.length);
-            }
-            videoEncoder.queueInputBuffer(inBufferIndex, 0, buffer.length, 0, 0);
+            int length = inputBuffer != null ? fillInputBuffer(inputBuffer, frame, converted) : 0;
+            videoEncoder.queueInputBuffer(inBufferIndex, 0, length, pts, 0);
 //            frameIndex++;
         }
 
@@ -647,9 +882,11 @@ public class VideoEncoder implements CameraSinker
                             hasPSPair = true;
                         }
                     }
+                } else {
+                    videoInfo.presentationTimeUs = getOutputPts(videoInfo.presentationTimeUs);
                 }
 
-                encoderSinker.onEncodedData(buffer, videoInfo);
+                sendEncodedData(buffer, videoInfo);
                 videoEncoder.releaseOutputBuffer(outBufferIndex, false);
             } else {
                 break;
@@ -734,6 +971,47 @@ public class VideoEncoder implements CameraSinker
 //    }
 
 
+    /**
+     * Converts the frame right into the input buffer of the codec. A frame to rotate is
+     * rotated and converted in a single pass over the camera frame, then copied.
+     *
+     * @param converted whether the frame is already rotated and converted, by a pipeline
+     * @return the number of bytes written
+     */
+    private int fillInputBuffer(ByteBuffer inputBuffer, FrameBuffer frame, boolean converted)
+    {
+        if (sendBlackImage) {
+            inputBuffer.put(blackImage, 0, blackImage.length);
+            return blackImage.length;
+        }
+
+        if (converted) {
+            inputBuffer.put(frame.data, 0, frame.length);
+            return frame.length;
+        }
+
+        byte[] buffer = frame.data;
+
+        int orientation = hardwareRotation ? 0 : rotation % 360;
+        int length;
+        if (orientation != 0 && rotateBuffer != null) {
+            length = imageFormat == ImageFormat.YV12 ?
+                    YUVUtil.rotateYV12toYUV420byColor(
+                            buffer, rotateBuffer, quality.width, quality.height, orientation, formatCodec
+                    ) :
+                    YUVUtil.rotateNV21toYUV420byColor(
+                            buffer, rotateBuffer, quality.width, quality.height, orientation, formatCodec
+                    );
+            if (length > 0) inputBuffer.put(rotateBuffer, 0, length);
+        } else {
+            length = imageFormat == ImageFormat.YV12 ?
+                    YUVUtil.YV12toYUV420byColor(buffer, inputBuffer, quality.width, quality.height, formatCodec) :
+                    YUVUtil.NV21toYUV420byColor(buffer, inputBuffer, quality.width, quality.height, formatCodec);
+        }
+
+        return length < 0 ? 0 : length;
+    }
+
     /**
      * New implementation
      */
@@ -747,9 +1025,10 @@ public class VideoEncoder implements CameraSinker
     /**
      * NEW Implementation
      *
-     * @param buffer
+     * @param frame     camera frame, with its capture time
+     * @param converted whether the frame is already in the color format of the codec
      */
-    private void requestEncodedData(byte[] buffer)
+    private void requestEncodedData(FrameBuffer frame, boolean converted)
     {
         ByteBuffer[] inputBuffers = videoEncoder.getInputBuffers();
 
@@ -759,12 +1038,12 @@ public class VideoEncoder implements CameraSinker
 //            long pts = computePresentationTime();
 //            long pts = computePresentationTime(frameIndex);
 //            long pts = System.nanoTime() / 1000;
-            // TODO: find a pts without glitching
+            long pts = getInputPts(frame.timestamp);
 
             ByteBuffer inputBuffer = inputBuffers[inBufferIndex];
             inputBuffer.clear();
-            inputBuffer.put(buffer, 0, buffer.length);
-            videoEncoder.queueInputBuffer(inBufferIndex, 0, buffer.length, 0, 0);
+            int length = fillInputBuffer(inputBuffer, frame, converted);
+            videoEncoder.queueInputBuffer(inBufferIndex, 0, length, pts, 0);
 //            frameIndex++;
         }
 
@@ -801,8 +1080,10 @@ public class VideoEncoder implements CameraSinker
                             hasPSPair = true;
                         }
                     }
+                } else {
+                    videoInfo.presentationTimeUs = getOutputPts(videoInfo.presentationTimeUs);
                 }
-                encoderSinker.onEncodedData(outputBuffer, videoInfo);
+                sendEncodedData(outputBuffer, videoInfo);
                 videoEncoder.releaseOutputBuffer(outBufferIndex, false);
             } else {
                 break;
@@ -810,6 +1091,55 @@ public class VideoEncoder implements CameraSinker
         }
     }
 
+    /**
+     * Hands an encoded frame to the sinks, or copies it into the output queue so the codec
+     * gets its buffer back at once. The codec is asked for a key frame when the queue drops
+     * a frame.
+     */
+    private void sendEncodedData(ByteBuffer buffer, MediaCodec.BufferInfo info)
+    {
+        EncodedFrameQueue outputQueue = this.outputQueue;
+        if (outputQueue == null || buffer == null) {
+            encoderSinker.onEncodedData(buffer, info);
+            return;
+        }
+
+        outputInfo.set(info.offset, info.size, info.presentationTimeUs, info.flags);
+        if (outputQueue.offer(buffer, outputInfo)) {
+            if (outputInfo.isKeyFrame()) keyFrameRequested = false;
+        } else if (!keyFrameRequested) {
+            keyFrameRequested = true;
+            requestKeyFrame();
+        }
+    }
+
+
+    /**
+     * Returns the pts of a frame queued in the codec, its capture time in us. The codec
+     * needs increasing pts: a frame captured at the same us as the previous one is pushed
+     * 1 us later.
+     *
+     * @param timestamp The capture time of the frame, in ns of System.nanoTime()
+     */
+    private long getInputPts(long timestamp)
+    {
+        long pts = timestamp / 1000;
+        if (pts <= lastInputPts) pts = lastInputPts + 1;
+        lastInputPts = pts;
+
+        return pts;
+    }
+
+    /**
+     * Returns the pts of an encoded frame in the time base of System.nanoTime(), the one
+     * of the audio, and increasing.
+     * The frames of a Surface carry the timestamps of their producer, e.g. the sensor
+     * timestamps of a camera2 device, which may count the time spent in deep sleep.
+     */
+    private long getOutputPts(long pts)
+    {
+        return getSafePts(pts - timestampOffset / 1000);
+    }
 
     /**
      * Return a relative pts given an absolute pts and trackIndex.
@@ -1070,15 +1400,6 @@ public class VideoEncoder implements CameraSinker
     }
 
 
-    public static String createBody(int trackVideo, int port, String sps, String pps)
-    {
-        return "m=video " + port + " RTP/AVP " + PAYLOAD_TYPE + "\r\n" +
-                "a=rtpmap:" + PAYLOAD_TYPE + " H264/" + CLOCK_VIDEO_FREQUENCY + "\r\n" +
-                "a=fmtp:" + PAYLOAD_TYPE + " packetization-mode=1;sprop-parameter-sets=" + sps + "," + pps + ";\r\n" +
-                "a=control:trackID=" + trackVideo + "\r\n";
-    }
-
-
     // Setters
 
     @RequiresApi(api = Build.VERSION_CODES.KITKAT)
@@ -1098,6 +1419,50 @@ public class VideoEncoder implements CameraSinker
         }
     }
 
+    /**
+     * Asks the codec to encode the next frame as a key frame, from KitKat.
+     */
+    public void requestKeyFrame()
+    {
+        if (isRunning() && minAPI19()) {
+            Bundle bundle = new Bundle();
+            bundle.putInt(PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+
+            try {
+                videoEncoder.setParameters(bundle);
+            } catch (IllegalStateException e) {
+                LogHelper.e(TAG, "Encoder needs to be running");
+            }
+        }
+    }
+
+    @Override
+    public void onBitrateChanged(int bitrate)
+    {
+        setVideoBitrateOnFly(bitrate);
+    }
+
+    /**
+     * Limits the frame rate of the YUV frames sent to the encoder, a Surface input
+     * keeps the rate of its producer.
+     */
+    @Override
+    public void onFpsChanged(int fps)
+    {
+        setFps(fps);
+    }
+
+    /**
+     * Sets the offset of the clock of the Surface input to System.nanoTime(), e.g. the one
+     * given by {@link com.github.teocci.libstream.input.video.Camera2Manager#getTimestampOffset()}.
+     *
+     * @param timestampOffset The capture clock minus System.nanoTime(), in ns
+     */
+    public void setTimestampOffset(long timestampOffset)
+    {
+        this.timestampOffset = timestampOffset;
+    }
+
     public void setInputSurface(Surface inputSurface)
     {
         this.inputSurface = inputSurface;
@@ -1106,6 +1471,7 @@ public class VideoEncoder implements CameraSinker
     public void setFps(int fps)
     {
         this.quality.fps = fps;
+        admission.setFps(fps);
     }
 
     public void setImageFormat(int imageFormat)
@@ -1113,6 +1479,27 @@ public class VideoEncoder implements CameraSinker
         this.imageFormat = imageFormat;
     }
 
+    /**
+     * Sets how the YUV frames are spread over the threads of the encoder, a single thread
+     * by default. It applies from the next start, a Surface input is not concerned.
+     */
+    public void setPipelineMode(PipelineMode pipelineMode)
+    {
+        this.pipelineMode = pipelineMode;
+    }
+
+    /**
+     * Copies the encoded frames into a queue fed to the sinks by its own thread, so a slow
+     * sink does not hold the output buffers of the codec. It applies from the next start.
+     *
+     * @param capacity The number of frames waiting for the sinks, 0 to feed them from the
+     *                 codec thread, the default
+     */
+    public void setOutputQueue(int capacity)
+    {
+        this.outputQueueCapacity = capacity;
+    }
+
 
     // Getters
 
@@ -1121,6 +1508,38 @@ public class VideoEncoder implements CameraSinker
         return inputSurface;
     }
 
+    /**
+     * Returns the admission of the frames, to set their max queue age or read the number of
+     * frames dropped and the age of the frames queued.
+     */
+    public FrameAdmission getFrameAdmission()
+    {
+        return admission;
+    }
+
+    public PipelineMode getPipelineMode()
+    {
+        return pipelineMode;
+    }
+
+    /**
+     * Returns the running output queue, with its depth, its copy time and the frames it
+     * dropped, or null if the sinks are fed from the codec thread.
+     */
+    public EncodedFrameQueue getOutputQueue()
+    {
+        return outputQueue;
+    }
+
+    /**
+     * Returns the running pipeline, with the latency and the queue depth of its stages,
+     * or null if the frames are processed by a single thread.
+     */
+    public FramePipeline getPipeline()
+    {
+        return pipeline;
+    }
+
     public VideoQuality getQuality()
     {
         return quality;
@@ -0,0 +1,201 @@
+package com.github.teocci.libstream.controllers;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import com.github.teocci.libstream.coder.FrameInfo;
+import com.github.teocci.libstream.interfaces.RecordBackend;
+import com.github.teocci.libstream.muxers.mp4.Fmp4Muxer;
+import com.github.teocci.libstream.muxers.mp4.NalUnits;
+import com.github.teocci.libstream.utils.LogHelper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static com.github.teocci.libstream.muxers.mp4.NalUnits.AVC_PPS;
+import static com.github.teocci.libstream.muxers.mp4.NalUnits.AVC_SPS;
+import static com.github.teocci.libstream.muxers.mp4.NalUnits.HEVC_PPS;
+import static com.github.teocci.libstream.muxers.mp4.NalUnits.HEVC_SPS;
+import static com.github.teocci.libstream.muxers.mp4.NalUnits.HEVC_VPS;
+
+/**
+ * Records in a fragmented MP4 through the {@link Fmp4Muxer}, the fragments going to the
+ * file from the thread of its writer instead of the one of the encoder.
+ * <p>
+ * The parameter sets are taken from the csd buffers of the video format, or from the
+ * ones given by the encoder if the format has none.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-27
+ */
+public class Fmp4Backend implements RecordBackend
+{
+    private static String TAG = LogHelper.makeLogTag(Fmp4Backend.class);
+
+    private static final String MIME_HEVC = "video/hevc";
+
+    private Fmp4Muxer muxer;
+
+    // The parameter sets given by the encoder
+    private volatile byte[] sps, pps, vps;
+
+    private long fragmentDuration = Fmp4Muxer.DEFAULT_FRAGMENT_DURATION;
+
+    // One per track, audio and video are written from different threads
+    private final FrameInfo[] infos = {new FrameInfo(), new FrameInfo()};
+
+    private volatile boolean failed = false;
+
+    @Override
+    public void open(String path) throws IOException
+    {
+        muxer = new Fmp4Muxer(path);
+        muxer.setFragmentDuration(fragmentDuration);
+    }
+
+    @Override
+    public int addTrack(MediaFormat format)
+    {
+        String mime = format.getString(MediaFormat.KEY_MIME);
+        if (mime != null && mime.startsWith("video/")) {
+            return addVideoTrack(format, MIME_HEVC.equals(mime));
+        }
+
+        return muxer.addAudioTrack(
+                format.getInteger(MediaFormat.KEY_SAMPLE_RATE),
+                format.getInteger(MediaFormat.KEY_CHANNEL_COUNT),
+                getBytes(format, "csd-0")
+        );
+    }
+
+    @Override
+    public void start() throws IOException
+    {
+        muxer.start();
+    }
+
+    @Override
+    public void writeSampleData(int track, ByteBuffer buffer, MediaCodec.BufferInfo info)
+    {
+        if (failed) return;
+
+        FrameInfo frameInfo = infos[track];
+        frameInfo.set(info.offset, info.size, info.presentationTimeUs, info.flags);
+        try {
+            muxer.writeSampleData(track, buffer, frameInfo);
+        } catch (IOException e) {
+            // The fragments already written stay playable, the next ones are dropped
+            failed = true;
+            LogHelper.e(TAG, "Fragment not written: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void stop()
+    {
+        if (muxer == null) return;
+
+        try {
+            muxer.stop();
+        } catch (IOException e) {
+            LogHelper.e(TAG, "Record not finished: " + e.getMessage());
+        }
+
+        muxer = null;
+    }
+
+    /**
+     * Sets how long the fragments last, also the delay before the frames land in the file.
+     *
+     * @param duration The duration in ms, 1000 by default
+     */
+    public void setFragmentDuration(long duration)
+    {
+        this.fragmentDuration = duration;
+        if (muxer != null) muxer.setFragmentDuration(duration);
+    }
+
+    /**
+     * Sets the parameter sets of the encoder, used if the video format has no csd buffers.
+     *
+     * @param sps The sequence parameter set
+     * @param pps The picture parameter set
+     * @param vps The video parameter set, null for H.264
+     */
+    public void setParameterSets(byte[] sps, byte[] pps, byte[] vps)
+    {
+        this.sps = sps;
+        this.pps = pps;
+        this.vps = vps;
+    }
+
+    public Fmp4Muxer getMuxer()
+    {
+        return muxer;
+    }
+
+    public boolean hasFailed()
+    {
+        return failed;
+    }
+
+    private int addVideoTrack(MediaFormat format, boolean hevc)
+    {
+        byte[] sps = null, pps = null, vps = null;
+
+        // H.264 has a csd per parameter set, H.265 has them all in csd-0
+        byte[] csd0 = getBytes(format, "csd-0");
+        byte[] csd1 = getBytes(format, "csd-1");
+        if (csd0 != null) {
+            List<byte[]> units = NalUnits.split(csd1 != null ? concat(csd0, csd1) : csd0);
+            for (byte[] unit : units) {
+                if (unit.length == 0) continue;
+                int type = NalUnits.typeOf(unit[0], hevc);
+                if (type == (hevc ? HEVC_SPS : AVC_SPS)) sps = unit;
+                else if (type == (hevc ? HEVC_PPS : AVC_PPS)) pps = unit;
+                else if (hevc && type == HEVC_VPS) vps = unit;
+            }
+        }
+
+        if (sps == null || pps == null || (hevc && vps == null)) {
+            sps = this.sps;
+            pps = this.pps;
+            vps = this.vps;
+        }
+        if (sps == null || pps == null) {
+            throw new IllegalStateException("No parameter sets for the video track");
+        }
+
+        return muxer.addVideoTrack(
+                format.getInteger(MediaFormat.KEY_WIDTH),
+                format.getInteger(MediaFormat.KEY_HEIGHT),
+                sps, pps, hevc ? vps : null
+        );
+    }
+
+    private static byte[] getBytes(MediaFormat format, String key)
+    {
+        if (!format.containsKey(key)) return null;
+
+        ByteBuffer buffer = format.getByteBuffer(key);
+        if (buffer == null) return null;
+
+        ByteBuffer data = buffer.duplicate();
+        data.rewind();
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+
+        return bytes;
+    }
+
+    private static byte[] concat(byte[] a, byte[] b)
+    {
+        byte[] bytes = new byte[a.length + b.length];
+        System.arraycopy(a, 0, bytes, 0, a.length);
+        System.arraycopy(b, 0, bytes, a.length, b.length);
+
+        return bytes;
+    }
+}
@@ -0,0 +1,62 @@
+package com.github.teocci.libstream.controllers;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.os.Build;
+import android.support.annotation.RequiresApi;
+
+import com.github.teocci.libstream.interfaces.RecordBackend;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Records in a regular MP4 through the android MediaMuxer.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-27
+ */
+@RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+public class MediaMuxerBackend implements RecordBackend
+{
+    private MediaMuxer mediaMuxer;
+
+    @Override
+    public void open(String path) throws IOException
+    {
+        mediaMuxer = new MediaMuxer(path, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+    }
+
+    @Override
+    public int addTrack(MediaFormat format)
+    {
+        return mediaMuxer.addTrack(format);
+    }
+
+    @Override
+    public void start()
+    {
+        mediaMuxer.start();
+    }
+
+    @Override
+    public void writeSampleData(int track, ByteBuffer buffer, MediaCodec.BufferInfo info)
+    {
+        mediaMuxer.writeSampleData(track, buffer, info);
+    }
+
+    @Override
+    public void stop()
+    {
+        if (mediaMuxer != null) {
+            try {
+                mediaMuxer.stop();
+                mediaMuxer.release();
+            } catch (Exception ignored) {}
+        }
+
+        mediaMuxer = null;
+    }
+}
@@ -2,17 +2,25 @@ package com.github.teocci.libstream.controllers;
 
 import android.media.MediaCodec;
 import android.media.MediaFormat;
-import android.media.MediaMuxer;
 import android.os.Build;
 import android.support.annotation.RequiresApi;
 
+import com.github.teocci.libstream.coder.EncodedFrameRing;
+import com.github.teocci.libstream.coder.FrameInfo;
+import com.github.teocci.libstream.enums.RecordFormat;
 import com.github.teocci.libstream.enums.RecordStatus;
+import com.github.teocci.libstream.interfaces.RecordBackend;
 import com.github.teocci.libstream.interfaces.RecordStatusListener;
+import com.github.teocci.libstream.interfaces.TrackFrameListener;
+import com.github.teocci.libstream.muxers.mp4.Fmp4Muxer;
 import com.github.teocci.libstream.utils.LogHelper;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 
+import static com.github.teocci.libstream.coder.EncodedFrameRing.TRACK_AUDIO;
+import static com.github.teocci.libstream.coder.EncodedFrameRing.TRACK_VIDEO;
+import static com.github.teocci.libstream.enums.RecordFormat.MP4;
 import static com.github.teocci.libstream.enums.RecordStatus.PAUSED;
 import static com.github.teocci.libstream.enums.RecordStatus.RECORDING;
 import static com.github.teocci.libstream.enums.RecordStatus.RESUMED;
@@ -20,6 +28,13 @@ import static com.github.teocci.libstream.enums.RecordStatus.STARTED;
 import static com.github.teocci.libstream.enums.RecordStatus.STOPPED;
 
 /**
+ * Writes the encoded frames into a MP4 or a fragmented MP4 file.
+ * <p>
+ * With a pre-event buffer, see {@link #setPreEventBuffer(int, long)}, all the frames go
+ * through an {@link EncodedFrameRing} while the encoders run. A record then starts with the
+ * oldest GOP held by the ring and goes on with the live frames, both written by the drain
+ * thread of the ring, so the encoders never wait for the file.
+ * <p>
  * Created by teocci.
  *
  * @author teocci@yandex.com on 2019-May-29
@@ -28,11 +43,17 @@ public class RecordController
 {
     private final static String TAG = LogHelper.makeLogTag(RecordController.class);
 
-    private RecordStatus status = STOPPED;
+    // Written from the thread of the caller, read by the encoders and the drain thread
+    private volatile RecordStatus status = STOPPED;
 
-    private MediaMuxer mediaMuxer;
+    private RecordFormat format = MP4;
+    private RecordBackend backend;
     private MediaFormat videoFormat, audioFormat;
 
+    // The parameter sets of the encoder, for the backends that can not read the format
+    private byte[] sps, pps, vps;
+    private long fragmentDuration = Fmp4Muxer.DEFAULT_FRAGMENT_DURATION;
+
     private int videoTrack = -1;
     private int audioTrack = -1;
 
@@ -44,66 +65,115 @@ public class RecordController
     private MediaCodec.BufferInfo videoInfo = new MediaCodec.BufferInfo();
     private MediaCodec.BufferInfo audioInfo = new MediaCodec.BufferInfo();
 
+    // The last seconds of the frames, null without pre-event buffer
+    private volatile EncodedFrameRing preEventRing;
+
+    // Descriptors of the frames put in the ring, one per encoder thread
+    private final FrameInfo videoFrame = new FrameInfo();
+    private final FrameInfo audioFrame = new FrameInfo();
+
+    // Descriptor of the frames taken from the ring, only used by its drain thread
+    private final MediaCodec.BufferInfo drainInfo = new MediaCodec.BufferInfo();
+    private final TrackFrameListener drainListener = new TrackFrameListener()
+    {
+        @Override
+        public void onTrackFrame(int track, ByteBuffer data, FrameInfo info)
+        {
+            drainInfo.set(info.offset, info.size, info.presentationTimeUs, info.flags);
+            if (track == TRACK_VIDEO) {
+                writeVideo(data, drainInfo);
+            } else {
+                writeAudio(data, drainInfo);
+            }
+        }
+    };
+
     @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
     public void startRecord(String path, RecordStatusListener listener) throws IOException
     {
         this.listener = listener;
 
-        mediaMuxer = new MediaMuxer(path, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+        backend = createBackend();
+        backend.open(path);
 
         status = STARTED;
         updateStatus();
+
+        // The record starts with the oldest GOP of the ring, on its drain thread
+        EncodedFrameRing ring = preEventRing;
+        if (ring != null) ring.startDrain(drainListener);
     }
 
     @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
     public void recordVideo(ByteBuffer videoBuffer, MediaCodec.BufferInfo videoInfo)
     {
-        if (hasStarted(videoInfo) && videoFormat != null) {
-            videoTrack = mediaMuxer.addTrack(videoFormat);
-            mediaMuxer.start();
-            status = RECORDING;
+        EncodedFrameRing ring = preEventRing;
+        if (ring != null) {
+            videoFrame.set(videoInfo.offset, videoInfo.size, videoInfo.presentationTimeUs, videoInfo.flags);
+            ring.write(TRACK_VIDEO, videoBuffer, videoFrame);
+            return;
+        }
 
-            if (listener != null) listener.onStatusChange(status);
+        writeVideo(videoBuffer, videoInfo);
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+    public void recordAudio(ByteBuffer audioBuffer, MediaCodec.BufferInfo audioInfo)
+    {
+        EncodedFrameRing ring = preEventRing;
+        if (ring != null) {
+            audioFrame.set(audioInfo.offset, audioInfo.size, audioInfo.presentationTimeUs, audioInfo.flags);
+            ring.write(TRACK_AUDIO, audioBuffer, audioFrame);
+            return;
+        }
+
+        writeAudio(audioBuffer, audioInfo);
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private void writeVideo(ByteBuffer videoBuffer, MediaCodec.BufferInfo videoInfo)
+    {
+        if (hasStarted(videoInfo) && videoFormat != null) {
+            videoTrack = backend.addTrack(videoFormat);
+            if (audioFormat != null) audioTrack = backend.addTrack(audioFormat);
+            startBackend();
         } else if (status == RESUMED && videoInfo.flags == MediaCodec.BUFFER_FLAG_KEY_FRAME) {
             status = RECORDING;
             updateStatus();
         }
         if (isRecording()) {
             updateFormat(this.videoInfo, videoInfo);
-            mediaMuxer.writeSampleData(videoTrack, videoBuffer, this.videoInfo);
+            backend.writeSampleData(videoTrack, videoBuffer, this.videoInfo);
         }
     }
 
     @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
-    public void recordAudio(ByteBuffer audioBuffer, MediaCodec.BufferInfo audioInfo)
+    private void writeAudio(ByteBuffer audioBuffer, MediaCodec.BufferInfo audioInfo)
     {
-        if (hasStarted(audioInfo) && audioFormat != null) {
-            audioTrack = mediaMuxer.addTrack(audioFormat);
-            mediaMuxer.start();
-            status = RECORDING;
-
-            if (listener != null) listener.onStatusChange(status);
+        // Without video the audio starts the record, otherwise it waits for a key frame
+        if (hasStarted(audioInfo) && audioFormat != null && videoFormat == null) {
+            audioTrack = backend.addTrack(audioFormat);
+            startBackend();
         } else if (status == RESUMED && audioInfo.flags == MediaCodec.BUFFER_FLAG_KEY_FRAME) {
             status = RECORDING;
             updateStatus();
         }
-        if (isRecording()) {
+        if (isRecording() && audioTrack >= 0) {
             updateFormat(this.audioInfo, audioInfo);
-            mediaMuxer.writeSampleData(audioTrack, audioBuffer, this.audioInfo);
+            backend.writeSampleData(audioTrack, audioBuffer, this.audioInfo);
         }
     }
 
     @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
     public void stopRecord()
     {
-        if (mediaMuxer != null) {
-            try {
-                mediaMuxer.stop();
-                mediaMuxer.release();
-            } catch (Exception ignored) {}
-        }
+        // Writes the frames left in the ring first, unless called from its drain thread
+        EncodedFrameRing ring = preEventRing;
+        if (ring != null) ring.stopDrain();
+
+        if (backend != null) backend.stop();
 
-        mediaMuxer = null;
+        backend = null;
         videoTrack = -1;
         audioTrack = -1;
         pauseMoment = 0;
@@ -137,6 +207,33 @@ public class RecordController
         }
     }
 
+    @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private RecordBackend createBackend()
+    {
+        if (format == RecordFormat.FRAGMENTED_MP4) {
+            Fmp4Backend fmp4Backend = new Fmp4Backend();
+            fmp4Backend.setParameterSets(sps, pps, vps);
+            fmp4Backend.setFragmentDuration(fragmentDuration);
+            return fmp4Backend;
+        }
+
+        return new MediaMuxerBackend();
+    }
+
+    private void startBackend()
+    {
+        try {
+            backend.start();
+        } catch (IOException e) {
+            LogHelper.e(TAG, "Record not started: " + e.getMessage());
+            stopRecord();
+            return;
+        }
+
+        status = RECORDING;
+        updateStatus();
+    }
+
     private void updateStatus()
     {
         if (listener != null) listener.onStatusChange(status);
@@ -166,11 +263,88 @@ public class RecordController
         this.audioFormat = audioFormat;
     }
 
+    /**
+     * Keeps the parameter sets of the video encoder, used by the fragmented MP4 when the
+     * video format has no csd buffers.
+     */
+    public void setParameterSets(ByteBuffer sps, ByteBuffer pps, ByteBuffer vps)
+    {
+        this.sps = toBytes(sps);
+        this.pps = toBytes(pps);
+        this.vps = toBytes(vps);
+
+        RecordBackend backend = this.backend;
+        if (backend instanceof Fmp4Backend) {
+            ((Fmp4Backend) backend).setParameterSets(this.sps, this.pps, this.vps);
+        }
+    }
+
+    /**
+     * Keeps the last frames of the encoders in memory, so the next records start up to
+     * duration before {@link #startRecord(String, RecordStatusListener)}, at a key frame.
+     * The memory is allocated once, a higher bitrate only shortens the time held.
+     *
+     * @param maxBytes The memory of the frames, 0 to disable the pre-event buffer
+     * @param duration The time held, in ms
+     */
+    public void setPreEventBuffer(int maxBytes, long duration)
+    {
+        if (isRunning()) {
+            LogHelper.w(TAG, "The pre-event buffer can not be changed while recording");
+            return;
+        }
+
+        preEventRing = maxBytes > 0 ? new EncodedFrameRing("PreEventRing", maxBytes, duration) : null;
+    }
+
+    /**
+     * Returns the ring of the pre-event buffer, with its counters, or null if disabled.
+     */
+    public EncodedFrameRing getPreEventRing()
+    {
+        return preEventRing;
+    }
+
+    /**
+     * Sets the container of the next records, {@link RecordFormat#MP4} by default.
+     */
+    public void setFormat(RecordFormat format)
+    {
+        this.format = format;
+    }
+
+    /**
+     * Sets how long the fragments of the next fragmented records last.
+     *
+     * @param duration The duration in ms, 1000 by default
+     */
+    public void setFragmentDuration(long duration)
+    {
+        this.fragmentDuration = duration;
+    }
+
+    public RecordFormat getFormat()
+    {
+        return format;
+    }
+
     public RecordStatus getStatus()
     {
         return status;
     }
 
+    private static byte[] toBytes(ByteBuffer buffer)
+    {
+        if (buffer == null) return null;
+
+        ByteBuffer data = buffer.duplicate();
+        data.rewind();
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+
+        return bytes;
+    }
+
     @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
     private boolean hasStarted(MediaCodec.BufferInfo videoInfo)
     {
@@ -0,0 +1,30 @@
+package com.github.teocci.libstream.enums;
+
+/**
+ * How the video encoder spreads the work on the YUV frames over its threads.
+ * <p>
+ * Each stage of a pipeline has its own thread, the stages hand the frames over in order
+ * through bounded rings, so a frame only waits for the slowest stage instead of the sum
+ * of all of them.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-25
+ */
+public enum PipelineMode
+{
+    /**
+     * One thread rotates, converts and feeds the codec, in a single pass over the frame.
+     */
+    SINGLE_THREAD,
+
+    /**
+     * One thread rotates and converts the frames in a single pass, another feeds the codec.
+     */
+    CONVERT_FEED,
+
+    /**
+     * One thread rotates the frames, one converts them and another feeds the codec.
+     */
+    ROTATE_CONVERT_FEED
+}
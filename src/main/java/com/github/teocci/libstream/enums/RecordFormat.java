@@ -0,0 +1,22 @@
+package com.github.teocci.libstream.enums;
+
+/**
+ * The container of the recordings.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-27
+ */
+public enum RecordFormat
+{
+    /**
+     * A regular MP4 written by the android MediaMuxer, unreadable until the record stops.
+     */
+    MP4,
+
+    /**
+     * A fragmented MP4, playable while it is written and kept up to its last fragment
+     * if the app crashes.
+     */
+    FRAGMENTED_MP4
+}
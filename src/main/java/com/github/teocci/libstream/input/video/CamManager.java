@@ -17,6 +17,7 @@ import com.github.teocci.libstream.exceptions.CameraInUseException;
 import com.github.teocci.libstream.exceptions.ConfNotSupportedException;
 import com.github.teocci.libstream.interfaces.video.CameraSinker;
 import com.github.teocci.libstream.interfaces.video.FaceDetectorCallback;
+import com.github.teocci.libstream.interfaces.video.FrameRecycleListener;
 import com.github.teocci.libstream.utils.LogHelper;
 
 import java.util.Iterator;
@@ -42,10 +43,14 @@ import static android.hardware.Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE;
  * @author teocci@yandex.com on 2017-Jan-1-23
  */
 
-public class CamManager implements Camera.PreviewCallback, Camera.FaceDetectionListener
+public class CamManager implements Camera.PreviewCallback, Camera.FaceDetectionListener,
+        FrameRecycleListener
 {
     private static String TAG = LogHelper.makeLogTag(CamManager.class);
 
+    // Preview buffers cycling between the camera and the encoder
+    private static final int CALLBACK_BUFFER_COUNT = 4;
+
     private Camera camera = null;
 
     private CameraSinker cameraSinker;
@@ -75,9 +80,12 @@ public class CamManager implements Camera.PreviewCallback, Camera.FaceDetectionL
     private int imageFormat = ImageFormat.NV21;
 
     private HandlerThread handlerThread;
-    private Handler handler;
+    // The camera thread, its callbacks are delivered there
+    private volatile Handler handler;
+
+    private final Runnable returnBuffers = this::returnBuffers;
 
-    private byte[] yuvBuffer;
+    private volatile FrameBufferPool framePool;
 
     private List<Camera.Size> previewSizeBack;
     private List<Camera.Size> previewSizeFront;
@@ -117,9 +125,65 @@ public class CamManager implements Camera.PreviewCallback, Camera.FaceDetectionL
     public void onPreviewFrame(byte[] data, Camera camera)
     {
 //        if (isFrontCamera) data = YUVUtil.rotateNV21(data, quality.width, quality.height, 180);
-        cameraSinker.onYUVData(data);
+        FrameBufferPool pool = framePool;
+        FrameBuffer frame = pool != null ? pool.find(data) : null;
+        if (frame == null) {
+            cameraSinker.onYUVData(data);
+            camera.addCallbackBuffer(data);
+            return;
+        }
+
+        frame.timestamp = System.nanoTime();
+        cameraSinker.onYUVData(frame);
 //        cameraSinker.onYUVData(new Frame(data, orientation, isFrontCamera && isPortrait, imageFormat));
-        camera.addCallbackBuffer(yuvBuffer);
+        // The buffer goes back to the camera once the sinker is done with it
+        frame.release();
+    }
+
+    /**
+     * Gives a preview buffer back to the camera once its frame has been consumed, from
+     * any thread: the buffers are queued on the camera thread.
+     */
+    @Override
+    public void onFrameRecycled(FrameBuffer frame)
+    {
+        Handler handler = this.handler;
+        if (handler == null || frame.getPool() != framePool) return;
+
+        if (handler.getLooper().getThread() == Thread.currentThread()) {
+            // Released by onPreviewFrame itself
+            returnBuffers();
+        } else {
+            handler.post(returnBuffers);
+        }
+    }
+
+    /**
+     * Gives the free frames of the pool back to the camera, on the camera thread.
+     */
+    private void returnBuffers()
+    {
+        FrameBufferPool pool = framePool;
+        Camera camera = this.camera;
+        if (camera == null || pool == null) return;
+
+        try {
+            addCallbackBuffers(camera, pool);
+        } catch (RuntimeException e) {
+            // The camera has been released meanwhile
+            LogHelper.w(TAG, "Preview buffer not returned: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Hands all the free frames of the pool to the camera.
+     */
+    private void addCallbackBuffers(Camera camera, FrameBufferPool pool)
+    {
+        FrameBuffer frame;
+        while ((frame = pool.acquire()) != null) {
+            camera.addCallbackBuffer(frame.data);
+        }
     }
 
     @Override
@@ -219,7 +283,12 @@ public class CamManager implements Camera.PreviewCallback, Camera.FaceDetectionL
         handler = new Handler(handlerThread.getLooper());
         handler.post(() -> {
             LogHelper.e(TAG, "start handler");
-            yuvBuffer = new byte[quality.width * quality.height * 3 / 2];
+            FrameBufferPool pool = new FrameBufferPool(
+                    CALLBACK_BUFFER_COUNT,
+                    quality.width * quality.height * 3 / 2
+            );
+            pool.setRecycleListener(this);
+            framePool = pool;
 //            YUVUtil.preAllocateRotateBuffers(yuvBuffer.length);
 //            if (imageFormat == ImageFormat.NV21) {
 //                YUVUtil.preAllocateNv21Buffers(yuvBuffer.length);
@@ -260,11 +329,11 @@ public class CamManager implements Camera.PreviewCallback, Camera.FaceDetectionL
 
                 if (surfaceView != null) {
                     camera.setPreviewDisplay(surfaceView.getHolder());
-                    camera.addCallbackBuffer(yuvBuffer);
+                    addCallbackBuffers(camera, pool);
                     camera.setPreviewCallbackWithBuffer(this);
                 } else if (textureView != null) {
                     camera.setPreviewTexture(textureView.getSurfaceTexture());
-                    camera.addCallbackBuffer(yuvBuffer);
+                    addCallbackBuffers(camera, pool);
                     camera.setPreviewCallbackWithBuffer(this);
                 } else {
                     camera.setPreviewTexture(surfaceTexture);
@@ -314,6 +383,8 @@ public class CamManager implements Camera.PreviewCallback, Camera.FaceDetectionL
 
     public void stop()
     {
+        // The frames still in use are not given back to this camera anymore
+        framePool = null;
         if (camera != null) {
             camera.stopPreview();
             camera.setPreviewCallback(null);
@@ -12,6 +12,7 @@ import android.hardware.camera2.CaptureRequest;
 import android.os.Build;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.RequiresApi;
 import android.view.Surface;
@@ -249,6 +250,27 @@ public class Camera2Manager extends CameraDevice.StateCallback
         }
     }
 
+    /**
+     * Returns the offset of the sensor timestamps of the camera to System.nanoTime(), in ns.
+     * A camera with a REALTIME timestamp source counts the time spent in deep sleep, like
+     * SystemClock.elapsedRealtimeNanos(), and its frames would drift away from the audio.
+     */
+    public long getTimestampOffset()
+    {
+        try {
+            CameraCharacteristics characteristics =
+                    cameraManager.getCameraCharacteristics(String.valueOf(cameraId == -1 ? 0 : cameraId));
+            Integer source = characteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+            if (source != null && source == CameraMetadata.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME) {
+                return SystemClock.elapsedRealtimeNanos() - System.nanoTime();
+            }
+        } catch (CameraAccessException e) {
+            e.printStackTrace();
+        }
+
+        return 0;
+    }
+
     public void switchCamera()
     {
         if (cameraDevice != null) {
@@ -0,0 +1,89 @@
+package com.github.teocci.libstream.input.video;
+
+/**
+ * Bounded FIFO of {@link FrameBuffer}s between two threads.
+ * <p>
+ * It is an array ring guarded by its monitor, so queuing a frame allocates nothing,
+ * unlike the nodes of a LinkedBlockingQueue. The queue owns the reference of the frames
+ * it holds: {@link #take()} hands it over and {@link #clear()} releases it.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-18
+ */
+public class FrameQueue
+{
+    private final FrameBuffer[] frames;
+    private int head, count;
+
+    public FrameQueue(int capacity)
+    {
+        frames = new FrameBuffer[capacity];
+    }
+
+    /**
+     * Queues the frame, with the reference of the caller.
+     *
+     * @return false if the queue is full, the caller keeps its reference then
+     */
+    public synchronized boolean offer(FrameBuffer frame)
+    {
+        if (count == frames.length) return false;
+
+        frames[(head + count) % frames.length] = frame;
+        if (count++ == 0) notifyAll();
+
+        return true;
+    }
+
+    /**
+     * Waits for the next frame, the caller has to release it.
+     */
+    public synchronized FrameBuffer take() throws InterruptedException
+    {
+        while (count == 0) wait();
+
+        FrameBuffer frame = frames[head];
+        frames[head] = null;
+        head = (head + 1) % frames.length;
+        count--;
+
+        return frame;
+    }
+
+    /**
+     * Returns the oldest frame without waiting, or null. The caller has to release it.
+     */
+    public synchronized FrameBuffer poll()
+    {
+        if (count == 0) return null;
+
+        FrameBuffer frame = frames[head];
+        frames[head] = null;
+        head = (head + 1) % frames.length;
+        count--;
+
+        return frame;
+    }
+
+    /**
+     * Releases all the queued frames.
+     */
+    public void clear()
+    {
+        FrameBuffer frame;
+        while ((frame = poll()) != null) {
+            frame.release();
+        }
+    }
+
+    public synchronized int size()
+    {
+        return count;
+    }
+
+    public int capacity()
+    {
+        return frames.length;
+    }
+}
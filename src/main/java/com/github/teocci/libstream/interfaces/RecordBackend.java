@@ -0,0 +1,34 @@
+package com.github.teocci.libstream.interfaces;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The container the RecordController writes the encoded tracks into, following the
+ * life cycle of the android MediaMuxer: open, add the tracks, start, write, stop.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-27
+ */
+public interface RecordBackend
+{
+    void open(String path) throws IOException;
+
+    /**
+     * @return the index of the track, passed to {@link #writeSampleData}
+     */
+    int addTrack(MediaFormat format);
+
+    void start() throws IOException;
+
+    void writeSampleData(int track, ByteBuffer buffer, MediaCodec.BufferInfo info);
+
+    /**
+     * Finishes the file and releases the backend, which can not be reused.
+     */
+    void stop();
+}
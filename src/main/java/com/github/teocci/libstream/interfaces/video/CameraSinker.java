@@ -2,6 +2,7 @@ package com.github.teocci.libstream.interfaces.video;
 
 
 import com.github.teocci.libstream.input.video.Frame;
+import com.github.teocci.libstream.input.video.FrameBuffer;
 
 /**
  * Created by teocci.
@@ -14,4 +15,9 @@ public interface CameraSinker
     void onYUVData(byte[] buffer);
 
     void onYUVData(Frame frame);
+
+    /**
+     * Receives a pooled frame, the sinker retains it if it keeps it after the call.
+     */
+    void onYUVData(FrameBuffer frame);
 }
@@ -1,12 +1,19 @@
 package com.github.teocci.libstream.protocols.rtsp.rtsp;
 
 import android.media.MediaCodec;
+import android.os.Handler;
+import android.os.Looper;
 
+import com.github.teocci.libstream.coder.FrameInfo;
 import com.github.teocci.libstream.enums.Protocol;
 import com.github.teocci.libstream.input.audio.AudioQuality;
 import com.github.teocci.libstream.interfaces.ConnectCheckerRtsp;
+import com.github.teocci.libstream.interfaces.RtcpListener;
+import com.github.teocci.libstream.protocols.rtsp.rtcp.AdaptiveBitrateController;
+import com.github.teocci.libstream.protocols.rtsp.rtcp.RtcpReceiverTcp;
 import com.github.teocci.libstream.protocols.rtsp.rtp.packets.AacPacket;
 import com.github.teocci.libstream.protocols.rtsp.rtp.packets.H264Packet;
+import com.github.teocci.libstream.protocols.rtsp.rtp.packets.HevcPacket;
 import com.github.teocci.libstream.utils.LogHelper;
 import com.github.teocci.libstream.utils.rtsp.AuthUtil;
 import com.github.teocci.libstream.utils.rtsp.CreateSSLSocket;
@@ -24,6 +31,7 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import static com.github.teocci.libstream.enums.Protocol.UDP;
+import static com.github.teocci.libstream.utils.rtsp.RtpConstants.RTX_PAYLOAD_TYPE;
 
 /**
  * Created by teocci.
@@ -58,7 +66,20 @@ public class RtspClient
     private BufferedWriter writer;
     private Thread thread;
 
+    // Feedback of the server
+    private volatile RtcpListener rtcpListener;
+    private RtcpReceiverTcp rtcpReceiver;
+
     private AudioQuality audioQuality = AudioQuality.DEFAULT;
+    private long audioMaxLatency = 0;
+
+    // Retransmission of the video packets NACKed by the server, over UDP
+    private int retransmissionHistory = 0;
+    private boolean retransmissionRtx = false;
+
+    // Descriptors handed to the packetizers, one per encoder thread
+    private final FrameInfo videoInfo = new FrameInfo();
+    private final FrameInfo audioInfo = new FrameInfo();
 
     private volatile boolean streaming = false;
 
@@ -69,6 +90,8 @@ public class RtspClient
     {
         this.connectCheckerRtsp = connectCheckerRtsp;
         this.currentSession = new Session();
+        // The callbacks of the session are called on the UI thread
+        currentSession.setCallbackExecutor(new Handler(Looper.getMainLooper())::post);
     }
 
     public void setProtocol(Protocol protocol)
@@ -113,6 +136,30 @@ public class RtspClient
         audioQuality.sampleRate = sampleRate;
     }
 
+    /**
+     * Sets how long an audio frame may wait for the next ones to share its RTP packet,
+     * 0 by default. It applies from the next connection.
+     *
+     * @param maxLatency The latency bound in ms
+     */
+    public void setAudioMaxLatency(long maxLatency)
+    {
+        this.audioMaxLatency = maxLatency;
+    }
+
+    /**
+     * Keeps the last video packets sent over UDP, and resends the ones the server reports
+     * lost in its generic NACKs. It applies from the next connection, and never over TCP.
+     *
+     * @param historySize The number of packets kept, 0 to disable the retransmissions
+     * @param rtx         true to resend them in a separate RTX stream, see RFC 4588
+     */
+    public void setRetransmission(int historySize, boolean rtx)
+    {
+        this.retransmissionHistory = historySize;
+        this.retransmissionRtx = rtx;
+    }
+
     public String getHost()
     {
         return host;
@@ -143,16 +190,40 @@ public class RtspClient
         audioQuality.channel = channel;
     }
 
+    /**
+     * Sets the listener of the RTCP reports sent back by the server, e.g. an
+     * {@link com.github.teocci.libstream.protocols.rtsp.rtcp.AdaptiveBitrateController}.
+     * It applies from the next connection.
+     */
+    public void setRtcpListener(RtcpListener listener)
+    {
+        this.rtcpListener = listener;
+    }
+
     public void connect()
     {
         if (!streaming) {
-            currentSession.h264Packet = new H264Packet(currentSession);
+            // H264 has no vps, so if there is one the stream is H265
+            currentSession.videoPacket = currentSession.vps != null ?
+                    new HevcPacket(currentSession) :
+                    new H264Packet(currentSession);
             if (currentSession.sps != null && currentSession.pps != null) {
-                currentSession.h264Packet.setPSPair(currentSession.sps, currentSession.pps);
+                currentSession.videoPacket.setParameterSets(
+                        currentSession.sps,
+                        currentSession.pps,
+                        currentSession.vps
+                );
+            }
+            if (retransmissionHistory > 0 && !currentSession.isTCP()) {
+                currentSession.videoPacket.setRetransmission(
+                        retransmissionHistory,
+                        retransmissionRtx ? RTX_PAYLOAD_TYPE : -1
+                );
             }
 
             currentSession.aacPacket = new AacPacket(currentSession);
             currentSession.aacPacket.setSampleRate(audioQuality.sampleRate);
+            currentSession.aacPacket.setMaxLatency(audioMaxLatency);
             thread = new Thread(() -> {
                 try {
                     if (!tlsEnabled) {
@@ -217,6 +288,7 @@ public class RtspClient
                     getResponse(false, true);
 
                     currentSession.updateDestination();
+                    startRtcpReceiver();
 //                    connectCheckerRtsp.onConnectionSuccessRtsp();
 
                     streaming = true;
@@ -244,13 +316,41 @@ public class RtspClient
                 streaming = false;
             });
             thread.start();
-            if (currentSession.h264Packet != null && currentSession.aacPacket != null) {
-                currentSession.h264Packet.close();
+            if (rtcpReceiver != null) {
+                rtcpReceiver.stop();
+                rtcpReceiver = null;
+            }
+            if (currentSession.videoPacket != null && currentSession.aacPacket != null) {
+                currentSession.videoPacket.close();
                 currentSession.aacPacket.close();
             }
             cseq = 0;
             currentSession.sps = null;
             currentSession.pps = null;
+            currentSession.vps = null;
+        }
+    }
+
+    /**
+     * Listens to the RTCP reports of the server: interleaved in the RTSP connection over
+     * TCP, on the RTCP port of each track over UDP.
+     */
+    private void startRtcpReceiver() throws IOException
+    {
+        RtcpListener listener = rtcpListener;
+        if (listener == null) return;
+
+        if (listener instanceof AdaptiveBitrateController) {
+            ((AdaptiveBitrateController) listener).setSsrc(currentSession.getSSRC(Session.STREAM_VIDEO));
+        }
+
+        if (currentSession.isTCP()) {
+            // The RTSP responses are all read, the rest of the connection is interleaved data
+            rtcpReceiver = new RtcpReceiverTcp(connectionSocket.getInputStream(), listener);
+            rtcpReceiver.start();
+        } else {
+            currentSession.aacPacket.setRtcpListener(listener, Session.STREAM_AUDIO);
+            currentSession.videoPacket.setRtcpListener(listener, Session.STREAM_VIDEO);
         }
     }
 
@@ -271,7 +371,8 @@ public class RtspClient
 
     private String sendSetup(int track, Protocol protocol)
     {
-        int[] ports = currentSession.getDestinationPorts(track);
+        // The ports the track is sent from, the server sends its RTCP feedback back to them
+        int[] ports = currentSession.getLocalPorts(track);
         String params = (protocol == UDP) ?
                 ("UDP;unicast;client_port=" + ports[0] + "-" + ports[1] + ";mode=record") :
                 ("TCP;interleaved=" + 2 * track + "-" + (2 * track + 1) + ";mode=record");
@@ -428,14 +529,16 @@ public class RtspClient
     public void sendVideo(ByteBuffer h264Buffer, MediaCodec.BufferInfo info)
     {
         if (isStreaming()) {
-            currentSession.h264Packet.createAndSendPacket(h264Buffer, info);
+            videoInfo.set(info.offset, info.size, info.presentationTimeUs, info.flags);
+            currentSession.videoPacket.createAndSendPacket(h264Buffer, videoInfo);
         }
     }
 
     public void sendAudio(ByteBuffer aacBuffer, MediaCodec.BufferInfo info)
     {
         if (isStreaming()) {
-            currentSession.aacPacket.createAndSendPacket(aacBuffer, info);
+            audioInfo.set(info.offset, info.size, info.presentationTimeUs, info.flags);
+            currentSession.aacPacket.createAndSendPacket(aacBuffer, audioInfo);
         }
     }
 }
\ No newline at end of file
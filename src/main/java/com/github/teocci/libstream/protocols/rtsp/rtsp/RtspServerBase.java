@@ -4,19 +4,19 @@ import android.app.Service;
 import android.content.Intent;
 import android.media.MediaCodec;
 
+import com.github.teocci.libstream.coder.FrameInfo;
 import com.github.teocci.libstream.enums.Protocol;
-import com.github.teocci.libstream.input.audio.AudioQuality;
 import com.github.teocci.libstream.interfaces.ConnectCheckerRtsp;
+import com.github.teocci.libstream.interfaces.RtcpListener;
 import com.github.teocci.libstream.interfaces.RtspCallback;
-import com.github.teocci.libstream.threads.RequestWorker;
+import com.github.teocci.libstream.interfaces.RtspServerListener;
+import com.github.teocci.libstream.protocols.rtsp.rtp.packets.AacPacket;
+import com.github.teocci.libstream.protocols.rtsp.rtp.packets.VideoPacket;
+import com.github.teocci.libstream.protocols.rtsp.rtp.ring.RtpPacketRing;
 import com.github.teocci.libstream.utils.LogHelper;
 
 import java.nio.ByteBuffer;
 import java.util.LinkedList;
-import java.util.Map;
-import java.util.WeakHashMap;
-
-import static com.github.teocci.libstream.enums.Protocol.TCP;
 
 /**
  * TODO: active implementation
@@ -26,35 +26,41 @@ import static com.github.teocci.libstream.enums.Protocol.TCP;
  * It allows remote control of an android device cameras & microphone.
  * For each connected client, a Session is instantiated.
  * The Session will start or stop streams according to what the client wants.
+ * <p>
+ * The encoded data is packetized once, by a packetizer per track, and the packets are
+ * handed to every playing Session of the {@link SessionRegistry}.
+ * <p>
+ * The server itself is a {@link RtspServerCore}, this Service only wraps it and
+ * forwards its events to the {@link RtspCallback} listeners.
  */
-public abstract class RtspServerBase extends Service
+public abstract class RtspServerBase extends Service implements RtspServerListener
 {
     private static String TAG = LogHelper.makeLogTag(RtspServerBase.class);
 
     /**
      * Port used by default.
      */
-    public static final int DEFAULT_RTSP_PORT = 8086;
+    public static final int DEFAULT_RTSP_PORT = RtspServerCore.DEFAULT_RTSP_PORT;
 
     /**
      * Port already in use.
      */
-    public final static int ERROR_BIND_FAILED = 0x00;
+    public final static int ERROR_BIND_FAILED = RtspServerCore.ERROR_BIND_FAILED;
 
     /**
      * A stream could not be started.
      */
-    public final static int ERROR_START_FAILED = 0x01;
+    public final static int ERROR_START_FAILED = RtspServerCore.ERROR_START_FAILED;
 
     /**
      * Streaming started.
      */
-    public final static int MESSAGE_STREAMING_STARTED = 0X00;
+    public final static int MESSAGE_STREAMING_STARTED = RtspServerCore.MESSAGE_STREAMING_STARTED;
 
     /**
      * Streaming stopped.
      */
-    public final static int MESSAGE_STREAMING_STOPPED = 0X01;
+    public final static int MESSAGE_STREAMING_STOPPED = RtspServerCore.MESSAGE_STREAMING_STOPPED;
 
 //    /** Key used in the SharedPreferences to store whether the RTSP server is enabled or not. */
 //    public final static String KEY_ENABLED = "rtsp_enabled";
@@ -62,34 +68,21 @@ public abstract class RtspServerBase extends Service
 //    /** Key used in the SharedPreferences for the port used by the RTSP server. */
 //    public final static String KEY_PORT = "rtsp_port";
 
-    protected int rtspPort = DEFAULT_RTSP_PORT;
+    protected final RtspServerCore core = new RtspServerCore(this);
 
-    private ConnectCheckerRtsp connectCheckerRtsp;
-
-    public Map<Session, Object> sessions = new WeakHashMap<>(2);
+    public final SessionRegistry sessions = core.sessions;
 
     private final LinkedList<RtspCallback> listeners = new LinkedList<>();
 
-    private RequestWorker requestWorker;
-//    private final IBinder binder;
-
-    public Session currentSession;
-
-    public Protocol protocol = TCP;
-
-    public ByteBuffer sps, pps, vps;
+    // Descriptors handed to the packetizers, one per encoder thread
+    private final FrameInfo videoInfo = new FrameInfo();
+    private final FrameInfo audioInfo = new FrameInfo();
 
-    private AudioQuality audioQuality = AudioQuality.DEFAULT;
+//    private final IBinder binder;
 
     protected boolean enabled = true;
     private boolean restart = false;
 
-    private volatile boolean loaded = false;
-    public volatile boolean streaming = false;
-    public volatile boolean running = false;
-
-    public RtspServerBase() {}
-
 //    @Override
 //    public IBinder onBind(Intent intent)
 //    {
@@ -119,6 +112,18 @@ public abstract class RtspServerBase extends Service
         return START_STICKY;
     }
 
+    @Override
+    public void onMessage(int message)
+    {
+        postMessage(message);
+    }
+
+    @Override
+    public void onError(Exception e, int error)
+    {
+        postError(e, error);
+    }
+
     public void postMessage(int id)
     {
         synchronized (listeners) {
@@ -165,7 +170,7 @@ public abstract class RtspServerBase extends Service
      */
     public int getPort()
     {
-        return rtspPort;
+        return core.getPort();
     }
 
     /**
@@ -175,7 +180,8 @@ public abstract class RtspServerBase extends Service
      */
     public void setPort(int port)
     {
-        rtspPort = port;
+        if (port != core.getPort()) restart = true;
+        core.setPort(port);
 //        Editor editor = sharedPreferences.edit();
 //        editor.putString(KEY_RTSP_PORT, String.valueOf(port));
 //        editor.apply();
@@ -189,12 +195,10 @@ public abstract class RtspServerBase extends Service
     {
         LogHelper.e(TAG, "start()");
         if (!enabled || restart) stop();
-        if (enabled && requestWorker == null) {
+        if (enabled && !core.isRunning()) {
             try {
-                requestWorker = new RequestWorker(this, rtspPort);
-                LogHelper.e(TAG, "RequestWorker() called");
+                core.start();
             } catch (Exception e) {
-                requestWorker = null;
                 postMessage(MESSAGE_STREAMING_STOPPED);
             }
         }
@@ -207,20 +211,7 @@ public abstract class RtspServerBase extends Service
      */
     public void stop()
     {
-        if (requestWorker != null) {
-            try {
-                requestWorker.kill();
-                for (Session session : sessions.keySet()) {
-                    if (session != null && session.isStreaming()) {
-                        session.stop();
-                    }
-                }
-            } catch (Exception ignore) {
-            } finally {
-                requestWorker = null;
-                postMessage(MESSAGE_STREAMING_STOPPED);
-            }
-        }
+        core.stop();
     }
 
     public void postError(Exception exception, int id)
@@ -236,90 +227,151 @@ public abstract class RtspServerBase extends Service
 
     public void setConnectCheckerRtsp(ConnectCheckerRtsp connectCheckerRtsp)
     {
-        this.connectCheckerRtsp = connectCheckerRtsp;
+        core.setConnectCheckerRtsp(connectCheckerRtsp);
     }
 
+    /**
+     * Sets the Basic authorization required by the next requests.
+     *
+     * @param user     username
+     * @param password password
+     */
     public void setAuthorization(String user, String password)
     {
-        currentSession.user = user;
-        currentSession.password = password;
+        core.setAuthorization(user, password);
     }
 
     public void setChannel(int channel)
     {
-        this.audioQuality.channel = channel;
+        core.setChannel(channel);
+    }
+
+    /**
+     * Sets the memory kept for the last GOP of the video, 0 to disable the cache.
+     */
+    public void setGopCacheSize(int maxBytes)
+    {
+        core.setGopCacheSize(maxBytes);
+    }
+
+    /**
+     * Paces the GOP sent to the new clients, 0 to send it at once.
+     */
+    public void setGopBurstRate(int bytesPerSecond)
+    {
+        core.setGopBurstRate(bytesPerSecond);
+    }
+
+    /**
+     * Receives the RTCP reports the clients send over TCP.
+     */
+    public void setRtcpListener(RtcpListener listener)
+    {
+        core.setRtcpListener(listener);
     }
 
     public void setSampleRate(int sampleRate)
     {
-        this.audioQuality.sampleRate = sampleRate;
+        core.setSampleRate(sampleRate);
     }
 
-//    public void setSPSandPPS(ByteBuffer sps, ByteBuffer pps)
-//    {
-//        sendAVCInfo(sps, pps);
-//    }
+    /**
+     * Sets how long an audio frame may wait for the next ones to share its RTP packet.
+     */
+    public void setAudioMaxLatency(long maxLatency)
+    {
+        core.setAudioMaxLatency(maxLatency);
+    }
 
     public void sendVideo(ByteBuffer h264Buffer, MediaCodec.BufferInfo info)
     {
         if (h264Buffer == null || info == null) return;
-        if (currentSession == null) return;
-        if (currentSession.h264Packet == null) return;
 
         if (isStreaming() && isLoaded()) {
-            currentSession.h264Packet.createAndSendPacket(h264Buffer, info);
+            videoInfo.set(info.offset, info.size, info.presentationTimeUs, info.flags);
+            core.getVideoPacket().createAndSendPacket(h264Buffer, videoInfo);
         }
     }
 
     public void sendAudio(ByteBuffer aacBuffer, MediaCodec.BufferInfo info)
     {
         if (aacBuffer == null || info == null) return;
-        if (currentSession == null) return;
-        if (currentSession.aacPacket == null) return;
 
         if (isStreaming() && isLoaded()) {
-            currentSession.aacPacket.createAndSendPacket(aacBuffer, info);
+            audioInfo.set(info.offset, info.size, info.presentationTimeUs, info.flags);
+            core.getAudioPacket().createAndSendPacket(aacBuffer, audioInfo);
         }
     }
 
     public void setAVCInfo(ByteBuffer sps, ByteBuffer pps, ByteBuffer vps)
     {
-        if (sps == null && pps == null) return;
-        this.sps = sps;
-        this.pps = pps;
-        this.vps = vps;
-
-        loaded = true;
+        core.setAVCInfo(sps, pps, vps);
     }
 
     public void setProtocol(Protocol protocol)
     {
-        this.protocol = protocol;
+        core.setProtocol(protocol);
     }
 
-    public void setCurrentSession(Session currentSession)
+    public ConnectCheckerRtsp getConnectCheckerRtsp()
     {
-        this.currentSession = currentSession;
+        return core.getConnectCheckerRtsp();
     }
 
-    public ConnectCheckerRtsp getConnectCheckerRtsp()
+    public Protocol getProtocol()
     {
-        return connectCheckerRtsp;
+        return core.getProtocol();
     }
 
-    public Protocol getProtocol()
+    public VideoPacket getVideoPacket()
+    {
+        return core.getVideoPacket();
+    }
+
+    public AacPacket getAudioPacket()
     {
-        return protocol;
+        return core.getAudioPacket();
+    }
+
+    /**
+     * Returns the ring holding the last video packets, with its occupancy and drop counters.
+     */
+    public RtpPacketRing getVideoRing()
+    {
+        return core.getVideoRing();
+    }
+
+    /**
+     * Returns the ring holding the last audio packets, with its occupancy and drop counters.
+     */
+    public RtpPacketRing getAudioRing()
+    {
+        return core.getAudioRing();
+    }
+
+    public String getUser()
+    {
+        return core.getUser();
+    }
+
+    public String getPassword()
+    {
+        return core.getPassword();
     }
 
     public int getSampleRate()
     {
-        return audioQuality.sampleRate;
+        return core.getSampleRate();
     }
 
     public int getChannel()
     {
-        return audioQuality.channel;
+        return core.getChannel();
+    }
+
+    public RtspServerCore getCore()
+    {
+        return core;
     }
 
     public RtspServerBase getService()
@@ -327,24 +379,6 @@ public abstract class RtspServerBase extends Service
         return this;
     }
 
-//    /**
-//     * By default the RTSP uses {@link UriParser} to parse the URI requested by the client
-//     * but you can change that behavior by override this method.
-//     *
-//     * @param uri    The uri that the client has requested
-//     * @param client The socket associated to the client
-//     * @return A proper session
-//     */
-//    public Session handleRequest(String uri, Socket client) throws IllegalStateException, IOException
-//    {
-//        Session session = UriParser.parse(uri);
-//        session.setOrigin(client.getLocalAddress().getHostAddress());
-//        if (session.getDestination() == null) {
-//            session.setDestination(client.getInetAddress().getHostAddress());
-//        }
-//        return session;
-//    }
-
     public boolean isEnabled()
     {
         return enabled;
@@ -352,7 +386,7 @@ public abstract class RtspServerBase extends Service
 
     public boolean isLoaded()
     {
-        return loaded;
+        return core.isLoaded();
     }
 
     /**
@@ -360,18 +394,11 @@ public abstract class RtspServerBase extends Service
      */
     public boolean isStreaming()
     {
-//        for (Session session : sessions.keySet()) {
-//            if (session != null && session.isStreaming()) {
-//                return true;
-//            }
-//        }
-//
-//        return false;
-        return streaming;
+        return core.isStreaming();
     }
 
     public boolean isRunning()
     {
-        return running;
+        return core.isRunning();
     }
-}
\ No newline at end of file
+}
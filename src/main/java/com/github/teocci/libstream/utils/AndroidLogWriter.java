@@ -0,0 +1,46 @@
+package com.github.teocci.libstream.utils;
+
+import android.util.Log;
+
+import com.github.teocci.libstream.BuildConfig;
+import com.github.teocci.libstream.interfaces.LogWriter;
+
+import java.io.IOException;
+
+/**
+ * Writes the logs of {@link LogHelper} to logcat. LogHelper instantiates it by name when it
+ * is loaded, the core having no Android dependency.
+ * <p>
+ * Created by teocci.
+ *
+ * @author teocci@yandex.com on 2019-Jun-26
+ */
+public class AndroidLogWriter implements LogWriter
+{
+    @Override
+    public boolean isLoggable(String tag, int level)
+    {
+        // Only log VERBOSE and DEBUG if build type is DEBUG
+        return (level > Log.DEBUG || BuildConfig.DEBUG) && Log.isLoggable(tag, level);
+    }
+
+    @Override
+    public void println(int level, String tag, String message)
+    {
+        Log.println(level, tag, message);
+    }
+
+    @Override
+    public void onTag(String tag)
+    {
+        int pid = android.os.Process.myPid();
+        String whiteList = "logcat -P '" + pid + "'";
+        try {
+            Runtime.getRuntime().exec(whiteList).waitFor();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -10,6 +10,7 @@ import com.github.teocci.libstream.input.video.Frame;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Created by teocci.
@@ -57,12 +58,19 @@ import java.io.IOException;
  * <p>
  * https://wiki.videolan.org/YUV/#I420
  * https://www.fourcc.org/yuv.php
+ * <p>
+ * The methods taking an output buffer are thread-safe and do not allocate, see
+ * {@link YUVKernels}. The others return buffers shared by all the threads.
  *
  * @author teocci@yandex.com on 2017-Jan-14
  */
 
 public class YUVUtil
 {
+    /**
+     * @deprecated Use the methods taking an output buffer.
+     */
+    @Deprecated
     public static void preAllocateBuffers(int length)
     {
         NV21Utils.preAllocateBuffers(length);
@@ -77,7 +85,9 @@ public class YUVUtil
      * @param height height of the frame
      * @param format yuv pixel format to be converted
      * @return converted yuv pixel format buffer
+     * @deprecated Use {@link #NV21toYUV420byColor(byte[], byte[], int, int, FormatVideoEncoder)}.
      */
+    @Deprecated
     public static byte[] NV21toYUV420byColor(byte[] input, int width, int height, FormatVideoEncoder format)
     {
         switch (format) {
@@ -106,7 +116,9 @@ public class YUVUtil
      * @param height height of the frame
      * @param format yuv pixel format to be converted
      * @return converted yuv pixel format buffer
+     * @deprecated Use {@link #YV12toYUV420byColor(byte[], byte[], int, int, FormatVideoEncoder)}.
      */
+    @Deprecated
     public static byte[] YV12toYUV420byColor(byte[] input, int width, int height, FormatVideoEncoder format)
     {
         switch (format) {
@@ -127,13 +139,257 @@ public class YUVUtil
         }
     }
 
+    /**
+     * Converts a NV21 frame buffer to the format requested
+     *
+     * @param input  NV21 yuv pixel format buffer
+     * @param output buffer of the converted frame, at least width * height * 3 / 2 bytes
+     * @param width  width of the frame
+     * @param height height of the frame
+     * @param format yuv pixel format to be converted
+     * @return output, input if it is already in that format, or null if the format is not supported
+     */
+    public static byte[] NV21toYUV420byColor(byte[] input, byte[] output, int width, int height,
+                                             FormatVideoEncoder format)
+    {
+        switch (format) {
+            case YUV420PLANAR:
+                YUVKernels.nv21ToI420(input, width, output, width, width, height);
+                return output;
+            case YUV420SEMIPLANAR:
+                YUVKernels.nv21ToNV12(input, width, output, width, width, height);
+                return output;
+            case YUV420PACKEDPLANAR:
+                YUVKernels.nv21ToYV12(input, width, output, width, width, height);
+                return output;
+            case YUV420PACKEDSEMIPLANAR:
+                return input;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Converts a NV21 frame buffer to the format requested, e.g. right into the input
+     * buffer of the encoder, from its position.
+     *
+     * @return the number of bytes written, or -1 if the format is not supported
+     */
+    public static int NV21toYUV420byColor(byte[] input, ByteBuffer output, int width, int height,
+                                          FormatVideoEncoder format)
+    {
+        switch (format) {
+            case YUV420PLANAR:
+                YUVKernels.nv21ToI420(input, width, output, width, width, height);
+                break;
+            case YUV420SEMIPLANAR:
+                YUVKernels.nv21ToNV12(input, width, output, width, width, height);
+                break;
+            case YUV420PACKEDPLANAR:
+                YUVKernels.nv21ToYV12(input, width, output, width, width, height);
+                break;
+            case YUV420PACKEDSEMIPLANAR:
+                YUVKernels.nv21ToNV21(input, width, output, width, width, height);
+                break;
+            default:
+                return -1;
+        }
+
+        return YUVKernels.frameSize(width, height);
+    }
+
+    /**
+     * Converts a YV12 frame buffer to the format requested
+     *
+     * @param input  YV12 yuv pixel format buffer
+     * @param output buffer of the converted frame, at least width * height * 3 / 2 bytes
+     * @param width  width of the frame
+     * @param height height of the frame
+     * @param format yuv pixel format to be converted
+     * @return output, input if it is already in that format, or null if the format is not supported
+     */
+    public static byte[] YV12toYUV420byColor(byte[] input, byte[] output, int width, int height,
+                                             FormatVideoEncoder format)
+    {
+        switch (format) {
+            case YUV420PLANAR:
+                YUVKernels.yv12ToI420(input, width, output, width, width, height);
+                return output;
+            case YUV420SEMIPLANAR:
+                YUVKernels.yv12ToNV12(input, width, output, width, width, height);
+                return output;
+            case YUV420PACKEDPLANAR:
+                return input;
+            case YUV420PACKEDSEMIPLANAR:
+                YUVKernels.yv12ToNV21(input, width, output, width, width, height);
+                return output;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Converts a YV12 frame buffer to the format requested, e.g. right into the input
+     * buffer of the encoder, from its position.
+     *
+     * @return the number of bytes written, or -1 if the format is not supported
+     */
+    public static int YV12toYUV420byColor(byte[] input, ByteBuffer output, int width, int height,
+                                          FormatVideoEncoder format)
+    {
+        switch (format) {
+            case YUV420PLANAR:
+                YUVKernels.yv12ToI420(input, width, output, width, width, height);
+                break;
+            case YUV420SEMIPLANAR:
+                YUVKernels.yv12ToNV12(input, width, output, width, width, height);
+                break;
+            case YUV420PACKEDPLANAR:
+                YUVKernels.yv12ToYV12(input, width, output, width, width, height);
+                break;
+            case YUV420PACKEDSEMIPLANAR:
+                YUVKernels.yv12ToNV21(input, width, output, width, width, height);
+                break;
+            default:
+                return -1;
+        }
+
+        return YUVKernels.frameSize(width, height);
+    }
+
+    /**
+     * @param data     frame buffer
+     * @param output   buffer of the rotated frame, at least width * height * 3 / 2 bytes
+     * @param width    width of the frame
+     * @param height   height of the frame
+     * @param rotation clockwise angle of rotation
+     * @return data if the rotation is 0, output otherwise, or null if the angle is not supported
+     */
+    public static byte[] rotateNV21(byte[] data, byte[] output, int width, int height, int rotation)
+    {
+        switch (rotation) {
+            case 0:
+                return data;
+            case 90:
+            case 180:
+            case 270:
+                int stride = rotation == 180 ? width : height;
+                YUVKernels.rotateNV21(data, width, output, stride, width, height, rotation);
+                return output;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @param data     frame buffer
+     * @param output   buffer of the rotated frame, at least width * height * 3 / 2 bytes
+     * @param width    width of the frame
+     * @param height   height of the frame
+     * @param rotation clockwise angle of rotation
+     * @return data if the rotation is 0, output otherwise, or null if the angle is not supported
+     */
+    public static byte[] rotateYV12(byte[] data, byte[] output, int width, int height, int rotation)
+    {
+        switch (rotation) {
+            case 0:
+                return data;
+            case 90:
+            case 180:
+            case 270:
+                int stride = rotation == 180 ? width : height;
+                YUVKernels.rotateYV12(data, width, output, stride, width, height, rotation);
+                return output;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Rotates a NV21 frame and converts it to the format requested in a single pass.
+     * The rotated frame is height wide for 90 and 270 degrees.
+     *
+     * @param input    NV21 yuv pixel format buffer
+     * @param output   buffer of the rotated frame, at least width * height * 3 / 2 bytes
+     * @param width    width of the frame
+     * @param height   height of the frame
+     * @param rotation clockwise angle of rotation
+     * @param format   yuv pixel format to be converted
+     * @return the number of bytes written, or -1 if the format or the angle is not supported
+     */
+    public static int rotateNV21toYUV420byColor(byte[] input, byte[] output, int width, int height, int rotation,
+                                                FormatVideoEncoder format)
+    {
+        if (rotation != 0 && rotation != 90 && rotation != 180 && rotation != 270) return -1;
+
+        int stride = rotation == 90 || rotation == 270 ? height : width;
+        switch (format) {
+            case YUV420PLANAR:
+                YUVKernels.rotateNV21ToI420(input, width, output, stride, width, height, rotation);
+                break;
+            case YUV420SEMIPLANAR:
+                YUVKernels.rotateNV21ToNV12(input, width, output, stride, width, height, rotation);
+                break;
+            case YUV420PACKEDPLANAR:
+                YUVKernels.rotateNV21ToYV12(input, width, output, stride, width, height, rotation);
+                break;
+            case YUV420PACKEDSEMIPLANAR:
+                YUVKernels.rotateNV21(input, width, output, stride, width, height, rotation);
+                break;
+            default:
+                return -1;
+        }
+
+        return YUVKernels.frameSize(width, height);
+    }
+
+    /**
+     * Rotates a YV12 frame and converts it to the format requested in a single pass.
+     * The rotated frame is height wide for 90 and 270 degrees.
+     *
+     * @param input    YV12 yuv pixel format buffer
+     * @param output   buffer of the rotated frame, at least width * height * 3 / 2 bytes
+     * @param width    width of the frame
+     * @param height   height of the frame
+     * @param rotation clockwise angle of rotation
+     * @param format   yuv pixel format to be converted
+     * @return the number of bytes written, or -1 if the format or the angle is not supported
+     */
+    public static int rotateYV12toYUV420byColor(byte[] input, byte[] output, int width, int height, int rotation,
+                                                FormatVideoEncoder format)
+    {
+        if (rotation != 0 && rotation != 90 && rotation != 180 && rotation != 270) return -1;
+
+        int stride = rotation == 90 || rotation == 270 ? height : width;
+        switch (format) {
+            case YUV420PLANAR:
+                YUVKernels.rotateYV12ToI420(input, width, output, stride, width, height, rotation);
+                break;
+            case YUV420SEMIPLANAR:
+                YUVKernels.rotateYV12ToNV12(input, width, output, stride, width, height, rotation);
+                break;
+            case YUV420PACKEDPLANAR:
+                YUVKernels.rotateYV12(input, width, output, stride, width, height, rotation);
+                break;
+            case YUV420PACKEDSEMIPLANAR:
+                YUVKernels.rotateYV12ToNV21(input, width, output, stride, width, height, rotation);
+                break;
+            default:
+                return -1;
+        }
+
+        return YUVKernels.frameSize(width, height);
+    }
+
     /**
      * @param data     frame buffer
      * @param width    width of the frame
      * @param height   height of the frame
      * @param rotation angle of rotation
      * @return rotated frame buffer
+     * @deprecated Use {@link #rotateNV21(byte[], byte[], int, int, int)}.
      */
+    @Deprecated
     public static byte[] rotateNV21(byte[] data, int width, int height, int rotation)
     {
         switch (rotation) {
@@ -156,7 +412,9 @@ public class YUVUtil
      * @param height   height of the frame
      * @param rotation angle of rotation
      * @return rotated frame buffer
+     * @deprecated Use {@link #rotateYV12(byte[], byte[], int, int, int)}.
      */
+    @Deprecated
     public static byte[] rotateYV12(byte[] data, int width, int height, int rotation)
     {
         switch (rotation) {
@@ -186,16 +444,26 @@ public class YUVUtil
         int w = (orientation == 90 || orientation == 270) ? height : width;
         int h = (orientation == 90 || orientation == 270) ? width : height;
 
-        int[] argb = NV21Utils.toARGB(rotateNV21(frame.getBuffer(), width, height, orientation), w, h);
+        byte[] rotated = rotateNV21(frame.getBuffer(), new byte[width * height * 3 / 2], width, height, orientation);
+        int[] argb = NV21Utils.toARGB(rotated, w, h);
 
         return Bitmap.createBitmap(argb, w, h, Bitmap.Config.ARGB_8888);
     }
 
     public static byte[] ARGBtoNV12(int[] input, int width, int height)
+    {
+        return ARGBtoNV12(input, new byte[width * height * 3 / 2], width, height);
+    }
+
+    /**
+     * @param output buffer of the NV12 frame, at least width * height * 3 / 2 bytes
+     * @return output
+     */
+    public static byte[] ARGBtoNV12(int[] input, byte[] output, int width, int height)
     {
         // COLOR_FormatYUV420SemiPlanar is NV12
         final int frameSize = width * height;
-        byte[] yuv420sp = new byte[width * height * 3 / 2];
+        byte[] yuv420sp = output;
         int yIndex = 0;
         int uvIndex = frameSize;
 
@@ -232,83 +500,55 @@ public class YUVUtil
     public static byte[] CropYUV(int srcFormat, byte[] srcYUV, int srcWidth, int srcHeight, int dstWidth, int dstHeight)
     {
         if (srcYUV == null) return null;
-        byte[] dstYUV;
 
         // Simple implementation: copy the corner
-        if (srcWidth == dstWidth && srcHeight == dstHeight) {
-            dstYUV = srcYUV;
-        } else {
-            dstYUV = new byte[(int) (dstWidth * dstHeight * 1.5)];
-            switch (srcFormat) {
-                case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar: // I420
-                case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420PackedPlanar: // YV12
-                    // Copy Y
-                    int srcYOffset = 0;
-                    int dstYOffset = 0;
-                    for (int i = 0; i < dstHeight; i++) {
-                        System.arraycopy(srcYUV, srcYOffset, dstYUV, dstYOffset, dstWidth);
-                        srcYOffset += srcWidth;
-                        dstYOffset += dstWidth;
-                    }
-
-                    // Copy u
-                    int srcUOffset = 0;
-                    int dstUOffset = 0;
-                    srcYOffset = srcWidth * srcHeight;
-                    dstYOffset = dstWidth * dstHeight;
-                    for (int i = 0; i < dstHeight / 2; i++) {
-                        int srcPos = srcYOffset + srcUOffset;
-                        int dstPos = dstYOffset + dstUOffset;
-                        System.arraycopy(srcYUV, srcPos, dstYUV, dstPos, dstWidth / 2);
-                        srcUOffset += srcWidth / 2;
-                        dstUOffset += dstWidth / 2;
-                    }
-
-                    // Copy v
-                    int srcVOffset = 0;
-                    int dstVOffset = 0;
-                    srcUOffset = srcWidth * srcHeight + srcWidth * srcHeight / 4;
-                    dstUOffset = dstWidth * dstHeight + dstWidth * dstHeight / 4;
-                    for (int i = 0; i < dstHeight / 2; i++) {
-                        int srcPos = srcUOffset + srcVOffset;
-                        int dstPos = dstUOffset + dstVOffset;
-                        System.arraycopy(srcYUV, srcPos, dstYUV, dstPos, dstWidth / 2);
-                        srcVOffset += srcWidth / 2;
-                        dstVOffset += dstWidth / 2;
-                    }
-
-                    break;
-                case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar: // NV12
-                case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420PackedSemiPlanar: // NV21
-                case MediaCodecInfo.CodecCapabilities.COLOR_TI_FormatYUV420PackedSemiPlanar:
-                case MediaCodecInfo.CodecCapabilities.COLOR_QCOM_FormatYUV420SemiPlanar:
-                    // copy Y
-                    srcYOffset = 0;
-                    dstYOffset = 0;
-                    for (int i = 0; i < dstHeight; i++) {
-                        System.arraycopy(srcYUV, srcYOffset, dstYUV, dstYOffset, dstWidth);
-                        srcYOffset += srcWidth;
-                        dstYOffset += dstWidth;
-                    }
-
-                    // copy u and v
-                    srcUOffset = 0;
-                    dstUOffset = 0;
-                    srcYOffset = srcWidth * srcHeight;
-                    dstYOffset = dstWidth * dstHeight;
-                    for (int i = 0; i < dstHeight / 2; i++) {
-                        int srcPos = srcYOffset + srcUOffset;
-                        int dstPos = dstYOffset + dstUOffset;
-                        System.arraycopy(srcYUV, srcPos, dstYUV, dstPos, dstWidth);
-                        srcUOffset += srcWidth;
-                        dstUOffset += dstWidth;
-                    }
-
-                    break;
-                default:
-                    dstYUV = null;
-                    break;
-            }
+        if (srcWidth == dstWidth && srcHeight == dstHeight) return srcYUV;
+        return CropYUV(srcFormat, srcYUV, srcWidth, srcHeight, new byte[dstWidth * dstHeight * 3 / 2], dstWidth, dstHeight);
+    }
+
+    /**
+     * Copies the top left corner of the frame.
+     *
+     * @param dstYUV buffer of the cropped frame, at least dstWidth * dstHeight * 3 / 2 bytes
+     * @return dstYUV, or null if the format is not supported
+     */
+    public static byte[] CropYUV(int srcFormat, byte[] srcYUV, int srcWidth, int srcHeight,
+                                 byte[] dstYUV, int dstWidth, int dstHeight)
+    {
+        if (srcYUV == null) return null;
+
+        int srcSize = srcWidth * srcHeight;
+        int dstSize = dstWidth * dstHeight;
+        switch (srcFormat) {
+            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar: // I420
+            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420PackedPlanar: // YV12
+                // Copy Y, then both chroma planes
+                YUVKernels.copyPlane(srcYUV, 0, srcWidth, dstYUV, 0, dstWidth, dstWidth, dstHeight);
+                YUVKernels.copyPlane(
+                        srcYUV, srcSize, srcWidth / 2,
+                        dstYUV, dstSize, dstWidth / 2,
+                        dstWidth / 2, dstHeight / 2
+                );
+                YUVKernels.copyPlane(
+                        srcYUV, srcSize + srcSize / 4, srcWidth / 2,
+                        dstYUV, dstSize + dstSize / 4, dstWidth / 2,
+                        dstWidth / 2, dstHeight / 2
+                );
+                break;
+            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar: // NV12
+            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420PackedSemiPlanar: // NV21
+            case MediaCodecInfo.CodecCapabilities.COLOR_TI_FormatYUV420PackedSemiPlanar:
+            case MediaCodecInfo.CodecCapabilities.COLOR_QCOM_FormatYUV420SemiPlanar:
+                // Copy Y, then the interleaved u and v
+                YUVKernels.copyPlane(srcYUV, 0, srcWidth, dstYUV, 0, dstWidth, dstWidth, dstHeight);
+                YUVKernels.copyPlane(
+                        srcYUV, srcSize, srcWidth,
+                        dstYUV, dstSize, dstWidth,
+                        dstWidth, dstHeight / 2
+                );
+                break;
+            default:
+                return null;
         }
 
         return dstYUV;
@@ -332,7 +572,15 @@ public class YUVUtil
 
     public static byte[] rotatePixelsNV21(byte[] input, int width, int height, int rotation)
     {
-        byte[] output = new byte[input.length];
+        return rotatePixelsNV21(input, new byte[input.length], width, height, rotation);
+    }
+
+    /**
+     * @param output buffer of the same size as input, it can not be input
+     * @return output
+     */
+    public static byte[] rotatePixelsNV21(byte[] input, byte[] output, int width, int height, int rotation)
+    {
 
         boolean swap = (rotation == 90 || rotation == 270);
         boolean yFlip = (rotation == 90 || rotation == 180);
@@ -376,7 +624,15 @@ public class YUVUtil
 
     public static byte[] mirrorNV21(byte[] input, int width, int height)
     {
-        byte[] output = new byte[input.length];
+        return mirrorNV21(input, new byte[input.length], width, height);
+    }
+
+    /**
+     * @param output buffer of the same size as input, it can not be input
+     * @return output
+     */
+    public static byte[] mirrorNV21(byte[] input, byte[] output, int width, int height)
+    {
 
         for (int x = 0; x < width; x++) {
             for (int y = 0; y < height; y++) {